@@ -28,6 +28,8 @@ import gov.lanl.adore.djatoka.io.FormatWriterParams;
 import gov.lanl.adore.djatoka.io.IWriter;
 import gov.lanl.adore.djatoka.util.IOUtils;
 import gov.lanl.adore.djatoka.util.ImageProcessingUtils;
+import info.freelibrary.djatoka.decode.Cancellation;
+import info.freelibrary.djatoka.util.TempFileManager;
 
 import java.awt.image.BufferedImage;
 import java.io.BufferedOutputStream;
@@ -153,51 +155,59 @@ public class DjatokaExtractProcessor {
 
         if (input.equals(STDIN)) {
             try {
-                in = File.createTempFile("tmp", ".jp2");
+                in = TempFileManager.create("stdin-", ".jp2");
                 input = in.getAbsolutePath();
-                in.deleteOnExit();
                 IOUtils.copyFile(new File(STDIN), in);
             } catch (IOException e) {
                 if (LOGGER.isErrorEnabled()) {
                     LOGGER.error("Unable to process image from " + STDIN + ": " + e.getMessage());
                 }
 
+                if (in != null) {
+                    TempFileManager.release(in);
+                }
+
                 throw new DjatokaException(e.getMessage(), e);
             }
         }
 
-        BufferedImage bi = extractImpl.process(input, params);
-        if (bi != null) {
-            if (params.getScalingFactor() != 1.0 || params.getScalingDimensions() != null) {
-                bi = applyScaling(bi, params);
-            }
-
-            if (params.getTransform() != null) {
-                bi = params.getTransform().run(bi);
-            }
+        try {
+            BufferedImage bi = extractImpl.process(input, params);
+            if (bi != null) {
+                // Nobody's waiting for a cancelled region, so it isn't scaled or encoded
+                Cancellation.check();
 
-            try {
-                BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(new File(dest)));
-                w.write(bi, os);
-                os.close();
-            } catch (FileNotFoundException e) {
-                if (LOGGER.isErrorEnabled()) {
-                    LOGGER.error("Requested file was not found: " + dest);
+                if (params.getScalingFactor() != 1.0 || params.getScalingDimensions() != null) {
+                    bi = applyScaling(bi, params);
                 }
 
-                throw new DjatokaException(e.getMessage(), e);
-            } catch (IOException e) {
-                if (LOGGER.isErrorEnabled()) {
-                    LOGGER.error("Error attempting to close: " + dest);
+                if (params.getTransform() != null) {
+                    bi = params.getTransform().run(bi);
                 }
 
-                throw new DjatokaException(e.getMessage(), e);
-            }
-        }
+                Cancellation.check();
+
+                try {
+                    BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(new File(dest)));
+                    w.write(bi, os);
+                    os.close();
+                } catch (FileNotFoundException e) {
+                    if (LOGGER.isErrorEnabled()) {
+                        LOGGER.error("Requested file was not found: " + dest);
+                    }
 
-        if (in != null) {
-            if (!in.delete() && LOGGER.isWarnEnabled()) {
-                LOGGER.warn("File not deleted: {}", in);
+                    throw new DjatokaException(e.getMessage(), e);
+                } catch (IOException e) {
+                    if (LOGGER.isErrorEnabled()) {
+                        LOGGER.error("Error attempting to close: " + dest);
+                    }
+
+                    throw new DjatokaException(e.getMessage(), e);
+                }
+            }
+        } finally {
+            if (in != null) {
+                TempFileManager.release(in);
             }
         }
     }
@@ -218,36 +228,39 @@ public class DjatokaExtractProcessor {
         // If coming in from stdin, copy to tmp file
         if (input.equals(STDIN)) {
             try {
-                in = File.createTempFile("tmp", ".jp2");
+                in = TempFileManager.create("stdin-", ".jp2");
                 input = in.getAbsolutePath();
-                in.deleteOnExit();
                 IOUtils.copyFile(new File(STDIN), in);
             } catch (IOException e) {
                 if (LOGGER.isErrorEnabled()) {
                     LOGGER.error("Unable to process image from " + STDIN + ": " + e.getMessage());
                 }
 
+                if (in != null) {
+                    TempFileManager.release(in);
+                }
+
                 throw new DjatokaException(e.getMessage(), e);
             }
         }
 
-        BufferedImage bi = extractImpl.process(input, params);
-
-        if (bi != null) {
-            if (params.getScalingFactor() != 1.0 || params.getScalingDimensions() != null) {
-                bi = applyScaling(bi, params);
-            }
+        try {
+            BufferedImage bi = extractImpl.process(input, params);
 
-            if (params.getTransform() != null) {
-                bi = params.getTransform().run(bi);
-            }
+            if (bi != null) {
+                if (params.getScalingFactor() != 1.0 || params.getScalingDimensions() != null) {
+                    bi = applyScaling(bi, params);
+                }
 
-            w.write(bi, os);
-        }
+                if (params.getTransform() != null) {
+                    bi = params.getTransform().run(bi);
+                }
 
-        if (in != null) {
-            if (!in.delete() && LOGGER.isWarnEnabled()) {
-                LOGGER.warn("File not deleted: {}", in);
+                w.write(bi, os);
+            }
+        } finally {
+            if (in != null) {
+                TempFileManager.release(in);
             }
         }
     }
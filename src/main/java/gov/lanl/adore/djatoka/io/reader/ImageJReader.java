@@ -26,6 +26,7 @@ package gov.lanl.adore.djatoka.io.reader;
 import gov.lanl.adore.djatoka.io.FormatIOException;
 import gov.lanl.adore.djatoka.io.IReader;
 import gov.lanl.adore.djatoka.util.IOUtils;
+import info.freelibrary.djatoka.util.TempFileManager;
 
 import ij.ImagePlus;
 import ij.io.Opener;
@@ -72,10 +73,11 @@ public class ImageJReader implements IReader {
             }
 
             File path = IOUtils.createTempImage(input);
-            bi = open(path.getAbsolutePath());
 
-            if (!path.delete() && LOGGER.isWarnEnabled()) {
-                LOGGER.warn("File not deleted: {}", path);
+            try {
+                bi = open(path.getAbsolutePath());
+            } finally {
+                TempFileManager.release(path);
             }
         } else {
             if (LOGGER.isDebugEnabled()) {
@@ -28,6 +28,7 @@ import gov.lanl.adore.djatoka.util.IOUtils;
 import gov.lanl.adore.djatoka.util.ImageProcessingUtils;
 import gov.lanl.adore.djatoka.util.ImageRecord;
 import gov.lanl.adore.djatoka.util.ImageRecordUtils;
+import info.freelibrary.djatoka.util.TempFileManager;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
@@ -130,9 +131,7 @@ public class KduCompressExe implements ICompress {
             throw new DjatokaException(e.getMessage(), e);
         } finally {
             if (in != null) {
-                if (!in.delete() && LOGGER.isWarnEnabled()) {
-                    LOGGER.warn("File not deleted: {}", in);
-                }
+                TempFileManager.release(in);
             }
         }
     }
@@ -157,7 +156,7 @@ public class KduCompressExe implements ICompress {
         File out = null;
         try {
             in = IOUtils.createTempTiff(bi);
-            out = File.createTempFile("tmp", ".jp2");
+            out = TempFileManager.create("compress-", ".jp2");
             compressImage(in.getAbsolutePath(), out.getAbsolutePath(), params);
             IOUtils.copyStream(new FileInputStream(out), output);
         } catch (IOException e) {
@@ -166,16 +165,12 @@ public class KduCompressExe implements ICompress {
         } catch (Exception e) {
             LOGGER.error(e.getMessage(), e);
             throw new DjatokaException(e.getMessage(), e);
-        }
-
-        if (in != null) {
-            if (!in.delete() && LOGGER.isWarnEnabled()) {
-                LOGGER.warn("File not deleted: {}", in);
+        } finally {
+            if (in != null) {
+                TempFileManager.release(in);
             }
-        }
-        if (out != null) {
-            if (!out.delete() && LOGGER.isWarnEnabled()) {
-                LOGGER.warn("File not deleted: {}", out);
+            if (out != null) {
+                TempFileManager.release(out);
             }
         }
     }
@@ -192,25 +187,24 @@ public class KduCompressExe implements ICompress {
         if (params == null) {
             params = new DjatokaEncodeParam();
         }
-        File inputFile;
+        File inputFile = null;
         try {
-            inputFile = File.createTempFile("tmp", ".tif");
-            inputFile.deleteOnExit();
+            inputFile = TempFileManager.create("compress-", ".tif");
             IOUtils.copyStream(input, new FileOutputStream(inputFile));
             if (params.getLevels() == 0) {
                 ImageRecord dim = ImageRecordUtils.getImageDimensions(inputFile.getAbsolutePath());
                 params.setLevels(ImageProcessingUtils.getLevelCount(dim.getWidth(), dim.getHeight()));
                 dim = null;
             }
+
+            compressImage(inputFile.getAbsolutePath(), output, params);
         } catch (IOException e) {
             LOGGER.error(e.getMessage(), e);
             throw new DjatokaException(e.getMessage(), e);
-        }
-
-        compressImage(inputFile.getAbsolutePath(), output, params);
-
-        if (inputFile != null) {
-            inputFile.delete();
+        } finally {
+            if (inputFile != null) {
+                TempFileManager.release(inputFile);
+            }
         }
     }
 
@@ -229,7 +223,7 @@ public class KduCompressExe implements ICompress {
         }
         File inputFile = null;
         try {
-            inputFile = File.createTempFile("tmp", ".tif");
+            inputFile = TempFileManager.create("compress-", ".tif");
             IOUtils.copyStream(input, new FileOutputStream(inputFile));
             if (params.getLevels() == 0) {
                 ImageRecord dim = ImageRecordUtils.getImageDimensions(inputFile.getAbsolutePath());
@@ -245,7 +239,7 @@ public class KduCompressExe implements ICompress {
         File winOut = null;
         if (isWindows) {
             try {
-                winOut = File.createTempFile("pipe_", ".jp2");
+                winOut = TempFileManager.create("pipe-", ".jp2");
             } catch (IOException e) {
                 LOGGER.error(e.getMessage(), e);
                 throw new DjatokaException(e.getMessage(), e);
@@ -290,14 +284,10 @@ public class KduCompressExe implements ICompress {
         }
 
         if (inputFile != null) {
-            if (!inputFile.delete() && LOGGER.isWarnEnabled()) {
-                LOGGER.warn("File not deleted: {}", inputFile);
-            }
+            TempFileManager.release(inputFile);
         }
         if (winOut != null) {
-            if (!winOut.delete() && LOGGER.isWarnEnabled()) {
-                LOGGER.warn("File not deleted: {}", winOut);
-            }
+            TempFileManager.release(winOut);
         }
     }
 
@@ -376,9 +366,7 @@ public class KduCompressExe implements ICompress {
             throw new DjatokaException(e.getMessage(), e);
         } finally {
             if (tmp) {
-                if (!inputFile.delete() && LOGGER.isWarnEnabled()) {
-                    LOGGER.warn("File not deleted: {}", inputFile);
-                }
+                TempFileManager.release(inputFile);
             }
         }
 
@@ -30,7 +30,11 @@ import gov.lanl.adore.djatoka.util.ImageProcessingUtils;
 import gov.lanl.adore.djatoka.util.ImageRecord;
 import gov.lanl.adore.djatoka.util.JP2ImageInfo;
 import gov.lanl.util.ExecuteStreamHandler;
-import gov.lanl.util.PumpStreamHandler;
+import info.freelibrary.djatoka.decode.Cancellation;
+import info.freelibrary.djatoka.decode.DecodeCancelledException;
+import info.freelibrary.djatoka.util.ImageRecordCache;
+import info.freelibrary.djatoka.util.PooledStreamHandler;
+import info.freelibrary.djatoka.util.TempFileManager;
 
 import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
@@ -112,28 +116,28 @@ public class KduExtractExe implements IExtract {
      * @throws DjatokaException
      */
     public BufferedImage processUsingTemp(InputStream input, DjatokaDecodeParam params) throws DjatokaException {
-        File in;
+        File in = null;
 
-        // Copy to tmp file
+        // Copy to a scratch file
         try {
-            in = File.createTempFile("tmp", ".jp2");
+            in = TempFileManager.create("stream-", ".jp2");
             FileOutputStream fos = new FileOutputStream(in);
-            in.deleteOnExit();
             IOUtils.copyStream(input, fos);
         } catch (IOException e) {
             LOGGER.error(e.getMessage(), e);
-            throw new DjatokaException(e.getMessage(), e);
-        }
-
-        BufferedImage bi = process(in.getAbsolutePath(), params);
 
-        if (in != null) {
-            if (!in.delete() && LOGGER.isWarnEnabled()) {
-                LOGGER.warn("File not deleted: {}", in);
+            if (in != null) {
+                TempFileManager.release(in);
             }
+
+            throw new DjatokaException(e.getMessage(), e);
         }
 
-        return bi;
+        try {
+            return process(in.getAbsolutePath(), params);
+        } finally {
+            TempFileManager.release(in);
+        }
     }
 
     /**
@@ -181,10 +185,13 @@ public class KduExtractExe implements IExtract {
         try {
             String command = getKduExtractCommand(input, output, dims, params);
             String[] cmdParts = CommandLineTokenizer.tokenize(command);
-            Process process = Runtime.getRuntime().exec(cmdParts, envParams, new File(env));
+            Cancellation.check();
+            final Process process = Runtime.getRuntime().exec(cmdParts, envParams, new File(env));
+            final Cancellation cancellation = Cancellation.current();
+            final Runnable destroyer = getDestroyer(process, cancellation);
             ByteArrayOutputStream stdout = new ByteArrayOutputStream();
             ByteArrayOutputStream stderr = new ByteArrayOutputStream();
-            ExecuteStreamHandler streamHandler = new PumpStreamHandler(stdout, stderr, is);
+            ExecuteStreamHandler streamHandler = new PooledStreamHandler(stdout, stderr, is);
 
             try {
                 streamHandler.setProcessInputStream(process.getOutputStream());
@@ -203,19 +210,30 @@ public class KduExtractExe implements IExtract {
             streamHandler.start();
 
             try {
+                // The output is read on this thread, so it's read before waiting for kdu_expand to exit
+                streamHandler.stop();
                 waitFor(process);
+
+                // A destroyed kdu_expand's partial output isn't worth reading
+                if (cancellation != null && cancellation.isCancelled()) {
+                    throw Cancellation.cancelled();
+                }
+
                 final ByteArrayInputStream bais = new ByteArrayInputStream(stdout.toByteArray());
                 bi = new PNMReader().open(bais);
-                streamHandler.stop();
             } catch (ThreadDeath t) {
                 LOGGER.error(t.getMessage(), t);
                 process.destroy();
                 throw t;
             } finally {
+                removeDestroyer(destroyer, cancellation);
+
                 if (process != null) {
                     closeStreams(process);
                 }
             }
+        } catch (DecodeCancelledException e) {
+            throw e;
         } catch (Exception e) {
             LOGGER.error(e.getMessage(), e);
             throw new DjatokaException(e.getMessage(), e);
@@ -239,8 +257,7 @@ public class KduExtractExe implements IExtract {
 
         if (isWindows) {
             try {
-                winOut = File.createTempFile("pipe_", ".ppm");
-                winOut.deleteOnExit();
+                winOut = TempFileManager.create("pipe-", ".ppm");
             } catch (IOException e) {
                 LOGGER.error(e.getMessage(), e);
                 throw new DjatokaException(e.getMessage(), e);
@@ -255,7 +272,10 @@ public class KduExtractExe implements IExtract {
             ArrayList<Double> dims = getRegionMetadata(input, params);
             String command = getKduExtractCommand(input, output, dims, params);
             String[] cmdParts = CommandLineTokenizer.tokenize(command);
+            Cancellation.check();
             final Process process = rt.exec(cmdParts, envParams, new File(env));
+            final Cancellation cancellation = Cancellation.current();
+            final Runnable destroyer = getDestroyer(process, cancellation);
 
             if (output != null) {
                 try {
@@ -268,25 +288,23 @@ public class KduExtractExe implements IExtract {
                             bi = new PNMReader().open(new BufferedInputStream(new FileInputStream(new File(output))));
                         } catch (Exception e) {
                             LOGGER.error(e.getMessage(), e);
-
-                            if (winOut != null) {
-                                if (!winOut.delete() && LOGGER.isWarnEnabled()) {
-                                    LOGGER.warn("File not deleted: {}", winOut);
-                                }
-                            }
-
                             throw e;
                         }
-
-                        if (winOut != null) {
-                            winOut.delete();
-                        }
                     }
                 } catch (RuntimeException details) {
+                    // A destroyed kdu_expand's truncated output isn't an out of bounds request
+                    if (cancellation != null && cancellation.isCancelled()) {
+                        throw Cancellation.cancelled();
+                    }
+
                     LOGGER.debug("Request out of bounds: {}", details.getMessage());
 
                     bi = OOB;
                 } catch (Exception e) {
+                    if (cancellation != null && cancellation.isCancelled()) {
+                        throw Cancellation.cancelled();
+                    }
+
                     String error = null;
 
                     try {
@@ -303,6 +321,8 @@ public class KduExtractExe implements IExtract {
                         throw new DjatokaException(e.getMessage(), e);
                     }
                 } finally {
+                    removeDestroyer(destroyer, cancellation);
+
                     if (process != null) {
                         closeStreams(process);
                     }
@@ -310,11 +330,50 @@ public class KduExtractExe implements IExtract {
             }
         } catch (IOException e) {
             LOGGER.error(e.getMessage(), e);
+        } finally {
+            if (winOut != null) {
+                TempFileManager.release(winOut);
+            }
         }
 
         return bi;
     }
 
+    /**
+     * Gets what destroys the supplied kdu_expand process if the current thread's decode is cancelled, registering it
+     * with the supplied cancellation. Returns null if the decode can't be cancelled.
+     * 
+     * @param process A running kdu_expand process
+     * @param cancellation The current thread's cancellation; may be null
+     * @return What destroys the process, or null if the decode can't be cancelled
+     */
+    private static Runnable getDestroyer(final Process process, final Cancellation cancellation) {
+        if (cancellation == null) {
+            return null;
+        }
+
+        final Runnable destroyer = new Runnable() {
+
+            @Override
+            public void run() {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Destroying kdu_expand for a cancelled decode");
+                }
+
+                process.destroy();
+            }
+        };
+
+        cancellation.addListener(destroyer);
+        return destroyer;
+    }
+
+    private static void removeDestroyer(final Runnable destroyer, final Cancellation cancellation) {
+        if (cancellation != null) {
+            cancellation.removeListener(destroyer);
+        }
+    }
+
     /**
      * Extracts region defined in DjatokaDecodeParam as BufferedImage
      * 
@@ -399,6 +458,11 @@ public class KduExtractExe implements IExtract {
             throw new DjatokaException("Image Does Not Exist");
         }
 
+        // Width, height and levels don't change unless the file does
+        if (ImageRecordCache.get(f, r)) {
+            return r;
+        }
+
         if (!ImageProcessingUtils.checkIfJp2(r.getImageFile())) {
             throw new DjatokaException("Not a JP2 image.");
         }
@@ -410,7 +474,9 @@ public class KduExtractExe implements IExtract {
             // use safer pure Java Metadata gatherer.
             try {
                 fis = new FileInputStream(f);
-                return getMetadata(fis);
+                ImageRecord ir = getMetadata(fis);
+                ImageRecordCache.put(f, ir);
+                return ir;
             } catch (Exception e) {
                 throw new DjatokaException("Invalid file.");
             } finally {
@@ -475,6 +541,7 @@ public class KduExtractExe implements IExtract {
             throw new DjatokaException(e.getMessage(), e);
         }
 
+        ImageRecordCache.put(f, r);
         return r;
     }
 
@@ -556,7 +623,16 @@ public class KduExtractExe implements IExtract {
         return getRegionMetadata(r, params);
     }
 
-    private final ArrayList<Double> getRegionMetadata(ImageRecord r, DjatokaDecodeParam params)
+    /**
+     * Calculates the level reduction for the supplied request, setting it on its parameters, and returns the region
+     * to extract as the top, left, height, and width fractions that kdu_expand's -region argument takes.
+     * 
+     * @param r ImageRecord with the JPEG 2000 image's dimensions and levels
+     * @param params DjatokaDecodeParam instance containing region and level settings
+     * @return the region's fractions (i.e. y,x,h,w), or an empty list for the whole image
+     * @throws DjatokaException
+     */
+    public static ArrayList<Double> getRegionMetadata(ImageRecord r, DjatokaDecodeParam params)
             throws DjatokaException {
         if (params.getLevel() >= 0) {
             int levels = ImageProcessingUtils.getLevelCount(r.getWidth(), r.getHeight());
@@ -27,6 +27,7 @@ import gov.lanl.adore.djatoka.DjatokaDecodeParam;
 import gov.lanl.adore.djatoka.DjatokaException;
 import gov.lanl.adore.djatoka.util.IOUtils;
 import gov.lanl.adore.djatoka.util.ImageProcessingUtils;
+import info.freelibrary.djatoka.util.TempFileManager;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
@@ -177,12 +178,12 @@ public class KduExtractProcessorJNI {
             useRegion = true;
         }
 
+        File f = null;
+
         if (is != null) {
-            File f = File.createTempFile("tmp", ".jp2");
-            f.deleteOnExit();
-            FileOutputStream fos = new FileOutputStream(f);
+            f = TempFileManager.create("stream-", ".jp2");
             sourceFile = f.getAbsolutePath();
-            IOUtils.copyStream(is, fos);
+            IOUtils.copyStream(is, new FileOutputStream(f));
         }
 
         Kdu_simple_file_source raw_src = null; // Must be disposed last
@@ -310,6 +311,10 @@ public class KduExtractProcessorJNI {
         } catch (Exception e) {
             e.printStackTrace();
             throw new DjatokaException(e.getMessage(), e);
+        } finally {
+            if (f != null) {
+                TempFileManager.release(f);
+            }
         }
     }
 
@@ -369,10 +374,11 @@ public class KduExtractProcessorJNI {
             useRegion = true;
         }
 
+        File f = null;
+
         try {
             if (is != null) {
-                File f = File.createTempFile("tmp", ".jp2");
-                f.deleteOnExit();
+                f = TempFileManager.create("stream-", ".jp2");
                 FileOutputStream fos = new FileOutputStream(f);
                 sourceFile = f.getAbsolutePath();
                 IOUtils.copyStream(is, fos);
@@ -380,6 +386,10 @@ public class KduExtractProcessorJNI {
                 fos.close();
             }
         } catch (IOException e) {
+            if (f != null) {
+                TempFileManager.release(f);
+            }
+
             throw new DjatokaException(e.getMessage(), e);
         }
 
@@ -495,10 +505,14 @@ public class KduExtractProcessorJNI {
         } catch (Exception e) {
             e.printStackTrace();
             throw new DjatokaException(e.getMessage(), e);
+        } finally {
+            if (f != null) {
+                TempFileManager.release(f);
+            }
         }
     }
 
-    private static Kdu_coords getReferenceExpansion(int reference_component, Kdu_channel_mapping channels,
+    static Kdu_coords getReferenceExpansion(int reference_component, Kdu_channel_mapping channels,
             Kdu_codestream codestream) throws KduException {
 
         int c;
@@ -0,0 +1,76 @@
+
+package gov.lanl.adore.djatoka.kdu.jni;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kdu_jni.KduException;
+import kdu_jni.Kdu_global;
+import kdu_jni.Kdu_message;
+
+/**
+ * Receives Kakadu's error and warning messages. Without a handler, Kakadu ends the process when it hits an error,
+ * which in a servlet container means the whole server; with this one installed, an error is thrown as a
+ * <code>KduException</code> from the Kakadu call that hit it, and a warning is logged.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public class KduMessageHandler extends Kdu_message {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KduMessageHandler.class);
+
+    private static boolean installed;
+
+    /** Kakadu writes a message in pieces from the thread that raised it, so each thread collects its own */
+    private final ThreadLocal<StringBuilder> myMessage = new ThreadLocal<StringBuilder>() {
+
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder();
+        }
+    };
+
+    private final boolean myError;
+
+    private KduMessageHandler(final boolean aError) {
+        myError = aError;
+    }
+
+    /**
+     * Installs the error and warning handlers, if they haven't been already. The Kakadu library must be loaded.
+     *
+     * @throws KduException If the handlers can't be installed
+     */
+    public static synchronized void install() throws KduException {
+        if (!installed) {
+            Kdu_global.Kdu_customize_errors(new KduMessageHandler(true));
+            Kdu_global.Kdu_customize_warnings(new KduMessageHandler(false));
+            installed = true;
+        }
+    }
+
+    @Override
+    public void Put_text(final String aText) {
+        myMessage.get().append(aText);
+    }
+
+    @Override
+    public void Flush(final boolean aEndOfMessage) throws KduException {
+        if (!aEndOfMessage) {
+            return;
+        }
+
+        final StringBuilder buffer = myMessage.get();
+        final String message = buffer.toString().trim().replaceAll("\\s+", " ");
+
+        buffer.setLength(0);
+
+        if (myError) {
+            throw new KduException(message);
+        }
+
+        if (LOGGER.isWarnEnabled()) {
+            LOGGER.warn("Kakadu: {}", message);
+        }
+    }
+}
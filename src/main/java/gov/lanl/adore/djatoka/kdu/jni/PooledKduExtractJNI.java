@@ -0,0 +1,755 @@
+
+package gov.lanl.adore.djatoka.kdu.jni;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.lanl.adore.djatoka.DjatokaDecodeParam;
+import gov.lanl.adore.djatoka.DjatokaException;
+import gov.lanl.adore.djatoka.IExtract;
+import gov.lanl.adore.djatoka.kdu.KduExtractExe;
+import gov.lanl.adore.djatoka.util.IOUtils;
+import gov.lanl.adore.djatoka.util.ImageProcessingUtils;
+import gov.lanl.adore.djatoka.util.ImageRecord;
+
+import info.freelibrary.djatoka.decode.Cancellation;
+import info.freelibrary.djatoka.decode.ThreadResources;
+import info.freelibrary.djatoka.util.TempFileManager;
+
+import kdu_jni.Jp2_family_src;
+import kdu_jni.Jp2_locator;
+import kdu_jni.Jp2_source;
+import kdu_jni.KduException;
+import kdu_jni.Kdu_channel_mapping;
+import kdu_jni.Kdu_codestream;
+import kdu_jni.Kdu_coords;
+import kdu_jni.Kdu_dims;
+import kdu_jni.Kdu_global;
+import kdu_jni.Kdu_region_decompressor;
+import kdu_jni.Kdu_thread_env;
+
+/**
+ * A thread-safe {@link IExtract} that decodes in the servlet's own process with Kakadu's Java bindings, so a decode
+ * doesn't start a <code>kdu_expand</code>. Unlike {@link KduExtractProcessorJNI}, which opens, reads the headers of,
+ * and closes its image for every decode, it keeps the codestreams of the most recently decoded images open (in a
+ * least recently used cache of a configurable size), so a tile of a hot image is decoded without the file being
+ * reopened. A cached codestream is only used by one decode at a time; a decode of an image whose codestream is busy
+ * opens one of its own, which is closed when the decode is done.
+ * <p/>
+ * Each thread that decodes keeps its own Kakadu thread environment, which is destroyed on that thread when it ends
+ * (through {@link ThreadResources}), and decoded rows are collected through a strip buffer that's kept by each thread
+ * and reused, and copied straight into the returned image's raster. An open codestream keeps the compressed data
+ * it's read in memory up to a configurable threshold, beyond which Kakadu unloads the data that isn't being decoded.
+ * Kakadu's errors are thrown as exceptions, through {@link KduMessageHandler}, rather than ending the process. A
+ * decode that fails closes its codestream and thread environment rather than reusing them.
+ * <p/>
+ * Decodes of compositing layers other than the first, metadata, and XML boxes are handed to {@link KduExtractExe}.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public class PooledKduExtractJNI implements IExtract {
+
+    /** The default number of images whose codestreams are kept open */
+    public static final int DEFAULT_CAPACITY = 32;
+
+    /** The default number of threads in each Kakadu thread environment: just the thread that's decoding */
+    public static final int DEFAULT_THREADS = 1;
+
+    /** The default number of bytes of compressed data each open codestream keeps in memory */
+    public static final int DEFAULT_CACHE_THRESHOLD = 4 * 1024 * 1024;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PooledKduExtractJNI.class);
+
+    /** Enough for a few rows of even a very wide region, without holding onto much memory per thread */
+    private static final int STRIP_PIXELS = 1 << 18;
+
+    private static final int MAX_LAYERS = 16384;
+
+    private static final ThreadLocal<int[]> STRIP = new ThreadLocal<int[]>();
+
+    static {
+        System.loadLibrary("kdu_jni");
+
+        try {
+            KduMessageHandler.install();
+        } catch (final KduException details) {
+            throw new ExceptionInInitializerError(details);
+        }
+    }
+
+    private final KduExtractExe myExtractExe = new KduExtractExe();
+
+    private final ThreadLocal<Kdu_thread_env> myThreadEnv = new ThreadLocal<Kdu_thread_env>();
+
+    private final AtomicInteger myThreadEnvCount = new AtomicInteger();
+
+    private final AtomicLong myHits = new AtomicLong();
+
+    private final AtomicLong myMisses = new AtomicLong();
+
+    private final AtomicLong myOpenedCount = new AtomicLong();
+
+    private final AtomicLong myClosedCount = new AtomicLong();
+
+    private volatile int myCapacity = DEFAULT_CAPACITY;
+
+    private volatile int myThreads = DEFAULT_THREADS;
+
+    private volatile int myCacheThreshold = DEFAULT_CACHE_THRESHOLD;
+
+    private final Map<String, OpenCodestream> myCodestreams = new LinkedHashMap<String, OpenCodestream>(64, 0.75f,
+            true) {
+
+        private static final long serialVersionUID = 6310487752513226314L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, OpenCodestream> aEldest) {
+            if (size() <= myCapacity) {
+                return false;
+            }
+
+            retire(aEldest.getValue());
+            return true;
+        }
+    };
+
+    /**
+     * Sets the number of images whose codestreams are kept open, closing the least recently used ones if there are
+     * more open than that. A capacity less than one keeps none open.
+     *
+     * @param aCapacity The number of codestreams to keep open
+     */
+    public void setCapacity(final int aCapacity) {
+        synchronized (myCodestreams) {
+            final Iterator<OpenCodestream> iterator = myCodestreams.values().iterator();
+
+            myCapacity = Math.max(0, aCapacity);
+
+            while (myCodestreams.size() > myCapacity) {
+                retire(iterator.next());
+                iterator.remove();
+            }
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Open codestream cache capacity set to {}", myCapacity);
+        }
+    }
+
+    /**
+     * Gets the number of images whose codestreams are kept open.
+     *
+     * @return The number of codestreams kept open
+     */
+    public int getCapacity() {
+        return myCapacity;
+    }
+
+    /**
+     * Sets the number of threads in each Kakadu thread environment, including the thread that's decoding. It only
+     * affects thread environments created after it's set.
+     *
+     * @param aThreads The number of threads each decode uses
+     */
+    public void setThreads(final int aThreads) {
+        myThreads = Math.max(1, aThreads);
+    }
+
+    /**
+     * Gets the number of threads in each Kakadu thread environment, including the thread that's decoding.
+     *
+     * @return The number of threads each decode uses
+     */
+    public int getThreads() {
+        return myThreads;
+    }
+
+    /**
+     * Sets the number of bytes of compressed data that each open codestream keeps in memory. Once a codestream has
+     * read more than that, Kakadu unloads the data that isn't being decoded and reads it again when it's needed. It
+     * only affects codestreams opened after it's set; a threshold less than one leaves Kakadu's default.
+     *
+     * @param aBytes The number of bytes of compressed data each codestream keeps
+     */
+    public void setCacheThreshold(final int aBytes) {
+        myCacheThreshold = Math.max(0, aBytes);
+    }
+
+    /**
+     * Gets the number of bytes of compressed data that each open codestream keeps in memory.
+     *
+     * @return The number of bytes of compressed data each codestream keeps
+     */
+    public int getCacheThreshold() {
+        return myCacheThreshold;
+    }
+
+    /**
+     * Gets the number of codestreams that are being kept open.
+     *
+     * @return The number of open codestreams
+     */
+    public int size() {
+        synchronized (myCodestreams) {
+            return myCodestreams.size();
+        }
+    }
+
+    /**
+     * Gets the number of decodes that used a codestream that was already open.
+     *
+     * @return The number of open codestream hits
+     */
+    public long getHitCount() {
+        return myHits.get();
+    }
+
+    /**
+     * Gets the number of decodes that had to open their image's codestream.
+     *
+     * @return The number of open codestream misses
+     */
+    public long getMissCount() {
+        return myMisses.get();
+    }
+
+    /**
+     * Gets the number of codestreams that have been opened.
+     *
+     * @return The number of codestreams opened
+     */
+    public long getOpenedCount() {
+        return myOpenedCount.get();
+    }
+
+    /**
+     * Gets the number of codestreams that have been closed.
+     *
+     * @return The number of codestreams closed
+     */
+    public long getClosedCount() {
+        return myClosedCount.get();
+    }
+
+    /**
+     * Gets the number of Kakadu thread environments that are being kept, one for each thread that has decoded and
+     * hasn't ended.
+     *
+     * @return The number of thread environments
+     */
+    public int getThreadEnvCount() {
+        return myThreadEnvCount.get();
+    }
+
+    /**
+     * Destroys the calling thread's Kakadu thread environment, if it has one. This happens anyway when a lane's
+     * worker ends.
+     */
+    public void releaseThreadEnv() {
+        final Kdu_thread_env env = myThreadEnv.get();
+
+        if (env == null) {
+            return;
+        }
+
+        myThreadEnv.remove();
+        ThreadResources.unregister(this);
+        myThreadEnvCount.decrementAndGet();
+
+        try {
+            env.Destroy();
+        } catch (final KduException details) {
+            LOGGER.warn("Kakadu thread environment not destroyed: {}", details.getMessage());
+        }
+
+        env.Native_destroy();
+    }
+
+    /**
+     * Closes the codestreams that are being kept open. Codestreams that are being decoded are closed when their
+     * decodes are done. Thread environments are left to their threads.
+     */
+    public void clear() {
+        synchronized (myCodestreams) {
+            for (final OpenCodestream codestream : myCodestreams.values()) {
+                retire(codestream);
+            }
+
+            myCodestreams.clear();
+        }
+    }
+
+    @Override
+    public BufferedImage process(final InputStream aInput, final DjatokaDecodeParam aParams)
+            throws DjatokaException {
+        final File file;
+
+        // A stream is only decoded once, so its scratch file's codestream isn't worth keeping open
+        try {
+            file = TempFileManager.create("jni-", ".jp2");
+        } catch (final IOException details) {
+            throw new DjatokaException(details.getMessage(), details);
+        }
+
+        try {
+            final FileOutputStream output = new FileOutputStream(file);
+
+            try {
+                IOUtils.copyStream(aInput, output);
+            } finally {
+                output.close();
+            }
+
+            return process(file.getAbsolutePath(), aParams);
+        } catch (final IOException details) {
+            throw new DjatokaException(details.getMessage(), details);
+        } finally {
+            evict(file.getAbsolutePath());
+            TempFileManager.release(file);
+        }
+    }
+
+    @Override
+    public BufferedImage process(final String aInput, final DjatokaDecodeParam aParams) throws DjatokaException {
+        final ImageRecord record = getMetadata(new ImageRecord(aInput));
+        final List<Double> dims = KduExtractExe.getRegionMetadata(record, aParams);
+        final double[] region = dims.size() == 4 ? new double[] { dims.get(0), dims.get(1), dims.get(2),
+            dims.get(3) } : null;
+
+        return decode(aInput, aParams.getLevelReductionFactor(), aParams.getRotationDegree(), aParams
+                .getCompositingLayer(), region);
+    }
+
+    @Override
+    public BufferedImage process(final ImageRecord aInput, final DjatokaDecodeParam aParams)
+            throws DjatokaException {
+        if (aInput.getImageFile() != null) {
+            return process(aInput.getImageFile(), aParams);
+        } else if (aInput.getObject() != null) {
+            return process(KduExtractExe.getStreamFromObject(aInput.getObject()), aParams);
+        } else {
+            throw new DjatokaException("Image record has neither a file nor an object to decode");
+        }
+    }
+
+    @Override
+    public ImageRecord getMetadata(final ImageRecord aInput) throws DjatokaException {
+        return myExtractExe.getMetadata(aInput);
+    }
+
+    @Override
+    public String[] getXMLBox(final ImageRecord aInput) throws DjatokaException {
+        return myExtractExe.getXMLBox(aInput);
+    }
+
+    /**
+     * Decodes a region of the supplied JP2 file. The region's top, left, height, and width are fractions of the
+     * image, as they are for <code>kdu_expand</code>'s <code>-region</code> argument, and are applied after the
+     * image has been reduced.
+     *
+     * @param aFile The path of the JP2 file to decode
+     * @param aReduce The number of resolution levels to discard
+     * @param aRotation The number of degrees to rotate the decoded image: 0, 90, 180, or 270
+     * @param aLayer The compositing layer to decode
+     * @param aRegion The region's top, left, height, and width; null for the whole image
+     * @return The decoded image
+     * @throws DjatokaException If the image can't be decoded
+     */
+    public BufferedImage decode(final String aFile, final int aReduce, final int aRotation, final int aLayer,
+            final double[] aRegion) throws DjatokaException {
+        if (aLayer > 0) {
+            return decodeLayer(aFile, aReduce, aRotation, aLayer, aRegion);
+        }
+
+        Cancellation.check();
+
+        final OpenCodestream codestream = acquire(aFile);
+        Kdu_thread_env env = null;
+        boolean failed = true;
+
+        try {
+            env = getThreadEnv();
+
+            final BufferedImage image = decode(codestream, env, aReduce, aRegion);
+
+            failed = false;
+            return ImageProcessingUtils.rotate(image, aRotation);
+        } catch (final KduException details) {
+            throw new DjatokaException(details.getMessage(), details);
+        } finally {
+            release(codestream, failed);
+
+            // A failed decode can leave its thread environment in a state that's not safe to reuse
+            if (failed && env != null) {
+                releaseThreadEnv();
+            }
+        }
+    }
+
+    /**
+     * Decodes a region of an open codestream with the supplied thread environment.
+     */
+    private static BufferedImage decode(final OpenCodestream aCodestream, final Kdu_thread_env aEnv,
+            final int aReduce, final double[] aRegion) throws KduException, DjatokaException {
+        final Kdu_region_decompressor decompressor = new Kdu_region_decompressor();
+        final Kdu_coords expansion = new Kdu_coords(aCodestream.myExpansionX, aCodestream.myExpansionY);
+        final Kdu_coords unity = new Kdu_coords(1, 1);
+        boolean started = false;
+
+        try {
+            final Kdu_dims rendered =
+                    decompressor.Get_rendered_image_dims(aCodestream.myCodestream, aCodestream.myChannels, -1,
+                            aReduce, expansion, unity, Kdu_global.KDU_WANT_OUTPUT_COMPONENTS);
+            final Kdu_dims view = getView(rendered, aRegion);
+            final Kdu_coords origin = view.Access_pos();
+            final int originX = origin.Get_x();
+            final int originY = origin.Get_y();
+            final int width = view.Access_size().Get_x();
+            final int height = view.Access_size().Get_y();
+
+            if (width < 1 || height < 1) {
+                throw new DjatokaException("Region is outside the image");
+            }
+
+            started =
+                    decompressor.Start(aCodestream.myCodestream, aCodestream.myChannels, -1, aReduce, MAX_LAYERS,
+                            view, expansion, unity, false, Kdu_global.KDU_WANT_OUTPUT_COMPONENTS, false, aEnv, 0);
+
+            if (!started) {
+                throw new DjatokaException("Kakadu couldn't start decoding the region");
+            }
+
+            final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            final int[] strip = getStrip(width, height);
+            final Kdu_dims incomplete = new Kdu_dims();
+            final Kdu_dims region = new Kdu_dims();
+            final Cancellation cancellation = Cancellation.current();
+
+            incomplete.Assign(view);
+
+            // Each pass decodes a few more rows into the strip, packed at the width of the rows it decoded
+            while (decompressor.Process(strip, origin, 0, 0, strip.length, incomplete, region)) {
+                final int regionX = region.Access_pos().Get_x() - originX;
+                final int regionY = region.Access_pos().Get_y() - originY;
+                final int regionWidth = region.Access_size().Get_x();
+                final int regionHeight = region.Access_size().Get_y();
+
+                for (int row = 0; row < regionHeight; row++) {
+                    System.arraycopy(strip, row * regionWidth, pixels, (regionY + row) * width + regionX,
+                            regionWidth);
+                }
+
+                if (cancellation != null && cancellation.isCancelled()) {
+                    throw Cancellation.cancelled();
+                }
+
+                if (incomplete.Is_empty()) {
+                    break;
+                }
+            }
+
+            return image;
+        } finally {
+            if (started) {
+                decompressor.Finish();
+            }
+
+            decompressor.Native_destroy();
+        }
+    }
+
+    /**
+     * Gets the part of the rendered image that's covered by the supplied region fractions.
+     */
+    private static Kdu_dims getView(final Kdu_dims aRendered, final double[] aRegion) throws KduException {
+        final Kdu_dims view = new Kdu_dims();
+
+        view.Assign(aRendered);
+
+        if (aRegion != null) {
+            final int width = aRendered.Access_size().Get_x();
+            final int height = aRendered.Access_size().Get_y();
+            final int top = (int) Math.round(aRegion[0] * height);
+            final int left = (int) Math.round(aRegion[1] * width);
+            final int bottom = Math.min(height, (int) Math.round((aRegion[0] + aRegion[2]) * height));
+            final int right = Math.min(width, (int) Math.round((aRegion[1] + aRegion[3]) * width));
+
+            view.Access_pos().Set_x(aRendered.Access_pos().Get_x() + left);
+            view.Access_pos().Set_y(aRendered.Access_pos().Get_y() + top);
+
+            // Even the smallest region that's inside the image has a pixel, as it does for kdu_expand
+            view.Access_size().Set_x(left < width ? Math.max(1, right - left) : 0);
+            view.Access_size().Set_y(top < height ? Math.max(1, bottom - top) : 0);
+        }
+
+        return view;
+    }
+
+    /**
+     * Gets the current thread's strip buffer, growing it if it's too small for a strip of the supplied region.
+     */
+    private static int[] getStrip(final int aWidth, final int aHeight) {
+        final int size = (int) Math.min((long) aWidth * aHeight, Math.max(STRIP_PIXELS, aWidth));
+        int[] strip = STRIP.get();
+
+        if (strip == null || strip.length < size) {
+            strip = new int[size];
+            STRIP.set(strip);
+        }
+
+        return strip;
+    }
+
+    /**
+     * Decodes a compositing layer other than the first, which the JP2 codestreams kept open don't have, with
+     * <code>kdu_expand</code>.
+     */
+    private BufferedImage decodeLayer(final String aFile, final int aReduce, final int aRotation, final int aLayer,
+            final double[] aRegion) throws DjatokaException {
+        final DjatokaDecodeParam params = new DjatokaDecodeParam();
+
+        params.setLevelReductionFactor(aReduce);
+        params.setRotationDegree(aRotation);
+        params.setCompositingLayer(aLayer);
+
+        if (aRegion != null) {
+            // Decimal points mark the region's values as fractions of the image rather than pixels
+            params.setRegion("{" + aRegion[0] + "," + aRegion[1] + "},{" + aRegion[2] + "," + aRegion[3] + "}");
+        }
+
+        return myExtractExe.process(aFile, params);
+    }
+
+    /**
+     * Gets the supplied image's open codestream for the exclusive use of the calling thread, opening it if it isn't
+     * open or is being used by another decode.
+     */
+    private OpenCodestream acquire(final String aFile) throws DjatokaException {
+        final File file = new File(aFile);
+        final String path = file.getAbsolutePath();
+        final long modified = file.lastModified();
+
+        synchronized (myCodestreams) {
+            final OpenCodestream cached = myCodestreams.get(path);
+
+            if (cached != null) {
+                if (cached.myModified != modified) {
+                    // The image has been replaced since its codestream was opened
+                    myCodestreams.remove(path);
+                    retire(cached);
+                } else if (!cached.myInUse) {
+                    cached.myInUse = true;
+                    myHits.incrementAndGet();
+                    return cached;
+                }
+            }
+        }
+
+        myMisses.incrementAndGet();
+
+        final OpenCodestream codestream = OpenCodestream.open(path, modified, myCacheThreshold);
+
+        myOpenedCount.incrementAndGet();
+        codestream.myInUse = true;
+
+        synchronized (myCodestreams) {
+            if (myCapacity > 0 && !myCodestreams.containsKey(path)) {
+                codestream.myCached = true;
+                myCodestreams.put(path, codestream);
+            }
+        }
+
+        return codestream;
+    }
+
+    /**
+     * Gives back a codestream after a decode, closing it if it isn't cached or the decode failed, since a failed
+     * decode can leave it in a state that's not safe to reuse.
+     */
+    private void release(final OpenCodestream aCodestream, final boolean aFailed) {
+        final boolean close;
+
+        synchronized (myCodestreams) {
+            aCodestream.myInUse = false;
+
+            if (aFailed && aCodestream.myCached) {
+                myCodestreams.remove(aCodestream.myPath);
+                aCodestream.myCached = false;
+            }
+
+            close = !aCodestream.myCached;
+        }
+
+        if (close) {
+            close(aCodestream);
+        }
+    }
+
+    /**
+     * Closes the supplied image's open codestream, if it has one that isn't being decoded.
+     */
+    private void evict(final String aFile) {
+        synchronized (myCodestreams) {
+            final OpenCodestream codestream = myCodestreams.remove(aFile);
+
+            if (codestream != null) {
+                retire(codestream);
+            }
+        }
+    }
+
+    /**
+     * Marks a codestream as no longer cached, closing it now if it's not being decoded or else when its decode is
+     * done. The caller must hold the cache's lock.
+     */
+    private void retire(final OpenCodestream aCodestream) {
+        aCodestream.myCached = false;
+
+        if (!aCodestream.myInUse) {
+            close(aCodestream);
+        }
+    }
+
+    private void close(final OpenCodestream aCodestream) {
+        aCodestream.close();
+        myClosedCount.incrementAndGet();
+    }
+
+    /**
+     * Gets the calling thread's Kakadu thread environment, creating it if the thread doesn't have one yet. Kakadu
+     * wants a thread environment destroyed by the thread that created it, so it's destroyed when the thread ends.
+     */
+    private Kdu_thread_env getThreadEnv() throws KduException {
+        final Kdu_thread_env kept = myThreadEnv.get();
+
+        if (kept != null) {
+            return kept;
+        }
+
+        final Kdu_thread_env env = new Kdu_thread_env();
+
+        env.Create();
+
+        for (int index = 1; index < myThreads; index++) {
+            if (!env.Add_thread()) {
+                break;
+            }
+        }
+
+        myThreadEnv.set(env);
+        myThreadEnvCount.incrementAndGet();
+
+        ThreadResources.register(this, new Runnable() {
+
+            @Override
+            public void run() {
+                releaseThreadEnv();
+            }
+        });
+
+        return env;
+    }
+
+    /**
+     * A JP2's codestream, opened once and kept open so its headers don't have to be read again for each decode.
+     */
+    private static final class OpenCodestream {
+
+        private final String myPath;
+
+        private final long myModified;
+
+        private final Jp2_family_src myFamily = new Jp2_family_src();
+
+        private final Jp2_source mySource = new Jp2_source();
+
+        private final Kdu_codestream myCodestream = new Kdu_codestream();
+
+        private final Kdu_channel_mapping myChannels = new Kdu_channel_mapping();
+
+        private int myExpansionX;
+
+        private int myExpansionY;
+
+        /** Guarded by the cache's lock */
+        private boolean myInUse;
+
+        /** Guarded by the cache's lock */
+        private boolean myCached;
+
+        private OpenCodestream(final String aPath, final long aModified) {
+            myPath = aPath;
+            myModified = aModified;
+        }
+
+        private static OpenCodestream open(final String aPath, final long aModified, final int aCacheThreshold)
+                throws DjatokaException {
+            final OpenCodestream codestream = new OpenCodestream(aPath, aModified);
+
+            try {
+                codestream.myFamily.Open(aPath, true);
+                codestream.mySource.Open(codestream.myFamily, new Jp2_locator());
+                codestream.mySource.Read_header();
+                codestream.myCodestream.Create(codestream.mySource);
+
+                // Without this, the codestream throws away what it's decoded and can't decode another region
+                codestream.myCodestream.Set_persistent();
+
+                // A persistent codestream would otherwise keep everything it's read in memory while it's open
+                if (aCacheThreshold > 0) {
+                    codestream.myCodestream.Augment_cache_threshold(aCacheThreshold);
+                }
+
+                if (codestream.mySource.Exists()) {
+                    codestream.myChannels.Configure(codestream.mySource, false);
+                } else {
+                    codestream.myChannels.Configure(codestream.myCodestream);
+                }
+
+                final int component = codestream.myChannels.Get_source_component(0);
+                final Kdu_coords expansion =
+                        KduExtractProcessorJNI.getReferenceExpansion(component, codestream.myChannels,
+                                codestream.myCodestream);
+
+                codestream.myExpansionX = expansion.Get_x();
+                codestream.myExpansionY = expansion.Get_y();
+
+                return codestream;
+            } catch (final KduException details) {
+                codestream.close();
+                throw new DjatokaException("Unable to open " + aPath + ": " + details.getMessage(), details);
+            }
+        }
+
+        private void close() {
+            try {
+                if (myCodestream.Exists()) {
+                    myCodestream.Destroy();
+                }
+
+                mySource.Close();
+                myFamily.Close();
+            } catch (final KduException details) {
+                LOGGER.warn("Codestream not closed cleanly [{}]: {}", myPath, details.getMessage());
+            } finally {
+                myChannels.Native_destroy();
+                mySource.Native_destroy();
+                myFamily.Native_destroy();
+            }
+        }
+    }
+}
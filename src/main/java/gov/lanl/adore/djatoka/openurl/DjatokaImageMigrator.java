@@ -28,9 +28,20 @@ import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,11 +52,12 @@ import gov.lanl.adore.djatoka.ICompress;
 import gov.lanl.adore.djatoka.IExtract;
 import gov.lanl.adore.djatoka.io.FormatConstants;
 import gov.lanl.adore.djatoka.kdu.KduCompressExe;
-import gov.lanl.adore.djatoka.kdu.KduExtractExe;
 import gov.lanl.adore.djatoka.util.IOUtils;
 import gov.lanl.adore.djatoka.util.ImageProcessingUtils;
 import gov.lanl.adore.djatoka.util.ImageRecord;
 
+import info.freelibrary.djatoka.util.ImageMetadata;
+import info.freelibrary.djatoka.util.TempFileManager;
 import info.freelibrary.util.PairtreeObject;
 import info.freelibrary.util.PairtreeRoot;
 import info.freelibrary.util.PairtreeUtils;
@@ -60,7 +72,21 @@ public class DjatokaImageMigrator implements FormatConstants, IReferentMigrator
 
     private static Logger LOGGER = LoggerFactory.getLogger(DjatokaImageMigrator.class);
 
-    private final List<String> processing = java.util.Collections.synchronizedList(new LinkedList<String>());
+    /** The default number of migrations that can run at the same time */
+    public static final int DEFAULT_WORKERS = 2;
+
+    /** The default number of migrations that can wait for a free worker */
+    public static final int DEFAULT_QUEUE_SIZE = 16;
+
+    private final ConcurrentMap<String, Future<File>> myMigrations = new ConcurrentHashMap<String, Future<File>>();
+
+    private final AtomicInteger myThreadCount = new AtomicInteger();
+
+    private ThreadPoolExecutor myExecutor;
+
+    private int myWorkers = DEFAULT_WORKERS;
+
+    private int myQueueSize = DEFAULT_QUEUE_SIZE;
 
     private HashMap<String, String> formatMap;
 
@@ -119,7 +145,7 @@ public class DjatokaImageMigrator implements FormatConstants, IReferentMigrator
     }
 
     /**
-     * Returns a delete on exit File object for a provide URI
+     * Returns a scratch File object, deleted when its last reference is released, for a provided URI
      * 
      * @param aReferent the identifier for the remote file
      * @param aURI the URI of an image to be downloaded and compressed as JP2
@@ -130,9 +156,6 @@ public class DjatokaImageMigrator implements FormatConstants, IReferentMigrator
     public File convert(final String aReferent, final URI aURI) throws DjatokaException {
         File file = null;
 
-        // Add the request to the list of in-process requests
-        processing.add(aReferent);
-
         try {
             // If the referent is not the URL, we've been able to parse an ID
             // out from the URL; if we did that, we assume it's already a JP2
@@ -193,11 +216,11 @@ public class DjatokaImageMigrator implements FormatConstants, IReferentMigrator
 
                 if (ext.equals(FORMAT_ID_TIF) || ext.equals(FORMAT_ID_TIFF)) {
                     ext = "." + FORMAT_ID_TIF;
-                    file = File.createTempFile("convert" + hash, ext);
+                    file = TempFileManager.create("convert" + hash, ext);
                 } else if (formatMap.containsKey(ext) &&
                         (formatMap.get(ext).equals(FORMAT_MIMEYPE_JP2) || formatMap.get(ext).equals(
                                 FORMAT_MIMEYPE_JPX))) {
-                    file = File.createTempFile("cache" + hash, "." + ext);
+                    file = TempFileManager.create("cache" + hash, "." + ext);
                     isJp2 = true;
                 } else {
                     if (source.markSupported()) {
@@ -206,7 +229,7 @@ public class DjatokaImageMigrator implements FormatConstants, IReferentMigrator
 
                     if (ImageProcessingUtils.checkIfJp2(source)) {
                         ext = "." + FORMAT_ID_JP2;
-                        file = File.createTempFile("cache" + hash, ext);
+                        file = TempFileManager.create("cache" + hash, ext);
                     }
 
                     if (source.markSupported()) {
@@ -218,11 +241,9 @@ public class DjatokaImageMigrator implements FormatConstants, IReferentMigrator
                 }
 
                 if (file == null) {
-                    file = File.createTempFile("convert" + hash, ".img");
+                    file = TempFileManager.create("convert" + hash, ".img");
                 }
 
-                file.deleteOnExit();
-
                 final FileOutputStream destination = new FileOutputStream(file);
                 IOUtils.copyStream(source, destination);
 
@@ -238,16 +259,109 @@ public class DjatokaImageMigrator implements FormatConstants, IReferentMigrator
 
             return file;
         } catch (final Exception details) {
+            // A scratch file that didn't become the referent's image is no longer needed
+            if (file != null) {
+                TempFileManager.release(file);
+            }
+
             throw new DjatokaException(details.getMessage(), details);
-        } finally {
-            if (processing.contains(aReferent)) {
-                processing.remove(aReferent);
+        }
+    }
+
+    /**
+     * Starts converting the image at the supplied URI on one of the migrator's workers, unless the referent is
+     * already being migrated, in which case the migration that's in flight is returned instead. Downloads and
+     * compressions run on a bounded pool of workers, rather than on the threads of the requests that wait for them.
+     * 
+     * @param aReferent the identifier for the remote file
+     * @param aURI the URI of an image to be downloaded and compressed as JP2
+     * @return The future result of the referent's migration
+     * @throws DjatokaException If the migration can't be started because too many are already waiting
+     */
+    @Override
+    public Future<File> migrate(final String aReferent, final URI aURI) throws DjatokaException {
+        final FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+
+            @Override
+            public File call() throws DjatokaException {
+                return convert(aReferent, aURI);
             }
+        }) {
+
+            @Override
+            protected void done() {
+                myMigrations.remove(aReferent, this);
+            }
+        };
+
+        final Future<File> inFlight = myMigrations.putIfAbsent(aReferent, task);
+
+        if (inFlight != null) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Waiting on in-flight migration of: {}", aReferent);
+            }
+
+            return inFlight;
         }
+
+        try {
+            getExecutor().execute(task);
+        } catch (final RejectedExecutionException details) {
+            myMigrations.remove(aReferent, task);
+            throw new DjatokaException("Too many remote images are waiting to be migrated; rejected: " + aURI,
+                    details);
+        }
+
+        return task;
     }
 
     /**
-     * Returns a delete on exit File object for a provide URI
+     * Returns the in-flight migration of the supplied referent, or null if it's not being migrated.
+     * 
+     * @param aReferent the identifier of an image file
+     * @return The future result of the referent's migration, or null if it's not being migrated
+     */
+    @Override
+    public Future<File> getMigration(final String aReferent) {
+        return myMigrations.get(aReferent);
+    }
+
+    /**
+     * Sets the number of migrations that can run at the same time and the number that can wait to run. This takes
+     * effect when the first migration is started.
+     * 
+     * @param aWorkers The number of migrations that can run at the same time
+     * @param aQueueSize The number of migrations that can wait for a free worker
+     */
+    @Override
+    public synchronized void setMigrationLimits(final int aWorkers, final int aQueueSize) {
+        myWorkers = Math.max(1, aWorkers);
+        myQueueSize = Math.max(1, aQueueSize);
+    }
+
+    private synchronized ThreadPoolExecutor getExecutor() {
+        if (myExecutor == null) {
+            myExecutor = new ThreadPoolExecutor(myWorkers, myWorkers, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(myQueueSize), new ThreadFactory() {
+
+                        @Override
+                        public Thread newThread(final Runnable aRunnable) {
+                            final Thread thread = new Thread(aRunnable, "image-migrator-" +
+                                    myThreadCount.incrementAndGet());
+
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+
+            myExecutor.allowCoreThreadTimeOut(true);
+        }
+
+        return myExecutor;
+    }
+
+    /**
+     * Returns a scratch File object, deleted when its last reference is released, for a provided URI
      * 
      * @param img File object on local image to be compressed
      * @param uri the URI of an image to be compressed as JP2
@@ -261,18 +375,23 @@ public class DjatokaImageMigrator implements FormatConstants, IReferentMigrator
         try {
             if (fmt == null || !ImageProcessingUtils.isJp2Type(fmt)) {
                 final ICompress jp2 = new KduCompressExe();
-                final File jp2Local = File.createTempFile("cache" + uri.hashCode() + "-", ".jp2");
+                final File jp2Local = TempFileManager.create("cache" + uri.hashCode() + "-", ".jp2");
                 if (!jp2Local.delete() && LOGGER.isWarnEnabled()) {
                     LOGGER.warn("File not deleted: {}", jp2Local);
                 }
-                jp2.compressImage(img.getAbsolutePath(), jp2Local.getAbsolutePath(), new DjatokaEncodeParam());
-                if (!img.delete() && LOGGER.isWarnEnabled()) {
+                try {
+                    jp2.compressImage(img.getAbsolutePath(), jp2Local.getAbsolutePath(), new DjatokaEncodeParam());
+                } catch (final DjatokaException details) {
+                    TempFileManager.release(jp2Local);
+                    throw details;
+                }
+                if (!TempFileManager.release(img) && !img.delete() && LOGGER.isWarnEnabled()) {
                     LOGGER.warn("File not deleted: {}", img);
                 }
                 img = jp2Local;
             } else {
                 try {
-                    final IExtract ex = new KduExtractExe();
+                    final IExtract ex = ImageMetadata.getExtractor();
                     ex.getMetadata(new ImageRecord(uri.toString(), img.getAbsolutePath()));
                 } catch (final DjatokaException e) {
                     throw new DjatokaException("Unknown JP2/JPX file format");
@@ -285,13 +404,13 @@ public class DjatokaImageMigrator implements FormatConstants, IReferentMigrator
     }
 
     /**
-     * Return a unmodifiable list of images currently being processed. Images are removed once complete.
+     * Return a snapshot of the images currently being processed. Images are removed once complete.
      * 
      * @return list of images being processed
      */
     @Override
     public List<String> getProcessingList() {
-        return processing;
+        return new ArrayList<String>(myMigrations.keySet());
     }
 
     /**
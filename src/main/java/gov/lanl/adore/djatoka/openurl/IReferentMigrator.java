@@ -8,6 +8,7 @@ import java.net.URI;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 public interface IReferentMigrator {
 
@@ -42,6 +43,33 @@ public interface IReferentMigrator {
      */
     public abstract File convert(String aReferent, URI aURI) throws DjatokaException;
 
+    /**
+     * Starts converting the image at the supplied URI in the background, unless the referent is already being
+     * migrated, in which case the migration that's in flight is returned instead.
+     * 
+     * @param aReferent the identifier of the requested image file
+     * @param aURI the URI of an image to be downloaded and compressed as JP2
+     * @return The future result of the referent's migration
+     * @throws DjatokaException If the migration can't be started because too many are already waiting
+     */
+    public abstract Future<File> migrate(String aReferent, URI aURI) throws DjatokaException;
+
+    /**
+     * Returns the in-flight migration of the supplied referent, or null if it's not being migrated.
+     * 
+     * @param aReferent the identifier of an image file
+     * @return The future result of the referent's migration, or null if it's not being migrated
+     */
+    public abstract Future<File> getMigration(String aReferent);
+
+    /**
+     * Sets the number of migrations that can run at the same time and the number that can wait to run.
+     * 
+     * @param aWorkers The number of migrations that can run at the same time
+     * @param aQueueSize The number of migrations that can wait for a free worker
+     */
+    public abstract void setMigrationLimits(int aWorkers, int aQueueSize);
+
     /**
      * Returns a local File object for a provide URI
      * 
@@ -55,6 +55,15 @@ public interface IReferentResolver {
      */
     public ImageRecord getImageRecord(Referent rft) throws ResolverException;
 
+    /**
+     * Referent Identifier to be resolved only if its image is already available locally. Unlike
+     * <code>getImageRecord</code>, this never retrieves the image from a remote source, so it returns quickly.
+     * 
+     * @param rftId identifier of the image to be resolved
+     * @return ImageRecord instance containing resolvable metadata, or null if the image isn't available locally
+     */
+    public ImageRecord getLocalImageRecord(String rftId);
+
     /**
      * Sets a Properties object that may be used by underlying implementation
      * 
@@ -38,7 +38,9 @@ import info.openurl.oom.config.ClassConfig;
 import info.openurl.oom.config.OpenURLConfig;
 import info.openurl.oom.entities.ServiceType;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
@@ -107,31 +109,42 @@ public class OpenURLJP2Datastream implements Service, FormatConstants {
     public OpenURLResponse resolve(ServiceType serviceType, ContextObject contextObject,
             OpenURLRequest openURLRequest, OpenURLRequestProcessor processor) {
 
-        String responseFormat = "application/jp2";;
+        String responseFormat = "application/jp2";
         int status = HttpServletResponse.SC_OK;
-        byte[] b = null;
+        InputStream is = null;
+        long length = -1;
         try {
             ImageRecord r = ReferentManager.getImageRecord(contextObject.getReferent());
             if (r != null && r.getImageFile() != null) {
-                b = IOUtils.getBytesFromFile(new File(r.getImageFile()));
+                // Stream the JP2 from disk rather than reading it all into memory
+                File file = new File(r.getImageFile());
+                is = new FileInputStream(file);
+                length = file.length();
             } else if (r != null && r.getObject() != null) {
                 if (r.getObject() instanceof byte[]) {
-                    b = (byte[]) r.getObject();
+                    byte[] b = (byte[]) r.getObject();
+                    is = new ByteArrayInputStream(b);
+                    length = b.length;
                 } else if (r.getObject() instanceof InputStream) {
-                    b = IOUtils.getByteArray((InputStream) r.getObject());
+                    is = (InputStream) r.getObject();
                 }
             }
-            if (b == null) {
+            if (is == null) {
                 throw new Exception("Unable to resolve resource");
             }
         } catch (Exception e) {
             LOGGER.error(e.getMessage(), e);
+            byte[] b = String.valueOf(e.getMessage()).getBytes();
+            is = new ByteArrayInputStream(b);
+            length = b.length;
             responseFormat = "text/plain";
             status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
         }
         HashMap<String, String> header_map = new HashMap<String, String>();
-        header_map.put("Content-Length", Integer.toString(b.length));
+        if (length >= 0) {
+            header_map.put("Content-Length", Long.toString(length));
+        }
         header_map.put("Date", HttpDate.getHttpDate());
-        return new OpenURLResponse(status, responseFormat, b, header_map);
+        return new OpenURLResponse(status, responseFormat, is, new HashMap<String, String>(), header_map);
     }
 }
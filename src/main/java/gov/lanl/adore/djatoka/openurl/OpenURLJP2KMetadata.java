@@ -42,11 +42,11 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import gov.lanl.adore.djatoka.DjatokaException;
 import gov.lanl.adore.djatoka.IExtract;
 import gov.lanl.adore.djatoka.io.FormatConstants;
-import gov.lanl.adore.djatoka.kdu.KduExtractExe;
 import gov.lanl.adore.djatoka.util.IOUtils;
 import gov.lanl.adore.djatoka.util.ImageRecord;
 import gov.lanl.util.HttpDate;
 
+import info.freelibrary.djatoka.util.ImageMetadata;
 import info.freelibrary.djatoka.view.IdentifierResolver;
 
 import info.openurl.oom.ContextObject;
@@ -128,7 +128,7 @@ public class OpenURLJP2KMetadata implements Service, FormatConstants {
         try {
             final ObjectMapper mapper = new ObjectMapper();
             final ObjectNode rootNode = mapper.createObjectNode();
-            final IExtract jp2 = new KduExtractExe();
+            final IExtract jp2 = ImageMetadata.getExtractor();
 
             ImageRecord r = ReferentManager.getImageRecord(contextObject.getReferent());
             r = jp2.getMetadata(r);
@@ -168,6 +168,7 @@ public class OpenURLJP2KMetadata implements Service, FormatConstants {
         final HashMap<String, String> header_map = new HashMap<String, String>();
         header_map.put("Content-Length", baos.size() + "");
         header_map.put("Date", HttpDate.getHttpDate());
-        return new OpenURLResponse(status, responseFormat, baos.toByteArray(), header_map);
+        return new OpenURLResponse(status, responseFormat, baos.toByteArray(), new HashMap<String, String>(),
+                header_map);
     }
 }
@@ -21,18 +21,24 @@
 
 package gov.lanl.adore.djatoka.openurl;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -40,18 +46,33 @@ import org.oclc.oomRef.descriptors.ByValueMetadataImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.martiansoftware.jsap.CommandLineTokenizer;
+
 import gov.lanl.adore.djatoka.DjatokaDecodeParam;
 import gov.lanl.adore.djatoka.DjatokaException;
 import gov.lanl.adore.djatoka.DjatokaExtractProcessor;
+import gov.lanl.adore.djatoka.IExtract;
 import gov.lanl.adore.djatoka.io.FormatConstants;
 import gov.lanl.adore.djatoka.kdu.KduExtractExe;
+import gov.lanl.adore.djatoka.kdu.jni.PooledKduExtractJNI;
 import gov.lanl.adore.djatoka.plugin.ITransformPlugIn;
 import gov.lanl.adore.djatoka.util.IOUtils;
 import gov.lanl.adore.djatoka.util.ImageRecord;
 import gov.lanl.util.HttpDate;
 
-import info.freelibrary.djatoka.util.CacheUtils;
+import info.freelibrary.djatoka.decode.Cancellation;
+import info.freelibrary.djatoka.decode.DecodeCancelledException;
+import info.freelibrary.djatoka.decode.DecodeExecutor;
+import info.freelibrary.djatoka.decode.DecodeRejectedException;
+import info.freelibrary.djatoka.decode.DecodeScheduler;
+import info.freelibrary.djatoka.decode.ScheduledExtract;
+import info.freelibrary.djatoka.decode.worker.WorkerPoolExtract;
+import info.freelibrary.djatoka.util.ImageRecordCache;
+import info.freelibrary.djatoka.util.PooledStreamHandler;
+import info.freelibrary.djatoka.util.SingleFlight;
+import info.freelibrary.djatoka.util.TempFileManager;
 import info.freelibrary.djatoka.view.IdentifierResolver;
+import info.freelibrary.util.StringUtils;
 
 import info.openurl.oom.ContextObject;
 import info.openurl.oom.OpenURLRequest;
@@ -60,9 +81,7 @@ import info.openurl.oom.OpenURLResponse;
 import info.openurl.oom.Service;
 import info.openurl.oom.config.ClassConfig;
 import info.openurl.oom.config.OpenURLConfig;
-import info.openurl.oom.entities.Referent;
-import info.openurl.oom.entities.ReferringEntity;
-import info.openurl.oom.entities.Requester;
+import info.openurl.oom.entities.Entity;
 import info.openurl.oom.entities.ServiceType;
 
 /**
@@ -76,6 +95,8 @@ public class OpenURLJP2KService implements Service, FormatConstants {
 
     private static final String DEFAULT_IMPL_CLASS = IdentifierResolver.class.getCanonicalName();
 
+    private static final String DEFAULT_EXTRACT_CLASS = KduExtractExe.class.getCanonicalName();
+
     private static final String PROPS_REQUESTER = "requester";
 
     private static final String PROPS_REFERRING_ENTITY = "referringEntity";
@@ -92,11 +113,62 @@ public class OpenURLJP2KService implements Service, FormatConstants {
 
     private static final String PROPS_KEY_CACHE_SIZE = "OpenURLJP2KService.cacheSize";
 
+    private static final String PROPS_KEY_CACHE_MAX_BYTES = "OpenURLJP2KService.cacheMaxBytes";
+
+    private static final String PROPS_KEY_SCRATCH_MAX_BYTES = "OpenURLJP2KService.scratchMaxBytes";
+
     private static final String PROP_KEY_CACHE_MAX_PIXELS = "OpenURLJP2KService.cacheImageMaxPixels";
 
+    private static final String PROPS_KEY_DECODE_WORKERS = "OpenURLJP2KService.decodeWorkers";
+
+    private static final String PROPS_KEY_DECODE_QUEUE_SIZE = "OpenURLJP2KService.decodeQueueSize";
+
+    private static final String PROPS_KEY_DECODE_QUEUE_TIMEOUT = "OpenURLJP2KService.decodeQueueTimeout";
+
+    private static final String PROPS_KEY_DECODE_RETRY_AFTER = "OpenURLJP2KService.decodeRetryAfter";
+
+    private static final String PROPS_KEY_DECODER_PROCESSES = "OpenURLJP2KService.decoderProcesses";
+
+    private static final String PROPS_KEY_DECODER_COMMAND = "OpenURLJP2KService.decoderCommand";
+
+    private static final String PROPS_KEY_DECODER_MAX_JOBS = "OpenURLJP2KService.decoderMaxJobs";
+
+    private static final String PROPS_KEY_DECODER_CHECK_INTERVAL = "OpenURLJP2KService.decoderCheckInterval";
+
+    private static final String PROPS_KEY_DECODER_MAX_HEAP = "OpenURLJP2KService.decoderMaxHeap";
+
+    private static final String PROPS_KEY_EXTRACT_IMPL = "OpenURLJP2KService.extractImpl";
+
+    private static final String PROPS_KEY_JNI_CODESTREAM_CACHE_SIZE = "OpenURLJP2KService.jniCodestreamCacheSize";
+
+    private static final String PROPS_KEY_JNI_DECODE_THREADS = "OpenURLJP2KService.jniDecodeThreads";
+
+    private static final String PROPS_KEY_JNI_CACHE_THRESHOLD = "OpenURLJP2KService.jniCodestreamCacheThreshold";
+
+    private static final String PROPS_KEY_METADATA_CACHE_SIZE = "OpenURLJP2KService.metadataCacheSize";
+
+    private static final String PROPS_KEY_LANE_WORKERS = "OpenURLJP2KService.{}LaneWorkers";
+
+    private static final String PROPS_KEY_LANE_QUEUE_SIZE = "OpenURLJP2KService.{}LaneQueueSize";
+
+    private static final String PROPS_KEY_LANE_TIMEOUT = "OpenURLJP2KService.{}LaneTimeout";
+
+    /** OpenSeadragon gives up on a tile after 30 seconds by default, so nobody's waiting for it after that */
+    private static final long DEFAULT_LANE_TIMEOUT = 30000;
+
+    private static final int DEFAULT_INFO_LANE_WORKERS = 4;
+
+    private static final int DEFAULT_INFO_LANE_QUEUE_SIZE = 32;
+
+    private static final int DEFAULT_REMOTE_LANE_WORKERS = 16;
+
+    private static final int DEFAULT_REMOTE_LANE_QUEUE_SIZE = 16;
+
     private static final String SVC_ID = "info:lanl-repo/svc/getRegion";
 
-    private static final String DEFAULT_CACHE_SIZE = "1000";
+    private static final String DEFAULT_CACHE_SIZE = "0";
+
+    private static final String DEFAULT_CACHE_MAX_BYTES = "268435456";
 
     private static final int DEFAULT_CACHE_MAXPIXELS = 100000;
 
@@ -104,7 +176,7 @@ public class OpenURLJP2KService implements Service, FormatConstants {
 
     private static Properties props = new Properties();
 
-    private static boolean init = false;
+    private static volatile boolean init = false;
 
     private static boolean cacheTiles = true;
 
@@ -112,12 +184,22 @@ public class OpenURLJP2KService implements Service, FormatConstants {
 
     private static ITransformPlugIn transform;
 
-    private static String cacheDir = null;
-
     private static TileCacheManager<String, String> tileCache;
 
     private static DjatokaExtractProcessor extractor;
 
+    private static DecodeScheduler decodeScheduler;
+
+    private static WorkerPoolExtract decoderPool;
+
+    private static PooledKduExtractJNI jniDecoder;
+
+    private static IExtract metadataExtract;
+
+    private static Map<String, DecodeExecutor> lanes = Collections.emptyMap();
+
+    private static final SingleFlight<String, String> tileDecodes = new SingleFlight<String, String>();
+
     private static int maxPixels = DEFAULT_CACHE_MAXPIXELS;
 
     private static Set<Double> scaleCacheExceptions;
@@ -132,57 +214,100 @@ public class OpenURLJP2KService implements Service, FormatConstants {
      */
     public OpenURLJP2KService(final OpenURLConfig openURLConfig, final ClassConfig classConfig)
             throws ResolverException {
+        if (!init) {
+            try {
+                init(IOUtils.loadConfigByCP(classConfig.getArg("props")));
+            } catch (final IOException e) {
+                LOGGER.error(e.getMessage(), e);
+                throw new ResolverException("Error attempting to open props file from classpath, disabling " + SVC_ID +
+                        " : " + e.getMessage());
+            } catch (final ResolverException e) {
+                throw e;
+            } catch (final Exception e) {
+                LOGGER.error(e.getMessage(), e);
+                throw new ResolverException("Unable to read the " + SVC_ID + " configuration: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Initializes the referent resolver, tile cache, and extractor shared by all instances of the service. This is
+     * called when the OpenURL layer creates the service, but may also be called by code that renders images without
+     * going through the OpenURL layer. Only the first call has any effect.
+     * 
+     * @param aProps The djatoka properties
+     * @throws ResolverException If the service couldn't be initialized
+     */
+    public static synchronized void init(final Properties aProps) throws ResolverException {
+        if (init) {
+            return;
+        }
+
         try {
-            if (!init) {
-                props = IOUtils.loadConfigByCP(classConfig.getArg("props"));
+            props = aProps;
+            synchronized (ReferentManager.class) {
                 if (!ReferentManager.isInit()) {
                     implClass = props.getProperty(PROPS_KEY_IMPL_CLASS, DEFAULT_IMPL_CLASS);
                     ReferentManager.init((IReferentResolver) Class.forName(implClass).newInstance(), props);
                 }
-                cacheDir = props.getProperty(PROPS_KEY_CACHE_TMPDIR);
-                if (props.getProperty(PROPS_KEY_CACHE_ENABLED) != null) {
-                    cacheTiles = Boolean.parseBoolean(props.getProperty(PROPS_KEY_CACHE_ENABLED));
-                }
-                if (cacheTiles) {
-                    final int cacheSize =
-                            Integer.parseInt(props.getProperty(PROPS_KEY_CACHE_SIZE, DEFAULT_CACHE_SIZE));
-                    tileCache = new TileCacheManager<String, String>(cacheSize);
-                }
-                if (props.getProperty(PROPS_KEY_TRANSFORM) != null) {
-                    transformCheck = true;
-                    final String transClass = props.getProperty(PROPS_KEY_TRANSFORM);
-                    transform = (ITransformPlugIn) Class.forName(transClass).newInstance();
-                    transform.setup(props);
-                }
-                if (props.getProperty(PROP_KEY_CACHE_MAX_PIXELS) != null) {
-                    maxPixels = Integer.parseInt(props.getProperty(PROP_KEY_CACHE_MAX_PIXELS));
-                }
-                if (props.getProperty(SCALE_CACHE_EXCEPTIONS) != null) {
-                    scaleCacheExceptions = new HashSet<Double>();
+            }
+            if (props.getProperty(PROPS_KEY_CACHE_TMPDIR) != null) {
+                TempFileManager.setDirectory(new File(props.getProperty(PROPS_KEY_CACHE_TMPDIR)));
+            }
+            if (props.getProperty(PROPS_KEY_SCRATCH_MAX_BYTES) != null) {
+                TempFileManager.setMaxBytes(Long.parseLong(props.getProperty(PROPS_KEY_SCRATCH_MAX_BYTES).trim()));
+            }
+            if (props.getProperty(PROPS_KEY_CACHE_ENABLED) != null) {
+                cacheTiles = Boolean.parseBoolean(props.getProperty(PROPS_KEY_CACHE_ENABLED));
+            }
+            if (cacheTiles) {
+                final int cacheSize =
+                        Integer.parseInt(props.getProperty(PROPS_KEY_CACHE_SIZE, DEFAULT_CACHE_SIZE).trim());
+                final long cacheMaxBytes =
+                        Long.parseLong(props.getProperty(PROPS_KEY_CACHE_MAX_BYTES, DEFAULT_CACHE_MAX_BYTES).trim());
+                tileCache = new TileCacheManager<String, String>(cacheSize, cacheMaxBytes);
+            }
+            if (props.getProperty(PROPS_KEY_TRANSFORM) != null) {
+                transformCheck = true;
+                final String transClass = props.getProperty(PROPS_KEY_TRANSFORM);
+                transform = (ITransformPlugIn) Class.forName(transClass).newInstance();
+                transform.setup(props);
+            }
+            if (props.getProperty(PROP_KEY_CACHE_MAX_PIXELS) != null) {
+                maxPixels = Integer.parseInt(props.getProperty(PROP_KEY_CACHE_MAX_PIXELS));
+            }
+            if (props.getProperty(SCALE_CACHE_EXCEPTIONS) != null) {
+                scaleCacheExceptions = new HashSet<Double>();
 
-                    for (final String exception : props.getProperty(SCALE_CACHE_EXCEPTIONS).split("\\s+")) {
-                        try {
-                            scaleCacheExceptions.add(new Double(exception));
+                for (final String exception : props.getProperty(SCALE_CACHE_EXCEPTIONS).split("\\s+")) {
+                    try {
+                        scaleCacheExceptions.add(new Double(exception));
 
-                            if (LOGGER.isDebugEnabled()) {
-                                LOGGER.debug("Scale cache exception added: {}", exception);
-                            }
-                        } catch (final NumberFormatException details) {
-                            if (LOGGER.isWarnEnabled()) {
-                                LOGGER.warn("Configured scale cache exception isn't a valid double: {}", exception);
-                            }
+                        if (LOGGER.isDebugEnabled()) {
+                            LOGGER.debug("Scale cache exception added: {}", exception);
+                        }
+                    } catch (final NumberFormatException details) {
+                        if (LOGGER.isWarnEnabled()) {
+                            LOGGER.warn("Configured scale cache exception isn't a valid double: {}", exception);
                         }
                     }
-                } else {
-                    scaleCacheExceptions = new HashSet<Double>();
                 }
-                extractor = new DjatokaExtractProcessor(new KduExtractExe());
-                init = true;
+            } else {
+                scaleCacheExceptions = new HashSet<Double>();
             }
-        } catch (final IOException e) {
-            LOGGER.error(e.getMessage(), e);
-            throw new ResolverException("Error attempting to open props file from classpath, disabling " + SVC_ID +
-                    " : " + e.getMessage());
+            if (props.getProperty(PROPS_KEY_METADATA_CACHE_SIZE) != null) {
+                ImageRecordCache.setCapacity(Integer.parseInt(props.getProperty(PROPS_KEY_METADATA_CACHE_SIZE)
+                        .trim()));
+            }
+            decodeScheduler = createDecodeScheduler(props);
+            // Every decode that's allowed to run at once may need a pump for its kdu_expand's input
+            PooledStreamHandler.setPoolSize(decodeScheduler.getWorkerCount());
+            lanes = createLanes(props, decodeScheduler);
+            decoderPool = createDecoderPool(props, decodeScheduler);
+            final IExtract decoder = decoderPool == null ? createExtract(props) : decoderPool;
+            metadataExtract = decoder;
+            extractor = new DjatokaExtractProcessor(new ScheduledExtract(decoder, decodeScheduler));
+            init = true;
         } catch (final Exception e) {
             LOGGER.error(e.getMessage(), e);
             throw new ResolverException("Unable to inititalize implementation: " + props.getProperty(implClass) +
@@ -190,6 +315,15 @@ public class OpenURLJP2KService implements Service, FormatConstants {
         }
     }
 
+    /**
+     * Returns true if the service has been initialized; else, false.
+     * 
+     * @return True if the service has been initialized
+     */
+    public static boolean isInit() {
+        return init;
+    }
+
     /**
      * Returns the OpenURL service identifier for this implementation of info.openurl.oom.Service
      */
@@ -199,13 +333,82 @@ public class OpenURLJP2KService implements Service, FormatConstants {
     }
 
     /**
-     * Removes a tile from the tile cache.
+     * Returns the scheduler that bounds concurrent decodes, or null if the service hasn't been initialized.
      * 
-     * @param aCacheID The ID of the tile in the cache
-     * @return True if the tile was successfully removed; else, false
+     * @return The decode scheduler
      */
-    public static boolean removeFromTileCache(final String aCacheID) {
-        return tileCache.remove(aCacheID) != null;
+    public static DecodeScheduler getDecodeScheduler() {
+        return decodeScheduler;
+    }
+
+    /**
+     * Returns the pool of long-lived decoder processes, or null if each decode runs its own kdu_expand or the service
+     * hasn't been initialized.
+     * 
+     * @return The decoder process pool
+     */
+    public static WorkerPoolExtract getDecoderPool() {
+        return decoderPool;
+    }
+
+    /**
+     * Returns the extractor decodes are configured to use, which is also what reads image metadata, or null if the
+     * service hasn't been initialized.
+     * 
+     * @return The configured extractor
+     */
+    public static IExtract getMetadataExtract() {
+        return metadataExtract;
+    }
+
+    /**
+     * Returns the in-process Kakadu decoder, or null if decodes aren't done with it or the service hasn't been
+     * initialized.
+     * 
+     * @return The in-process Kakadu decoder
+     */
+    public static PooledKduExtractJNI getJniDecoder() {
+        return jniDecoder;
+    }
+
+    /**
+     * Returns the executor for the lane with the supplied name, which serves that kind of request off of the
+     * container's threads, or null if the service hasn't been initialized.
+     * 
+     * @param aName The name of a lane, such as <code>DecodeExecutor.DECODE_LANE</code>
+     * @return The lane's executor
+     */
+    public static DecodeExecutor getLane(final String aName) {
+        return lanes.get(aName);
+    }
+
+    /**
+     * Returns the executors for all the lanes, which will be empty if the service hasn't been initialized.
+     * 
+     * @return The lanes' executors
+     */
+    public static Collection<DecodeExecutor> getLanes() {
+        return lanes.values();
+    }
+
+    /**
+     * Returns the OpenURL layer's tile cache, or null if tile caching is disabled or the service hasn't been
+     * initialized.
+     * 
+     * @return The tile cache
+     */
+    public static TileCacheManager<String, String> getTileCache() {
+        return tileCache;
+    }
+
+    /**
+     * Returns the number of tile requests that shared another request's in-flight decode instead of decoding the
+     * tile themselves.
+     * 
+     * @return The number of coalesced tile decodes
+     */
+    public static long getCoalescedDecodeCount() {
+        return tileDecodes.getCoalescedCount();
     }
 
     /**
@@ -216,13 +419,10 @@ public class OpenURLJP2KService implements Service, FormatConstants {
     @Override
     public OpenURLResponse resolve(final ServiceType serviceType, final ContextObject contextObject,
             final OpenURLRequest openURLRequest, final OpenURLRequestProcessor processor) {
-        String djatokaCacheFile = null;
-        String responseFormat = null;
         String format = "image/jpeg";
-        int status = HttpServletResponse.SC_OK;
         final HashMap<String, String> kev = setServiceValues(contextObject);
         final DjatokaDecodeParam params = new DjatokaDecodeParam();
-        String id = null;
+        ImageRecord r = null;
 
         if (kev.containsKey("region")) {
             params.setRegion(kev.get("region"));
@@ -260,8 +460,64 @@ public class OpenURLJP2KService implements Service, FormatConstants {
                 params.setCompositingLayer(clayer);
             }
         }
+
+        // Negative regions are rejected before we bother resolving the referent
+        if (params.getRegion() == null || !params.getRegion().contains("-")) {
+            try {
+                r = ReferentManager.getImageRecord(contextObject.getReferent());
+            } catch (final ResolverException e) {
+                LOGGER.error(e.getMessage(), e);
+                return getErrorResponse(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+            }
+        }
+
+        return getRegion(r, params, format, getDescriptor(contextObject.getRequesters()),
+                getDescriptor(contextObject.getReferringEntities()));
+    }
+
+    /**
+     * Returns an OpenURLResponse consisting of the requested region of the supplied image. This is the work done by
+     * {@link #resolve(ServiceType, ContextObject, OpenURLRequest, OpenURLRequestProcessor)} once the request's
+     * parameters have been parsed and its referent resolved, so callers that already have an image record and
+     * decode parameters can use it directly, without building an OpenURL context object.
+     * 
+     * @param r The image record of the requested image, or null if it couldn't be resolved
+     * @param params The decode parameters of the requested region
+     * @param format The mime-type of the requested region
+     * @param requester The requester, passed to a configured transform plug-in; may be null
+     * @param referrer The referring entity, passed to a configured transform plug-in; may be null
+     * @return An OpenURLResponse consisting of the requested region
+     */
+    public static OpenURLResponse getRegion(final ImageRecord r, final DjatokaDecodeParam params,
+            final String format, final String requester, final String referrer) {
+        return getRegion(r, params, format, requester, referrer, null);
+    }
+
+    /**
+     * Returns an OpenURLResponse consisting of the requested region of the supplied image, writing a cacheable
+     * region straight through to the supplied cache file. The region is decoded into a temporary file beside the
+     * cache file and renamed into place, so the cache file is never seen partly written. Regions that aren't
+     * cacheable, or that are requested without a cache file, are handled as they are by
+     * {@link #getRegion(ImageRecord, DjatokaDecodeParam, String, String, String)}.
+     * 
+     * @param r The image record of the requested image, or null if it couldn't be resolved
+     * @param params The decode parameters of the requested region
+     * @param format The mime-type of the requested region
+     * @param requester The requester, passed to a configured transform plug-in; may be null
+     * @param referrer The referring entity, passed to a configured transform plug-in; may be null
+     * @param cacheFile The file the region is cached in, which is read if it exists and written if it doesn't; may
+     *        be null
+     * @return An OpenURLResponse consisting of the requested region
+     */
+    public static OpenURLResponse getRegion(final ImageRecord r, final DjatokaDecodeParam params,
+            final String format, final String requester, final String referrer, final File cacheFile) {
+        String responseFormat = null;
+        int status = HttpServletResponse.SC_OK;
+        int retryAfter = 0;
+
         responseFormat = format;
 
+        FileInputStream body = null;
         byte[] bytes = null;
 
         if (params.getRegion() != null && params.getRegion().contains("-")) {
@@ -281,9 +537,6 @@ public class OpenURLJP2KService implements Service, FormatConstants {
             }
 
             try {
-                final Referent referent = contextObject.getReferent();
-                final ImageRecord r = ReferentManager.getImageRecord(referent);
-
                 if (r != null) {
                     if (LOGGER.isDebugEnabled()) {
                         LOGGER.debug("Retrieving ImageRecord for: {}", r.getIdentifier());
@@ -294,100 +547,108 @@ public class OpenURLJP2KService implements Service, FormatConstants {
                         if (r.getInstProps() != null) {
                             instProps.putAll(r.getInstProps());
                         }
-                        int l = contextObject.getRequesters().length;
-                        final Requester[] req = contextObject.getRequesters();
-                        if (l > 0 && req[0].getDescriptors().length > 0) {
-                            final String rs = req[0].getDescriptors()[0].toString();
-                            instProps.put(PROPS_REQUESTER, rs);
+                        if (requester != null) {
+                            instProps.put(PROPS_REQUESTER, requester);
                         }
-                        l = contextObject.getReferringEntities().length;
-                        ReferringEntity[] rea;
-                        rea = contextObject.getReferringEntities();
-                        if (l > 0 && rea[0].getDescriptors().length > 0) {
-                            instProps.put(PROPS_REFERRING_ENTITY, contextObject.getReferringEntities()[0]
-                                    .getDescriptors()[0].toString());
+                        if (referrer != null) {
+                            instProps.put(PROPS_REFERRING_ENTITY, referrer);
                         }
                         if (instProps.size() > 0) {
                             transform.setInstanceProps(instProps);
                         }
                         params.setTransform(transform);
                     }
-                    if (!cacheTiles || !isCacheable(params)) {
+                    final boolean cacheable = isCacheable(params);
+
+                    if (cacheFile != null && cacheable) {
+                        final String tileFormat = format;
+
+                        // The caller's cache is written through, so this is the only copy of the tile that's made
+                        if (!cacheFile.exists()) {
+                            tileDecodes.execute(cacheFile.getAbsolutePath(), new Callable<String>() {
+
+                                @Override
+                                public String call() throws Exception {
+                                    return writeTile(r, params, tileFormat, cacheFile);
+                                }
+                            });
+                        } else if (LOGGER.isDebugEnabled()) {
+                            LOGGER.debug("cachedTile: {}", cacheFile);
+                        }
+
+                        body = openTile(cacheFile.getAbsolutePath());
+                    } else if (!cacheTiles || !cacheable) {
                         if (LOGGER.isWarnEnabled()) {
                             LOGGER.warn("Not using the OpenURL layer cache");
                         }
 
-                        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                        extractor.extractImage(r.getImageFile(), baos, params, format);
-                        bytes = baos.toByteArray();
-                        baos.close();
+                        // The region is streamed from a scratch file that's released once it's been sent
+                        final File f = TempFileManager.create("region-", "." + getExtension(format));
+
+                        try {
+                            extractor.extractImage(r.getImageFile(), f.getAbsolutePath(), params, format);
+                            body = new TempFileInputStream(f);
+                        } finally {
+                            if (body == null) {
+                                TempFileManager.release(f);
+                            }
+                        }
                     } else {
                         final String ext = getExtension(format);
                         final String hash = getTileHash(r, params);
-                        String file = tileCache.get(hash + ext);
-                        File f;
-
-                        id = r.getIdentifier();
-
-                        if (file == null || !(f = new File(file)).exists() && f.length() > 0) {
-                            if (cacheDir != null) {
-                                final File cacheDirFile = new File(cacheDir);
-
-                                // If our cache dir doesn't exist, create it
-                                if (!cacheDirFile.exists()) {
-                                    if (!cacheDirFile.mkdirs() && LOGGER.isWarnEnabled()) {
-                                        LOGGER.warn("Dirs not created: {}", cacheDirFile);
-                                    }
-                                }
+                        final String cacheKey = hash + ext;
+                        final String file = getCachedTile(cacheKey);
 
-                                f = File.createTempFile("cache" + hash.hashCode() + "-", "." + ext, cacheDirFile);
-                            } else {
-                                f = File.createTempFile("cache" + hash.hashCode() + "-", "." + ext);
-                            }
+                        if (file != null) {
+                            body = openTile(file);
+                        }
 
+                        if (body != null) {
                             if (LOGGER.isDebugEnabled()) {
-                                LOGGER.debug("Temp file created: {}", f);
+                                LOGGER.debug("tileCache: {} {}", file, body.getChannel().size());
                             }
+                        } else {
+                            final String tileFormat = format;
 
-                            f.deleteOnExit();
-                            file = f.getAbsolutePath();
-                            djatokaCacheFile = file;
-
-                            extractor.extractImage(r.getImageFile(), file, params, format);
-
-                            if (tileCache.get(hash + ext) == null) {
-                                tileCache.put(hash + ext, file);
-                                bytes = IOUtils.getBytesFromFile(f);
-
-                                if (LOGGER.isDebugEnabled()) {
-                                    LOGGER.debug("makingTile: " + file + " " + bytes.length + " params: " + params);
-                                }
-                            } else {
-                                // Handles simultaneous request on separate
-                                // thread, ignores cache.
-                                bytes = IOUtils.getBytesFromFile(f);
+                            // Concurrent requests for the same tile share a single decode
+                            final String tile = tileDecodes.execute(cacheKey, new Callable<String>() {
 
-                                if (!f.delete() && LOGGER.isWarnEnabled()) {
-                                    LOGGER.warn("File not deleted: {}", f);
+                                @Override
+                                public String call() throws Exception {
+                                    return decodeTile(r, params, tileFormat, hash, ext);
                                 }
+                            });
 
-                                if (LOGGER.isDebugEnabled()) {
-                                    LOGGER.debug("tempTile: " + file + " " + bytes.length + " params: " + params);
-                                }
-                            }
-                        } else {
-                            bytes = IOUtils.getBytesFromFile(new File(file));
+                            body = openTile(tile);
 
-                            if (LOGGER.isDebugEnabled()) {
-                                LOGGER.debug("tileCache: {} {}", file, bytes.length);
+                            // The shared tile was evicted before this request could open it
+                            if (body == null) {
+                                body = openTile(decodeTile(r, params, format, hash, ext));
                             }
-
-                            djatokaCacheFile = file;
                         }
                     }
                 } else if (LOGGER.isWarnEnabled()) {
                     LOGGER.warn("Unable to retrieve ImageRecord");
                 }
+            } catch (final DecodeRejectedException e) {
+                bytes = e.getMessage().getBytes();
+                responseFormat = "text/plain";
+                status = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+                retryAfter = e.getRetryAfter();
+            } catch (final DecodeCancelledException e) {
+                final Cancellation cancellation = Cancellation.current();
+
+                // A decode stopped by its lane's time limit can be retried; otherwise, the client is gone and this
+                // response is only a formality
+                if (cancellation != null && cancellation.isTimedOut()) {
+                    retryAfter = cancellation.getRetryAfter();
+                } else if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug(e.getMessage());
+                }
+
+                bytes = e.getMessage().getBytes();
+                responseFormat = "text/plain";
+                status = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
             } catch (final ResolverException e) {
                 LOGGER.error(e.getMessage(), e);
                 bytes = e.getMessage().getBytes();
@@ -406,84 +667,311 @@ public class OpenURLJP2KService implements Service, FormatConstants {
             }
         }
 
-        if (bytes == null || bytes.length == 0) {
+        long length = 0;
+
+        if (body != null) {
+            try {
+                length = body.getChannel().size();
+            } catch (final IOException e) {
+                LOGGER.error(e.getMessage(), e);
+            }
+        } else if (bytes != null) {
+            length = bytes.length;
+        }
+
+        if (length == 0) {
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("No bytes found!");
             }
 
+            if (body != null) {
+                try {
+                    body.close();
+                } catch (final IOException e) {
+                    LOGGER.error(e.getMessage(), e);
+                }
+
+                body = null;
+            }
+
             bytes = "".getBytes();
             responseFormat = "text/plain";
             status = HttpServletResponse.SC_NOT_FOUND;
         }
 
         final HashMap<String, String> header_map = new HashMap<String, String>();
-        header_map.put("Content-Length", bytes.length + "");
+        header_map.put("Content-Length", length + "");
         header_map.put("Date", HttpDate.getHttpDate());
 
+        if (retryAfter > 0) {
+            header_map.put("Retry-After", Integer.toString(retryAfter));
+        }
+
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Getting OpenURLResponse...");
         }
 
-        final OpenURLResponse response = new OpenURLResponse(status, responseFormat, bytes, header_map);
+        final OpenURLResponse response;
 
-        // Record where our cache file was (if we had/created one)
-        if (djatokaCacheFile != null) {
-            final StringBuilder dimBuilder = new StringBuilder();
-            final int[] dims = params.getScalingDimensions();
-            final String level = Integer.toString(params.getLevel());
-            final String region = params.getRegion();
-            final int rotation = params.getRotationDegree();
-            final String ext = getExtension(format);
-            String scale;
-            String hash;
-
-            if (dims != null) {
-                if (dims.length == 2) {
-                    dimBuilder.append(dims[0]).append(',').append(dims[1]);
-                } else {
-                    dimBuilder.append(dims[0]);
-                }
+        // Images are streamed from their files rather than read into memory
+        if (body != null) {
+            response = new OpenURLResponse(status, responseFormat, body, new HashMap<String, String>(), header_map);
+        } else {
+            response = new OpenURLResponse(status, responseFormat, bytes, new HashMap<String, String>(), header_map);
+        }
+
+        return response;
+    }
+
+    private static OpenURLResponse getErrorResponse(final int status, final String message) {
+        final byte[] bytes = message == null ? new byte[0] : message.getBytes();
+        final HashMap<String, String> header_map = new HashMap<String, String>();
+        header_map.put("Content-Length", bytes.length + "");
+        header_map.put("Date", HttpDate.getHttpDate());
+        return new OpenURLResponse(status, "text/plain", bytes, new HashMap<String, String>(), header_map);
+    }
+
+    private static String getDescriptor(final Entity[] entities) {
+        if (entities != null && entities.length > 0 && entities[0].getDescriptors().length > 0) {
+            return entities[0].getDescriptors()[0].toString();
+        }
+
+        return null;
+    }
+
+    private static DecodeScheduler createDecodeScheduler(final Properties aProps) {
+        final int workers = Integer.parseInt(aProps.getProperty(PROPS_KEY_DECODE_WORKERS, "0").trim());
+        final int queueSize = Integer.parseInt(aProps.getProperty(PROPS_KEY_DECODE_QUEUE_SIZE, "-1").trim());
+        final long timeout =
+                Long.parseLong(aProps.getProperty(PROPS_KEY_DECODE_QUEUE_TIMEOUT,
+                        Long.toString(DecodeScheduler.DEFAULT_QUEUE_TIMEOUT)).trim());
+        final int retryAfter =
+                Integer.parseInt(aProps.getProperty(PROPS_KEY_DECODE_RETRY_AFTER,
+                        Integer.toString(DecodeScheduler.DEFAULT_RETRY_AFTER)).trim());
+
+        return new DecodeScheduler(workers, queueSize, timeout, retryAfter);
+    }
+
+    /**
+     * Creates the configured extractor, which runs a kdu_expand for each decode unless it's configured otherwise.
+     */
+    private static IExtract createExtract(final Properties aProps) throws Exception {
+        final String extractClass = aProps.getProperty(PROPS_KEY_EXTRACT_IMPL, DEFAULT_EXTRACT_CLASS).trim();
+        final IExtract extract;
+
+        try {
+            extract = (IExtract) Class.forName(extractClass).newInstance();
+        } catch (final LinkageError details) {
+            // Like the Kakadu library that the in-process decoder needs not being on java.library.path
+            throw new DjatokaException("Unable to load " + extractClass + ": " + details.getMessage(), details);
+        }
+
+        if (extract instanceof PooledKduExtractJNI) {
+            jniDecoder = (PooledKduExtractJNI) extract;
+
+            if (aProps.getProperty(PROPS_KEY_JNI_CODESTREAM_CACHE_SIZE) != null) {
+                jniDecoder.setCapacity(Integer.parseInt(aProps.getProperty(PROPS_KEY_JNI_CODESTREAM_CACHE_SIZE)
+                        .trim()));
             }
 
-            scale = dimBuilder.toString();
+            if (aProps.getProperty(PROPS_KEY_JNI_DECODE_THREADS) != null) {
+                jniDecoder.setThreads(Integer.parseInt(aProps.getProperty(PROPS_KEY_JNI_DECODE_THREADS).trim()));
+            }
 
-            try {
-                hash = getTileHash(id, params);
-            } catch (final Exception details) {
-                if (LOGGER.isErrorEnabled()) {
-                    LOGGER.error(details.getMessage(), details);
-                }
+            if (aProps.getProperty(PROPS_KEY_JNI_CACHE_THRESHOLD) != null) {
+                jniDecoder.setCacheThreshold(Integer.parseInt(aProps.getProperty(PROPS_KEY_JNI_CACHE_THRESHOLD)
+                        .trim()));
+            }
+        }
+
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("Decoding with {}", extractClass);
+        }
+
+        return extract;
+    }
+
+    /**
+     * Creates the pool of long-lived decoder processes, with one process for each decode that's allowed to run at the
+     * same time, or returns null if decodes should each run their own kdu_expand.
+     */
+    private static WorkerPoolExtract createDecoderPool(final Properties aProps, final DecodeScheduler aScheduler) {
+        if (!Boolean.parseBoolean(aProps.getProperty(PROPS_KEY_DECODER_PROCESSES, "false").trim())) {
+            return null;
+        }
 
-                hash = null;
+        final String command = aProps.getProperty(PROPS_KEY_DECODER_COMMAND, "").trim();
+        final int maxJobs =
+                Integer.parseInt(aProps.getProperty(PROPS_KEY_DECODER_MAX_JOBS,
+                        Integer.toString(WorkerPoolExtract.DEFAULT_MAX_JOBS)).trim());
+        final long checkInterval =
+                Long.parseLong(aProps.getProperty(PROPS_KEY_DECODER_CHECK_INTERVAL,
+                        Long.toString(WorkerPoolExtract.DEFAULT_CHECK_INTERVAL)).trim());
+        final String maxHeap =
+                aProps.getProperty(PROPS_KEY_DECODER_MAX_HEAP, WorkerPoolExtract.DEFAULT_MAX_HEAP).trim();
+        final WorkerPoolExtract pool;
+
+        // A configured command is run as it is, so it sets its own heap size
+        if (command.isEmpty()) {
+            pool = new WorkerPoolExtract(aScheduler.getWorkerCount(), maxHeap);
+        } else {
+            pool =
+                    new WorkerPoolExtract(Arrays.asList(CommandLineTokenizer.tokenize(command)), aScheduler
+                            .getWorkerCount(), new KduExtractExe());
+        }
+
+        pool.setMaxJobs(maxJobs);
+        pool.setCheckInterval(checkInterval);
+
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("Decoding with a pool of {} decoder processes", pool.getSize());
+        }
+
+        return pool;
+    }
+
+    /**
+     * Creates the lanes that keep different kinds of expensive requests from crowding each other out. Unless it's
+     * configured otherwise, the decode lane is sized so each of its workers is either decoding or waiting in the
+     * decode scheduler's queue, where the scheduler's timeout applies.
+     */
+    private static Map<String, DecodeExecutor> createLanes(final Properties aProps, final DecodeScheduler aScheduler) {
+        final Map<String, DecodeExecutor> laneMap = new LinkedHashMap<String, DecodeExecutor>();
+        final int decodeWorkers = aScheduler.getWorkerCount() + aScheduler.getMaxQueueSize();
+
+        addLane(laneMap, aProps, DecodeExecutor.DECODE_LANE, decodeWorkers, aScheduler.getWorkerCount(),
+                DEFAULT_LANE_TIMEOUT, aScheduler);
+        addLane(laneMap, aProps, DecodeExecutor.INFO_LANE, DEFAULT_INFO_LANE_WORKERS, DEFAULT_INFO_LANE_QUEUE_SIZE,
+                DEFAULT_LANE_TIMEOUT, aScheduler);
+
+        // Remote requests are already limited by the migration timeout
+        addLane(laneMap, aProps, DecodeExecutor.REMOTE_LANE, DEFAULT_REMOTE_LANE_WORKERS,
+                DEFAULT_REMOTE_LANE_QUEUE_SIZE, 0, aScheduler);
+
+        return Collections.unmodifiableMap(laneMap);
+    }
+
+    private static void addLane(final Map<String, DecodeExecutor> aLaneMap, final Properties aProps,
+            final String aName, final int aDefaultWorkers, final int aDefaultQueueSize, final long aDefaultTimeout,
+            final DecodeScheduler aScheduler) {
+        final String workersKey = StringUtils.format(PROPS_KEY_LANE_WORKERS, aName);
+        final String queueSizeKey = StringUtils.format(PROPS_KEY_LANE_QUEUE_SIZE, aName);
+        final String timeoutKey = StringUtils.format(PROPS_KEY_LANE_TIMEOUT, aName);
+        final int workers = Integer.parseInt(aProps.getProperty(workersKey, "0").trim());
+        final int queueSize = Integer.parseInt(aProps.getProperty(queueSizeKey, "-1").trim());
+        final long timeout = Long.parseLong(aProps.getProperty(timeoutKey, "-1").trim());
+
+        aLaneMap.put(aName, new DecodeExecutor(aName, workers < 1 ? aDefaultWorkers : workers,
+                queueSize < 0 ? aDefaultQueueSize : queueSize, aScheduler.getRetryAfter(),
+                timeout < 0 ? aDefaultTimeout : timeout));
+    }
+
+    private static String decodeTile(final ImageRecord r, final DjatokaDecodeParam params, final String format,
+            final String hash, final String ext) throws Exception {
+        final String cacheKey = hash + ext;
+        String file = getCachedTile(cacheKey);
+
+        // Another request may have finished this tile since we last checked
+        if (file != null) {
+            return file;
+        }
+
+        // The tile cache takes over the scratch file's reference and releases it when the tile is evicted
+        final File f = TempFileManager.create("cache" + hash.hashCode() + "-", "." + ext);
+
+        file = f.getAbsolutePath();
+
+        try {
+            extractor.extractImage(r.getImageFile(), file, params, format);
+        } catch (final DjatokaException details) {
+            TempFileManager.release(f);
+            throw details;
+        }
+
+        // The tile cache bounds its own files, so they don't count against the scratch file cap
+        TempFileManager.setCached(f);
+        tileCache.put(cacheKey, file);
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("makingTile: {} {} params: {}", new Object[] { file, f.length(), params });
+        }
+
+        return file;
+    }
+
+    /**
+     * Decodes a tile into the supplied cache file, through a temporary file in the same directory that's renamed
+     * into place once the decode has finished.
+     */
+    private static String writeTile(final ImageRecord r, final DjatokaDecodeParam params, final String format,
+            final File cacheFile) throws Exception {
+        final File dir = cacheFile.getParentFile();
+
+        // Another request may have written this tile since we last checked
+        if (cacheFile.exists()) {
+            return cacheFile.getAbsolutePath();
+        }
+
+        if (!dir.exists() && !dir.mkdirs() && LOGGER.isWarnEnabled()) {
+            LOGGER.warn("Dirs not created: {}", dir);
+        }
+
+        final File f = File.createTempFile(".tile-", "." + getExtension(format), dir);
+        boolean written = false;
+
+        try {
+            extractor.extractImage(r.getImageFile(), f.getAbsolutePath(), params, format);
+
+            // An empty tile isn't cached; the caller finds no cache file and responds accordingly
+            written = f.length() > 0 && f.renameTo(cacheFile);
+        } finally {
+            if (!written && !f.delete() && LOGGER.isWarnEnabled()) {
+                LOGGER.warn("File not deleted: {}", f);
             }
+        }
 
-            final String f = CacheUtils.getFileName(level, scale, region, rotation);
-            id = id + "_" + f;
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("writingTile: {} {} params: {}", new Object[] { cacheFile, cacheFile.length(), params });
+        }
 
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("OpenURL service: [ {} | {} | {} | {} ] = {}", new Object[] { level, scale, region,
-                    rotation, id });
+        return cacheFile.getAbsolutePath();
+    }
+
+    private static FileInputStream openTile(final String file) {
+        final File f = new File(file);
+
+        // A cached tile that's a scratch file isn't deleted by its eviction until this request has sent it
+        if (TempFileManager.retain(f)) {
+            try {
+                return new TempFileInputStream(f);
+            } catch (final FileNotFoundException details) {
+                TempFileManager.release(f);
+                return null;
             }
+        }
 
-            if (hash != null) {
-                final Map sessionMap = response.getSessionMap();
-                final String cacheName = hash + ext;
+        try {
+            return new FileInputStream(f);
+        } catch (final FileNotFoundException details) {
+            return null;
+        }
+    }
 
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("Setting cache session data [ {} | {} ]", new Object[] { id, djatokaCacheFile });
-                }
+    private static String getCachedTile(final String cacheKey) {
+        final String file = tileCache.get(cacheKey);
 
-                sessionMap.put(id, djatokaCacheFile);
-                sessionMap.put(djatokaCacheFile, cacheName);
+        if (file != null) {
+            final File f = new File(file);
+
+            if (f.exists() && f.length() > 0) {
+                return file;
             }
-        } else if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("djatokaCacheFile variable is null");
         }
 
-        return response;
+        return null;
     }
 
-    private boolean isCacheable(final DjatokaDecodeParam params) {
+    private static boolean isCacheable(final DjatokaDecodeParam params) {
         final double scale = params.getScalingFactor();
         boolean exception;
 
@@ -505,10 +993,7 @@ public class OpenURLJP2KService implements Service, FormatConstants {
     }
 
     private static final String getTileHash(final ImageRecord r, final DjatokaDecodeParam params) throws Exception {
-        return getTileHash(r.getIdentifier(), params);
-    }
-
-    private static String getTileHash(final String id, final DjatokaDecodeParam params) throws Exception {
+        final String id = r.getIdentifier();
         final int level = params.getLevel();
         final String region = params.getRegion();
         final int rotateDegree = params.getRotationDegree();
@@ -529,6 +1014,34 @@ public class OpenURLJP2KService implements Service, FormatConstants {
         return new String(complete.digest(rft_id.getBytes()));
     }
 
+    /**
+     * A stream over a scratch file that releases its reference to the file once the stream has been closed.
+     */
+    private static final class TempFileInputStream extends FileInputStream {
+
+        private final File file;
+
+        private boolean released;
+
+        private TempFileInputStream(final File file) throws FileNotFoundException {
+            super(file);
+            this.file = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                // Streams can be closed more than once, but the reference can only be released once
+                if (!released) {
+                    released = true;
+                    TempFileManager.release(file);
+                }
+            }
+        }
+    }
+
     private static final String getExtension(final String mimetype) {
         if (mimetype.equals(FORMAT_MIMEYPE_JPEG)) {
             return FORMAT_ID_JPG;
@@ -147,6 +147,6 @@ public class OpenURLJP2Ping implements Service, FormatConstants {
         final HashMap<String, String> header_map = new HashMap<String, String>();
         header_map.put("Content-Length", Integer.toString(bytes.length));
         header_map.put("Date", HttpDate.getHttpDate());
-        return new OpenURLResponse(status, responseFormat, bytes, header_map);
+        return new OpenURLResponse(status, responseFormat, bytes, new HashMap<String, String>(), header_map);
     }
 }
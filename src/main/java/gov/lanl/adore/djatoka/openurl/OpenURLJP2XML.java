@@ -23,11 +23,11 @@
 
 package gov.lanl.adore.djatoka.openurl;
 
+import info.freelibrary.djatoka.util.ImageMetadata;
 import info.freelibrary.djatoka.view.IdentifierResolver;
 
 import gov.lanl.adore.djatoka.IExtract;
 import gov.lanl.adore.djatoka.io.FormatConstants;
-import gov.lanl.adore.djatoka.kdu.KduExtractExe;
 import gov.lanl.adore.djatoka.util.IOUtils;
 import gov.lanl.adore.djatoka.util.ImageRecord;
 import gov.lanl.util.HttpDate;
@@ -113,7 +113,7 @@ public class OpenURLJP2XML implements Service, FormatConstants {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try {
             baos = new ByteArrayOutputStream();
-            IExtract jp2 = new KduExtractExe();
+            IExtract jp2 = ImageMetadata.getExtractor();
             ImageRecord r = ReferentManager.getImageRecord(contextObject.getReferent());
             String[] xml = jp2.getXMLBox(r);
             StringBuffer sb = new StringBuffer("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
@@ -144,6 +144,7 @@ public class OpenURLJP2XML implements Service, FormatConstants {
         HashMap<String, String> header_map = new HashMap<String, String>();
         header_map.put("Content-Length", baos.size() + "");
         header_map.put("Date", HttpDate.getHttpDate());
-        return new OpenURLResponse(status, responseFormat, baos.toByteArray(), header_map);
+        return new OpenURLResponse(status, responseFormat, baos.toByteArray(), new HashMap<String, String>(),
+                header_map);
     }
 }
@@ -11,7 +11,7 @@
 
 package gov.lanl.adore.djatoka.openurl;
 
-import java.io.InputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.net.SocketException;
 import java.net.URL;
@@ -30,7 +30,10 @@ import javax.servlet.http.HttpSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import gov.lanl.adore.djatoka.DjatokaException;
 import gov.lanl.util.AccessManager;
+import info.freelibrary.djatoka.decode.DecodeExecutor;
+import info.freelibrary.djatoka.util.ImageMetadata;
 import info.openurl.oom.ContextObject;
 import info.openurl.oom.OpenURLRequest;
 import info.openurl.oom.OpenURLRequestProcessor;
@@ -54,6 +57,10 @@ public class OpenURLServlet extends HttpServlet {
      */
     private static final long serialVersionUID = 1L;
 
+    private static final String REGION_SVC_ID = "info:lanl-repo/svc/getRegion";
+
+    private static final String PING_SVC_ID = "info:lanl-repo/svc/ping";
+
     private OpenURLConfig openURLConfig;
 
     private OpenURLRequestProcessor processor;
@@ -81,6 +88,9 @@ public class OpenURLServlet extends HttpServlet {
             // Construct a processor
             processor = openURLConfig.getProcessor();
 
+            // Construct the configured services, which are shared by all requests
+            openURLConfig.init();
+
             final ClassLoader cl = OpenURLServlet.class.getClassLoader();
             final java.net.URL url = cl.getResource("access.txt");
             if (url != null) {
@@ -93,12 +103,74 @@ public class OpenURLServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Releases the OpenURL services when the servlet is taken out of service.
+     */
+    @Override
+    public void destroy() {
+        if (openURLConfig != null) {
+            openURLConfig.destroy();
+        }
+
+        super.destroy();
+    }
+
     /**
      * Extends HttpServlet Request to build OpenURL Request and Context Objects. The req.getHeader("referer") is used to
      * add an OpenURL ReferringEntities and req.getRemoteAddr() is used to add a Requester.
      */
     @Override
     protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException {
+        final DecodeExecutor executor = getLane(req);
+
+        if (executor != null) {
+            try {
+                executor.execute(req, resp, new DecodeExecutor.Task() {
+
+                    @Override
+                    public void run() throws ServletException {
+                        process(req, resp);
+                    }
+                });
+            } catch (final IOException e) {
+                LOGGER.error(e.getMessage(), e);
+            }
+        } else {
+            process(req, resp);
+        }
+    }
+
+    /**
+     * Gets the lane a request is served from: region requests are decoded in the decode lane and other requests for
+     * an image's metadata are read in the info lane, unless the image has to be retrieved from a remote source first.
+     * Ping and unknown requests are answered on the container's thread.
+     */
+    private DecodeExecutor getLane(final HttpServletRequest req) {
+        final String svcID = req.getParameter("svc_id");
+        final String rftID = req.getParameter("rft_id");
+        final String lane;
+
+        if (svcID == null || rftID == null || PING_SVC_ID.equals(svcID)) {
+            return null;
+        }
+
+        try {
+            if (ImageMetadata.resolveLocal(rftID) == null) {
+                lane = DecodeExecutor.REMOTE_LANE;
+            } else {
+                lane = REGION_SVC_ID.equals(svcID) ? DecodeExecutor.DECODE_LANE : DecodeExecutor.INFO_LANE;
+            }
+        } catch (final DjatokaException e) {
+            LOGGER.error(e.getMessage(), e);
+            return null;
+        }
+
+        return OpenURLJP2KService.getLane(lane);
+    }
+
+    private void process(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException {
+        OpenURLResponse result = null;
+
         try {
             // Try each Transport until someone takes responsibility
             OpenURLRequest openURLRequest = null;
@@ -147,7 +219,7 @@ public class OpenURLServlet extends HttpServlet {
             coa[0].getRequesters()[0].addDescriptor(req.getRemoteAddr());
 
             // Process the ContextObjects
-            final OpenURLResponse result = processor.resolve(openURLRequest);
+            result = processor.resolve(openURLRequest);
 
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("OpenURLRequestProcessor resolving to a result");
@@ -178,7 +250,8 @@ public class OpenURLServlet extends HttpServlet {
 
                 final Map<?, ?> sessionMap = result.getSessionMap();
 
-                if (sessionMap != null) {
+                // Only services that have something to keep get a session
+                if (sessionMap != null && !sessionMap.isEmpty()) {
                     final HttpSession session = req.getSession(true);
                     final Iterator<?> iter = sessionMap.entrySet().iterator();
 
@@ -234,14 +307,8 @@ public class OpenURLServlet extends HttpServlet {
                     resp.setStatus(status);
                     resp.setContentType(result.getContentType());
 
-                    final InputStream is = result.getInputStream();
-                    final byte[] bytes = new byte[1024];
-                    int len;
-
-                    while ((len = is.read(bytes)) != -1) {
-                        out.write(bytes, 0, len);
-                    }
-
+                    // Streams the body, which may be a file, without reading it all into memory first
+                    result.write(out);
                     out.close();
                     break;
             }
@@ -252,6 +319,11 @@ public class OpenURLServlet extends HttpServlet {
 
             // throw new ServletException(e.getMessage(), e);
             resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        } finally {
+            // Redirects, errors, and failed writes don't use the body, which may be an open tile file
+            if (result != null) {
+                result.close();
+            }
         }
     }
 
@@ -35,9 +35,9 @@ import java.util.Properties;
  */
 public class ReferentManager {
 
-    private static boolean init = false;
+    private static volatile boolean init = false;
 
-    private static IReferentResolver rftResolver;
+    private static volatile IReferentResolver rftResolver;
 
     private ReferentManager() {
     };
@@ -22,60 +22,86 @@
 package gov.lanl.adore.djatoka.openurl;
 
 import java.io.File;
-
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import info.freelibrary.djatoka.util.TempFileManager;
+
 /**
- * Implements an Least Recently Used (LRU) cache Manager.
+ * Implements a concurrent, size-bounded tile cache manager. Values are the paths of cached tile files. Lookups don't
+ * take a lock; eviction uses the CLOCK (second chance) approximation of LRU and is done by whichever thread finds the
+ * cache over budget, without blocking other readers or writers. Evicted and removed tile files are deleted on a
+ * background thread, off the request path; tiles that are scratch files are released instead, and deleted once no
+ * request is still reading them.
  * 
- * @param max_cache the maximum cache size that will be kept in the cache.
+ * @param <K> the cache key type
+ * @param <V> the cache value type (the path of a tile file)
  */
 public class TileCacheManager<K, V> {
 
     private static Logger LOGGER = LoggerFactory.getLogger(TileCacheManager.class);
 
-    private LinkedHashMap<K, V> cacheMap; // For fast search/remove
+    private static final ExecutorService DELETER = Executors.newSingleThreadExecutor(new ThreadFactory() {
 
-    private final int max_cache;
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "tile-cache-deleter");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
-    private static final float loadFactor = 0.75F;
+    private final ConcurrentHashMap<K, CacheEntry<K, V>> cacheMap;
 
-    private static final boolean accessOrder = true;
+    private final Queue<CacheEntry<K, V>> clock = new ConcurrentLinkedQueue<CacheEntry<K, V>>();
 
-    /** The class constructor */
-    public TileCacheManager(int max_cache) {
-        this.max_cache = max_cache;
-        this.cacheMap = new LinkedHashMap<K, V>(max_cache, loadFactor, accessOrder) {
+    private final AtomicInteger clockSize = new AtomicInteger();
 
-            private static final long serialVersionUID = 1;
+    private final ReentrantLock evictionLock = new ReentrantLock();
 
-            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("cacheSize: " + size());
-                }
+    private final int maxEntries;
 
-                boolean d = size() > TileCacheManager.this.max_cache;
-                if (d) {
-                    File f = new File((String) eldest.getValue());
+    private final long maxBytes;
 
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug("deletingTile: " + eldest.getValue());
-                    }
+    private final AtomicLong bytes = new AtomicLong();
 
-                    if (f.exists()) {
-                        f.delete();
-                    }
+    private final AtomicLong hits = new AtomicLong();
 
-                    remove(eldest.getKey());
-                }
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
 
-                return false;
-            };
-        };
+    /**
+     * Creates a tile cache manager bounded by the supplied number of entries.
+     * 
+     * @param max_cache the maximum number of tiles kept in the cache
+     */
+    public TileCacheManager(final int max_cache) {
+        this(max_cache, 0);
+    }
+
+    /**
+     * Creates a tile cache manager bounded by the supplied number of entries and total size of the cached tile files.
+     * A limit that's less than one isn't enforced.
+     * 
+     * @param max_cache the maximum number of tiles kept in the cache
+     * @param max_bytes the maximum number of bytes of tile files kept in the cache
+     */
+    public TileCacheManager(final int max_cache, final long max_bytes) {
+        this.maxEntries = max_cache > 0 ? max_cache : Integer.MAX_VALUE;
+        this.maxBytes = max_bytes > 0 ? max_bytes : Long.MAX_VALUE;
+        this.cacheMap = new ConcurrentHashMap<K, CacheEntry<K, V>>(256, 0.75f, 16);
     }
 
     /**
@@ -85,21 +111,43 @@ public class TileCacheManager<K, V> {
      * @param val The tile cache value
      * @return The older value if any
      */
-    public synchronized V put(K key, V val) {
-        return cacheMap.put(key, val);
+    public V put(final K key, final V val) {
+        final long size = val instanceof String ? new File((String) val).length() : 0;
+        final CacheEntry<K, V> entry = new CacheEntry<K, V>(key, val, size);
+        final CacheEntry<K, V> old = cacheMap.put(key, entry);
+
+        bytes.addAndGet(size);
+        clock.add(entry);
+        clockSize.incrementAndGet();
+
+        if (old != null) {
+            bytes.addAndGet(-old.size);
+
+            if (old.value != null && !old.value.equals(val)) {
+                delete(old.value);
+            }
+        }
+
+        evict();
+        return old != null ? old.value : null;
     }
 
     /**
-     * Removes value of supplied key from tile cache.
+     * Removes value of supplied key from tile cache and deletes its file.
      * 
      * @param key The key of the value to be removed
      * @return The value of the supplied key
      */
-    public synchronized V remove(K key) {
-        if (get(key) instanceof String) {
-            new File((String) get(key)).delete();
+    public V remove(final K key) {
+        final CacheEntry<K, V> entry = cacheMap.remove(key);
+
+        if (entry == null) {
+            return null;
         }
-        return cacheMap.remove(key);
+
+        bytes.addAndGet(-entry.size);
+        delete(entry.value);
+        return entry.value;
     }
 
     /**
@@ -108,8 +156,17 @@ public class TileCacheManager<K, V> {
      * @param key The key of the value to be retrieved
      * @return The value of the supplied key
      */
-    public synchronized V get(K key) {
-        return cacheMap.get(key);
+    public V get(final K key) {
+        final CacheEntry<K, V> entry = cacheMap.get(key);
+
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        entry.referenced = true;
+        hits.incrementAndGet();
+        return entry.value;
     }
 
     /**
@@ -118,7 +175,7 @@ public class TileCacheManager<K, V> {
      * @param key The key to query the cache about
      * @return True if the key is found; else, false
      */
-    public synchronized boolean containsKey(K key) {
+    public boolean containsKey(final K key) {
         return cacheMap.containsKey(key);
     }
 
@@ -127,15 +184,175 @@ public class TileCacheManager<K, V> {
      * 
      * @return The size of the tile cache
      */
-    public synchronized int size() {
+    public int size() {
         return cacheMap.size();
     }
 
     /**
-     * Clears the tile cache.
+     * Gets the total size, in bytes, of the cached tile files.
+     * 
+     * @return The number of bytes in the tile cache
+     */
+    public long getByteCount() {
+        return bytes.get();
+    }
+
+    /**
+     * Gets the maximum total size, in bytes, of the cached tile files.
+     * 
+     * @return The maximum number of bytes in the tile cache
+     */
+    public long getMaxByteCount() {
+        return maxBytes;
+    }
+
+    /**
+     * Gets the number of lookups that found a tile.
+     * 
+     * @return The number of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups that didn't find a tile.
+     * 
+     * @return The number of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the number of tiles evicted to keep the cache within its limits.
+     * 
+     * @return The number of cache evictions
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Clears the tile cache. The cached tile files are left in place.
      */
-    public synchronized void clear() {
-        cacheMap.clear();
+    public void clear() {
+        evictionLock.lock();
+
+        try {
+            cacheMap.clear();
+            clock.clear();
+            clockSize.set(0);
+            bytes.set(0);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Evicts tiles until the cache is back within its limits. If another thread is already evicting, this returns
+     * right away and leaves the work to it.
+     */
+    private void evict() {
+        final boolean overBudget = isOverBudget();
+
+        // Entries that were removed or replaced linger in the clock until they're swept
+        if (!overBudget && clockSize.get() <= cacheMap.size() * 2 + 64 || !evictionLock.tryLock()) {
+            return;
+        }
+
+        try {
+            if (!overBudget) {
+                purge();
+                return;
+            }
+
+            while (isOverBudget()) {
+                final CacheEntry<K, V> entry = clock.poll();
+
+                if (entry == null) {
+                    break;
+                }
+
+                clockSize.decrementAndGet();
+
+                if (cacheMap.get(entry.key) != entry) {
+                    continue; // Stale entry
+                }
+
+                if (entry.referenced) {
+                    entry.referenced = false; // Give it a second chance
+                    clock.add(entry);
+                    clockSize.incrementAndGet();
+                } else if (cacheMap.remove(entry.key, entry)) {
+                    bytes.addAndGet(-entry.size);
+                    evictions.incrementAndGet();
+
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("evictingTile: {}", entry.value);
+                    }
+
+                    delete(entry.value);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
     }
 
+    private void purge() {
+        final Iterator<CacheEntry<K, V>> iterator = clock.iterator();
+
+        while (iterator.hasNext()) {
+            final CacheEntry<K, V> entry = iterator.next();
+
+            if (cacheMap.get(entry.key) != entry) {
+                iterator.remove();
+                clockSize.decrementAndGet();
+            }
+        }
+    }
+
+    private boolean isOverBudget() {
+        return bytes.get() > maxBytes || cacheMap.size() > maxEntries;
+    }
+
+    private static void delete(final Object value) {
+        if (value instanceof String) {
+            final String path = (String) value;
+
+            DELETER.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    final File file = new File(path);
+
+                    // Scratch files are only deleted once the requests still sending them have finished
+                    if (!TempFileManager.release(file) && file.exists() && !file.delete() && LOGGER.isWarnEnabled()) {
+                        LOGGER.warn("Unable to delete cached tile: {}", path);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * A cached value, its size, and whether it's been used since the clock hand last passed it.
+     */
+    private static final class CacheEntry<K, V> {
+
+        private final K key;
+
+        private final V value;
+
+        private final long size;
+
+        private volatile boolean referenced;
+
+        private CacheEntry(final K key, final V value, final long size) {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+    }
 }
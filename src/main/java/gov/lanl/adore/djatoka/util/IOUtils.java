@@ -25,6 +25,7 @@ package gov.lanl.adore.djatoka.util;
 
 import gov.lanl.adore.djatoka.io.reader.DjatokaReader;
 import gov.lanl.adore.djatoka.io.writer.TIFWriter;
+import info.freelibrary.djatoka.util.TempFileManager;
 
 import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
@@ -74,7 +75,8 @@ public class IOUtils {
     }
 
     /**
-     * Create temporary tiff file from provided InputStream. Returns null if exception occurs.
+     * Create temporary image file from provided InputStream. Returns null if exception occurs. The file is a scratch
+     * file that the caller must release with <code>TempFileManager.release(File)</code>.
      * 
      * @param input InputStream containing a image bitstream
      * @return File object for temporary image file
@@ -83,12 +85,16 @@ public class IOUtils {
         File output = null;
         OutputStream out = null;
         try {
-            output = File.createTempFile("tmp", ".img");
-            output.deleteOnExit();
+            output = TempFileManager.create("image-", ".img");
             out = new BufferedOutputStream(new FileOutputStream(output));
             copyStream(input, out);
         } catch (Exception e) {
             e.printStackTrace();
+
+            if (output != null) {
+                TempFileManager.release(output);
+            }
+
             return null;
         } finally {
             if (out != null) {
@@ -102,20 +108,26 @@ public class IOUtils {
     }
 
     /**
-     * Create temporary TIFF file from provided BufferedImage object
+     * Create temporary TIFF file from provided BufferedImage object. The file is a scratch file that the caller must
+     * release with <code>TempFileManager.release(File)</code>.
      * 
      * @param bImage BufferedImage containing raster data
      * @return File object for temporary image file
      */
     public static File createTempTiff(BufferedImage bImage) throws Exception {
         TIFWriter tifWriter = new TIFWriter();
-        File tifFile = File.createTempFile("tmp", ".tif");
+        File tifFile = TempFileManager.create("tiff-", ".tif");
 
-        FileOutputStream fileOut = new FileOutputStream(tifFile);
-        BufferedOutputStream outStream = new BufferedOutputStream(fileOut);
+        try {
+            FileOutputStream fileOut = new FileOutputStream(tifFile);
+            BufferedOutputStream outStream = new BufferedOutputStream(fileOut);
 
-        tifWriter.write(bImage, outStream);
-        outStream.close();
+            tifWriter.write(bImage, outStream);
+            outStream.close();
+        } catch (Exception e) {
+            TempFileManager.release(tifFile);
+            throw e;
+        }
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Temp tiff file created: {} (size: {})", tifFile, tifFile.length());
@@ -21,6 +21,16 @@ public interface Constants {
 
     public static final String VIEW_CACHE_DIR = "djatoka.view.cache.dir";
 
+    public static final String VIEW_HOT_CACHE_BYTES = "djatoka.view.hotcache.bytes";
+
+    public static final String VIEW_HOT_CACHE_OFF_HEAP = "djatoka.view.hotcache.offheap";
+
+    public static final String VIEW_CANONICAL_REDIRECT = "djatoka.view.canonical.redirect";
+
+    public static final String VIEW_DERIVE_TILES = "djatoka.view.derive.tiles";
+
+    public static final String VIEW_DERIVE_QUALITY = "djatoka.view.derive.quality";
+
     public static final String[] TIF_EXTS = new String[] { "tif", "tiff" };
 
     // Would be nicer to tell the regex filter to be case insensitive
@@ -0,0 +1,210 @@
+
+package info.freelibrary.djatoka.decode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Signals that the work being done for a request is no longer wanted, as when the client that made the request has
+ * gone away. A cancellation is attached to the thread doing the work, so the layers underneath (the decode scheduler,
+ * the extractor and its <code>kdu_expand</code> process, and the format writer) can check it, or register something
+ * to run when it's cancelled, without it being passed through each method along the way.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public class Cancellation {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Cancellation.class);
+
+    private static final ThreadLocal<Cancellation> CURRENT = new ThreadLocal<Cancellation>();
+
+    private static final AtomicLong CANCELLED_DECODES = new AtomicLong();
+
+    private final List<Runnable> myListeners = new ArrayList<Runnable>();
+
+    private volatile boolean myCancelled;
+
+    private volatile boolean isTimedOut;
+
+    private volatile int myRetryAfter;
+
+    /**
+     * Gets the cancellation attached to the current thread, or null if the current thread's work can't be cancelled.
+     *
+     * @return The current thread's cancellation
+     */
+    public static Cancellation current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Attaches the supplied cancellation to the current thread, returning the one it replaces so it can be restored
+     * with {@link #restore(Cancellation)} when the work is done.
+     *
+     * @param aCancellation The cancellation of the work the current thread is about to do; may be null
+     * @return The cancellation that was attached to the current thread, or null if there wasn't one
+     */
+    public static Cancellation attach(final Cancellation aCancellation) {
+        final Cancellation previous = CURRENT.get();
+
+        CURRENT.set(aCancellation);
+        return previous;
+    }
+
+    /**
+     * Restores the cancellation that was attached to the current thread before {@link #attach(Cancellation)}.
+     *
+     * @param aPrevious The cancellation returned by <code>attach</code>
+     */
+    public static void restore(final Cancellation aPrevious) {
+        if (aPrevious == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(aPrevious);
+        }
+    }
+
+    /**
+     * Throws a {@link DecodeCancelledException} if the current thread's work has been cancelled.
+     *
+     * @throws DecodeCancelledException If the current thread's work has been cancelled
+     */
+    public static void check() throws DecodeCancelledException {
+        final Cancellation cancellation = CURRENT.get();
+
+        if (cancellation != null && cancellation.isCancelled()) {
+            throw cancelled();
+        }
+    }
+
+    /**
+     * Creates the exception thrown when a decode is abandoned because it was cancelled, and counts the decode.
+     *
+     * @return An exception to throw
+     */
+    public static DecodeCancelledException cancelled() {
+        final Cancellation cancellation = CURRENT.get();
+
+        CANCELLED_DECODES.incrementAndGet();
+
+        if (cancellation != null && cancellation.isTimedOut()) {
+            return new DecodeCancelledException("Decode stopped; the image took too long to decode");
+        }
+
+        return new DecodeCancelledException("Decode cancelled; the client is no longer waiting for it");
+    }
+
+    /**
+     * Gets the number of decodes that were abandoned because they were cancelled.
+     *
+     * @return The number of cancelled decodes
+     */
+    public static long getCancelledDecodeCount() {
+        return CANCELLED_DECODES.get();
+    }
+
+    /**
+     * Cancels the work, running any listeners that have been added.
+     */
+    public void cancel() {
+        final List<Runnable> listeners;
+
+        synchronized (myListeners) {
+            if (myCancelled) {
+                return;
+            }
+
+            myCancelled = true;
+            listeners = new ArrayList<Runnable>(myListeners);
+            myListeners.clear();
+        }
+
+        for (final Runnable listener : listeners) {
+            try {
+                listener.run();
+            } catch (final RuntimeException details) {
+                LOGGER.error(details.getMessage(), details);
+            }
+        }
+    }
+
+    /**
+     * Cancels the work because it's taken too long, rather than because the client has gone away. The client is still
+     * waiting, so it's told when to try again.
+     *
+     * @param aRetryAfter The number of seconds the client should wait before retrying
+     * @return True if the work was timed out; false if it had already been cancelled
+     */
+    public boolean timeOut(final int aRetryAfter) {
+        synchronized (myListeners) {
+            if (myCancelled) {
+                return false;
+            }
+
+            myRetryAfter = aRetryAfter;
+            isTimedOut = true;
+        }
+
+        cancel();
+        return true;
+    }
+
+    /**
+     * Returns true if the work was cancelled because it took too long; else, false.
+     *
+     * @return True if the work has timed out
+     */
+    public boolean isTimedOut() {
+        return isTimedOut;
+    }
+
+    /**
+     * Returns the number of seconds a client whose work timed out should wait before retrying.
+     *
+     * @return The number of seconds to wait before retrying, or zero if the work hasn't timed out
+     */
+    public int getRetryAfter() {
+        return myRetryAfter;
+    }
+
+    /**
+     * Returns true if the work has been cancelled; else, false.
+     *
+     * @return True if the work has been cancelled
+     */
+    public boolean isCancelled() {
+        return myCancelled;
+    }
+
+    /**
+     * Adds a listener that's run when the work is cancelled. If it's already been cancelled, the listener is run
+     * straight away.
+     *
+     * @param aListener Something to run when the work is cancelled, such as destroying a child process
+     */
+    public void addListener(final Runnable aListener) {
+        synchronized (myListeners) {
+            if (!myCancelled) {
+                myListeners.add(aListener);
+                return;
+            }
+        }
+
+        aListener.run();
+    }
+
+    /**
+     * Removes a listener that's no longer needed because the work it would stop has finished.
+     *
+     * @param aListener A listener that was added with {@link #addListener(Runnable)}
+     */
+    public void removeListener(final Runnable aListener) {
+        synchronized (myListeners) {
+            myListeners.remove(aListener);
+        }
+    }
+}
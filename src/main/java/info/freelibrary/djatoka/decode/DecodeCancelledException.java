@@ -0,0 +1,25 @@
+package info.freelibrary.djatoka.decode;
+
+import gov.lanl.adore.djatoka.DjatokaException;
+
+/**
+ * An exception thrown when a decode is abandoned because the request it was for has been cancelled.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public class DecodeCancelledException extends DjatokaException {
+
+    /**
+     * The <code>serialVersionUID</code> of the <code>DecodeCancelledException</code>.
+     */
+    private static final long serialVersionUID = 6119237802946416563L;
+
+    /**
+     * Creates a cancellation exception with the supplied message.
+     *
+     * @param aMessage The exception message
+     */
+    public DecodeCancelledException(final String aMessage) {
+        super(aMessage);
+    }
+}
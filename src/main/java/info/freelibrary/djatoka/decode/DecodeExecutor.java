@@ -0,0 +1,405 @@
+
+package info.freelibrary.djatoka.decode;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the slow part of a servlet request, resolving and decoding a new image, on a bounded pool of its own threads.
+ * The request is suspended with Servlet 3 async support and the container's thread goes back to its pool, so cache
+ * hits and metadata requests aren't left waiting behind a few slow decodes. When the pool's queue is full, the
+ * request is answered with a 503 and a <code>Retry-After</code> header. Requests that can't be suspended (because a
+ * servlet or filter they pass through doesn't support async) are run on the container's thread as before.
+ * <p/>
+ * Each executor is a lane: different kinds of expensive work get their own executor, so a surge of one kind (say,
+ * requests waiting on remote images) can only fill its own lane's workers and queue. Requests that are already
+ * running in a lane stay in it.
+ * <p/>
+ * A suspended request's work is cancelled, through the {@link Cancellation} attached to the worker running it, when
+ * the container reports an error on the request or a worker has spent longer than the lane's time limit on it. The
+ * limit only counts the time the work has been running, not the time it waited in the queue, and the container isn't
+ * asked to time the request out itself (which would answer slow work with a 500); work that's stopped by the limit is
+ * answered with a 503 and a <code>Retry-After</code> header instead. Not every container reports a client that's
+ * gone away as an error (Jetty 9.0 doesn't until the response is written), so the limit is what bounds the work done
+ * for abandoned requests there.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public class DecodeExecutor {
+
+    /** The lane for requests that decode new tiles from local JP2s */
+    public static final String DECODE_LANE = "decode";
+
+    /** The lane for requests that read the width, height, and levels of local JP2s */
+    public static final String INFO_LANE = "info";
+
+    /** The lane for requests that wait on images being retrieved from remote sources */
+    public static final String REMOTE_LANE = "remote";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DecodeExecutor.class);
+
+    private static final ScheduledThreadPoolExecutor LIMITS = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+        @Override
+        public Thread newThread(final Runnable aRunnable) {
+            final Thread thread = new Thread(aRunnable, "decode-limits");
+
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        // Most limits are cancelled, when their work finishes in time, rather than run
+        LIMITS.setRemoveOnCancelPolicy(true);
+    }
+
+    private final String myName;
+
+    private final ThreadPoolExecutor myExecutor;
+
+    private final int myRetryAfter;
+
+    private final long myTimeout;
+
+    private final AtomicInteger myThreadCount = new AtomicInteger();
+
+    private final AtomicLong myRejectedCount = new AtomicLong();
+
+    private final AtomicLong myCancelledCount = new AtomicLong();
+
+    private final AtomicLong myTimedOutCount = new AtomicLong();
+
+    /**
+     * Creates a decode executor, for the lane with the supplied name, with the supplied number of workers and queue
+     * size.
+     *
+     * @param aName The name of the lane the executor serves
+     * @param aWorkerCount The number of requests that may be served at the same time
+     * @param aMaxQueueSize The number of requests that may wait for a free worker
+     * @param aRetryAfter The number of seconds a rejected client should wait before retrying
+     * @param aTimeout The number of milliseconds a worker may spend on a suspended request's work before it's
+     *        cancelled; zero for no limit
+     */
+    public DecodeExecutor(final String aName, final int aWorkerCount, final int aMaxQueueSize,
+            final int aRetryAfter, final long aTimeout) {
+        final int workers = Math.max(1, aWorkerCount);
+        final int queueSize = Math.max(1, aMaxQueueSize);
+
+        myName = aName;
+        myTimeout = Math.max(0, aTimeout);
+        myRetryAfter = aRetryAfter < 1 ? DecodeScheduler.DEFAULT_RETRY_AFTER : aRetryAfter;
+        myExecutor = new ThreadPoolExecutor(workers, workers, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(final Runnable aRunnable) {
+                        // Idle workers end, so they release the native resources decoders kept for them as they go
+                        final Thread thread = new Thread(ThreadResources.wrap(aRunnable), myName + "-" +
+                                myThreadCount.incrementAndGet());
+
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        myExecutor.allowCoreThreadTimeOut(true);
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("{} lane configured: [workers: {}, queue: {}]", new Object[] { myName, workers, queueSize });
+        }
+    }
+
+    /**
+     * Suspends the supplied request and runs the supplied task on one of the executor's workers, completing the
+     * request when the task is done. If the request can't be suspended, or is already suspended and running in a
+     * lane, the task is run on the calling thread.
+     *
+     * @param aRequest The request to suspend
+     * @param aResponse The response the task writes to
+     * @param aTask The work that serves the request
+     * @throws IOException If the task, run on the calling thread, fails or a rejection can't be sent
+     * @throws ServletException If the task, run on the calling thread, fails
+     */
+    public void execute(final HttpServletRequest aRequest, final HttpServletResponse aResponse, final Task aTask)
+            throws IOException, ServletException {
+        if (!aRequest.isAsyncSupported() || aRequest.isAsyncStarted()) {
+            aTask.run();
+            return;
+        }
+
+        final AsyncContext context = aRequest.startAsync(aRequest, aResponse);
+        final Cancellation cancellation = new Cancellation();
+        final AtomicBoolean finished = new AtomicBoolean();
+
+        // The lane's limit is applied to the work itself, so the container never times the request out
+        context.setTimeout(0);
+        context.addListener(new CancellingListener(cancellation, finished));
+
+        try {
+            myExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    final Cancellation previous = Cancellation.attach(cancellation);
+                    final ScheduledFuture<?> limit = startLimit(cancellation, aRequest);
+
+                    try {
+                        // Requests that were given up on while they were queued don't need to be served at all
+                        if (!cancellation.isCancelled()) {
+                            aTask.run();
+                        }
+                    } catch (final Exception details) {
+                        if (cancellation.isTimedOut()) {
+                            aResponse.setHeader("Retry-After", Integer.toString(myRetryAfter));
+                            sendError(aResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                                    "The image took too long to decode");
+                        } else if (cancellation.isCancelled()) {
+                            if (LOGGER.isDebugEnabled()) {
+                                LOGGER.debug("Cancelled request stopped: {}", aRequest.getRequestURI());
+                            }
+                        } else {
+                            if (LOGGER.isErrorEnabled()) {
+                                LOGGER.error("Request failed: {}", aRequest.getRequestURI(), details);
+                            }
+
+                            sendError(aResponse, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, details.getMessage());
+                        }
+                    } finally {
+                        if (limit != null) {
+                            limit.cancel(false);
+                        }
+
+                        Cancellation.restore(previous);
+
+                        // The container completes requests that have timed out or failed itself
+                        if (finished.compareAndSet(false, true)) {
+                            context.complete();
+                        }
+                    }
+                }
+            });
+        } catch (final RejectedExecutionException details) {
+            myRejectedCount.incrementAndGet();
+
+            if (LOGGER.isWarnEnabled()) {
+                LOGGER.warn("Request rejected, {} queue is full: {}", myName, aRequest.getRequestURI());
+            }
+
+            aResponse.setHeader("Retry-After", Integer.toString(myRetryAfter));
+            sendError(aResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many images are being decoded");
+
+            if (finished.compareAndSet(false, true)) {
+                context.complete();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of milliseconds a worker may spend on a request's work before it's cancelled.
+     *
+     * @return The lane's time limit, or zero if there's no limit
+     */
+    public long getTimeout() {
+        return myTimeout;
+    }
+
+    /**
+     * Returns the name of the lane the executor serves.
+     *
+     * @return The lane's name
+     */
+    public String getName() {
+        return myName;
+    }
+
+    /**
+     * Returns the number of requests that may be served at the same time.
+     *
+     * @return The number of workers
+     */
+    public int getWorkerCount() {
+        return myExecutor.getMaximumPoolSize();
+    }
+
+    /**
+     * Returns the number of requests that are currently being served.
+     *
+     * @return The number of busy workers
+     */
+    public int getActiveCount() {
+        return myExecutor.getActiveCount();
+    }
+
+    /**
+     * Returns the number of requests that are waiting for a free worker.
+     *
+     * @return The number of waiting requests
+     */
+    public int getQueueDepth() {
+        return myExecutor.getQueue().size();
+    }
+
+    /**
+     * Returns the number of requests that may wait for a free worker.
+     *
+     * @return The maximum queue size
+     */
+    public int getMaxQueueSize() {
+        return myExecutor.getQueue().size() + myExecutor.getQueue().remainingCapacity();
+    }
+
+    /**
+     * Returns the number of requests that have been served.
+     *
+     * @return The number of served requests
+     */
+    public long getCompletedCount() {
+        return myExecutor.getCompletedTaskCount();
+    }
+
+    /**
+     * Returns the number of requests whose work was cancelled because the container gave up on them.
+     *
+     * @return The number of cancelled requests
+     */
+    public long getCancelledCount() {
+        return myCancelledCount.get();
+    }
+
+    /**
+     * Returns the number of requests whose work was stopped because it passed the lane's time limit.
+     *
+     * @return The number of timed out requests
+     */
+    public long getTimedOutCount() {
+        return myTimedOutCount.get();
+    }
+
+    /**
+     * Returns the number of requests that were rejected because the queue was full.
+     *
+     * @return The number of rejected requests
+     */
+    public long getRejectedCount() {
+        return myRejectedCount.get();
+    }
+
+    /**
+     * Starts timing the work a worker is about to do, cancelling it if it passes the lane's time limit.
+     */
+    private ScheduledFuture<?> startLimit(final Cancellation aCancellation, final HttpServletRequest aRequest) {
+        if (myTimeout == 0) {
+            return null;
+        }
+
+        return LIMITS.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                if (aCancellation.timeOut(myRetryAfter)) {
+                    myTimedOutCount.incrementAndGet();
+
+                    if (LOGGER.isWarnEnabled()) {
+                        LOGGER.warn("Request stopped after {} ms in {} lane: {}", new Object[] { myTimeout, myName,
+                            aRequest.getRequestURI() });
+                    }
+                }
+            }
+        }, myTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    private static void sendError(final HttpServletResponse aResponse, final int aStatus, final String aMessage) {
+        if (!aResponse.isCommitted()) {
+            try {
+                aResponse.sendError(aStatus, aMessage);
+            } catch (final IOException details) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Unable to send error: {}", details.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels a suspended request's work when the container gives up on the request (which, since the request's
+     * container timeout is turned off, is when it reports an error).
+     */
+    private class CancellingListener implements AsyncListener {
+
+        private final Cancellation myCancellation;
+
+        private final AtomicBoolean myFinished;
+
+        private CancellingListener(final Cancellation aCancellation, final AtomicBoolean aFinished) {
+            myCancellation = aCancellation;
+            myFinished = aFinished;
+        }
+
+        @Override
+        public void onComplete(final AsyncEvent aEvent) {
+            myFinished.set(true);
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent aEvent) {
+            cancel("timed out");
+        }
+
+        @Override
+        public void onError(final AsyncEvent aEvent) {
+            cancel(aEvent.getThrowable() == null ? "failed" : aEvent.getThrowable().getMessage());
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent aEvent) {
+            // Nothing to do; the listener isn't carried over to a new async cycle
+        }
+
+        private void cancel(final String aReason) {
+            // Work that's already been stopped by the time limit isn't counted again
+            if (myFinished.compareAndSet(false, true) && !myCancellation.isCancelled()) {
+                myCancelledCount.incrementAndGet();
+
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("{} request cancelled: {}", myName, aReason);
+                }
+
+                myCancellation.cancel();
+            }
+        }
+    }
+
+    /**
+     * The work that serves a suspended request.
+     */
+    public interface Task {
+
+        /**
+         * Serves the request.
+         *
+         * @throws IOException If the response can't be written
+         * @throws ServletException If the request can't be served
+         */
+        void run() throws IOException, ServletException;
+    }
+}
@@ -0,0 +1,39 @@
+
+package info.freelibrary.djatoka.decode;
+
+import gov.lanl.adore.djatoka.DjatokaException;
+
+/**
+ * An exception thrown when the {@link DecodeScheduler} is saturated and can't accept a decode request.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public class DecodeRejectedException extends DjatokaException {
+
+    /**
+     * The <code>serialVersionUID</code> of the <code>DecodeRejectedException</code>.
+     */
+    private static final long serialVersionUID = -3043327361287407735L;
+
+    private final int myRetryAfter;
+
+    /**
+     * Creates a rejection exception with the supplied message and suggested retry delay.
+     *
+     * @param aMessage The exception message
+     * @param aRetryAfter The number of seconds a client should wait before retrying the request
+     */
+    public DecodeRejectedException(final String aMessage, final int aRetryAfter) {
+        super(aMessage);
+        myRetryAfter = aRetryAfter;
+    }
+
+    /**
+     * Returns the number of seconds a client should wait before retrying the rejected request.
+     *
+     * @return The number of seconds to wait before retrying
+     */
+    public int getRetryAfter() {
+        return myRetryAfter;
+    }
+}
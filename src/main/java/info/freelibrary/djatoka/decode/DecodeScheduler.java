@@ -0,0 +1,245 @@
+
+package info.freelibrary.djatoka.decode;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounds the number of JP2 decodes that can run at one time. Requests beyond the configured number of workers wait
+ * in a bounded, first-come first-served queue; when the queue is full, or a request has waited longer than the queue
+ * timeout, the request is rejected with a {@link DecodeRejectedException} so that it can be answered with a 503.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public class DecodeScheduler {
+
+    /** The default number of seconds a rejected client is asked to wait before retrying */
+    public static final int DEFAULT_RETRY_AFTER = 5;
+
+    /** The default number of milliseconds a request will wait in the queue */
+    public static final long DEFAULT_QUEUE_TIMEOUT = 10000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DecodeScheduler.class);
+
+    private final Semaphore myWorkers;
+
+    private final int myWorkerCount;
+
+    private final int myMaxQueueSize;
+
+    private final long myQueueTimeout;
+
+    private final int myRetryAfter;
+
+    private final AtomicInteger myQueueDepth = new AtomicInteger();
+
+    private final AtomicInteger myPeakQueueDepth = new AtomicInteger();
+
+    private final AtomicLong myDecodeCount = new AtomicLong();
+
+    private final AtomicLong myRejectedCount = new AtomicLong();
+
+    private final AtomicLong myTotalWaitTime = new AtomicLong();
+
+    private final AtomicLong myMaxWaitTime = new AtomicLong();
+
+    /**
+     * Creates a decode scheduler sized to the number of available processors.
+     */
+    public DecodeScheduler() {
+        this(0, -1, DEFAULT_QUEUE_TIMEOUT, DEFAULT_RETRY_AFTER);
+    }
+
+    /**
+     * Creates a decode scheduler with the supplied number of workers, queue size, and queue timeout. A worker count
+     * less than one uses the number of available processors; a queue size less than zero uses four times the number
+     * of workers.
+     *
+     * @param aWorkerCount The number of decodes that may run at the same time
+     * @param aMaxQueueSize The number of decodes that may wait for a free worker
+     * @param aQueueTimeout The number of milliseconds a decode may wait for a free worker
+     * @param aRetryAfter The number of seconds a rejected client should wait before retrying
+     */
+    public DecodeScheduler(final int aWorkerCount, final int aMaxQueueSize, final long aQueueTimeout,
+            final int aRetryAfter) {
+        myWorkerCount = aWorkerCount < 1 ? Runtime.getRuntime().availableProcessors() : aWorkerCount;
+        myMaxQueueSize = aMaxQueueSize < 0 ? myWorkerCount * 4 : aMaxQueueSize;
+        myQueueTimeout = aQueueTimeout < 0 ? 0 : aQueueTimeout;
+        myRetryAfter = aRetryAfter < 1 ? DEFAULT_RETRY_AFTER : aRetryAfter;
+        myWorkers = new Semaphore(myWorkerCount, true);
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Decode scheduler configured: [workers: {}, queue: {}, timeout: {}ms]", new Object[] {
+                myWorkerCount, myMaxQueueSize, myQueueTimeout });
+        }
+    }
+
+    /**
+     * Acquires a decode worker, waiting in the queue if none are free. Each successful call must be paired with a
+     * call to {@link #release()}.
+     *
+     * @throws DecodeRejectedException If the queue is full or the wait for a free worker times out
+     */
+    public void acquire() throws DecodeRejectedException {
+        final long start = System.nanoTime();
+        final int depth = myQueueDepth.incrementAndGet();
+
+        try {
+            // Respects queue fairness, unlike the no-argument tryAcquire()
+            if (myWorkers.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                recordWait(start);
+                return;
+            }
+
+            if (depth > myMaxQueueSize) {
+                throw reject("Decode queue is full (" + myMaxQueueSize + " waiting)");
+            }
+
+            updatePeakQueueDepth(depth);
+
+            if (myWorkers.tryAcquire(myQueueTimeout, TimeUnit.MILLISECONDS)) {
+                recordWait(start);
+            } else {
+                throw reject("Timed out after " + myQueueTimeout + "ms waiting for a decode worker");
+            }
+        } catch (final InterruptedException details) {
+            Thread.currentThread().interrupt();
+            throw reject("Interrupted while waiting for a decode worker");
+        } finally {
+            myQueueDepth.decrementAndGet();
+        }
+    }
+
+    /**
+     * Releases a decode worker acquired through {@link #acquire()}.
+     */
+    public void release() {
+        myWorkers.release();
+    }
+
+    /**
+     * Gets the number of decode workers.
+     *
+     * @return The number of decode workers
+     */
+    public int getWorkerCount() {
+        return myWorkerCount;
+    }
+
+    /**
+     * Gets the number of decode workers that are currently busy.
+     *
+     * @return The number of busy decode workers
+     */
+    public int getActiveCount() {
+        return myWorkerCount - myWorkers.availablePermits();
+    }
+
+    /**
+     * Gets the maximum number of decodes that may wait for a free worker.
+     *
+     * @return The maximum size of the decode queue
+     */
+    public int getMaxQueueSize() {
+        return myMaxQueueSize;
+    }
+
+    /**
+     * Gets the number of decodes currently waiting for a free worker.
+     *
+     * @return The current depth of the decode queue
+     */
+    public int getQueueDepth() {
+        return myQueueDepth.get();
+    }
+
+    /**
+     * Gets the largest number of decodes that have waited for a free worker at the same time.
+     *
+     * @return The peak depth of the decode queue
+     */
+    public int getPeakQueueDepth() {
+        return myPeakQueueDepth.get();
+    }
+
+    /**
+     * Gets the number of decodes that have been given a worker.
+     *
+     * @return The number of scheduled decodes
+     */
+    public long getDecodeCount() {
+        return myDecodeCount.get();
+    }
+
+    /**
+     * Gets the number of decodes that have been rejected.
+     *
+     * @return The number of rejected decodes
+     */
+    public long getRejectedCount() {
+        return myRejectedCount.get();
+    }
+
+    /**
+     * Gets the average number of milliseconds a scheduled decode waited for a worker.
+     *
+     * @return The average wait time in milliseconds
+     */
+    public long getAverageWaitTime() {
+        final long count = myDecodeCount.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(myTotalWaitTime.get() / count);
+    }
+
+    /**
+     * Gets the longest number of milliseconds a scheduled decode waited for a worker.
+     *
+     * @return The maximum wait time in milliseconds
+     */
+    public long getMaxWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(myMaxWaitTime.get());
+    }
+
+    /**
+     * Gets the number of seconds a rejected client is asked to wait before retrying.
+     *
+     * @return The number of seconds to wait before retrying
+     */
+    public int getRetryAfter() {
+        return myRetryAfter;
+    }
+
+    private DecodeRejectedException reject(final String aMessage) {
+        myRejectedCount.incrementAndGet();
+
+        if (LOGGER.isWarnEnabled()) {
+            LOGGER.warn("Decode rejected: {}", aMessage);
+        }
+
+        return new DecodeRejectedException(aMessage, myRetryAfter);
+    }
+
+    private void recordWait(final long aStart) {
+        final long wait = System.nanoTime() - aStart;
+        long max;
+
+        myDecodeCount.incrementAndGet();
+        myTotalWaitTime.addAndGet(wait);
+
+        while (wait > (max = myMaxWaitTime.get()) && !myMaxWaitTime.compareAndSet(max, wait)) {
+            // Try again; another thread updated the max wait time
+        }
+    }
+
+    private void updatePeakQueueDepth(final int aDepth) {
+        int peak;
+
+        while (aDepth > (peak = myPeakQueueDepth.get()) && !myPeakQueueDepth.compareAndSet(peak, aDepth)) {
+            // Try again; another thread updated the peak queue depth
+        }
+    }
+}
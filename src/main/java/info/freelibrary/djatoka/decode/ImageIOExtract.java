@@ -0,0 +1,330 @@
+
+package info.freelibrary.djatoka.decode;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.lanl.adore.djatoka.DjatokaDecodeParam;
+import gov.lanl.adore.djatoka.DjatokaException;
+import gov.lanl.adore.djatoka.IExtract;
+import gov.lanl.adore.djatoka.kdu.KduExtractExe;
+import gov.lanl.adore.djatoka.util.IOUtils;
+import gov.lanl.adore.djatoka.util.ImageProcessingUtils;
+import gov.lanl.adore.djatoka.util.ImageRecord;
+import gov.lanl.adore.djatoka.util.JP2ImageInfo;
+
+import info.freelibrary.djatoka.util.ImageRecordCache;
+import info.freelibrary.djatoka.util.TempFileManager;
+
+/**
+ * An {@link IExtract} that decodes JPEG 2000 images in pure Java, with whichever JPEG 2000 reader is installed as an
+ * ImageIO plugin (like the JJ2000-based reader in <code>jai-imageio-jpeg2000</code>, which the
+ * <code>java-jpeg2000</code> build profile adds), so decoding doesn't need Kakadu. Image metadata is read from the
+ * JP2's headers by {@link JP2ImageInfo}.
+ * <p/>
+ * Resolution reduction is done by power-of-two subsampling of the region's full resolution pixels. ImageIO has no
+ * standard parameter for asking a JPEG 2000 reader to discard resolution levels, so the reader still decodes the
+ * region at full resolution before it's subsampled; reduced requests cost about as much as full resolution ones.
+ * Regions are rounded to the reduced image's pixels the way Kakadu rounds them, so the decoded image is the same size
+ * as <code>kdu_expand</code>'s.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public class ImageIOExtract implements IExtract {
+
+    /** The ImageIO format name of JPEG 2000 readers */
+    public static final String FORMAT_NAME = "jpeg2000";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageIOExtract.class);
+
+    private static boolean isScanned;
+
+    /**
+     * Returns true if there's a JPEG 2000 reader installed for this extractor to decode with; else, false.
+     *
+     * @return True if JPEG 2000 images can be decoded
+     */
+    public static boolean isAvailable() {
+        final ImageReader reader = getReader();
+
+        if (reader != null) {
+            reader.dispose();
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public BufferedImage process(final InputStream aInput, final DjatokaDecodeParam aParams)
+            throws DjatokaException {
+        final File file;
+
+        // The region is resolved against the image's dimensions, which are read before it's decoded
+        try {
+            file = TempFileManager.create("imageio-", ".jp2");
+        } catch (final IOException details) {
+            throw new DjatokaException(details.getMessage(), details);
+        }
+
+        try {
+            final FileOutputStream output = new FileOutputStream(file);
+
+            try {
+                IOUtils.copyStream(aInput, output);
+            } finally {
+                output.close();
+            }
+
+            return process(file.getAbsolutePath(), aParams);
+        } catch (final IOException details) {
+            throw new DjatokaException(details.getMessage(), details);
+        } finally {
+            ImageRecordCache.remove(file);
+            TempFileManager.release(file);
+        }
+    }
+
+    @Override
+    public BufferedImage process(final String aInput, final DjatokaDecodeParam aParams) throws DjatokaException {
+        final ImageRecord record = getMetadata(new ImageRecord(aInput));
+        final List<Double> dims = KduExtractExe.getRegionMetadata(record, aParams);
+        final int reduce = aParams.getLevelReductionFactor();
+
+        if (aParams.getCompositingLayer() > 0) {
+            throw new DjatokaException("Only the first compositing layer can be decoded: " + aInput);
+        }
+
+        if (reduce > record.getDWTLevels()) {
+            throw new DjatokaException("Can't discard " + reduce + " resolution levels of an image with only " +
+                    record.getDWTLevels() + ": " + aInput);
+        }
+
+        final Rectangle source = getSourceRegion(record.getWidth(), record.getHeight(), reduce, dims);
+
+        if (source.isEmpty()) {
+            throw new DjatokaException("Region is outside the image: " + aParams.getRegion());
+        }
+
+        Cancellation.check();
+
+        final BufferedImage image = read(new File(aInput), source, 1 << reduce);
+
+        return ImageProcessingUtils.rotate(image, aParams.getRotationDegree());
+    }
+
+    @Override
+    public BufferedImage process(final ImageRecord aInput, final DjatokaDecodeParam aParams)
+            throws DjatokaException {
+        if (aInput.getImageFile() != null) {
+            return process(aInput.getImageFile(), aParams);
+        } else if (aInput.getObject() != null) {
+            return process(KduExtractExe.getStreamFromObject(aInput.getObject()), aParams);
+        } else {
+            throw new DjatokaException("Image record has neither a file nor an object to decode");
+        }
+    }
+
+    @Override
+    public ImageRecord getMetadata(final ImageRecord aInput) throws DjatokaException {
+        if (aInput == null) {
+            throw new DjatokaException("ImageRecord is null");
+        }
+
+        if (aInput.getImageFile() == null && aInput.getObject() != null) {
+            try {
+                final ImageRecord record =
+                        new JP2ImageInfo(KduExtractExe.getStreamFromObject(aInput.getObject())).getImageRecord();
+
+                record.setObject(aInput.getObject());
+                return record;
+            } catch (final IOException details) {
+                throw new DjatokaException(details.getMessage(), details);
+            }
+        }
+
+        final File file = new File(aInput.getImageFile());
+
+        if (!file.exists()) {
+            throw new DjatokaException("Image Does Not Exist");
+        }
+
+        if (ImageRecordCache.get(file, aInput)) {
+            return aInput;
+        }
+
+        if (!ImageProcessingUtils.checkIfJp2(aInput.getImageFile())) {
+            throw new DjatokaException("Not a JP2 image.");
+        }
+
+        final ImageRecord record = readMetadata(file);
+
+        aInput.setWidth(record.getWidth());
+        aInput.setHeight(record.getHeight());
+        aInput.setDWTLevels(record.getDWTLevels());
+        aInput.setLevels(record.getLevels());
+        aInput.setBitDepth(record.getBitDepth());
+        aInput.setNumChannels(record.getNumChannels());
+        aInput.setQualityLayers(record.getQualityLayers());
+        aInput.setCompositingLayerCount(record.getCompositingLayerCount());
+
+        ImageRecordCache.put(file, aInput);
+        return aInput;
+    }
+
+    @Override
+    public String[] getXMLBox(final ImageRecord aInput) throws DjatokaException {
+        if (aInput.getImageFile() == null && aInput.getObject() != null) {
+            try {
+                return new JP2ImageInfo(KduExtractExe.getStreamFromObject(aInput.getObject())).getXmlDocs();
+            } catch (final IOException details) {
+                throw new DjatokaException(details.getMessage(), details);
+            }
+        }
+
+        InputStream input = null;
+
+        try {
+            input = new BufferedInputStream(new FileInputStream(aInput.getImageFile()));
+            return new JP2ImageInfo(input).getXmlDocs();
+        } catch (final IOException details) {
+            throw new DjatokaException(details.getMessage(), details);
+        } finally {
+            info.freelibrary.util.IOUtils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * Gets the full resolution pixels that are decoded for the supplied region, as fractions of the image, at the
+     * supplied reduction. The region's edges are rounded to the reduced image's pixels first, and each reduced pixel
+     * covers a square of full resolution pixels, so subsampling the returned region gives the reduced region.
+     *
+     * @param aWidth The image's full resolution width
+     * @param aHeight The image's full resolution height
+     * @param aReduce The number of resolution levels discarded
+     * @param aDims The region's top, left, height, and width as fractions of the image; empty for the whole image
+     * @return The full resolution region to decode, which is empty if the region is outside the image
+     */
+    static Rectangle getSourceRegion(final int aWidth, final int aHeight, final int aReduce,
+            final List<Double> aDims) {
+        final int scale = 1 << aReduce;
+        final int width = (aWidth + scale - 1) / scale;
+        final int height = (aHeight + scale - 1) / scale;
+
+        if (aDims.size() != 4) {
+            return new Rectangle(0, 0, aWidth, aHeight);
+        }
+
+        final int top = (int) Math.round(aDims.get(0) * height);
+        final int left = (int) Math.round(aDims.get(1) * width);
+
+        if (top >= height || left >= width) {
+            return new Rectangle();
+        }
+
+        // Even the smallest region that's inside the image has a pixel, as it does for kdu_expand
+        final int bottom = Math.max(top + 1, Math.min(height, (int) Math.round((aDims.get(0) + aDims.get(2)) *
+                height)));
+        final int right = Math.max(left + 1, Math.min(width, (int) Math.round((aDims.get(1) + aDims.get(3)) *
+                width)));
+        final int x = left * scale;
+        final int y = top * scale;
+
+        return new Rectangle(x, y, Math.min(aWidth, right * scale) - x, Math.min(aHeight, bottom * scale) - y);
+    }
+
+    /**
+     * Reads a region of the supplied JPEG 2000 file, subsampled by the supplied power of two.
+     */
+    private static BufferedImage read(final File aFile, final Rectangle aRegion, final int aScale)
+            throws DjatokaException {
+        final ImageReader reader = getReader();
+
+        if (reader == null) {
+            throw new DjatokaException("No JPEG 2000 ImageIO reader is installed");
+        }
+
+        ImageInputStream input = null;
+
+        try {
+            final ImageReadParam param = reader.getDefaultReadParam();
+
+            input = ImageIO.createImageInputStream(aFile);
+
+            if (input == null) {
+                throw new DjatokaException("Unable to read " + aFile);
+            }
+
+            reader.setInput(input, true, true);
+            param.setSourceRegion(aRegion);
+            param.setSourceSubsampling(aScale, aScale, 0, 0);
+
+            return reader.read(0, param);
+        } catch (final IOException details) {
+            throw new DjatokaException(details.getMessage(), details);
+        } finally {
+            reader.dispose();
+
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (final IOException details) {
+                    LOGGER.debug("Image stream not closed: {}", details.getMessage());
+                }
+            }
+        }
+    }
+
+    private static ImageRecord readMetadata(final File aFile) throws DjatokaException {
+        InputStream input = null;
+
+        try {
+            input = new BufferedInputStream(new FileInputStream(aFile));
+            return new JP2ImageInfo(input).getImageRecord();
+        } catch (final IOException details) {
+            throw new DjatokaException(details.getMessage(), details);
+        } finally {
+            info.freelibrary.util.IOUtils.closeQuietly(input);
+        }
+    }
+
+    /**
+     * Gets a new JPEG 2000 reader, since readers can't be shared between threads, or null if none is installed.
+     */
+    private static ImageReader getReader() {
+        Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(FORMAT_NAME);
+
+        // Plugins in a web application's libraries aren't found until ImageIO is told to look for them
+        if (!readers.hasNext() && rescan()) {
+            readers = ImageIO.getImageReadersByFormatName(FORMAT_NAME);
+        }
+
+        return readers.hasNext() ? readers.next() : null;
+    }
+
+    private static synchronized boolean rescan() {
+        if (isScanned) {
+            return false;
+        }
+
+        ImageIO.scanForPlugins();
+        isScanned = true;
+        return true;
+    }
+}
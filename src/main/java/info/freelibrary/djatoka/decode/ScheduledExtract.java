@@ -0,0 +1,104 @@
+
+package info.freelibrary.djatoka.decode;
+
+import gov.lanl.adore.djatoka.DjatokaDecodeParam;
+import gov.lanl.adore.djatoka.DjatokaException;
+import gov.lanl.adore.djatoka.IExtract;
+import gov.lanl.adore.djatoka.util.ImageRecord;
+
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+
+/**
+ * An {@link IExtract} that runs each region extraction through a {@link DecodeScheduler}, so that only a bounded
+ * number of decodes run at the same time. Metadata and XML box requests are passed straight through. Extractions
+ * that were cancelled while they waited for a worker aren't started.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public class ScheduledExtract implements IExtract {
+
+    private final IExtract myExtract;
+
+    private final DecodeScheduler myScheduler;
+
+    /**
+     * Creates a scheduled extractor from the supplied extractor and scheduler.
+     *
+     * @param aExtract The extractor that does the actual decoding
+     * @param aScheduler The scheduler that bounds concurrent decodes
+     */
+    public ScheduledExtract(final IExtract aExtract, final DecodeScheduler aScheduler) {
+        myExtract = aExtract;
+        myScheduler = aScheduler;
+    }
+
+    /**
+     * Gets the scheduler that bounds this extractor's decodes.
+     *
+     * @return The decode scheduler
+     */
+    public DecodeScheduler getScheduler() {
+        return myScheduler;
+    }
+
+    /**
+     * Gets the extractor that does the actual decoding.
+     *
+     * @return The wrapped extractor
+     */
+    public IExtract getExtract() {
+        return myExtract;
+    }
+
+    @Override
+    public BufferedImage process(final InputStream aInput, final DjatokaDecodeParam aParams)
+            throws DjatokaException {
+        myScheduler.acquire();
+
+        try {
+            // The request may have been given up on while it waited for a worker
+            Cancellation.check();
+            return myExtract.process(aInput, aParams);
+        } finally {
+            myScheduler.release();
+        }
+    }
+
+    @Override
+    public BufferedImage process(final String aInput, final DjatokaDecodeParam aParams) throws DjatokaException {
+        myScheduler.acquire();
+
+        try {
+            // The request may have been given up on while it waited for a worker
+            Cancellation.check();
+            return myExtract.process(aInput, aParams);
+        } finally {
+            myScheduler.release();
+        }
+    }
+
+    @Override
+    public BufferedImage process(final ImageRecord aInput, final DjatokaDecodeParam aParams)
+            throws DjatokaException {
+        myScheduler.acquire();
+
+        try {
+            // The request may have been given up on while it waited for a worker
+            Cancellation.check();
+            return myExtract.process(aInput, aParams);
+        } finally {
+            myScheduler.release();
+        }
+    }
+
+    @Override
+    public ImageRecord getMetadata(final ImageRecord aInput) throws DjatokaException {
+        return myExtract.getMetadata(aInput);
+    }
+
+    @Override
+    public String[] getXMLBox(final ImageRecord aInput) throws DjatokaException {
+        return myExtract.getXMLBox(aInput);
+    }
+}
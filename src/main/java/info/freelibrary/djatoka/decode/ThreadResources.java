@@ -0,0 +1,101 @@
+
+package info.freelibrary.djatoka.decode;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Releases the native resources that decoders keep for the thread that's decoding (like Kakadu's thread
+ * environments), which have to be released by that same thread. A decoder registers how to release what it's kept
+ * for the current thread, and the registered releases are run when the thread ends. The lanes' workers end once
+ * they've been idle for a while, so their resources are released as they go; a thread that isn't a lane's worker
+ * keeps its resources until it calls {@link #release()}.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public final class ThreadResources {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ThreadResources.class);
+
+    private static final ThreadLocal<Map<Object, Runnable>> RELEASES = new ThreadLocal<Map<Object, Runnable>>();
+
+    private ThreadResources() {
+    }
+
+    /**
+     * Registers the release of the resources that the supplied owner keeps for the current thread, replacing any
+     * release the owner has already registered for it.
+     *
+     * @param aOwner The decoder that keeps the resources
+     * @param aRelease Releases the resources on the current thread
+     */
+    public static void register(final Object aOwner, final Runnable aRelease) {
+        Map<Object, Runnable> releases = RELEASES.get();
+
+        if (releases == null) {
+            releases = new LinkedHashMap<Object, Runnable>();
+            RELEASES.set(releases);
+        }
+
+        releases.put(aOwner, aRelease);
+    }
+
+    /**
+     * Forgets the release the supplied owner registered for the current thread, once it's released the resources
+     * itself.
+     *
+     * @param aOwner The decoder that kept the resources
+     */
+    public static void unregister(final Object aOwner) {
+        final Map<Object, Runnable> releases = RELEASES.get();
+
+        if (releases != null) {
+            releases.remove(aOwner);
+        }
+    }
+
+    /**
+     * Releases all the resources that have been kept for the current thread.
+     */
+    public static void release() {
+        final Map<Object, Runnable> releases = RELEASES.get();
+
+        if (releases == null) {
+            return;
+        }
+
+        RELEASES.remove();
+
+        for (final Runnable release : releases.values()) {
+            try {
+                release.run();
+            } catch (final RuntimeException details) {
+                LOGGER.warn("Thread resources not released: {}", details.getMessage(), details);
+            }
+        }
+    }
+
+    /**
+     * Wraps the supplied runnable, which is all that a new thread runs, so the thread's resources are released when
+     * it ends.
+     *
+     * @param aRunnable What a new thread runs
+     * @return The runnable for the thread to run instead
+     */
+    public static Runnable wrap(final Runnable aRunnable) {
+        return new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    aRunnable.run();
+                } finally {
+                    release();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,210 @@
+
+package info.freelibrary.djatoka.decode.worker;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A single decode sent to a {@link DecoderWorker}: the image file, the region of it to decode, and the resolution
+ * reduction, rotation, and compositing layer to decode it with. These are the same things that are passed to
+ * <code>kdu_expand</code> on its command line. The region's top, left, height, and width are fractions of the full
+ * image, as they are for <code>kdu_expand</code>'s <code>-region</code> argument.
+ * <p/>
+ * A job is sent to a worker as a single line of text: <code>DECODE</code>, then the reduction, rotation, and layer,
+ * then the region's four fractions separated by commas (or <code>-</code> for the whole image), and last the file's
+ * path, which is the rest of the line so it may contain spaces.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public class DecodeJob {
+
+    /** The command that starts a decode job's line */
+    public static final String DECODE = "DECODE";
+
+    private static final String WHOLE_IMAGE = "-";
+
+    private final String myFile;
+
+    private final int myReduce;
+
+    private final int myRotation;
+
+    private final int myLayer;
+
+    private final double[] myRegion;
+
+    /**
+     * Creates a decode job for the whole of the supplied image.
+     *
+     * @param aFile The path of the image file to decode
+     * @param aReduce The number of resolution levels to discard
+     * @param aRotation The number of degrees to rotate the decoded image: 0, 90, 180, or 270
+     * @param aLayer The compositing layer to decode
+     */
+    public DecodeJob(final String aFile, final int aReduce, final int aRotation, final int aLayer) {
+        this(aFile, aReduce, aRotation, aLayer, null);
+    }
+
+    /**
+     * Creates a decode job for a region of the supplied image.
+     *
+     * @param aFile The path of the image file to decode
+     * @param aReduce The number of resolution levels to discard
+     * @param aRotation The number of degrees to rotate the decoded image: 0, 90, 180, or 270
+     * @param aLayer The compositing layer to decode
+     * @param aRegion The region's top, left, height, and width as fractions of the full image; null for all of it
+     */
+    public DecodeJob(final String aFile, final int aReduce, final int aRotation, final int aLayer,
+            final double[] aRegion) {
+        if (aFile == null || aFile.indexOf('\n') != -1 || aFile.indexOf('\r') != -1) {
+            throw new IllegalArgumentException("Image file path can't be sent to a decoder: " + aFile);
+        }
+
+        if (aRegion != null && aRegion.length != 4) {
+            throw new IllegalArgumentException("A region needs a top, left, height, and width");
+        }
+
+        myFile = aFile;
+        myReduce = Math.max(0, aReduce);
+        myRotation = aRotation;
+        myLayer = Math.max(0, aLayer);
+        myRegion = aRegion == null ? null : aRegion.clone();
+    }
+
+    /**
+     * Creates a decode job with the region dimensions that <code>KduExtractExe</code> calculates for a request.
+     *
+     * @param aFile The path of the image file to decode
+     * @param aReduce The number of resolution levels to discard
+     * @param aRotation The number of degrees to rotate the decoded image: 0, 90, 180, or 270
+     * @param aLayer The compositing layer to decode
+     * @param aDims The region's top, left, height, and width as fractions of the full image; empty for all of it
+     * @return A new decode job
+     */
+    public static DecodeJob fromDims(final String aFile, final int aReduce, final int aRotation, final int aLayer,
+            final List<Double> aDims) {
+        if (aDims == null || aDims.size() != 4) {
+            return new DecodeJob(aFile, aReduce, aRotation, aLayer);
+        }
+
+        return new DecodeJob(aFile, aReduce, aRotation, aLayer, new double[] { aDims.get(0), aDims.get(1),
+            aDims.get(2), aDims.get(3) });
+    }
+
+    /**
+     * Parses a decode job from the line a worker was sent.
+     *
+     * @param aLine A line starting with <code>DECODE</code>
+     * @return The decode job the line describes
+     * @throws IOException If the line isn't a decode job
+     */
+    public static DecodeJob parse(final String aLine) throws IOException {
+        final String[] parts = aLine.split(" ", 6);
+
+        if (parts.length != 6 || !DECODE.equals(parts[0]) || parts[5].isEmpty()) {
+            throw new IOException("Malformed decode job: " + aLine);
+        }
+
+        try {
+            final int reduce = Integer.parseInt(parts[1]);
+            final int rotation = Integer.parseInt(parts[2]);
+            final int layer = Integer.parseInt(parts[3]);
+
+            if (WHOLE_IMAGE.equals(parts[4])) {
+                return new DecodeJob(parts[5], reduce, rotation, layer);
+            }
+
+            final String[] fractions = parts[4].split(",");
+
+            if (fractions.length != 4) {
+                throw new IOException("Malformed decode region: " + parts[4]);
+            }
+
+            final double[] region = new double[4];
+
+            for (int index = 0; index < region.length; index++) {
+                region[index] = Double.parseDouble(fractions[index]);
+            }
+
+            return new DecodeJob(parts[5], reduce, rotation, layer, region);
+        } catch (final NumberFormatException details) {
+            throw new IOException("Malformed decode job: " + aLine, details);
+        }
+    }
+
+    /**
+     * Gets the path of the image file to decode.
+     *
+     * @return The image file's path
+     */
+    public String getFile() {
+        return myFile;
+    }
+
+    /**
+     * Gets the number of resolution levels to discard.
+     *
+     * @return The resolution reduction
+     */
+    public int getReduce() {
+        return myReduce;
+    }
+
+    /**
+     * Gets the number of degrees the decoded image is rotated.
+     *
+     * @return The rotation
+     */
+    public int getRotation() {
+        return myRotation;
+    }
+
+    /**
+     * Gets the compositing layer to decode.
+     *
+     * @return The compositing layer
+     */
+    public int getLayer() {
+        return myLayer;
+    }
+
+    /**
+     * Returns true if only a region of the image is decoded; else, false.
+     *
+     * @return True if a region of the image is decoded
+     */
+    public boolean hasRegion() {
+        return myRegion != null;
+    }
+
+    /**
+     * Gets the region's top, left, height, and width as fractions of the full image, or null if the whole image is
+     * decoded.
+     *
+     * @return The region to decode
+     */
+    public double[] getRegion() {
+        return myRegion == null ? null : myRegion.clone();
+    }
+
+    /**
+     * Returns the line that's sent to a worker for this job.
+     *
+     * @return The job's line, without its line ending
+     */
+    @Override
+    public String toString() {
+        final StringBuilder line = new StringBuilder(DECODE);
+
+        line.append(' ').append(myReduce).append(' ').append(myRotation).append(' ').append(myLayer).append(' ');
+
+        if (myRegion == null) {
+            line.append(WHOLE_IMAGE);
+        } else {
+            line.append(myRegion[0]).append(',').append(myRegion[1]).append(',');
+            line.append(myRegion[2]).append(',').append(myRegion[3]);
+        }
+
+        return line.append(' ').append(myFile).toString();
+    }
+}
@@ -0,0 +1,167 @@
+
+package info.freelibrary.djatoka.decode.worker;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import info.freelibrary.djatoka.io.PNMImage;
+
+/**
+ * A long-lived decoder process, which decodes one {@link DecodeJob} after another for a {@link WorkerPoolExtract}
+ * instead of paying a new process's start-up and library initialization for each decode.
+ * <p/>
+ * A worker reads requests, one line each, from its standard input and answers each on its standard output:
+ * <ul>
+ * <li><code>DECODE ...</code> is answered with <code>OK</code>, a space, and a byte count on a line of its own,
+ * followed by that many bytes of binary PNM, the same raw pixels <code>kdu_expand</code> writes; or with
+ * <code>ERR</code> and a message if the image couldn't be decoded.</li>
+ * <li><code>PING</code> is answered with <code>PONG</code>, so an idle worker can be checked before it's used.</li>
+ * <li><code>QUIT</code>, or the end of its input, makes the worker exit.</li>
+ * </ul>
+ * Standard output is kept for the protocol, so anything the worker logs goes to standard error.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public abstract class DecoderWorker {
+
+    /** The request that checks a worker is still answering */
+    public static final String PING = "PING";
+
+    /** The answer to a <code>PING</code> */
+    public static final String PONG = "PONG";
+
+    /** The request that makes a worker exit */
+    public static final String QUIT = "QUIT";
+
+    /** The start of the answer to a decode that succeeded */
+    public static final String OK = "OK";
+
+    /** The start of the answer to a decode that failed */
+    public static final String ERR = "ERR";
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DecoderWorker.class);
+
+    private static final int MAX_LINE_LENGTH = 65536;
+
+    /**
+     * Decodes the supplied job.
+     *
+     * @param aJob The image, region, and transforms to decode
+     * @return The decoded image
+     * @throws Exception If the image couldn't be decoded
+     */
+    protected abstract BufferedImage decode(DecodeJob aJob) throws Exception;
+
+    /**
+     * Answers the requests read from the supplied input until it ends or a <code>QUIT</code> is read.
+     *
+     * @param aInput Where requests are read from
+     * @param aOutput Where answers are written to
+     * @throws IOException If a request can't be read or an answer written
+     */
+    public void serve(final InputStream aInput, final OutputStream aOutput) throws IOException {
+        final ByteArrayOutputStream pixels = new ByteArrayOutputStream();
+        String line;
+
+        while ((line = readLine(aInput)) != null && !QUIT.equals(line)) {
+            if (PING.equals(line)) {
+                writeLine(aOutput, PONG);
+            } else {
+                String error = null;
+
+                pixels.reset();
+
+                try {
+                    PNMImage.write(decode(DecodeJob.parse(line)), pixels);
+                } catch (final Exception details) {
+                    if (LOGGER.isWarnEnabled()) {
+                        LOGGER.warn("Decode failed [{}]: {}", line, details.getMessage());
+                    }
+
+                    error = toMessage(details);
+                }
+
+                if (error == null) {
+                    writeLine(aOutput, OK + " " + pixels.size());
+                    pixels.writeTo(aOutput);
+                } else {
+                    writeLine(aOutput, ERR + " " + error);
+                }
+            }
+
+            aOutput.flush();
+        }
+    }
+
+    /**
+     * Serves requests on the current process's standard input and output. This is what a worker's
+     * <code>main</code> calls.
+     *
+     * @param aWorker The worker that decodes the jobs
+     */
+    protected static void run(final DecoderWorker aWorker) {
+        final OutputStream protocol = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out));
+
+        // Nothing else may write to the stream the answers are written to
+        System.setOut(System.err);
+
+        try {
+            aWorker.serve(new BufferedInputStream(System.in), protocol);
+        } catch (final IOException details) {
+            // Our parent has gone away, so there's no one left to tell
+            LOGGER.error("Decoder worker stopped: {}", details.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads a line, without its line ending, or returns null at the end of the stream.
+     */
+    static String readLine(final InputStream aInput) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int next;
+
+        while ((next = aInput.read()) != '\n') {
+            if (next == -1) {
+                return line.size() == 0 ? null : line.toString(UTF_8.name());
+            }
+
+            if (line.size() == MAX_LINE_LENGTH) {
+                throw new IOException("Decoder line is too long");
+            }
+
+            line.write(next);
+        }
+
+        return line.toString(UTF_8.name());
+    }
+
+    /**
+     * Writes a line; the caller flushes the stream once everything it's sending has been written.
+     */
+    static void writeLine(final OutputStream aOutput, final String aLine) throws IOException {
+        aOutput.write(aLine.getBytes(UTF_8));
+        aOutput.write('\n');
+    }
+
+    /**
+     * Gets an exception's message as something that fits on a single line.
+     */
+    private static String toMessage(final Exception aException) {
+        final String message = aException.getMessage() == null ? aException.toString() : aException.getMessage();
+        return message.replace('\r', ' ').replace('\n', ' ');
+    }
+}
@@ -0,0 +1,79 @@
+
+package info.freelibrary.djatoka.decode.worker;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import gov.lanl.adore.djatoka.util.ImageProcessingUtils;
+
+/**
+ * A stand-in decoder worker written in plain Java, which speaks the same protocol as {@link KduDecoderWorker} but
+ * decodes with <code>ImageIO</code> instead of Kakadu. It can't read JPEG 2000 images; it's there so the worker pool
+ * can be run and tested where Kakadu isn't installed, using images in the formats <code>ImageIO</code> reads.
+ * <p/>
+ * A job's region is cropped from the full image, which is then shrunk by half for each level of reduction and
+ * rotated, the same order <code>kdu_expand</code> applies them in. The compositing layer is ignored, since these
+ * formats only have the one.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public class JavaDecoderWorker extends DecoderWorker {
+
+    /**
+     * Serves decode jobs on standard input and output.
+     *
+     * @param aArgs Not used
+     */
+    public static void main(final String[] aArgs) {
+        run(new JavaDecoderWorker());
+    }
+
+    @Override
+    protected BufferedImage decode(final DecodeJob aJob) throws IOException {
+        final BufferedImage source = ImageIO.read(new File(aJob.getFile()));
+
+        if (source == null) {
+            throw new IOException("Image format isn't supported: " + aJob.getFile());
+        }
+
+        final int fullWidth = source.getWidth();
+        final int fullHeight = source.getHeight();
+        int x = 0;
+        int y = 0;
+        int width = fullWidth;
+        int height = fullHeight;
+
+        if (aJob.hasRegion()) {
+            final double[] region = aJob.getRegion();
+
+            y = (int) Math.round(region[0] * fullHeight);
+            x = (int) Math.round(region[1] * fullWidth);
+            height = Math.min((int) Math.round(region[2] * fullHeight), fullHeight - y);
+            width = Math.min((int) Math.round(region[3] * fullWidth), fullWidth - x);
+
+            if (x < 0 || y < 0 || width < 1 || height < 1) {
+                throw new IOException("Region is outside the image: " + aJob);
+            }
+        }
+
+        // Like kdu_expand, a reduced dimension is rounded up so even the smallest region has a pixel
+        final int scale = 1 << aJob.getReduce();
+        final BufferedImage image = new BufferedImage((width + scale - 1) / scale, (height + scale - 1) / scale,
+                BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = image.createGraphics();
+
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(source, 0, 0, image.getWidth(), image.getHeight(), x, y, x + width, y + height, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        return ImageProcessingUtils.rotate(image, aJob.getRotation());
+    }
+}
@@ -0,0 +1,36 @@
+
+package info.freelibrary.djatoka.decode.worker;
+
+import java.awt.image.BufferedImage;
+
+import gov.lanl.adore.djatoka.DjatokaException;
+import gov.lanl.adore.djatoka.kdu.jni.PooledKduExtractJNI;
+
+/**
+ * A decoder worker that decodes JPEG 2000 images with Kakadu's Java bindings. The native library is loaded and
+ * initialized once, when the worker starts, rather than once per decode as it is for <code>kdu_expand</code>, and
+ * because the worker runs in a process of its own a crash in the native code takes down only the worker, which the
+ * pool replaces, and not the servlet container. The worker keeps the codestreams of the images it's recently decoded
+ * open, so a worker that's sent another tile of the same image doesn't have to reopen it.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public class KduDecoderWorker extends DecoderWorker {
+
+    private final PooledKduExtractJNI myExtract = new PooledKduExtractJNI();
+
+    /**
+     * Serves decode jobs on standard input and output.
+     *
+     * @param aArgs Not used
+     */
+    public static void main(final String[] aArgs) {
+        run(new KduDecoderWorker());
+    }
+
+    @Override
+    protected BufferedImage decode(final DecodeJob aJob) throws DjatokaException {
+        return myExtract.decode(aJob.getFile(), aJob.getReduce(), aJob.getRotation(), aJob.getLayer(), aJob
+                .getRegion());
+    }
+}
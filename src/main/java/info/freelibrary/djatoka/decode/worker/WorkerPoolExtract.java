@@ -0,0 +1,500 @@
+
+package info.freelibrary.djatoka.decode.worker;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.lanl.adore.djatoka.DjatokaDecodeParam;
+import gov.lanl.adore.djatoka.DjatokaException;
+import gov.lanl.adore.djatoka.IExtract;
+import gov.lanl.adore.djatoka.kdu.KduExtractExe;
+import gov.lanl.adore.djatoka.util.IOUtils;
+import gov.lanl.adore.djatoka.util.ImageRecord;
+
+import info.freelibrary.djatoka.decode.Cancellation;
+import info.freelibrary.djatoka.util.TempFileManager;
+
+/**
+ * An {@link IExtract} that decodes on a pool of long-lived {@link DecoderWorker} processes instead of starting a
+ * <code>kdu_expand</code> for each decode. Metadata and XML box requests, and the region calculations that need the
+ * image's metadata, are handled by another extractor.
+ * <p/>
+ * Workers are started as they're needed, up to the pool's size, and kept healthy: one that's been idle for longer
+ * than the check interval is pinged before it's used, one that's decoded its maximum number of jobs is replaced
+ * with a fresh one (so a slow leak in a native library can't grow forever), and one that crashes or stops following
+ * the protocol is destroyed and replaced. A job whose worker crashed is tried once more on a fresh worker, since the
+ * crash may have been the worker's fault rather than the image's. A cancelled decode's worker is destroyed, since
+ * there's no way to interrupt a decode part way through.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public class WorkerPoolExtract implements IExtract {
+
+    /** The default number of jobs a worker decodes before it's replaced */
+    public static final int DEFAULT_MAX_JOBS = 1000;
+
+    /** The default number of milliseconds a worker may be idle before it's pinged */
+    public static final long DEFAULT_CHECK_INTERVAL = 60000;
+
+    /** The default maximum heap size of a worker's JVM, in the form of Java's <code>-Xmx</code> option */
+    public static final String DEFAULT_MAX_HEAP = "512m";
+
+    private static final Pattern MAX_HEAP = Pattern.compile("[1-9][0-9]*[kKmMgG]?");
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorkerPoolExtract.class);
+
+    private final List<String> myCommand;
+
+    private final IExtract myMetadataExtract;
+
+    private final int mySize;
+
+    private final Semaphore myPermits;
+
+    private final ConcurrentLinkedQueue<WorkerProcess> myIdleWorkers = new ConcurrentLinkedQueue<WorkerProcess>();
+
+    private final AtomicLong myStartedCount = new AtomicLong();
+
+    private final AtomicLong myRecycledCount = new AtomicLong();
+
+    private final AtomicLong myCrashedCount = new AtomicLong();
+
+    private final AtomicLong myJobCount = new AtomicLong();
+
+    private volatile int myMaxJobs = DEFAULT_MAX_JOBS;
+
+    private volatile long myCheckInterval = DEFAULT_CHECK_INTERVAL;
+
+    /**
+     * Creates a pool of the supplied number of decoder workers, each started with the supplied command.
+     *
+     * @param aCommand The command that starts a decoder worker
+     * @param aSize The maximum number of workers, and so of decodes that can run at the same time
+     * @param aMetadataExtract The extractor that reads images' metadata and XML boxes
+     */
+    public WorkerPoolExtract(final List<String> aCommand, final int aSize, final IExtract aMetadataExtract) {
+        if (aCommand == null || aCommand.isEmpty()) {
+            throw new IllegalArgumentException("A decoder worker command is needed");
+        }
+
+        myCommand = Collections.unmodifiableList(new ArrayList<String>(aCommand));
+        myMetadataExtract = aMetadataExtract;
+        mySize = Math.max(1, aSize);
+        myPermits = new Semaphore(mySize, true);
+    }
+
+    /**
+     * Creates a pool of the supplied number of decoder workers that decode with Kakadu's Java bindings. Metadata is
+     * read with <code>KduExtractExe</code>.
+     *
+     * @param aSize The maximum number of workers, and so of decodes that can run at the same time
+     */
+    public WorkerPoolExtract(final int aSize) {
+        this(aSize, DEFAULT_MAX_HEAP);
+    }
+
+    /**
+     * Creates a pool of the supplied number of decoder workers that decode with Kakadu's Java bindings, each in a JVM
+     * with the supplied maximum heap size. Metadata is read with <code>KduExtractExe</code>.
+     *
+     * @param aSize The maximum number of workers, and so of decodes that can run at the same time
+     * @param aMaxHeap The maximum heap size of each worker's JVM, like <code>512m</code>
+     */
+    public WorkerPoolExtract(final int aSize, final String aMaxHeap) {
+        this(getJavaCommand(KduDecoderWorker.class, aMaxHeap), aSize, new KduExtractExe());
+    }
+
+    /**
+     * Gets the command that runs the supplied worker class in a new JVM, with this JVM's class path and native
+     * library path and the default maximum heap size.
+     *
+     * @param aWorkerClass The decoder worker to run
+     * @return The command that starts the worker
+     */
+    public static List<String> getJavaCommand(final Class<? extends DecoderWorker> aWorkerClass) {
+        return getJavaCommand(aWorkerClass, DEFAULT_MAX_HEAP);
+    }
+
+    /**
+     * Gets the command that runs the supplied worker class in a new JVM, with this JVM's class path and native
+     * library path and the supplied maximum heap size. Without one, each worker's JVM would size its heap from the
+     * machine's memory, as if it were the only process running, though there's a worker for each decode worker.
+     *
+     * @param aWorkerClass The decoder worker to run
+     * @param aMaxHeap The maximum heap size of the worker's JVM, like <code>512m</code>
+     * @return The command that starts the worker
+     * @throws IllegalArgumentException If the maximum heap size isn't a number of bytes, kilobytes, megabytes, or
+     *         gigabytes in the form <code>-Xmx</code> takes
+     */
+    public static List<String> getJavaCommand(final Class<? extends DecoderWorker> aWorkerClass,
+            final String aMaxHeap) {
+        final String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+        final String libraryPath = System.getProperty("java.library.path", "");
+
+        if (aMaxHeap == null || !MAX_HEAP.matcher(aMaxHeap.trim()).matches()) {
+            throw new IllegalArgumentException("Not a maximum heap size: " + aMaxHeap);
+        }
+
+        return Arrays.asList(java, "-Xmx" + aMaxHeap.trim(), "-Djava.library.path=" + libraryPath, "-cp",
+                getClassPath(aWorkerClass), aWorkerClass.getName());
+    }
+
+    /**
+     * Sets the number of jobs a worker decodes before it's replaced with a fresh one. A maximum less than one isn't
+     * enforced.
+     *
+     * @param aMaxJobs The maximum number of jobs per worker
+     */
+    public void setMaxJobs(final int aMaxJobs) {
+        myMaxJobs = aMaxJobs;
+    }
+
+    /**
+     * Gets the number of jobs a worker decodes before it's replaced with a fresh one.
+     *
+     * @return The maximum number of jobs per worker
+     */
+    public int getMaxJobs() {
+        return myMaxJobs;
+    }
+
+    /**
+     * Sets the number of milliseconds a worker may sit idle before it's pinged to check it's still healthy.
+     *
+     * @param aCheckInterval The idle time after which a worker is checked
+     */
+    public void setCheckInterval(final long aCheckInterval) {
+        myCheckInterval = Math.max(0, aCheckInterval);
+    }
+
+    /**
+     * Gets the number of milliseconds a worker may sit idle before it's pinged to check it's still healthy.
+     *
+     * @return The idle time after which a worker is checked
+     */
+    public long getCheckInterval() {
+        return myCheckInterval;
+    }
+
+    /**
+     * Gets the maximum number of workers.
+     *
+     * @return The pool's size
+     */
+    public int getSize() {
+        return mySize;
+    }
+
+    /**
+     * Gets the number of workers that are decoding.
+     *
+     * @return The number of busy workers
+     */
+    public int getActiveCount() {
+        return mySize - myPermits.availablePermits();
+    }
+
+    /**
+     * Gets the number of workers that are running but not decoding.
+     *
+     * @return The number of idle workers
+     */
+    public int getIdleCount() {
+        return myIdleWorkers.size();
+    }
+
+    /**
+     * Gets the number of workers that have been started.
+     *
+     * @return The number of workers started
+     */
+    public long getStartedCount() {
+        return myStartedCount.get();
+    }
+
+    /**
+     * Gets the number of workers that were replaced because they'd decoded their maximum number of jobs.
+     *
+     * @return The number of workers recycled
+     */
+    public long getRecycledCount() {
+        return myRecycledCount.get();
+    }
+
+    /**
+     * Gets the number of workers that were replaced because they crashed, stopped answering, or were destroyed to
+     * stop a cancelled decode.
+     *
+     * @return The number of workers lost
+     */
+    public long getCrashedCount() {
+        return myCrashedCount.get();
+    }
+
+    /**
+     * Gets the number of jobs the pool's workers have been sent.
+     *
+     * @return The number of jobs sent
+     */
+    public long getJobCount() {
+        return myJobCount.get();
+    }
+
+    /**
+     * Stops the workers that aren't decoding. Workers that are decoding finish their jobs, and new workers are started
+     * as they're needed.
+     */
+    public void stopIdleWorkers() {
+        WorkerProcess worker;
+
+        while ((worker = myIdleWorkers.poll()) != null) {
+            worker.destroy();
+        }
+    }
+
+    @Override
+    public BufferedImage process(final InputStream aInput, final DjatokaDecodeParam aParams)
+            throws DjatokaException {
+        final File file;
+
+        // Workers read their images from files, so a stream is copied to a scratch file first
+        try {
+            file = TempFileManager.create("worker-", ".jp2");
+        } catch (final IOException details) {
+            throw new DjatokaException(details.getMessage(), details);
+        }
+
+        try {
+            final FileOutputStream output = new FileOutputStream(file);
+
+            try {
+                IOUtils.copyStream(aInput, output);
+            } finally {
+                output.close();
+            }
+
+            return process(file.getAbsolutePath(), aParams);
+        } catch (final IOException details) {
+            throw new DjatokaException(details.getMessage(), details);
+        } finally {
+            TempFileManager.release(file);
+        }
+    }
+
+    @Override
+    public BufferedImage process(final String aInput, final DjatokaDecodeParam aParams) throws DjatokaException {
+        final ImageRecord record = myMetadataExtract.getMetadata(new ImageRecord(aInput));
+        final List<Double> dims = KduExtractExe.getRegionMetadata(record, aParams);
+        final DecodeJob job =
+                DecodeJob.fromDims(new File(aInput).getAbsolutePath(), aParams.getLevelReductionFactor(), aParams
+                        .getRotationDegree(), aParams.getCompositingLayer(), dims);
+
+        try {
+            return decode(job);
+        } catch (final IOException details) {
+            if (LOGGER.isWarnEnabled()) {
+                LOGGER.warn("Decoder worker failed, retrying on a new worker: {}", details.getMessage());
+            }
+        }
+
+        try {
+            return decode(job);
+        } catch (final IOException details) {
+            throw new DjatokaException("Decoder worker failed: " + details.getMessage(), details);
+        }
+    }
+
+    @Override
+    public BufferedImage process(final ImageRecord aInput, final DjatokaDecodeParam aParams)
+            throws DjatokaException {
+        if (aInput.getImageFile() != null) {
+            return process(aInput.getImageFile(), aParams);
+        } else if (aInput.getObject() != null) {
+            return process(KduExtractExe.getStreamFromObject(aInput.getObject()), aParams);
+        } else {
+            throw new DjatokaException("Image record has neither a file nor an object to decode");
+        }
+    }
+
+    @Override
+    public ImageRecord getMetadata(final ImageRecord aInput) throws DjatokaException {
+        return myMetadataExtract.getMetadata(aInput);
+    }
+
+    @Override
+    public String[] getXMLBox(final ImageRecord aInput) throws DjatokaException {
+        return myMetadataExtract.getXMLBox(aInput);
+    }
+
+    /**
+     * Decodes the supplied job on a worker borrowed from the pool. An <code>IOException</code> means the worker was
+     * lost and the job may be tried again.
+     */
+    private BufferedImage decode(final DecodeJob aJob) throws IOException, DjatokaException {
+        Cancellation.check();
+
+        try {
+            myPermits.acquire();
+        } catch (final InterruptedException details) {
+            Thread.currentThread().interrupt();
+            throw new DjatokaException("Interrupted while waiting for a decoder worker", details);
+        }
+
+        final Cancellation cancellation = Cancellation.current();
+        WorkerProcess worker = null;
+        boolean healthy = false;
+
+        try {
+            worker = borrow();
+
+            final WorkerProcess borrowed = worker;
+            final Runnable destroyer = new Runnable() {
+
+                @Override
+                public void run() {
+                    borrowed.destroy();
+                }
+            };
+
+            if (cancellation != null) {
+                cancellation.addListener(destroyer);
+            }
+
+            try {
+                myJobCount.incrementAndGet();
+
+                final BufferedImage image = worker.decode(aJob);
+
+                healthy = true;
+                return image;
+            } catch (final DjatokaException details) {
+                // The worker answered; it just couldn't decode the image
+                healthy = true;
+                throw details;
+            } catch (final IOException details) {
+                // A worker that was destroyed to stop a cancelled decode isn't worth a retry
+                if (cancellation != null && cancellation.isCancelled()) {
+                    throw Cancellation.cancelled();
+                }
+
+                throw details;
+            } finally {
+                if (cancellation != null) {
+                    cancellation.removeListener(destroyer);
+                }
+            }
+        } finally {
+            if (worker != null) {
+                if (healthy && (cancellation == null || !cancellation.isCancelled())) {
+                    giveBack(worker);
+                } else {
+                    discard(worker);
+                }
+            }
+
+            myPermits.release();
+        }
+    }
+
+    /**
+     * Gets a healthy idle worker, or starts a new one if there isn't one.
+     */
+    private WorkerProcess borrow() throws IOException {
+        WorkerProcess worker;
+
+        while ((worker = myIdleWorkers.poll()) != null) {
+            final boolean stale = System.currentTimeMillis() - worker.getLastUsed() > myCheckInterval;
+
+            if (worker.isAlive() && (!stale || worker.ping())) {
+                return worker;
+            }
+
+            discard(worker);
+        }
+
+        worker = new WorkerProcess(myCommand);
+        myStartedCount.incrementAndGet();
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Decoder worker started: {}", myCommand);
+        }
+
+        return worker;
+    }
+
+    /**
+     * Returns a worker to the pool, unless it's decoded its maximum number of jobs.
+     */
+    private void giveBack(final WorkerProcess aWorker) {
+        final int maxJobs = myMaxJobs;
+
+        if (maxJobs > 0 && aWorker.getJobCount() >= maxJobs) {
+            myRecycledCount.incrementAndGet();
+            aWorker.destroy();
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Decoder worker recycled after {} jobs", aWorker.getJobCount());
+            }
+        } else {
+            myIdleWorkers.offer(aWorker);
+        }
+    }
+
+    private void discard(final WorkerProcess aWorker) {
+        myCrashedCount.incrementAndGet();
+        aWorker.destroy();
+
+        if (LOGGER.isWarnEnabled()) {
+            LOGGER.warn("Decoder worker lost after {} jobs", aWorker.getJobCount());
+        }
+    }
+
+    /**
+     * Gets the class path the supplied class was loaded from, which in a servlet container is the web application's
+     * rather than the container's.
+     */
+    private static String getClassPath(final Class<?> aClass) {
+        final ClassLoader loader = aClass.getClassLoader();
+
+        if (loader instanceof URLClassLoader) {
+            final StringBuilder classPath = new StringBuilder();
+
+            for (final URL url : ((URLClassLoader) loader).getURLs()) {
+                if ("file".equals(url.getProtocol())) {
+                    if (classPath.length() > 0) {
+                        classPath.append(File.pathSeparatorChar);
+                    }
+
+                    try {
+                        classPath.append(new File(url.toURI()).getAbsolutePath());
+                    } catch (final URISyntaxException details) {
+                        classPath.append(new File(url.getPath()).getAbsolutePath());
+                    }
+                }
+            }
+
+            if (classPath.length() > 0) {
+                return classPath.toString();
+            }
+        }
+
+        return System.getProperty("java.class.path");
+    }
+}
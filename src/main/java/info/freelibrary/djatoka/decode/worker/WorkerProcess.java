@@ -0,0 +1,180 @@
+
+package info.freelibrary.djatoka.decode.worker;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.lanl.adore.djatoka.DjatokaException;
+
+import info.freelibrary.djatoka.io.PNMImage;
+
+/**
+ * The servlet's side of a single {@link DecoderWorker} process. A worker process handles one job at a time, so it's
+ * only used by the thread that has borrowed it from its {@link WorkerPoolExtract}. An <code>IOException</code> from
+ * any of its methods means the process has crashed, or stopped following the protocol, and must be destroyed; a
+ * <code>DjatokaException</code> means only that the job's image couldn't be decoded.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public class WorkerProcess {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorkerProcess.class);
+
+    private final Process myProcess;
+
+    private final DataInputStream myInput;
+
+    private final OutputStream myOutput;
+
+    private int myJobCount;
+
+    private long myLastUsed;
+
+    /**
+     * Starts a worker process with the supplied command. What the worker writes to standard error is passed through
+     * to the servlet's.
+     *
+     * @param aCommand The command that starts a decoder worker
+     * @throws IOException If the process can't be started
+     */
+    public WorkerProcess(final List<String> aCommand) throws IOException {
+        myProcess = new ProcessBuilder(aCommand).redirectError(Redirect.INHERIT).start();
+        myInput = new DataInputStream(new BufferedInputStream(myProcess.getInputStream()));
+        myOutput = new BufferedOutputStream(myProcess.getOutputStream());
+        myLastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Sends the supplied job to the worker and waits for its decoded image.
+     *
+     * @param aJob The job to decode
+     * @return The decoded image
+     * @throws IOException If the worker has crashed or its answer can't be read
+     * @throws DjatokaException If the worker couldn't decode the image
+     */
+    public BufferedImage decode(final DecodeJob aJob) throws IOException, DjatokaException {
+        final String answer = send(aJob.toString());
+
+        myJobCount += 1;
+
+        if (answer.startsWith(DecoderWorker.ERR + " ")) {
+            throw new DjatokaException(answer.substring(DecoderWorker.ERR.length() + 1));
+        }
+
+        if (!answer.startsWith(DecoderWorker.OK + " ")) {
+            throw new IOException("Unexpected answer from decoder worker: " + answer);
+        }
+
+        final int length;
+
+        try {
+            length = Integer.parseInt(answer.substring(DecoderWorker.OK.length() + 1));
+        } catch (final NumberFormatException details) {
+            throw new IOException("Unexpected answer from decoder worker: " + answer, details);
+        }
+
+        if (length < 0) {
+            throw new IOException("Unexpected answer from decoder worker: " + answer);
+        }
+
+        final byte[] pixels = new byte[length];
+
+        myInput.readFully(pixels);
+        return new PNMImage(new ByteArrayInputStream(pixels)).getBufferedImage();
+    }
+
+    /**
+     * Checks that the worker is still answering requests.
+     *
+     * @return True if the worker answered; else, false
+     */
+    public boolean ping() {
+        try {
+            return DecoderWorker.PONG.equals(send(DecoderWorker.PING));
+        } catch (final IOException details) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Decoder worker didn't answer: {}", details.getMessage());
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if the worker process hasn't exited; else, false.
+     *
+     * @return True if the worker process is running
+     */
+    public boolean isAlive() {
+        try {
+            myProcess.exitValue();
+            return false;
+        } catch (final IllegalThreadStateException details) {
+            return true;
+        }
+    }
+
+    /**
+     * Gets the number of jobs the worker has been sent.
+     *
+     * @return The number of jobs sent
+     */
+    public int getJobCount() {
+        return myJobCount;
+    }
+
+    /**
+     * Gets the time, in milliseconds since the epoch, that the worker was last sent a request.
+     *
+     * @return When the worker was last used
+     */
+    public long getLastUsed() {
+        return myLastUsed;
+    }
+
+    /**
+     * Stops the worker process. It's safe to call this more than once, and from a thread other than the one using the
+     * worker, which is how a cancelled decode is stopped.
+     */
+    public void destroy() {
+        myProcess.destroy();
+        close(myInput);
+    }
+
+    private String send(final String aRequest) throws IOException {
+        myLastUsed = System.currentTimeMillis();
+
+        DecoderWorker.writeLine(myOutput, aRequest);
+        myOutput.flush();
+
+        final String answer = DecoderWorker.readLine(myInput);
+
+        if (answer == null) {
+            throw new EOFException("Decoder worker exited");
+        }
+
+        return answer;
+    }
+
+    private static void close(final InputStream aInput) {
+        try {
+            aInput.close();
+        } catch (final IOException details) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Decoder worker stream not closed: {}", details.getMessage());
+            }
+        }
+    }
+}
@@ -131,6 +131,45 @@ public class ImageRequest implements IIIFRequest {
         }
     }
 
+    private ImageRequest(ImageRequest aRequest, Region aRegion, Size aSize) {
+        myPrefix = aRequest.myPrefix;
+        myIdentifier = aRequest.myIdentifier;
+        myExtension = aRequest.myExtension;
+        myQuality = aRequest.myQuality;
+        myRotation = aRequest.myRotation;
+        myRegion = aRegion;
+        mySize = aSize;
+    }
+
+    /**
+     * Returns the canonical form of this request for an image with the supplied dimensions. Requests that ask for the
+     * same pixels, like <code>pct:50</code> and the equivalent <code>w,</code> size, have the same canonical form. If
+     * this request is already canonical, it's returned rather than a copy.
+     * 
+     * @param aImageWidth The width of the requested image
+     * @param aImageHeight The height of the requested image
+     * @return The canonical form of this request
+     */
+    public ImageRequest getCanonicalRequest(int aImageWidth, int aImageHeight) {
+        Region region = myRegion.getCanonicalRegion(aImageWidth, aImageHeight);
+        int width = region.isFullSize() ? aImageWidth : region.getWidth();
+        int height = region.isFullSize() ? aImageHeight : region.getHeight();
+        Size size;
+
+        // A region we can't canonicalize can't have its size canonicalized either
+        if (region.usesPercents()) {
+            size = mySize;
+        } else {
+            size = mySize.getCanonicalSize(width, height);
+        }
+
+        if (region.toString().equals(myRegion.toString()) && size.toPathString().equals(mySize.toPathString())) {
+            return this;
+        }
+
+        return new ImageRequest(this, region, size);
+    }
+
     /**
      * Gets the extension for the request.
      * 
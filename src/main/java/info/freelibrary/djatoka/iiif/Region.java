@@ -101,6 +101,54 @@ public class Region {
         }
     }
 
+    private Region(int aX, int aY, int aWidth, int aHeight) {
+        myX = aX;
+        myY = aY;
+        myWidth = aWidth;
+        myHeight = aHeight;
+    }
+
+    private Region() {
+        myRegionIsFullSize = true;
+    }
+
+    /**
+     * Returns the canonical form of this region for an image with the supplied dimensions: in pixels rather than
+     * percents, clipped to the image, and <code>full</code> if it covers the whole image. A region that lies outside
+     * the image is returned as it is.
+     * 
+     * @param aImageWidth The width of the image the region is in
+     * @param aImageHeight The height of the image the region is in
+     * @return The canonical form of this region
+     */
+    public Region getCanonicalRegion(int aImageWidth, int aImageHeight) {
+        if (myRegionIsFullSize) {
+            return this;
+        }
+
+        int x = myX, y = myY, width = myWidth, height = myHeight;
+
+        if (myRegionUsesPercents) {
+            x = (int) Math.round(aImageWidth * myX / 100d);
+            y = (int) Math.round(aImageHeight * myY / 100d);
+            width = (int) Math.round(aImageWidth * myWidth / 100d);
+            height = (int) Math.round(aImageHeight * myHeight / 100d);
+        }
+
+        if (x >= aImageWidth || y >= aImageHeight || width <= 0 || height <= 0) {
+            return this;
+        }
+
+        width = Math.min(width, aImageWidth - x);
+        height = Math.min(height, aImageHeight - y);
+
+        if (x == 0 && y == 0 && width == aImageWidth && height == aImageHeight) {
+            return new Region();
+        }
+
+        return new Region(x, y, width, height);
+    }
+
     /**
      * Returns true if region is full size; else, false
      * 
@@ -98,6 +98,88 @@ public class Size {
         }
     }
 
+    private Size(final int aWidth, final int aHeight, final boolean aAspectRatioIsPreserved) {
+        myWidth = aWidth;
+        myHeight = aHeight;
+        myAspectRatioIsPreserved = aAspectRatioIsPreserved;
+    }
+
+    private Size() {
+        mySizeIsFull = true;
+        myAspectRatioIsPreserved = true;
+    }
+
+    /**
+     * Returns the canonical form of this size for a region with the supplied dimensions: <code>full</code> if the
+     * region isn't scaled, <code>w,</code> if it's scaled without changing its aspect ratio, and <code>w,h</code>
+     * otherwise. A size that would scale the region to nothing is returned as it is.
+     * 
+     * @param aRegionWidth The width of the region being scaled
+     * @param aRegionHeight The height of the region being scaled
+     * @return The canonical form of this size
+     */
+    public Size getCanonicalSize(final int aRegionWidth, final int aRegionHeight) {
+        int width = myWidth;
+        int height = myHeight;
+
+        if (mySizeIsFull) {
+            return this;
+        } else if (mySizeIsPercent) {
+            width = (int) Math.round(aRegionWidth * myPercent / 100d);
+            height = (int) Math.round(aRegionHeight * myPercent / 100d);
+        } else if (!hasHeight()) {
+            height = (int) Math.round((double) aRegionHeight * myWidth / aRegionWidth);
+        } else if (!hasWidth()) {
+            width = (int) Math.round((double) aRegionWidth * myHeight / aRegionHeight);
+        } else if (myAspectRatioIsPreserved) {
+            // The best fit is limited by whichever side has less room to grow
+            if ((double) myWidth / aRegionWidth <= (double) myHeight / aRegionHeight) {
+                height = (int) Math.round((double) aRegionHeight * myWidth / aRegionWidth);
+            } else {
+                width = (int) Math.round((double) aRegionWidth * myHeight / aRegionHeight);
+            }
+        }
+
+        if (width <= 0 || height <= 0) {
+            return this;
+        }
+
+        if (height != Math.round((double) aRegionHeight * width / aRegionWidth)) {
+            return new Size(width, height, false);
+        } else if (width == aRegionWidth) {
+            return new Size();
+        }
+
+        return new Size(width, -1, true);
+    }
+
+    /**
+     * Returns the size as it's written in the path of an IIIF request.
+     * 
+     * @return The size as it's written in the path of an IIIF request
+     */
+    public String toPathString() {
+        final StringBuilder builder = new StringBuilder();
+
+        if (isFullSize()) {
+            builder.append("full");
+        } else if (isPercent()) {
+            builder.append("pct:").append(myPercent);
+        } else if (hasWidth() && hasHeight()) {
+            if (maintainsAspectRatio()) {
+                builder.append('!');
+            }
+
+            builder.append(myWidth).append(',').append(myHeight);
+        } else if (hasHeight()) {
+            builder.append(',').append(myHeight);
+        } else {
+            builder.append(myWidth).append(',');
+        }
+
+        return builder.toString();
+    }
+
     /**
      * Returns true if the request is for a full-size image; else, false.
      * 
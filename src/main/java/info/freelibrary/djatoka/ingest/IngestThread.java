@@ -2,6 +2,7 @@
 package info.freelibrary.djatoka.ingest;
 
 import info.freelibrary.djatoka.Constants;
+import info.freelibrary.djatoka.util.NegativeLookupCache;
 
 import info.freelibrary.util.FileUtils;
 import info.freelibrary.util.Logger;
@@ -337,6 +338,9 @@ public class IngestThread extends Thread implements Constants {
         // Move the file into the Pairtree structure
         aFile.renameTo(jp2PtFile);
 
+        // The ID may have been requested, and remembered as missing, before it was ingested
+        NegativeLookupCache.remove(aID);
+
         if (LOGGER.isDebugEnabled()) {
             LOGGER.info("INGEST_TO_CACHE", aID, jp2PtFile.getAbsolutePath());
         }
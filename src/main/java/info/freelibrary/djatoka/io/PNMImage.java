@@ -29,6 +29,7 @@ package info.freelibrary.djatoka.io;
 import gov.lanl.adore.djatoka.io.FormatIOException;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.FileInputStream;
@@ -41,6 +42,10 @@ import java.io.OutputStream;
  */
 public class PNMImage {
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_16BIT_VALUE = 65535;
+
     private BufferedImage m_image;
 
     /**
@@ -53,12 +58,14 @@ public class PNMImage {
     }
 
     /**
-     * Read Netpbm PNM image from open stream.
+     * Read Netpbm PNM image from open stream. Pixel rows are read in bulk straight into the raster of a
+     * <code>TYPE_3BYTE_BGR</code> (P6) or <code>TYPE_BYTE_GRAY</code> (P4 and P5) image; 16-bit and other non-255
+     * sample values are scaled to eight bits.
      * 
      * @param aInputStream A Netpbm PNM image's input stream
      */
     public PNMImage(InputStream aInputStream) throws FormatIOException, IOException {
-        DataInputStream stream = new DataInputStream(new BufferedInputStream(aInputStream));
+        DataInputStream stream = new DataInputStream(new BufferedInputStream(aInputStream, BUFFER_SIZE));
 
         try {
             /*
@@ -91,48 +98,21 @@ public class PNMImage {
                 maxValue = readNumber(stream);
             }
 
-            int nBytes = (maxValue < 256) ? 1 : 2;
+            if (width < 1 || height < 1) {
+                throw new FormatIOException("Bad PNM dimensions: " + width + "x" + height);
+            }
+
+            if (maxValue < 1 || maxValue > MAX_16BIT_VALUE) {
+                throw new FormatIOException("Bad PNM maximum value: " + maxValue);
+            }
 
             /*
              * Read pixel values into image.
              */
-            m_image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-            int nextByte = 0;
-            for (int y = 0; y < height; y++) {
-                int bitMask = 0;
-                for (int x = 0; x < width; x++) {
-                    int r, g, b, pixel;
-                    if (nBytes == 1) {
-                        if (isBitmap) {
-                            /*
-                             * Extract pixel from next bit.
-                             */
-                            if (bitMask == 0) {
-                                nextByte = stream.read();
-                                bitMask = 128;
-                            }
-                            r = g = b = (((nextByte & bitMask) != 0) ? 0 : 255);
-                            bitMask >>= 1;
-                        } else if (isGreyscale) {
-                            r = g = b = stream.read();
-                        } else {
-                            r = stream.read();
-                            g = stream.read();
-                            b = stream.read();
-                        }
-                    } else {
-                        if (isGreyscale) {
-                            r = g = b = stream.readShort();
-                        } else {
-                            r = stream.readShort();
-                            g = stream.readShort();
-                            b = stream.readShort();
-                        }
-                    }
-                    pixel = (r << 16) | (g << 8) | b;
-                    m_image.setRGB(x, y, pixel);
-                }
+            if (isBitmap) {
+                m_image = readBitmap(stream, width, height);
+            } else {
+                m_image = readPixels(stream, width, height, isGreyscale ? 1 : 3, maxValue);
             }
         } finally {
             try {
@@ -142,6 +122,114 @@ public class PNMImage {
         }
     }
 
+    /**
+     * Reads P5 and P6 pixel rows into the raster of a new image.
+     * 
+     * @param stream stream to read from.
+     * @param width image width.
+     * @param height image height.
+     * @param bands number of samples per pixel (1 or 3).
+     * @param maxValue the maximum sample value from the image header.
+     * @return image.
+     */
+    private BufferedImage readPixels(DataInputStream stream, int width, int height, int bands, int maxValue)
+            throws IOException {
+        int type = bands == 1 ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_3BYTE_BGR;
+        BufferedImage image = new BufferedImage(width, height, type);
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int rowLength = width * bands;
+
+        if (maxValue < 256) {
+            byte[] lookup = maxValue == 255 ? null : getScaleLookup(maxValue);
+
+            /*
+             * Samples are already bytes, so read each row directly into the raster.
+             */
+            for (int y = 0, offset = 0; y < height; y++, offset += rowLength) {
+                stream.readFully(data, offset, rowLength);
+
+                if (lookup != null) {
+                    for (int index = offset; index < offset + rowLength; index++) {
+                        data[index] = lookup[data[index] & 0xff];
+                    }
+                }
+
+                if (bands == 3) {
+                    // PPM samples are RGB; the raster is BGR
+                    for (int index = offset; index < offset + rowLength; index += 3) {
+                        byte red = data[index];
+                        data[index] = data[index + 2];
+                        data[index + 2] = red;
+                    }
+                }
+            }
+        } else {
+            /*
+             * Samples are big-endian shorts, so read each row into a buffer that's reused for every row.
+             */
+            byte[] row = new byte[rowLength * 2];
+
+            for (int y = 0, offset = 0; y < height; y++, offset += rowLength) {
+                stream.readFully(row, 0, row.length);
+
+                for (int index = 0; index < rowLength; index++) {
+                    int value = ((row[index * 2] & 0xff) << 8) | (row[index * 2 + 1] & 0xff);
+                    int sample = (Math.min(value, maxValue) * 255 + maxValue / 2) / maxValue;
+
+                    if (bands == 3) {
+                        // PPM samples are RGB; the raster is BGR
+                        data[offset + index - (index % 3) + (2 - index % 3)] = (byte) sample;
+                    } else {
+                        data[offset + index] = (byte) sample;
+                    }
+                }
+            }
+        }
+
+        return image;
+    }
+
+    /**
+     * Reads P4 bitmap rows into the raster of a new greyscale image.
+     * 
+     * @param stream stream to read from.
+     * @param width image width.
+     * @param height image height.
+     * @return image.
+     */
+    private BufferedImage readBitmap(DataInputStream stream, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        byte[] row = new byte[(width + 7) / 8];
+
+        for (int y = 0, offset = 0; y < height; y++, offset += width) {
+            stream.readFully(row, 0, row.length);
+
+            for (int x = 0; x < width; x++) {
+                // A set bit is black
+                data[offset + x] = (byte) (((row[x >> 3] >> (7 - (x & 7))) & 1) != 0 ? 0 : 255);
+            }
+        }
+
+        return image;
+    }
+
+    /**
+     * Returns a table that scales samples with the supplied maximum value to eight bits.
+     * 
+     * @param maxValue the maximum sample value from the image header.
+     * @return a lookup table of eight bit samples.
+     */
+    private static byte[] getScaleLookup(int maxValue) {
+        byte[] lookup = new byte[256];
+
+        for (int value = 0; value < lookup.length; value++) {
+            lookup[value] = (byte) ((Math.min(value, maxValue) * 255 + maxValue / 2) / maxValue);
+        }
+
+        return lookup;
+    }
+
     /**
      * Read decimal number from stream.
      * 
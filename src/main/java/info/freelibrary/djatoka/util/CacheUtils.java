@@ -1,6 +1,7 @@
 
 package info.freelibrary.djatoka.util;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -158,6 +159,47 @@ public class CacheUtils {
         return "full";
     }
 
+    /**
+     * Gets a strong entity tag for a response derived from the supplied source image. The tag changes whenever the
+     * source's path, size, or modification time does, or when the response is a different rendering of it.
+     * 
+     * @param aSource The source image the response is derived from
+     * @param aVariant What the response is, such as a cached tile's file name
+     * @return A quoted entity tag
+     */
+    public static final String getETag(final File aSource, final String aVariant) {
+        final String key = aSource.getAbsolutePath() + '|' + aVariant;
+
+        return '"' + Integer.toHexString(key.hashCode()) + '-' + Long.toHexString(aSource.length()) + '-'
+                + Long.toHexString(aSource.lastModified()) + '"';
+    }
+
+    /**
+     * Returns true if the supplied <code>If-None-Match</code> header value matches the supplied entity tag.
+     * 
+     * @param aIfNoneMatch The value of an <code>If-None-Match</code> header, or null if there isn't one
+     * @param aETag A quoted entity tag
+     * @return True if the header lists the entity tag or is a wildcard
+     */
+    public static final boolean matches(final String aIfNoneMatch, final String aETag) {
+        if (aIfNoneMatch == null) {
+            return false;
+        }
+
+        for (final String tag : aIfNoneMatch.split(",")) {
+            final String value = tag.trim();
+
+            // Weak comparison is what's used for If-None-Match, so a W/ prefix doesn't matter
+            if (value.equals("*") || value.equals(aETag)) {
+                return true;
+            } else if (value.startsWith("W/") && value.substring(2).equals(aETag)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     private static boolean isEmpty(final String aString) {
         return aString == null || aString.equals("");
     }
@@ -0,0 +1,153 @@
+
+package info.freelibrary.djatoka.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes files and buffers to a servlet's output stream without copying them through a byte array first. When the
+ * container's output stream has public <code>sendContent</code> methods (as Jetty's <code>HttpOutput</code> does),
+ * files are handed to it as a {@link FileChannel} and buffers as they are, so the container writes them to the
+ * socket from its own direct buffers. Any other output stream gets files through
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which falls back to a buffered copy when the
+ * target isn't a socket or file channel.
+ * <p/>
+ * Files aren't memory mapped for Jetty: a mapping is only released when its buffer is garbage collected, and a busy
+ * tile server runs out of mappings long before that happens. The container's methods are looked up by name, rather
+ * than by type, because a web application's copy of the Jetty classes isn't the one the container uses.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public final class ContentSender {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ContentSender.class);
+
+    private static final String SEND_CONTENT = "sendContent";
+
+    private static final Method[] NO_METHODS = new Method[2];
+
+    private static final ConcurrentMap<Class<?>, Method[]> SEND_METHODS = new ConcurrentHashMap<Class<?>, Method[]>();
+
+    private ContentSender() {
+    }
+
+    /**
+     * Writes the supplied file to the supplied output stream. The stream is not closed.
+     *
+     * @param aFile The file to write
+     * @param aOutStream The output stream to write to
+     * @throws IOException If the file can't be read or the stream can't be written to
+     */
+    public static void send(final File aFile, final OutputStream aOutStream) throws IOException {
+        final FileInputStream inStream = new FileInputStream(aFile);
+
+        try {
+            final FileChannel channel = inStream.getChannel();
+            final Method method = getSendMethods(aOutStream)[0];
+
+            if (method != null) {
+                invoke(method, aOutStream, channel);
+            } else {
+                final WritableByteChannel outChannel = Channels.newChannel(aOutStream);
+                final long size = channel.size();
+                long position = 0;
+
+                while (position < size) {
+                    position += channel.transferTo(position, size - position, outChannel);
+                }
+            }
+        } finally {
+            inStream.close();
+        }
+    }
+
+    /**
+     * Writes the remaining contents of the supplied buffer to the supplied output stream. The stream is not closed.
+     *
+     * @param aBuffer The buffer to write
+     * @param aOutStream The output stream to write to
+     * @throws IOException If the stream can't be written to
+     */
+    public static void send(final ByteBuffer aBuffer, final OutputStream aOutStream) throws IOException {
+        final Method method = getSendMethods(aOutStream)[1];
+
+        if (method != null) {
+            invoke(method, aOutStream, aBuffer);
+        } else {
+            final WritableByteChannel outChannel = Channels.newChannel(aOutStream);
+
+            while (aBuffer.hasRemaining()) {
+                outChannel.write(aBuffer);
+            }
+        }
+    }
+
+    /**
+     * Returns the output stream's public <code>sendContent(ReadableByteChannel)</code> and
+     * <code>sendContent(ByteBuffer)</code> methods, in that order; either is null if the stream doesn't have it.
+     */
+    private static Method[] getSendMethods(final OutputStream aOutStream) {
+        final Class<?> type = aOutStream.getClass();
+        Method[] methods = SEND_METHODS.get(type);
+
+        if (methods == null) {
+            methods = new Method[] { getMethod(type, ReadableByteChannel.class), getMethod(type, ByteBuffer.class) };
+
+            if (methods[0] == null && methods[1] == null) {
+                methods = NO_METHODS;
+            } else if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Sending content directly through {}", type.getName());
+            }
+
+            SEND_METHODS.putIfAbsent(type, methods);
+        }
+
+        return methods;
+    }
+
+    private static Method getMethod(final Class<?> aType, final Class<?> aParamType) {
+        try {
+            final Method method = aType.getMethod(SEND_CONTENT, aParamType);
+
+            method.setAccessible(true);
+            return method;
+        } catch (final NoSuchMethodException details) {
+            return null;
+        } catch (final SecurityException details) {
+            return null;
+        }
+    }
+
+    private static void invoke(final Method aMethod, final OutputStream aOutStream, final Object aContent)
+            throws IOException {
+        try {
+            aMethod.invoke(aOutStream, aContent);
+        } catch (final InvocationTargetException details) {
+            final Throwable cause = details.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new IOException(cause);
+        } catch (final IllegalAccessException details) {
+            throw new IOException(details);
+        }
+    }
+}
@@ -11,6 +11,17 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import gov.lanl.adore.djatoka.kdu.jni.PooledKduExtractJNI;
+import gov.lanl.adore.djatoka.openurl.OpenURLJP2KService;
+import gov.lanl.adore.djatoka.openurl.TileCacheManager;
+
+import info.freelibrary.djatoka.decode.Cancellation;
+import info.freelibrary.djatoka.decode.DecodeExecutor;
+import info.freelibrary.djatoka.decode.DecodeScheduler;
+import info.freelibrary.djatoka.decode.worker.WorkerPoolExtract;
+import info.freelibrary.djatoka.view.ImageServlet;
+import info.freelibrary.djatoka.view.TileDeriver;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -71,12 +82,216 @@ public class HealthServlet extends HttpServlet {
             root.appendChild(getMemoryStats(memory, freeMemory, totalMemory));
             root.appendChild(getProcessorStats());
             root.appendChild(getThreadStats());
+
+            final DecodeScheduler scheduler = OpenURLJP2KService.getDecodeScheduler();
+
+            if (scheduler != null) {
+                root.appendChild(getDecoderStats(scheduler));
+            }
+
+            root.appendChild(getProcessPumpStats());
+
+            final WorkerPoolExtract decoderPool = OpenURLJP2KService.getDecoderPool();
+
+            if (decoderPool != null) {
+                root.appendChild(getDecoderProcessStats(decoderPool));
+            }
+
+            final PooledKduExtractJNI jniDecoder = OpenURLJP2KService.getJniDecoder();
+
+            if (jniDecoder != null) {
+                root.appendChild(getJniDecoderStats(jniDecoder));
+            }
+
+            if (!OpenURLJP2KService.getLanes().isEmpty()) {
+                root.appendChild(getLaneStats());
+            }
+
+            root.appendChild(getMetadataCacheStats());
+            root.appendChild(getNegativeLookupCacheStats());
+            root.appendChild(getScratchFileStats());
+
+            final TileCacheManager<String, String> tileCache = OpenURLJP2KService.getTileCache();
+
+            if (tileCache != null) {
+                root.appendChild(getTileCacheStats(tileCache));
+            }
+
+            final HotTileCache hotTiles = ImageServlet.getHotTileCache();
+
+            if (hotTiles != null) {
+                root.appendChild(getHotTileCacheStats(hotTiles));
+            }
+
+            final TileDeriver tileDeriver = ImageServlet.getTileDeriver();
+
+            if (tileDeriver != null) {
+                root.appendChild(getTileDeriverStats(tileDeriver));
+            }
         }
 
         serializer.write(response);
         out.close();
     }
 
+    private Element getDecoderStats(final DecodeScheduler aScheduler) {
+        final Element decoder = new Element("decoder");
+        final Element workersElem = new Element("workers");
+        final Element activeElem = new Element("active");
+        final Element queueElem = new Element("queueDepth");
+        final Element decodedElem = new Element("decodeCount");
+        final Element rejectedElem = new Element("rejectedCount");
+        final Element waitElem = new Element("waitTime");
+        final Element coalescedElem = new Element("coalescedCount");
+        final Element cancelledElem = new Element("cancelledCount");
+
+        workersElem.appendChild(String.valueOf(aScheduler.getWorkerCount()));
+        activeElem.appendChild(String.valueOf(aScheduler.getActiveCount()));
+        queueElem.appendChild(String.valueOf(aScheduler.getQueueDepth()));
+        queueElem.addAttribute(new Attribute("max", String.valueOf(aScheduler.getMaxQueueSize())));
+        queueElem.addAttribute(new Attribute("peak", String.valueOf(aScheduler.getPeakQueueDepth())));
+        decodedElem.appendChild(String.valueOf(aScheduler.getDecodeCount()));
+        rejectedElem.appendChild(String.valueOf(aScheduler.getRejectedCount()));
+        waitElem.appendChild(String.valueOf(aScheduler.getAverageWaitTime()));
+        waitElem.addAttribute(new Attribute("max", String.valueOf(aScheduler.getMaxWaitTime())));
+        coalescedElem.appendChild(String.valueOf(OpenURLJP2KService.getCoalescedDecodeCount()));
+        cancelledElem.appendChild(String.valueOf(Cancellation.getCancelledDecodeCount()));
+
+        decoder.appendChild(workersElem);
+        decoder.appendChild(activeElem);
+        decoder.appendChild(queueElem);
+        decoder.appendChild(decodedElem);
+        decoder.appendChild(rejectedElem);
+        decoder.appendChild(waitElem);
+        decoder.appendChild(coalescedElem);
+        decoder.appendChild(cancelledElem);
+
+        return decoder;
+    }
+
+    private Element getLaneStats() {
+        final Element lanes = new Element("lanes");
+
+        for (final DecodeExecutor executor : OpenURLJP2KService.getLanes()) {
+            final Element lane = new Element("lane");
+
+            lane.addAttribute(new Attribute("name", executor.getName()));
+            lane.addAttribute(new Attribute("workers", String.valueOf(executor.getWorkerCount())));
+            lane.addAttribute(new Attribute("active", String.valueOf(executor.getActiveCount())));
+            lane.addAttribute(new Attribute("queueDepth", String.valueOf(executor.getQueueDepth())));
+            lane.addAttribute(new Attribute("maxQueueSize", String.valueOf(executor.getMaxQueueSize())));
+            lane.addAttribute(new Attribute("completed", String.valueOf(executor.getCompletedCount())));
+            lane.addAttribute(new Attribute("rejected", String.valueOf(executor.getRejectedCount())));
+            lane.addAttribute(new Attribute("cancelled", String.valueOf(executor.getCancelledCount())));
+            lane.addAttribute(new Attribute("timedOut", String.valueOf(executor.getTimedOutCount())));
+            lanes.appendChild(lane);
+        }
+
+        return lanes;
+    }
+
+    private Element getMetadataCacheStats() {
+        final Element metadataCache = new Element("metadataCache");
+
+        metadataCache.addAttribute(new Attribute("size", String.valueOf(ImageRecordCache.size())));
+        metadataCache.addAttribute(new Attribute("hits", String.valueOf(ImageRecordCache.getHitCount())));
+        metadataCache.addAttribute(new Attribute("misses", String.valueOf(ImageRecordCache.getMissCount())));
+
+        return metadataCache;
+    }
+
+    private Element getNegativeLookupCacheStats() {
+        final Element missingIDs = new Element("missingIDCache");
+
+        missingIDs.addAttribute(new Attribute("size", String.valueOf(NegativeLookupCache.size())));
+        missingIDs.addAttribute(new Attribute("hits", String.valueOf(NegativeLookupCache.getHitCount())));
+
+        return missingIDs;
+    }
+
+    private Element getProcessPumpStats() {
+        final Element pumps = new Element("processPumps");
+
+        pumps.addAttribute(new Attribute("workers", String.valueOf(PooledStreamHandler.getPoolSize())));
+        pumps.addAttribute(new Attribute("active", String.valueOf(PooledStreamHandler.getActiveCount())));
+        pumps.addAttribute(new Attribute("queueDepth", String.valueOf(PooledStreamHandler.getQueueDepth())));
+        pumps.addAttribute(new Attribute("threadsStarted", String.valueOf(PooledStreamHandler.getThreadCount())));
+        pumps.addAttribute(new Attribute("pumped", String.valueOf(PooledStreamHandler.getPumpedCount())));
+
+        return pumps;
+    }
+
+    private Element getDecoderProcessStats(final WorkerPoolExtract aPool) {
+        final Element processes = new Element("decoderProcesses");
+
+        processes.addAttribute(new Attribute("size", String.valueOf(aPool.getSize())));
+        processes.addAttribute(new Attribute("active", String.valueOf(aPool.getActiveCount())));
+        processes.addAttribute(new Attribute("idle", String.valueOf(aPool.getIdleCount())));
+        processes.addAttribute(new Attribute("jobs", String.valueOf(aPool.getJobCount())));
+        processes.addAttribute(new Attribute("started", String.valueOf(aPool.getStartedCount())));
+        processes.addAttribute(new Attribute("recycled", String.valueOf(aPool.getRecycledCount())));
+        processes.addAttribute(new Attribute("lost", String.valueOf(aPool.getCrashedCount())));
+
+        return processes;
+    }
+
+    private Element getJniDecoderStats(final PooledKduExtractJNI aDecoder) {
+        final Element decoder = new Element("jniDecoder");
+
+        decoder.addAttribute(new Attribute("openCodestreams", String.valueOf(aDecoder.size())));
+        decoder.addAttribute(new Attribute("maxOpenCodestreams", String.valueOf(aDecoder.getCapacity())));
+        decoder.addAttribute(new Attribute("hits", String.valueOf(aDecoder.getHitCount())));
+        decoder.addAttribute(new Attribute("misses", String.valueOf(aDecoder.getMissCount())));
+        decoder.addAttribute(new Attribute("opened", String.valueOf(aDecoder.getOpenedCount())));
+        decoder.addAttribute(new Attribute("closed", String.valueOf(aDecoder.getClosedCount())));
+        decoder.addAttribute(new Attribute("threadEnvs", String.valueOf(aDecoder.getThreadEnvCount())));
+
+        return decoder;
+    }
+
+    private Element getScratchFileStats() {
+        final Element scratchFiles = new Element("scratchFiles");
+
+        scratchFiles.addAttribute(new Attribute("size", String.valueOf(TempFileManager.size())));
+        scratchFiles.addAttribute(new Attribute("bytes", String.valueOf(TempFileManager.getByteCount())));
+        scratchFiles.addAttribute(new Attribute("cachedBytes", String.valueOf(TempFileManager.getCachedByteCount())));
+        scratchFiles.addAttribute(new Attribute("maxBytes", String.valueOf(TempFileManager.getMaxBytes())));
+        scratchFiles.addAttribute(new Attribute("created", String.valueOf(TempFileManager.getCreatedCount())));
+        scratchFiles.addAttribute(new Attribute("deleted", String.valueOf(TempFileManager.getDeletedCount())));
+        scratchFiles.addAttribute(new Attribute("swept", String.valueOf(TempFileManager.getSweptCount())));
+        scratchFiles.addAttribute(new Attribute("rejections", String.valueOf(TempFileManager.getRejectedCount())));
+
+        return scratchFiles;
+    }
+
+    private Element getTileCacheStats(final TileCacheManager<String, String> aTileCache) {
+        final Element tileCache = new Element("tileCache");
+
+        tileCache.addAttribute(new Attribute("size", String.valueOf(aTileCache.size())));
+        tileCache.addAttribute(new Attribute("bytes", String.valueOf(aTileCache.getByteCount())));
+        tileCache.addAttribute(new Attribute("maxBytes", String.valueOf(aTileCache.getMaxByteCount())));
+        tileCache.addAttribute(new Attribute("hits", String.valueOf(aTileCache.getHitCount())));
+        tileCache.addAttribute(new Attribute("misses", String.valueOf(aTileCache.getMissCount())));
+        tileCache.addAttribute(new Attribute("evictions", String.valueOf(aTileCache.getEvictionCount())));
+
+        return tileCache;
+    }
+
+    private Element getHotTileCacheStats(final HotTileCache aHotTiles) {
+        final Element hotTiles = new Element("hotTileCache");
+
+        hotTiles.addAttribute(new Attribute("size", String.valueOf(aHotTiles.size())));
+        hotTiles.addAttribute(new Attribute("bytes", String.valueOf(aHotTiles.getByteCount())));
+        hotTiles.addAttribute(new Attribute("maxBytes", String.valueOf(aHotTiles.getMaxByteCount())));
+        hotTiles.addAttribute(new Attribute("offHeap", String.valueOf(aHotTiles.isOffHeap())));
+        hotTiles.addAttribute(new Attribute("hits", String.valueOf(aHotTiles.getHitCount())));
+        hotTiles.addAttribute(new Attribute("misses", String.valueOf(aHotTiles.getMissCount())));
+        hotTiles.addAttribute(new Attribute("evictions", String.valueOf(aHotTiles.getEvictionCount())));
+        hotTiles.addAttribute(new Attribute("rejections", String.valueOf(aHotTiles.getRejectionCount())));
+
+        return hotTiles;
+    }
+
     private Element getThreadStats() {
         Element threads = new Element("threads");
         ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
@@ -141,4 +356,13 @@ public class HealthServlet extends HttpServlet {
 
         return memoryElem;
     }
+
+    private Element getTileDeriverStats(final TileDeriver aTileDeriver) {
+        final Element derivedTiles = new Element("derivedTiles");
+
+        derivedTiles.addAttribute(new Attribute("derived", String.valueOf(aTileDeriver.getDerivedCount())));
+        derivedTiles.addAttribute(new Attribute("misses", String.valueOf(aTileDeriver.getMissCount())));
+
+        return derivedTiles;
+    }
 }
@@ -0,0 +1,433 @@
+
+package info.freelibrary.djatoka.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory cache of encoded tile bytes, bounded by a total byte budget. Tiles can be kept on the heap or in
+ * direct (off-heap) buffers. The cache is frequency-aware: every lookup is counted in a small, periodically aged
+ * frequency sketch, and when the cache is full a new tile is only admitted if it's been requested more often than
+ * the tile that would be evicted for it. That keeps a burst of one-off requests from flushing the popular tiles.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public class HotTileCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HotTileCache.class);
+
+    /* The sketch assumes an average tile of about this many bytes when it sizes itself */
+    private static final int AVERAGE_TILE_SIZE = 16 * 1024;
+
+    private static final int MAX_FREQUENCY = 15;
+
+    private static final int[] SEEDS = new int[] { 0x97cb3127, 0xb0bb5c8d, 0x2f0b0f67, 0x7c3a1d45 };
+
+    private final ConcurrentHashMap<String, Tile> myTiles = new ConcurrentHashMap<String, Tile>();
+
+    private final Queue<Tile> myClock = new ConcurrentLinkedQueue<Tile>();
+
+    private final ReentrantLock myLock = new ReentrantLock();
+
+    private final AtomicIntegerArray mySketch;
+
+    private final AtomicLong mySketchAdditions = new AtomicLong();
+
+    private final AtomicLong myBytes = new AtomicLong();
+
+    private final AtomicLong myHits = new AtomicLong();
+
+    private final AtomicLong myMisses = new AtomicLong();
+
+    private final AtomicLong myEvictions = new AtomicLong();
+
+    private final AtomicLong myRejections = new AtomicLong();
+
+    private final long myMaxBytes;
+
+    private final long myMaxTileBytes;
+
+    private final boolean isOffHeap;
+
+    private final int mySketchMask;
+
+    private final long mySketchResetSize;
+
+    /**
+     * Creates a hot tile cache with the supplied byte budget.
+     *
+     * @param aMaxBytes The maximum number of tile bytes to keep in memory
+     * @param aOffHeap True if tiles should be kept in direct buffers outside of the Java heap
+     */
+    public HotTileCache(final long aMaxBytes, final boolean aOffHeap) {
+        final long tiles = Math.max(1024, Math.min(1 << 22, aMaxBytes / AVERAGE_TILE_SIZE));
+        final int width = Integer.highestOneBit((int) tiles - 1) << 1;
+
+        myMaxBytes = aMaxBytes;
+        myMaxTileBytes = Math.max(1, aMaxBytes / 8);
+        isOffHeap = aOffHeap;
+        mySketch = new AtomicIntegerArray(width * SEEDS.length);
+        mySketchMask = width - 1;
+        mySketchResetSize = width * 10L;
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Hot tile cache configured: [bytes: {}, off-heap: {}]", aMaxBytes, aOffHeap);
+        }
+    }
+
+    /**
+     * Gets the cached bytes of the tile with the supplied key. The returned buffer is a read-only view that's
+     * positioned at the start of the tile.
+     *
+     * @param aKey A tile key
+     * @return The tile's bytes or null if the tile isn't cached
+     */
+    public ByteBuffer get(final String aKey) {
+        final Tile tile = myTiles.get(aKey);
+
+        recordAccess(aKey);
+
+        if (tile == null) {
+            myMisses.incrementAndGet();
+            return null;
+        }
+
+        tile.isReferenced = true;
+        myHits.incrementAndGet();
+        return tile.myBytes.duplicate();
+    }
+
+    /**
+     * Returns true if the tile with the supplied key is cached; else, false. Unlike {@link #get(String)}, this doesn't
+     * count as a request for the tile.
+     *
+     * @param aKey A tile key
+     * @return True if the tile is cached
+     */
+    public boolean contains(final String aKey) {
+        return myTiles.containsKey(aKey);
+    }
+
+    /**
+     * Returns true if the cache would admit a tile with the supplied key and length; else, false. This lets a tile's
+     * bytes be read into memory only when the cache will keep them. Like {@link #contains(String)}, it doesn't count
+     * as a request for the tile.
+     *
+     * @param aKey A tile key
+     * @param aLength The number of bytes in the tile
+     * @return True if {@link #put(String, byte[])} would cache the tile
+     */
+    public boolean wouldAdmit(final String aKey, final long aLength) {
+        if (aLength == 0 || aLength > myMaxTileBytes || myTiles.containsKey(aKey)) {
+            return false;
+        }
+
+        if (myBytes.get() + aLength <= myMaxBytes) {
+            return true;
+        }
+
+        myLock.lock();
+
+        try {
+            final List<Tile> victims = findVictims(aLength);
+            return victims != null && isMorePopular(aKey, victims);
+        } finally {
+            myLock.unlock();
+        }
+    }
+
+    /**
+     * Offers the bytes of a tile to the cache. If the cache is full, the tile is only admitted if it's requested
+     * more often than every tile it would displace; otherwise, nothing is evicted.
+     *
+     * @param aKey A tile key
+     * @param aBytes The tile's encoded bytes, which mustn't be changed once they've been cached
+     * @return True if the tile was cached; else, false
+     */
+    public boolean put(final String aKey, final byte[] aBytes) {
+        final long size = aBytes.length;
+
+        if (size == 0 || size > myMaxTileBytes || myTiles.containsKey(aKey)) {
+            return false;
+        }
+
+        myLock.lock();
+
+        try {
+            if (myBytes.get() + size > myMaxBytes) {
+                final List<Tile> victims = findVictims(size);
+
+                if (victims == null) {
+                    return false;
+                }
+
+                if (!isMorePopular(aKey, victims)) {
+                    // A victim is at least as popular; keep them all and turn the new tile away
+                    myRejections.incrementAndGet();
+                    return false;
+                }
+
+                evict(victims);
+            }
+
+            final Tile tile = new Tile(aKey, wrap(aBytes));
+
+            if (myTiles.putIfAbsent(aKey, tile) == null) {
+                myBytes.addAndGet(size);
+                myClock.add(tile);
+                return true;
+            }
+
+            return false;
+        } finally {
+            myLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a tile from the cache.
+     *
+     * @param aKey A tile key
+     */
+    public void remove(final String aKey) {
+        final Tile tile = myTiles.remove(aKey);
+
+        if (tile != null) {
+            myBytes.addAndGet(-tile.myBytes.capacity());
+        }
+    }
+
+    /**
+     * Gets the number of tiles in the cache.
+     *
+     * @return The number of cached tiles
+     */
+    public int size() {
+        return myTiles.size();
+    }
+
+    /**
+     * Gets the number of tile bytes in the cache.
+     *
+     * @return The number of cached bytes
+     */
+    public long getByteCount() {
+        return myBytes.get();
+    }
+
+    /**
+     * Gets the maximum number of tile bytes the cache will hold.
+     *
+     * @return The cache's byte budget
+     */
+    public long getMaxByteCount() {
+        return myMaxBytes;
+    }
+
+    /**
+     * Returns whether the cache keeps its tiles outside of the Java heap.
+     *
+     * @return True if tiles are kept off-heap; else, false
+     */
+    public boolean isOffHeap() {
+        return isOffHeap;
+    }
+
+    /**
+     * Gets the number of lookups that found a tile.
+     *
+     * @return The number of cache hits
+     */
+    public long getHitCount() {
+        return myHits.get();
+    }
+
+    /**
+     * Gets the number of lookups that didn't find a tile.
+     *
+     * @return The number of cache misses
+     */
+    public long getMissCount() {
+        return myMisses.get();
+    }
+
+    /**
+     * Gets the number of tiles evicted to make room for more popular ones.
+     *
+     * @return The number of evictions
+     */
+    public long getEvictionCount() {
+        return myEvictions.get();
+    }
+
+    /**
+     * Gets the number of tiles that weren't admitted because they were less popular than the tiles already cached.
+     *
+     * @return The number of rejected tiles
+     */
+    public long getRejectionCount() {
+        return myRejections.get();
+    }
+
+    /**
+     * Finds the tiles that the CLOCK (second chance) algorithm would evict to free the supplied number of bytes,
+     * without changing the clock. Tiles that have been referenced since the hand last passed them are only picked
+     * once the unreferenced ones have run out. Must be called holding the lock.
+     *
+     * @return The tiles to evict, in the order the hand reaches them, or null if they can't free enough bytes
+     */
+    private List<Tile> findVictims(final long aSize) {
+        final List<Tile> victims = new ArrayList<Tile>();
+        final List<Tile> referenced = new ArrayList<Tile>();
+        long needed = myBytes.get() + aSize - myMaxBytes;
+
+        for (final Tile tile : myClock) {
+            if (needed <= 0) {
+                return victims;
+            }
+
+            if (myTiles.get(tile.myKey) != tile) {
+                continue; // Already removed
+            }
+
+            if (tile.isReferenced) {
+                referenced.add(tile);
+            } else {
+                victims.add(tile);
+                needed -= tile.myBytes.capacity();
+            }
+        }
+
+        // The hand has gone all the way around; the tiles it gave a second chance come next
+        for (final Tile tile : referenced) {
+            if (needed <= 0) {
+                break;
+            }
+
+            victims.add(tile);
+            needed -= tile.myBytes.capacity();
+        }
+
+        return needed <= 0 ? victims : null;
+    }
+
+    /**
+     * Returns true if the tile with the supplied key has been requested more often than each of the victims.
+     */
+    private boolean isMorePopular(final String aKey, final List<Tile> aVictims) {
+        final int frequency = getFrequency(aKey);
+
+        for (final Tile victim : aVictims) {
+            if (frequency <= getFrequency(victim.myKey)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Advances the clock's hand until it's evicted all the victims, giving the tiles it passes on the way their second
+     * chance. Must be called holding the lock.
+     */
+    private void evict(final List<Tile> aVictims) {
+        final Set<Tile> victims = Collections.newSetFromMap(new IdentityHashMap<Tile, Boolean>());
+        Tile tile;
+
+        victims.addAll(aVictims);
+
+        while (!victims.isEmpty() && (tile = myClock.poll()) != null) {
+            if (victims.remove(tile)) {
+                if (myTiles.remove(tile.myKey, tile)) {
+                    myBytes.addAndGet(-tile.myBytes.capacity());
+                    myEvictions.incrementAndGet();
+                }
+            } else if (myTiles.get(tile.myKey) == tile) {
+                tile.isReferenced = false;
+                myClock.add(tile);
+            }
+        }
+    }
+
+    private ByteBuffer wrap(final byte[] aBytes) {
+        final ByteBuffer buffer;
+
+        if (isOffHeap) {
+            buffer = ByteBuffer.allocateDirect(aBytes.length);
+            buffer.put(aBytes).flip();
+        } else {
+            buffer = ByteBuffer.wrap(aBytes);
+        }
+
+        return buffer.asReadOnlyBuffer();
+    }
+
+    private void recordAccess(final String aKey) {
+        final int hash = spread(aKey.hashCode());
+
+        for (int index = 0; index < SEEDS.length; index++) {
+            final int slot = getSlot(hash, index);
+            int count;
+
+            while ((count = mySketch.get(slot)) < MAX_FREQUENCY && !mySketch.compareAndSet(slot, count, count + 1)) {
+                // Try again; another request counted the same slot
+            }
+        }
+
+        // Halve all the counts now and then so that old popularity fades
+        if (mySketchAdditions.incrementAndGet() % mySketchResetSize == 0) {
+            for (int slot = 0; slot < mySketch.length(); slot++) {
+                mySketch.set(slot, mySketch.get(slot) >>> 1);
+            }
+        }
+    }
+
+    private int getFrequency(final String aKey) {
+        final int hash = spread(aKey.hashCode());
+        int frequency = MAX_FREQUENCY;
+
+        for (int index = 0; index < SEEDS.length; index++) {
+            frequency = Math.min(frequency, mySketch.get(getSlot(hash, index)));
+        }
+
+        return frequency;
+    }
+
+    private int getSlot(final int aHash, final int aIndex) {
+        int hash = aHash * SEEDS[aIndex];
+        hash += hash >>> 16;
+        return aIndex * (mySketchMask + 1) + (hash & mySketchMask);
+    }
+
+    private static int spread(final int aHash) {
+        final int hash = aHash * 0x9e3779b9;
+        return hash ^ hash >>> 16;
+    }
+
+    private static final class Tile {
+
+        private final String myKey;
+
+        private final ByteBuffer myBytes;
+
+        private volatile boolean isReferenced;
+
+        private Tile(final String aKey, final ByteBuffer aBytes) {
+            myKey = aKey;
+            myBytes = aBytes;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+
+package info.freelibrary.djatoka.util;
+
+import gov.lanl.adore.djatoka.DjatokaException;
+import gov.lanl.adore.djatoka.IExtract;
+import gov.lanl.adore.djatoka.openurl.OpenURLJP2KService;
+import gov.lanl.adore.djatoka.openurl.IReferentResolver;
+import gov.lanl.adore.djatoka.openurl.ReferentManager;
+import gov.lanl.adore.djatoka.openurl.ResolverException;
+import gov.lanl.adore.djatoka.util.IOUtils;
+import gov.lanl.adore.djatoka.util.ImageRecord;
+import gov.lanl.adore.djatoka.util.JP2ImageInfo;
+
+import info.freelibrary.djatoka.Constants;
+import info.freelibrary.djatoka.decode.ImageIOExtract;
+import info.freelibrary.djatoka.view.IdentifierResolver;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-process way to get an image's width, height, and levels. It uses the same referent resolver and extractor
+ * as the <code>info:lanl-repo/svc/getMetadata</code> OpenURL service, but without an HTTP round trip.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public final class ImageMetadata implements Constants {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageMetadata.class);
+
+    private static final String PROPS_KEY_IMPL_CLASS = "OpenURLJP2KService.referentResolverImpl";
+
+    /** Reads the JP2's own headers, so it doesn't need Kakadu or an ImageIO reader */
+    private static final IExtract HEADER_EXTRACTOR = new ImageIOExtract();
+
+    private ImageMetadata() {
+    }
+
+    /**
+     * Gets an image record, with width, height, and levels, for the image with the supplied identifier. An identifier
+     * that's been resolved to a local JP2 recently is answered from memory, without going through the resolver.
+     *
+     * @param aID An image identifier
+     * @return An image record for the image with the supplied identifier
+     * @throws FileNotFoundException If the image can't be found
+     * @throws DjatokaException If there is trouble resolving the image or reading its metadata
+     */
+    public static ImageRecord getImageRecord(final String aID) throws FileNotFoundException, DjatokaException {
+        final ImageRecord cached = ImageRecordCache.get(aID);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        final ImageRecord record = resolve(aID);
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Reading image metadata for {} from {}", aID, record.getImageFile());
+        }
+
+        final ImageRecord image = getExtractor().getMetadata(record);
+
+        ImageRecordCache.put(aID, image);
+        return image;
+    }
+
+    /**
+     * Gets the extractor that reads image metadata: the one the OpenURL service is configured to decode with, or,
+     * until that's been initialized, one that reads the JP2's headers in pure Java. Either way, metadata is only read
+     * with Kakadu if decodes are.
+     *
+     * @return The extractor that reads image metadata
+     */
+    public static IExtract getExtractor() {
+        final IExtract extractor = OpenURLJP2KService.getMetadataExtract();
+        return extractor != null ? extractor : HEADER_EXTRACTOR;
+    }
+
+    /**
+     * Resolves the supplied identifier to an image record, without reading the image's width, height, or levels.
+     *
+     * @param aID An image identifier
+     * @return An image record for the image with the supplied identifier
+     * @throws FileNotFoundException If the image can't be found
+     * @throws DjatokaException If there is trouble resolving the image
+     */
+    public static ImageRecord resolve(final String aID) throws FileNotFoundException, DjatokaException {
+        final ImageRecord record = getResolver().getImageRecord(aID);
+
+        if (record == null || record.getImageFile() == null && record.getObject() == null) {
+            throw new FileNotFoundException(aID + " not found");
+        }
+
+        if (record.getImageFile() != null && !new File(record.getImageFile()).exists()) {
+            throw new FileNotFoundException(aID + " not found");
+        }
+
+        return record;
+    }
+
+    /**
+     * Gets an image record, with width, height, and levels, for the supplied JP2 file. This reads the JP2's header
+     * directly, so it doesn't need a resolver or the native Kakadu libraries.
+     *
+     * @param aJP2File A JP2 file
+     * @return An image record for the supplied JP2 file
+     * @throws FileNotFoundException If the JP2 file doesn't exist
+     * @throws IOException If there is trouble reading the JP2 file's header
+     */
+    public static ImageRecord getImageRecord(final File aJP2File) throws FileNotFoundException, IOException {
+        final ImageRecord record = new ImageRecord(aJP2File.getAbsolutePath());
+
+        if (!aJP2File.exists()) {
+            throw new FileNotFoundException(aJP2File + " not found");
+        }
+
+        if (!ImageRecordCache.get(aJP2File, record)) {
+            final ImageRecord info = new JP2ImageInfo(aJP2File).getImageRecord();
+
+            ImageRecordCache.put(aJP2File, info);
+            ImageRecordCache.get(aJP2File, record);
+        }
+
+        return record;
+    }
+
+    /**
+     * Resolves the supplied identifier to an image record if the image is already available locally, without
+     * retrieving it from a remote source.
+     *
+     * @param aID An image identifier
+     * @return An image record for the image with the supplied identifier, or null if it isn't available locally
+     * @throws DjatokaException If the referent resolver can't be initialized
+     */
+    public static ImageRecord resolveLocal(final String aID) throws DjatokaException {
+        final ImageRecord cached = ImageRecordCache.get(aID);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        final ImageRecord record = getResolver().getLocalImageRecord(aID);
+
+        if (record == null || record.getImageFile() == null || !new File(record.getImageFile()).exists()) {
+            return null;
+        }
+
+        return record;
+    }
+
+    /**
+     * Gets the configured referent resolver, initializing it from the djatoka properties file if the OpenURL
+     * services haven't done that yet.
+     */
+    private static IReferentResolver getResolver() throws ResolverException {
+        // Only the first requests have to wait on the resolver's initialization
+        if (ReferentManager.isInit()) {
+            return ReferentManager.getResolver();
+        }
+
+        synchronized (ReferentManager.class) {
+            if (!ReferentManager.isInit()) {
+                try {
+                    final Properties props = IOUtils.loadConfigByCP(PROPERTIES_FILE);
+                    final String implClass =
+                            props.getProperty(PROPS_KEY_IMPL_CLASS, IdentifierResolver.class.getCanonicalName());
+
+                    ReferentManager.init((IReferentResolver) Class.forName(implClass).newInstance(), props);
+                } catch (final ResolverException details) {
+                    throw details;
+                } catch (final Exception details) {
+                    throw new ResolverException("Unable to initialize referent resolver: " + details.getMessage(),
+                            details);
+                }
+            }
+        }
+
+        return ReferentManager.getResolver();
+    }
+}
@@ -0,0 +1,276 @@
+
+package info.freelibrary.djatoka.util;
+
+import gov.lanl.adore.djatoka.util.ImageRecord;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded, least recently used cache of JP2 image metadata (width, height, levels, etc.). Entries are keyed by the
+ * JP2's absolute path and are only returned while the file's last modified time and length are unchanged, so a JP2
+ * that's replaced on disk is re-read the next time it's requested. The local JP2 that each recently requested
+ * identifier resolved to is remembered too, so a request for an image that's been seen before doesn't have to go
+ * through the referent resolver again.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public final class ImageRecordCache {
+
+    /** The default number of image records to keep in the cache */
+    public static final int DEFAULT_CAPACITY = 5000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageRecordCache.class);
+
+    private static final AtomicLong HITS = new AtomicLong();
+
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    private static int capacity = DEFAULT_CAPACITY;
+
+    private static final Map<String, CachedRecord> CACHE = new LinkedHashMap<String, CachedRecord>(256, 0.75f, true) {
+
+        private static final long serialVersionUID = -4330939545318346470L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, CachedRecord> aEldest) {
+            return size() > capacity;
+        }
+    };
+
+    private static final Map<String, String> IDS = new LinkedHashMap<String, String>(256, 0.75f, true) {
+
+        private static final long serialVersionUID = 5398311826563740925L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, String> aEldest) {
+            return size() > capacity;
+        }
+    };
+
+    private ImageRecordCache() {
+    }
+
+    /**
+     * Sets the maximum number of image records to keep in the cache. A capacity less than one disables the cache.
+     *
+     * @param aCapacity The maximum number of image records to keep in the cache
+     */
+    public static void setCapacity(final int aCapacity) {
+        synchronized (CACHE) {
+            capacity = Math.max(0, aCapacity);
+
+            if (capacity == 0) {
+                CACHE.clear();
+            }
+        }
+
+        synchronized (IDS) {
+            if (capacity == 0) {
+                IDS.clear();
+            }
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Image record cache capacity set to {}", aCapacity);
+        }
+    }
+
+    /**
+     * Populates the supplied image record with the cached metadata for the supplied JP2 file. The record's file and
+     * identifier are left alone.
+     *
+     * @param aFile A JP2 file
+     * @param aRecord An image record to populate from the cache
+     * @return True if the record was populated from the cache; else, false
+     */
+    public static boolean get(final File aFile, final ImageRecord aRecord) {
+        final String path = aFile.getAbsolutePath();
+        final CachedRecord cached;
+
+        synchronized (CACHE) {
+            cached = CACHE.get(path);
+        }
+
+        if (cached != null) {
+            if (cached.myLastModified == aFile.lastModified() && cached.myLength == aFile.length()) {
+                copy(cached.myRecord, aRecord);
+                HITS.incrementAndGet();
+                return true;
+            }
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("JP2 file changed, discarding its cached metadata: {}", path);
+            }
+
+            synchronized (CACHE) {
+                // Only remove the entry we checked; another thread may have already refreshed it
+                if (CACHE.get(path) == cached) {
+                    CACHE.remove(path);
+                }
+            }
+        }
+
+        MISSES.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Caches the metadata from the supplied image record for the supplied JP2 file.
+     *
+     * @param aFile A JP2 file
+     * @param aRecord An image record containing the JP2's metadata
+     */
+    public static void put(final File aFile, final ImageRecord aRecord) {
+        final ImageRecord record = new ImageRecord();
+        final CachedRecord cached;
+
+        copy(aRecord, record);
+        cached = new CachedRecord(aFile.lastModified(), aFile.length(), record);
+
+        synchronized (CACHE) {
+            if (capacity > 0) {
+                CACHE.put(aFile.getAbsolutePath(), cached);
+            }
+        }
+    }
+
+    /**
+     * Gets an image record, with the local JP2 file and its metadata, for the supplied identifier if it's been cached
+     * and the JP2 hasn't changed since.
+     *
+     * @param aID An image identifier
+     * @return An image record for the identifier, or null if there isn't a current one in the cache
+     */
+    public static ImageRecord get(final String aID) {
+        final String path;
+
+        synchronized (IDS) {
+            path = IDS.get(aID);
+        }
+
+        if (path == null) {
+            MISSES.incrementAndGet();
+            return null;
+        }
+
+        final ImageRecord record = new ImageRecord(aID, path);
+
+        if (get(new File(path), record)) {
+            return record;
+        }
+
+        synchronized (IDS) {
+            if (path.equals(IDS.get(aID))) {
+                IDS.remove(aID);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Caches the metadata from the supplied image record, under both its local JP2 file and the supplied identifier.
+     * A record that isn't for a local JP2 file isn't cached.
+     *
+     * @param aID An image identifier
+     * @param aRecord An image record for the identifier, with its JP2 file and metadata
+     */
+    public static void put(final String aID, final ImageRecord aRecord) {
+        if (aRecord.getImageFile() == null) {
+            return;
+        }
+
+        put(new File(aRecord.getImageFile()), aRecord);
+
+        synchronized (IDS) {
+            if (capacity > 0) {
+                IDS.put(aID, aRecord.getImageFile());
+            }
+        }
+    }
+
+    /**
+     * Removes any cached metadata for the supplied JP2 file.
+     *
+     * @param aFile A JP2 file
+     */
+    public static void remove(final File aFile) {
+        synchronized (CACHE) {
+            CACHE.remove(aFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Gets the number of image records in the cache.
+     *
+     * @return The number of cached image records
+     */
+    public static int size() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    /**
+     * Gets the number of lookups that were answered from the cache.
+     *
+     * @return The number of cache hits
+     */
+    public static long getHitCount() {
+        return HITS.get();
+    }
+
+    /**
+     * Gets the number of lookups that weren't answered from the cache.
+     *
+     * @return The number of cache misses
+     */
+    public static long getMissCount() {
+        return MISSES.get();
+    }
+
+    /**
+     * Empties the cache.
+     */
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+
+        synchronized (IDS) {
+            IDS.clear();
+        }
+    }
+
+    private static void copy(final ImageRecord aFrom, final ImageRecord aTo) {
+        aTo.setWidth(aFrom.getWidth());
+        aTo.setHeight(aFrom.getHeight());
+        aTo.setDWTLevels(aFrom.getDWTLevels());
+        aTo.setLevels(aFrom.getLevels());
+        aTo.setBitDepth(aFrom.getBitDepth());
+        aTo.setNumChannels(aFrom.getNumChannels());
+        aTo.setQualityLayers(aFrom.getQualityLayers());
+        aTo.setCompositingLayerCount(aFrom.getCompositingLayerCount());
+    }
+
+    private static final class CachedRecord {
+
+        private final long myLastModified;
+
+        private final long myLength;
+
+        private final ImageRecord myRecord;
+
+        private CachedRecord(final long aLastModified, final long aLength, final ImageRecord aRecord) {
+            myLastModified = aLastModified;
+            myLength = aLength;
+            myRecord = aRecord;
+        }
+    }
+}
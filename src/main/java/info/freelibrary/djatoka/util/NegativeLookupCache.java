@@ -0,0 +1,163 @@
+
+package info.freelibrary.djatoka.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded, least recently used cache of identifiers that couldn't be resolved to a JP2, either locally or from
+ * any of the known remote sources. A miss is remembered for a limited time, so that repeated requests for a dead
+ * identifier don't each try every remote source again; an identifier is forgotten as soon as a JP2 is ingested for
+ * it.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public final class NegativeLookupCache {
+
+    /** The default number of missing identifiers to remember */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    /** The default number of milliseconds a missing identifier is remembered for */
+    public static final long DEFAULT_TTL = 300000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NegativeLookupCache.class);
+
+    private static final AtomicLong HITS = new AtomicLong();
+
+    private static int capacity = DEFAULT_CAPACITY;
+
+    private static long ttl = DEFAULT_TTL;
+
+    private static final Map<String, Long> CACHE = new LinkedHashMap<String, Long>(256, 0.75f, true) {
+
+        private static final long serialVersionUID = 2385018512237467096L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Long> aEldest) {
+            return size() > capacity;
+        }
+    };
+
+    private NegativeLookupCache() {
+    }
+
+    /**
+     * Sets the maximum number of missing identifiers to remember. A capacity less than one disables the cache.
+     *
+     * @param aCapacity The maximum number of missing identifiers to remember
+     */
+    public static void setCapacity(final int aCapacity) {
+        synchronized (CACHE) {
+            capacity = Math.max(0, aCapacity);
+
+            if (capacity == 0) {
+                CACHE.clear();
+            }
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Negative lookup cache capacity set to {}", aCapacity);
+        }
+    }
+
+    /**
+     * Sets how long, in milliseconds, a missing identifier is remembered. A time to live less than one disables the
+     * cache.
+     *
+     * @param aTTL The number of milliseconds a missing identifier is remembered for
+     */
+    public static void setTTL(final long aTTL) {
+        synchronized (CACHE) {
+            ttl = Math.max(0, aTTL);
+
+            if (ttl == 0) {
+                CACHE.clear();
+            }
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Negative lookup cache TTL set to {} ms", aTTL);
+        }
+    }
+
+    /**
+     * Returns true if the supplied identifier recently couldn't be resolved; else, false.
+     *
+     * @param aID An image identifier
+     * @return True if the identifier is known to be missing
+     */
+    public static boolean isMissing(final String aID) {
+        synchronized (CACHE) {
+            final Long expires = CACHE.get(aID);
+
+            if (expires == null) {
+                return false;
+            }
+
+            if (expires.longValue() <= System.currentTimeMillis()) {
+                CACHE.remove(aID);
+                return false;
+            }
+        }
+
+        HITS.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Remembers that the supplied identifier couldn't be resolved.
+     *
+     * @param aID An image identifier
+     */
+    public static void put(final String aID) {
+        synchronized (CACHE) {
+            if (capacity > 0 && ttl > 0) {
+                CACHE.put(aID, System.currentTimeMillis() + ttl);
+            }
+        }
+    }
+
+    /**
+     * Forgets that the supplied identifier couldn't be resolved, as when a JP2 has been ingested for it.
+     *
+     * @param aID An image identifier
+     */
+    public static void remove(final String aID) {
+        synchronized (CACHE) {
+            CACHE.remove(aID);
+        }
+    }
+
+    /**
+     * Gets the number of missing identifiers being remembered, some of which may have expired.
+     *
+     * @return The number of remembered missing identifiers
+     */
+    public static int size() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    /**
+     * Gets the number of lookups that were answered from the cache.
+     *
+     * @return The number of cache hits
+     */
+    public static long getHitCount() {
+        return HITS.get();
+    }
+
+    /**
+     * Empties the cache.
+     */
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+}
@@ -0,0 +1,296 @@
+
+package info.freelibrary.djatoka.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.lanl.util.ExecuteStreamHandler;
+
+/**
+ * Handles a child process's streams without starting any threads of its own. The process's standard input is written
+ * by one of a small pool of pump threads shared by every process, its standard error is read by one of a second pool
+ * of the same size, and its standard output is read on the thread that calls {@link #stop()}, which is the thread
+ * waiting for the process anyway. This replaces <code>PumpStreamHandler</code>, which started a new thread for each of
+ * the three streams of every process.
+ * <p/>
+ * Standard error is read at the same time as standard output, so a process that fills the standard error pipe's buffer
+ * before it's done writing its output isn't left waiting. The two pools are kept apart because an input pump can be
+ * held up by its process waiting for its standard error to be read, while an error pump only waits for its process to
+ * exit; a full pool delays new processes but can't deadlock them.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public class PooledStreamHandler implements ExecuteStreamHandler {
+
+    /** The default number of pump threads */
+    public static final int DEFAULT_POOL_SIZE = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PooledStreamHandler.class);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private static final AtomicLong PUMPED = new AtomicLong();
+
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private static final ThreadPoolExecutor PUMPS = newPool("process-pump-");
+
+    private static final ThreadPoolExecutor ERROR_PUMPS = newPool("process-error-pump-");
+
+    private final OutputStream myOut;
+
+    private final OutputStream myErr;
+
+    private final InputStream myInput;
+
+    private OutputStream myProcessInput;
+
+    private InputStream myProcessOutput;
+
+    private InputStream myProcessError;
+
+    private Future<?> myInputPump;
+
+    private Future<?> myErrorPump;
+
+    /**
+     * Creates a stream handler that copies a process's standard output and error to the supplied streams and the
+     * supplied input to its standard input.
+     *
+     * @param aOut Where the process's standard output is copied to
+     * @param aErr Where the process's standard error is copied to; may be null to discard it
+     * @param aInput What's copied to the process's standard input; may be null to close it straight away
+     */
+    public PooledStreamHandler(final OutputStream aOut, final OutputStream aErr, final InputStream aInput) {
+        myOut = aOut;
+        myErr = aErr;
+        myInput = aInput;
+    }
+
+    /**
+     * Sets the number of input pump threads, and of error pump threads, shared by all processes' stream handlers.
+     *
+     * @param aPoolSize The number of pump threads in each pool
+     */
+    public static void setPoolSize(final int aPoolSize) {
+        final int size = Math.max(1, aPoolSize);
+
+        setPoolSize(PUMPS, size);
+        setPoolSize(ERROR_PUMPS, size);
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Process pump pool size set to {}", size);
+        }
+    }
+
+    /**
+     * Gets the number of input pump threads, and of error pump threads, shared by all processes' stream handlers.
+     *
+     * @return The number of pump threads in each pool
+     */
+    public static int getPoolSize() {
+        return PUMPS.getMaximumPoolSize();
+    }
+
+    /**
+     * Gets the number of pump threads that are writing to a process's standard input or reading its standard error.
+     *
+     * @return The number of busy pump threads
+     */
+    public static int getActiveCount() {
+        return PUMPS.getActiveCount() + ERROR_PUMPS.getActiveCount();
+    }
+
+    /**
+     * Gets the number of process streams waiting for a free pump thread.
+     *
+     * @return The number of waiting streams
+     */
+    public static int getQueueDepth() {
+        return PUMPS.getQueue().size() + ERROR_PUMPS.getQueue().size();
+    }
+
+    /**
+     * Gets the number of pump threads that have been started, which stays flat once the pools are warm.
+     *
+     * @return The number of pump threads started
+     */
+    public static int getThreadCount() {
+        return THREAD_COUNT.get();
+    }
+
+    /**
+     * Gets the number of processes whose standard input has been written.
+     *
+     * @return The number of processes pumped
+     */
+    public static long getPumpedCount() {
+        return PUMPED.get();
+    }
+
+    @Override
+    public void setProcessInputStream(final OutputStream aOutputStream) throws IOException {
+        if (myInput == null) {
+            aOutputStream.close();
+        } else {
+            myProcessInput = aOutputStream;
+        }
+    }
+
+    @Override
+    public void setProcessErrorStream(final InputStream aInputStream) throws IOException {
+        myProcessError = aInputStream;
+    }
+
+    @Override
+    public void setProcessOutputStream(final InputStream aInputStream) throws IOException {
+        myProcessOutput = aInputStream;
+    }
+
+    /**
+     * Starts writing the process's standard input, and reading its standard error, on the shared pump threads.
+     */
+    @Override
+    public void start() {
+        if (myProcessError != null) {
+            myErrorPump = ERROR_PUMPS.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    copy(myProcessError, myErr);
+                }
+            });
+        }
+
+        if (myProcessInput != null) {
+            myInputPump = PUMPS.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        copy(myInput, myProcessInput);
+                    } finally {
+                        close(myProcessInput);
+                        PUMPED.incrementAndGet();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads the process's standard output on the calling thread until the process closes it (as it does when it
+     * exits or is destroyed), and then waits for its standard error to be read and its standard input to be written.
+     */
+    @Override
+    public void stop() {
+        if (myProcessOutput != null) {
+            copy(myProcessOutput, myOut);
+        }
+
+        await(myErrorPump, "Process error not read: {}");
+        await(myInputPump, "Process input not written: {}");
+    }
+
+    private static void await(final Future<?> aPump, final String aMessage) {
+        if (aPump == null) {
+            return;
+        }
+
+        try {
+            aPump.get();
+        } catch (final InterruptedException details) {
+            aPump.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException details) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(aMessage, details.getCause().getMessage());
+            }
+        }
+    }
+
+    private static ThreadPoolExecutor newPool(final String aName) {
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(DEFAULT_POOL_SIZE, DEFAULT_POOL_SIZE, 60L,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(final Runnable aRunnable) {
+                        final Thread thread = new Thread(aRunnable, aName + THREAD_COUNT.incrementAndGet());
+
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static void setPoolSize(final ThreadPoolExecutor aPool, final int aSize) {
+        synchronized (aPool) {
+            // The core size can't be more than the maximum size, so the order they're changed in matters
+            if (aSize > aPool.getMaximumPoolSize()) {
+                aPool.setMaximumPoolSize(aSize);
+                aPool.setCorePoolSize(aSize);
+            } else {
+                aPool.setCorePoolSize(aSize);
+                aPool.setMaximumPoolSize(aSize);
+            }
+        }
+    }
+
+    /**
+     * Copies the supplied input to the supplied output, which may be null to discard the input. Errors are ignored,
+     * since they're what a process that's exited or been destroyed looks like to the copy.
+     */
+    private static void copy(final InputStream aInput, final OutputStream aOutput) {
+        final byte[] buffer = BUFFER.get();
+        int length;
+
+        try {
+            while ((length = aInput.read(buffer)) != -1) {
+                if (aOutput != null) {
+                    aOutput.write(buffer, 0, length);
+                }
+            }
+
+            if (aOutput != null) {
+                aOutput.flush();
+            }
+        } catch (final IOException details) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Process stream closed: {}", details.getMessage());
+            }
+        }
+    }
+
+    private static void close(final OutputStream aOutputStream) {
+        try {
+            aOutputStream.close();
+        } catch (final IOException details) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Process stream not closed: {}", details.getMessage());
+            }
+        }
+    }
+}
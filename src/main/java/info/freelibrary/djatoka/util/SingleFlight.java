@@ -0,0 +1,194 @@
+
+package info.freelibrary.djatoka.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import info.freelibrary.djatoka.decode.Cancellation;
+
+/**
+ * Coalesces concurrent calls for the same key. The first caller for a key runs its task; callers that arrive while
+ * that task is still running wait for it and share its result (or its exception) instead of running their own.
+ * Nothing is kept once the task completes, so this is not a cache.
+ * <p/>
+ * The task runs with a {@link Cancellation} of its own, which is only cancelled once the work of every caller
+ * waiting on it has been cancelled; one caller going away doesn't stop a task others are still waiting for.
+ *
+ * @param <K> The type of key used to identify identical calls
+ * @param <V> The type of value the calls return
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public class SingleFlight<K, V> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SingleFlight.class);
+
+    private final ConcurrentMap<K, Flight<V>> myCalls = new ConcurrentHashMap<K, Flight<V>>();
+
+    private final AtomicLong myCallCount = new AtomicLong();
+
+    private final AtomicLong myCoalescedCount = new AtomicLong();
+
+    /**
+     * Runs the supplied task, unless a task for the same key is already running, in which case this waits for that
+     * task and returns its result.
+     *
+     * @param aKey The key that identifies identical calls
+     * @param aTask The task to run if no identical call is in flight
+     * @return The result of the task that ran for the supplied key
+     * @throws Exception The exception thrown by the task that ran for the supplied key
+     */
+    public V execute(final K aKey, final Callable<V> aTask) throws Exception {
+        final Cancellation caller = Cancellation.current();
+        final Flight<V> task = new Flight<V>(aTask);
+        Flight<V> inFlight;
+
+        myCallCount.incrementAndGet();
+
+        while ((inFlight = myCalls.putIfAbsent(aKey, task)) != null) {
+            final Runnable leave = inFlight.join(caller);
+
+            if (leave != null) {
+                myCoalescedCount.incrementAndGet();
+
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Waiting on in-flight call for: {}", aKey);
+                }
+
+                try {
+                    return getResult(inFlight);
+                } finally {
+                    inFlight.leave(caller, leave);
+                }
+            }
+
+            // Everyone waiting on the in-flight call went away, so it's being abandoned; this caller runs its own
+            myCalls.remove(aKey, inFlight);
+        }
+
+        final Runnable leave = task.join(caller);
+        final Cancellation previous = Cancellation.attach(task.getCancellation());
+
+        try {
+            task.run();
+        } finally {
+            Cancellation.restore(previous);
+            myCalls.remove(aKey, task);
+            task.leave(caller, leave);
+        }
+
+        return getResult(task);
+    }
+
+    /**
+     * Gets the number of calls for which a task is currently running.
+     *
+     * @return The number of in-flight calls
+     */
+    public int getInFlightCount() {
+        return myCalls.size();
+    }
+
+    /**
+     * Gets the total number of calls made.
+     *
+     * @return The number of calls made
+     */
+    public long getCallCount() {
+        return myCallCount.get();
+    }
+
+    /**
+     * Gets the number of calls that shared the result of an in-flight call rather than running their own task.
+     *
+     * @return The number of coalesced calls
+     */
+    public long getCoalescedCount() {
+        return myCoalescedCount.get();
+    }
+
+    private V getResult(final Flight<V> aTask) throws Exception {
+        try {
+            return aTask.get();
+        } catch (final ExecutionException details) {
+            final Throwable cause = details.getCause();
+
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw details;
+        }
+    }
+
+    /**
+     * A task, and the callers waiting on it, for one key.
+     */
+    private static class Flight<V> extends FutureTask<V> {
+
+        private final Cancellation myCancellation = new Cancellation();
+
+        private int myCallerCount;
+
+        private Flight(final Callable<V> aTask) {
+            super(aTask);
+        }
+
+        private Cancellation getCancellation() {
+            return myCancellation;
+        }
+
+        /**
+         * Adds a caller to the flight, returning what leaves the flight when the caller's work is cancelled, or null
+         * if the flight has already been cancelled. A caller whose work can't be cancelled never leaves.
+         */
+        private Runnable join(final Cancellation aCaller) {
+            synchronized (this) {
+                if (myCancellation.isCancelled()) {
+                    return null;
+                }
+
+                myCallerCount++;
+            }
+
+            final Runnable leave = new Runnable() {
+
+                @Override
+                public void run() {
+                    final boolean last;
+
+                    synchronized (Flight.this) {
+                        last = --myCallerCount == 0;
+                    }
+
+                    if (last && !isDone()) {
+                        myCancellation.cancel();
+                    }
+                }
+            };
+
+            if (aCaller != null) {
+                aCaller.addListener(leave);
+            }
+
+            return leave;
+        }
+
+        /**
+         * Stops listening for the cancellation of a caller that's done with the flight.
+         */
+        private void leave(final Cancellation aCaller, final Runnable aLeave) {
+            if (aCaller != null) {
+                aCaller.removeListener(aLeave);
+            }
+        }
+    }
+}
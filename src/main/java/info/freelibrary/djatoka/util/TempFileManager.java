@@ -0,0 +1,402 @@
+
+package info.freelibrary.djatoka.util;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Manages the scratch files that are written while images are retrieved, compressed, and decoded. Each scratch file
+ * is created with a single reference, owned by the code that created it; anything else that needs the file to stay
+ * around while it's using it (a stream that's still sending it, say) takes a reference of its own, and the file is
+ * deleted as soon as the last reference is released. This replaces <code>File.deleteOnExit()</code>, which keeps the
+ * path of every file it's called on in memory until the JVM exits, whether or not the file has already been deleted.
+ * <p/>
+ * Scratch files are written to a directory of their own, whose total size can be capped. Files left behind in it by
+ * an earlier run that didn't shut down cleanly are deleted when the directory is first used, and the files still in
+ * use when the JVM shuts down are deleted by a single shutdown hook.
+ * <p/>
+ * The cap only applies to the scratch files that are still being worked on, which are few since there's one or two
+ * for each request in progress, so they're the only ones whose sizes are looked at when a new file is created. Files
+ * that have been handed over to a cache, with {@link #setCached(File)}, are bounded by that cache instead; their
+ * sizes are added to a running total when they're handed over and taken off it when they're deleted.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public final class TempFileManager {
+
+    /** The default maximum number of bytes of scratch files; zero for no limit */
+    public static final long DEFAULT_MAX_BYTES = 0;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TempFileManager.class);
+
+    /** The start of every scratch file's name, so only the manager's own files are swept from a shared directory */
+    private static final String PREFIX = "djatoka-";
+
+    private static final Map<String, ScratchFile> REFERENCES = new ConcurrentHashMap<String, ScratchFile>();
+
+    /** The scratch files that haven't been handed over to a cache, and so count against the cap */
+    private static final Set<String> IN_PROGRESS = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private static final AtomicLong CACHED_BYTES = new AtomicLong();
+
+    private static final AtomicLong CREATED = new AtomicLong();
+
+    private static final AtomicLong DELETED = new AtomicLong();
+
+    private static final AtomicLong SWEPT = new AtomicLong();
+
+    private static final AtomicLong REJECTED = new AtomicLong();
+
+    private static File directory = new File(System.getProperty("java.io.tmpdir"), "djatoka-scratch");
+
+    private static long maxBytes = DEFAULT_MAX_BYTES;
+
+    private static boolean isSwept;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread("scratch-file-cleaner") {
+
+            @Override
+            public void run() {
+                for (final String path : REFERENCES.keySet()) {
+                    new File(path).delete();
+                }
+            }
+        });
+    }
+
+    private TempFileManager() {
+    }
+
+    /**
+     * Sets the directory that scratch files are written to. The directory's orphaned scratch files are swept the
+     * next time a scratch file is created.
+     *
+     * @param aDirectory The scratch directory
+     */
+    public static synchronized void setDirectory(final File aDirectory) {
+        if (!aDirectory.equals(directory)) {
+            directory = aDirectory;
+            isSwept = false;
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Scratch directory set to {}", aDirectory);
+        }
+    }
+
+    /**
+     * Gets the directory that scratch files are written to.
+     *
+     * @return The scratch directory
+     */
+    public static synchronized File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Sets the maximum number of bytes of scratch files that may be worked on at the same time. Files that have been
+     * handed over to a cache don't count against it. A maximum less than one isn't enforced.
+     *
+     * @param aMaxBytes The maximum number of bytes of scratch files
+     */
+    public static synchronized void setMaxBytes(final long aMaxBytes) {
+        maxBytes = Math.max(0, aMaxBytes);
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Scratch directory size limit set to {}", aMaxBytes);
+        }
+    }
+
+    /**
+     * Gets the maximum number of bytes of scratch files that may be worked on at the same time, or zero if there isn't
+     * a limit.
+     *
+     * @return The maximum number of bytes of scratch files
+     */
+    public static synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Creates a new, empty scratch file. The caller owns the file's only reference and must release it, with
+     * {@link #release(File)}, when it's done with the file.
+     *
+     * @param aPrefix The start of the file's name
+     * @param aSuffix The end of the file's name, including the dot before its extension
+     * @return The new scratch file
+     * @throws IOException If the file can't be created or the scratch directory is full
+     */
+    public static File create(final String aPrefix, final String aSuffix) throws IOException {
+        final File dir;
+        final long limit;
+
+        synchronized (TempFileManager.class) {
+            if (!isSwept) {
+                sweep(directory);
+                isSwept = true;
+            }
+
+            dir = directory;
+            limit = maxBytes;
+        }
+
+        if (limit > 0 && getInProgressByteCount() >= limit) {
+            REJECTED.incrementAndGet();
+            throw new IOException("Scratch directory is full (" + limit + " bytes): " + dir);
+        }
+
+        final File file = File.createTempFile(PREFIX + aPrefix, aSuffix, dir);
+        final String path = file.getAbsolutePath();
+
+        REFERENCES.put(path, new ScratchFile());
+        IN_PROGRESS.add(path);
+        CREATED.incrementAndGet();
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Scratch file created: {}", file);
+        }
+
+        return file;
+    }
+
+    /**
+     * Takes another reference to the supplied scratch file, which must be released with {@link #release(File)} when
+     * it's no longer needed. A file that isn't a scratch file, or has already been deleted, can't be retained.
+     *
+     * @param aFile A scratch file
+     * @return True if a reference was taken; else, false
+     */
+    public static boolean retain(final File aFile) {
+        final ScratchFile scratchFile = REFERENCES.get(aFile.getAbsolutePath());
+
+        if (scratchFile == null) {
+            return false;
+        }
+
+        final AtomicInteger references = scratchFile.myReferences;
+
+        while (true) {
+            final int count = references.get();
+
+            // The last reference was released while we were looking the file up
+            if (count < 1) {
+                return false;
+            }
+
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases a reference to the supplied scratch file, deleting the file if it was the last one. Files that aren't
+     * scratch files are left alone, so callers that may be handed either kind can delete the others themselves.
+     *
+     * @param aFile A scratch file
+     * @return True if the file is a scratch file and a reference to it was released; else, false
+     */
+    public static boolean release(final File aFile) {
+        final String path = aFile.getAbsolutePath();
+        final ScratchFile scratchFile = REFERENCES.get(path);
+
+        if (scratchFile == null) {
+            return false;
+        }
+
+        if (scratchFile.myReferences.decrementAndGet() == 0 && REFERENCES.remove(path, scratchFile)) {
+            IN_PROGRESS.remove(path);
+
+            synchronized (scratchFile) {
+                if (scratchFile.myCachedBytes >= 0) {
+                    CACHED_BYTES.addAndGet(-scratchFile.myCachedBytes);
+                }
+            }
+
+            if (aFile.exists() && !aFile.delete()) {
+                if (LOGGER.isWarnEnabled()) {
+                    LOGGER.warn("Scratch file not deleted: {}", aFile);
+                }
+            } else {
+                DELETED.incrementAndGet();
+
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Scratch file deleted: {}", aFile);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Hands the supplied scratch file, which has been written, over to a cache that bounds its own size. It no longer
+     * counts against the scratch file cap, and its current size is added to the total size of cached scratch files
+     * until it's deleted.
+     *
+     * @param aFile A scratch file that's been written
+     * @return True if the file is a scratch file that's still in use; else, false
+     */
+    public static boolean setCached(final File aFile) {
+        final String path = aFile.getAbsolutePath();
+        final ScratchFile scratchFile = REFERENCES.get(path);
+
+        if (scratchFile == null) {
+            return false;
+        }
+
+        synchronized (scratchFile) {
+            if (scratchFile.myCachedBytes < 0) {
+                scratchFile.myCachedBytes = aFile.length();
+                CACHED_BYTES.addAndGet(scratchFile.myCachedBytes);
+            }
+        }
+
+        IN_PROGRESS.remove(path);
+        return true;
+    }
+
+    /**
+     * Returns true if the supplied file is a scratch file that's still in use; else, false.
+     *
+     * @param aFile A file
+     * @return True if the file is a scratch file that's still in use
+     */
+    public static boolean isManaged(final File aFile) {
+        return REFERENCES.containsKey(aFile.getAbsolutePath());
+    }
+
+    /**
+     * Gets the number of scratch files that are in use.
+     *
+     * @return The number of scratch files in use
+     */
+    public static int size() {
+        return REFERENCES.size();
+    }
+
+    /**
+     * Gets the total size, in bytes, of the scratch files that are in use, including those held by a cache.
+     *
+     * @return The number of bytes of scratch files in use
+     */
+    public static long getByteCount() {
+        return CACHED_BYTES.get() + getInProgressByteCount();
+    }
+
+    /**
+     * Gets the total size, in bytes, of the scratch files that are still being worked on, which is what counts
+     * against the cap.
+     *
+     * @return The number of bytes of scratch files being worked on
+     */
+    public static long getInProgressByteCount() {
+        long bytes = 0;
+
+        for (final String path : IN_PROGRESS) {
+            bytes += new File(path).length();
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Gets the total size, in bytes, of the scratch files that have been handed over to a cache.
+     *
+     * @return The number of bytes of cached scratch files
+     */
+    public static long getCachedByteCount() {
+        return CACHED_BYTES.get();
+    }
+
+    /**
+     * Gets the number of scratch files that have been created.
+     *
+     * @return The number of scratch files created
+     */
+    public static long getCreatedCount() {
+        return CREATED.get();
+    }
+
+    /**
+     * Gets the number of scratch files that have been deleted because their last reference was released.
+     *
+     * @return The number of scratch files deleted
+     */
+    public static long getDeletedCount() {
+        return DELETED.get();
+    }
+
+    /**
+     * Gets the number of orphaned scratch files, left behind by an earlier run, that have been deleted.
+     *
+     * @return The number of orphaned scratch files deleted
+     */
+    public static long getSweptCount() {
+        return SWEPT.get();
+    }
+
+    /**
+     * Gets the number of scratch files that couldn't be created because the scratch directory was full.
+     *
+     * @return The number of rejected scratch files
+     */
+    public static long getRejectedCount() {
+        return REJECTED.get();
+    }
+
+    /**
+     * Deletes the scratch files that were left in the supplied directory by a run that ended before this one started.
+     * Files written since this JVM started may belong to another instance sharing the directory, so are left alone.
+     */
+    private static void sweep(final File aDirectory) throws IOException {
+        if (!aDirectory.exists() && !aDirectory.mkdirs() && !aDirectory.exists()) {
+            throw new IOException("Scratch directory couldn't be created: " + aDirectory);
+        }
+
+        final long startTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+        final File[] orphans = aDirectory.listFiles(new FileFilter() {
+
+            @Override
+            public boolean accept(final File aFile) {
+                return aFile.isFile() && aFile.getName().startsWith(PREFIX) && aFile.lastModified() < startTime;
+            }
+        });
+
+        if (orphans == null) {
+            return;
+        }
+
+        for (final File orphan : orphans) {
+            if (orphan.delete()) {
+                SWEPT.incrementAndGet();
+            } else if (LOGGER.isWarnEnabled()) {
+                LOGGER.warn("Orphaned scratch file not deleted: {}", orphan);
+            }
+        }
+
+        if (orphans.length > 0 && LOGGER.isInfoEnabled()) {
+            LOGGER.info("Swept {} orphaned scratch files from {}", orphans.length, aDirectory);
+        }
+    }
+
+    private static final class ScratchFile {
+
+        private final AtomicInteger myReferences = new AtomicInteger(1);
+
+        /** The file's size when it was handed over to a cache, or -1 if it hasn't been */
+        private long myCachedBytes = -1;
+    }
+}
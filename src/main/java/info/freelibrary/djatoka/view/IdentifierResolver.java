@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URLDecoder;
 import java.util.Arrays;
 import java.util.List;
@@ -12,6 +13,10 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -20,6 +25,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import gov.lanl.adore.djatoka.DjatokaException;
 import gov.lanl.adore.djatoka.openurl.DjatokaImageMigrator;
 import gov.lanl.adore.djatoka.openurl.IReferentMigrator;
 import gov.lanl.adore.djatoka.openurl.IReferentResolver;
@@ -27,6 +33,7 @@ import gov.lanl.adore.djatoka.openurl.ResolverException;
 import gov.lanl.adore.djatoka.util.ImageRecord;
 
 import info.freelibrary.djatoka.Constants;
+import info.freelibrary.djatoka.util.NegativeLookupCache;
 import info.freelibrary.util.PairtreeObject;
 import info.freelibrary.util.PairtreeRoot;
 import info.freelibrary.util.PairtreeUtils;
@@ -38,6 +45,18 @@ public class IdentifierResolver implements IReferentResolver, Constants {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(IdentifierResolver.class);
 
+    private static final String PROPS_KEY_MISS_CACHE_SIZE = "IdentifierResolver.missCacheSize";
+
+    private static final String PROPS_KEY_MISS_CACHE_TTL = "IdentifierResolver.missCacheTTL";
+
+    private static final String PROPS_KEY_MIGRATION_WORKERS = "IdentifierResolver.migrationWorkers";
+
+    private static final String PROPS_KEY_MIGRATION_QUEUE_SIZE = "IdentifierResolver.migrationQueueSize";
+
+    private static final String PROPS_KEY_MIGRATION_TIMEOUT = "IdentifierResolver.migrationTimeout";
+
+    private static final int DEFAULT_MIGRATION_TIMEOUT = 60000;
+
     private final IReferentMigrator myMigrator = new DjatokaImageMigrator();
 
     private Map<String, ImageRecord> myRemoteImages;
@@ -48,6 +67,8 @@ public class IdentifierResolver implements IReferentResolver, Constants {
 
     private File myJP2Dir;
 
+    private long myMigrationTimeout = DEFAULT_MIGRATION_TIMEOUT;
+
     /**
      * Gets the image record for the requested image.
      * 
@@ -77,17 +98,21 @@ public class IdentifierResolver implements IReferentResolver, Constants {
             // Check and see if we've already put it in the Pairtree FS
             image = getCachedImage(referent);
 
-            // Otherwise, we retrieve the image from the remote source
-            if (image == null) {
+            // Otherwise, we retrieve the image from the remote source, unless we've recently failed to
+            if (image == null && !NegativeLookupCache.isMissing(referent)) {
                 image = getRemoteImage(referent, decodedRequest);
+
+                if (image == null && myMigrator.getMigration(referent) == null) {
+                    NegativeLookupCache.put(referent);
+                }
             }
         } else {
             image = getCachedImage(decodedRequest);
 
             // If we can't find the "non-remote" image in our local cache,
             // make one last ditch attempt to find it as a remote image...
-            if (image == null) {
-                for (int index = 0; index < myIngestGuesses.size(); index++) {
+            if (image == null && !NegativeLookupCache.isMissing(decodedRequest)) {
+                for (int index = 0; index < myIngestGuesses.size() && image == null; index++) {
                     final String urlPattern = myIngestGuesses.get(index);
                     final String url = StringUtils.format(urlPattern, decodedRequest);
 
@@ -96,7 +121,19 @@ public class IdentifierResolver implements IReferentResolver, Constants {
                     }
 
                     image = getRemoteImage(decodedRequest, url);
+
+                    // A guess that's still being retrieved would be joined, and waited for again, by the next guess
+                    if (image == null && myMigrator.getMigration(decodedRequest) != null) {
+                        break;
+                    }
                 }
+
+                // Requests for a dead identifier don't need to try all the guesses again for a while
+                if (image == null && myMigrator.getMigration(decodedRequest) == null) {
+                    NegativeLookupCache.put(decodedRequest);
+                }
+            } else if (image == null && LOGGER.isDebugEnabled()) {
+                LOGGER.debug("{} recently failed to resolve; not trying remote sources", decodedRequest);
             }
         }
 
@@ -120,6 +157,34 @@ public class IdentifierResolver implements IReferentResolver, Constants {
         return getImageRecord(id);
     }
 
+    /**
+     * Gets the image record for the requested image if it's in the Pairtree file system, or has already been
+     * retrieved from a remote source; else, returns null.
+     * 
+     * @param aRequest An image request
+     * @return An image record or null if the image isn't available locally
+     */
+    @Override
+    public ImageRecord getLocalImageRecord(final String aRequest) {
+        final String decodedRequest = decode(aRequest);
+        final String referent;
+
+        try {
+            referent = isResolvableURI(decodedRequest) ? parseReferent(decodedRequest) : decodedRequest;
+        } catch (final UnsupportedEncodingException details) {
+            throw new RuntimeException("JVM doesn't support UTF-8!!", details);
+        }
+
+        final ImageRecord image = getCachedImage(referent);
+
+        if (image != null) {
+            return image;
+        }
+
+        final ImageRecord remoteImage = myRemoteImages == null ? null : myRemoteImages.get(referent);
+        return remoteImage != null && new File(remoteImage.getImageFile()).exists() ? remoteImage : null;
+    }
+
     /**
      * Gets the referent migrator for this resolver.
      */
@@ -139,7 +204,7 @@ public class IdentifierResolver implements IReferentResolver, Constants {
         try {
             if (getImageRecord(aReferentID) != null) {
                 return HttpServletResponse.SC_OK;
-            } else if (myMigrator.getProcessingList().contains(aReferentID)) {
+            } else if (myMigrator.getMigration(aReferentID) != null) {
                 return HttpServletResponse.SC_ACCEPTED;
             } else {
                 return HttpServletResponse.SC_NOT_FOUND;
@@ -165,6 +230,23 @@ public class IdentifierResolver implements IReferentResolver, Constants {
 
         myIngestSources.addAll(Arrays.asList(sources.split("\\s+")));
         myIngestGuesses.addAll(Arrays.asList(guesses.split("\\s+")));
+
+        myMigrator.setMigrationLimits(getInt(aProps, PROPS_KEY_MIGRATION_WORKERS, DjatokaImageMigrator.DEFAULT_WORKERS),
+                getInt(aProps, PROPS_KEY_MIGRATION_QUEUE_SIZE, DjatokaImageMigrator.DEFAULT_QUEUE_SIZE));
+        myMigrationTimeout = getInt(aProps, PROPS_KEY_MIGRATION_TIMEOUT, DEFAULT_MIGRATION_TIMEOUT);
+
+        if (aProps.getProperty(PROPS_KEY_MISS_CACHE_SIZE) != null) {
+            NegativeLookupCache.setCapacity(Integer.parseInt(aProps.getProperty(PROPS_KEY_MISS_CACHE_SIZE).trim()));
+        }
+
+        if (aProps.getProperty(PROPS_KEY_MISS_CACHE_TTL) != null) {
+            NegativeLookupCache.setTTL(Long.parseLong(aProps.getProperty(PROPS_KEY_MISS_CACHE_TTL).trim()));
+        }
+    }
+
+    private static int getInt(final Properties aProps, final String aKey, final int aDefault) {
+        final String value = aProps.getProperty(aKey);
+        return value == null || value.trim().isEmpty() ? aDefault : Integer.parseInt(value.trim());
     }
 
     private boolean isResolvableURI(final String aReferentID) {
@@ -210,53 +292,67 @@ public class IdentifierResolver implements IReferentResolver, Constants {
         return image;
     }
 
-    private ImageRecord getRemoteImage(final String aReferent, final String aURL) {
-        ImageRecord image = null;
+    private ImageRecord getRemoteImage(final String aReferent, final String aURL) throws ResolverException {
+        final ImageRecord remoteImage = myRemoteImages.get(aReferent);
 
-        try {
-            final URI uri = new URI(aURL);
-            File imageFile;
+        // Images that couldn't be stored in the Pairtree are kept in temporary files
+        if (remoteImage != null && new File(remoteImage.getImageFile()).exists()) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Retrieving {} from remote images cache", aReferent);
+            }
 
-            // Check to see if it's already in the processing queue
-            if (myMigrator.getProcessingList().contains(aReferent)) {
-                Thread.sleep(1000);
-                int index = 0;
+            return remoteImage;
+        }
 
-                while (myMigrator.getProcessingList().contains(aReferent) && index < (5 * 60)) {
-                    Thread.sleep(1000);
-                    index++;
-                }
+        final Future<File> migration;
 
-                if (myRemoteImages.containsKey(aReferent)) {
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug("Retrieving {} from remote images cache", aReferent);
-                    }
+        try {
+            // Joins the referent's migration if it's already in flight
+            migration = myMigrator.migrate(aReferent, new URI(aURL));
+        } catch (final URISyntaxException details) {
+            if (LOGGER.isInfoEnabled()) {
+                LOGGER.info("Unable to access {} ({})", aReferent, details.getMessage());
+            }
 
-                    return myRemoteImages.get(aReferent);
-                }
+            return null;
+        } catch (final DjatokaException details) {
+            throw new ResolverException(details.getMessage(), details);
+        }
+
+        try {
+            final File imageFile = migration.get(myMigrationTimeout, TimeUnit.MILLISECONDS);
+            final ImageRecord image = new ImageRecord(aReferent, imageFile.getAbsolutePath());
+
+            if (imageFile.length() == 0) {
+                throw new ResolverException("An error occurred processing file: " + aURL);
             }
 
-            imageFile = myMigrator.convert(aReferent, uri);
-            image = new ImageRecord(aReferent, imageFile.getAbsolutePath());
+            myRemoteImages.put(aReferent, image);
 
-            if (imageFile.length() > 0) {
-                myRemoteImages.put(aReferent, image);
-            } else {
-                throw new ResolverException("An error occurred processing file: " + uri.toURL());
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("** Returning JP2 image from getRemoteImage() **");
             }
-        } catch (final Exception details) {
+
+            return image;
+        } catch (final TimeoutException details) {
+            // The migration carries on; a later request will find its result
             if (LOGGER.isInfoEnabled()) {
-                LOGGER.info("Unable to access {} ({})", aReferent, details.getMessage());
+                LOGGER.info("Stopped waiting for {} after {} ms", aReferent, myMigrationTimeout);
             }
+        } catch (final InterruptedException details) {
+            Thread.currentThread().interrupt();
+        } catch (final ResolverException details) {
+            // A source that gives back an empty image is an error, not a missing image to remember as missing
+            throw details;
+        } catch (final Exception details) {
+            final Throwable cause = details instanceof ExecutionException ? details.getCause() : details;
 
-            return null;
-        }
-
-        if (LOGGER.isDebugEnabled() && image != null) {
-            LOGGER.debug("** Returning JP2 image from getRemoteImage() **");
+            if (LOGGER.isInfoEnabled()) {
+                LOGGER.info("Unable to access {} ({})", aReferent, cause.getMessage());
+            }
         }
 
-        return image;
+        return null;
     }
 
     private String parseReferent(final String aReferent) throws UnsupportedEncodingException {
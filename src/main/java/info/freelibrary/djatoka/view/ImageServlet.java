@@ -1,19 +1,21 @@
 
 package info.freelibrary.djatoka.view;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
-import java.net.URL;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.util.Map;
 import java.util.Properties;
 
-import javax.imageio.IIOException;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -21,7 +23,6 @@ import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
 
 import nu.xom.Attribute;
 import nu.xom.Builder;
@@ -34,22 +35,32 @@ import nu.xom.ValidityException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
+import gov.lanl.adore.djatoka.DjatokaDecodeParam;
+import gov.lanl.adore.djatoka.DjatokaException;
+import gov.lanl.adore.djatoka.io.writer.JPGWriter;
 import gov.lanl.adore.djatoka.openurl.OpenURLJP2KService;
+import gov.lanl.adore.djatoka.openurl.ResolverException;
+import gov.lanl.adore.djatoka.util.ImageRecord;
 
 import info.freelibrary.djatoka.Constants;
+import info.freelibrary.djatoka.decode.DecodeExecutor;
 import info.freelibrary.djatoka.iiif.IIIFRequest;
 import info.freelibrary.djatoka.iiif.ImageRequest;
 import info.freelibrary.djatoka.iiif.Region;
+import info.freelibrary.djatoka.iiif.Size;
 import info.freelibrary.djatoka.util.CacheUtils;
+import info.freelibrary.djatoka.util.ContentSender;
+import info.freelibrary.djatoka.util.HotTileCache;
+import info.freelibrary.djatoka.util.ImageMetadata;
+import info.freelibrary.djatoka.util.ImageRecordCache;
 import info.freelibrary.util.IOUtils;
 import info.freelibrary.util.PairtreeObject;
 import info.freelibrary.util.PairtreeRoot;
 import info.freelibrary.util.PairtreeUtils;
 import info.freelibrary.util.StringUtils;
 
+import info.openurl.oom.OpenURLResponse;
+
 public class ImageServlet extends HttpServlet implements Constants {
 
     /**
@@ -59,11 +70,6 @@ public class ImageServlet extends HttpServlet implements Constants {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ImageServlet.class);
 
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
-    private static final String METADATA_URL =
-            "http://{}:{}/resolve?url_ver=Z39.88-2004&rft_id={}&svc_id=info:lanl-repo/svc/getMetadata";
-
     private static final String IMAGE_URL = "/resolve?url_ver=Z39.88-2004&rft_id={}"
             + "&svc_id=info:lanl-repo/svc/getRegion" + "&svc_val_fmt=info:ofi/fmt:kev:mtx:jpeg2000"
             + "&svc.format={}&svc.level={}&svc.rotate={}";
@@ -76,13 +82,40 @@ public class ImageServlet extends HttpServlet implements Constants {
 
     private static final String CHARSET = "UTF-8";
 
+    private static final String CACHE_CONTROL = "public, max-age=4838400";
+
+    private static final String SOURCE_KEY = ImageServlet.class.getName() + ".source";
+
     private static String myFormatExt;
 
     private static String myCache;
 
+    private static HotTileCache myHotTiles;
+
+    private static boolean myCanonicalRedirect;
+
+    private static TileDeriver myTileDeriver;
+
     @Override
     protected void doGet(final HttpServletRequest aRequest, final HttpServletResponse aResponse)
             throws ServletException, IOException {
+        final DecodeExecutor lane = getMetadataLane(aRequest);
+
+        if (lane == null) {
+            serve(aRequest, aResponse);
+        } else {
+            lane.execute(aRequest, aResponse, new DecodeExecutor.Task() {
+
+                @Override
+                public void run() throws IOException, ServletException {
+                    serve(aRequest, aResponse);
+                }
+            });
+        }
+    }
+
+    private void serve(final HttpServletRequest aRequest, final HttpServletResponse aResponse)
+            throws ServletException, IOException {
         String level = getServletConfig().getInitParameter("level");
         final IIIFRequest iiif = (IIIFRequest) aRequest.getAttribute(IIIFRequest.KEY);
         final String reqURI = aRequest.getRequestURI();
@@ -91,28 +124,16 @@ public class ImageServlet extends HttpServlet implements Constants {
         final String id = getID(path);
 
         if (reqURI.endsWith("/info.xml") || reqURI.endsWith("/info.json")) {
+            if (isNotModified(aRequest, aResponse, getInfoName(aRequest, iiif))) {
+                return;
+            }
+
             try {
-                final int[] config = getHeightWidthAndLevels(aRequest, aResponse);
-                final ImageInfo info = new ImageInfo(id, config[0], config[1], config[2]);
+                final byte[] info = getInfo(aRequest, aResponse, id, iiif);
                 final ServletOutputStream outStream = aResponse.getOutputStream();
 
-                if (reqURI.endsWith("/info.xml")) {
-                    info.toStream(outStream);
-                } else {
-                    final StringBuilder serviceSb = new StringBuilder();
-
-                    serviceSb.append(aRequest.getScheme()).append("://");
-                    serviceSb.append(aRequest.getServerName()).append(":");
-                    serviceSb.append(aRequest.getServerPort());
-
-                    final String service = serviceSb.toString();
-                    final String prefix = iiif.getServicePrefix();
-
-                    info.addFormat("jpg"); // FIXME: Configurable options
-
-                    outStream.print(info.toJSON(service, prefix));
-                }
-
+                aResponse.setContentLength(info.length);
+                outStream.write(info);
                 outStream.close();
             } catch (final FileNotFoundException details) {
                 aResponse.sendError(HttpServletResponse.SC_NOT_FOUND, id + " not found");
@@ -123,34 +144,16 @@ public class ImageServlet extends HttpServlet implements Constants {
             }
 
             final ImageRequest imageRequest = (ImageRequest) iiif;
-            final String size = imageRequest.getSize().toString();
-            final Region iiifRegion = imageRequest.getRegion();
-            final float rotation = imageRequest.getRotation();
-            String region;
+            final String fileName = getTileName(level, imageRequest);
 
-            // Djatoka expects a different order from what OpenSeadragon sends
-            // so we have to reconstruct rather than use Region's toString().
-            if (iiifRegion.isFullSize()) {
-                region = "";
-            } else {
-                final StringBuilder rsb = new StringBuilder();
-                rsb.append(iiifRegion.getY()).append(',');
-                rsb.append(iiifRegion.getX()).append(',');
-                rsb.append(iiifRegion.getHeight()).append(',');
-                rsb.append(iiifRegion.getWidth());
-
-                // Now, we have the string order that Djatoka wants
-                region = rsb.toString();
-            }
-
-            if (myCache != null) {
-                checkImageCache(id, level, size, region, rotation, aRequest, aResponse);
-            } else {
-                if (LOGGER.isWarnEnabled()) {
-                    LOGGER.warn("Cache isn't configured correctly");
+            // Tiles are cached under their canonical names, so a tile that's cached under the request's own name is
+            // served without looking up the image's dimensions to canonicalize the request
+            if (isCached(id, fileName)) {
+                if (!isNotModified(aRequest, aResponse, fileName)) {
+                    serveCachedImage(id, fileName, aResponse);
                 }
-
-                serveNewImage(id, level, region, size, rotation, aRequest, aResponse);
+            } else {
+                dispatchNewTile(id, level, imageRequest, aRequest, aResponse);
             }
         } else {
             // We are using the now deprecated FreeLib-Djatoka djtilesource.js
@@ -186,20 +189,181 @@ public class ImageServlet extends HttpServlet implements Constants {
                 LOGGER.debug("Request: " + request.toString());
             }
 
+            if (isNotModified(aRequest, aResponse, CacheUtils.getFileName(level, scale, region, 0.0f))) {
+                return;
+            }
+
+            // Older freelib-djatoka didn't support rotations; use 0.0f
+            final DjatokaDecodeParam params = getDecodeParam(level, region, scale, 0.0f);
+
             if (myCache != null) {
-                // Older freelib-djatoka didn't support rotations; use 0.0f
-                checkImageCache(id, level, scale, region, 0.0f, aRequest, aResponse);
+                checkImageCache(id, level, scale, region, 0.0f, params, aRequest, aResponse);
             } else {
                 if (LOGGER.isWarnEnabled()) {
                     LOGGER.warn("Cache isn't configured correctly");
                 }
 
-                // Older freelib-djatoka didn't support rotations; use 0.0f
-                serveNewImage(id, level, region, scale, 0.0f, aRequest, aResponse);
+                dispatchNewImage(id, level, region, scale, 0.0f, params, null, aRequest, aResponse);
+            }
+        }
+    }
+
+    /**
+     * Serves a tile that isn't cached under the request's own name. If the image's dimensions are in memory, the
+     * request is canonicalized on the container's thread, so a tile that's cached under its canonical name doesn't
+     * wait on the decode lane; otherwise, the image is resolved on the decode lane's threads, or the remote lane's if
+     * it has to be retrieved first. Tiles that have to be derived or decoded are always served from the lanes.
+     */
+    private void dispatchNewTile(final String aID, final String aLevel, final ImageRequest aIIIF,
+            final HttpServletRequest aRequest, final HttpServletResponse aResponse) throws IOException,
+            ServletException {
+        final ImageRecord image = ImageRecordCache.get(aID);
+
+        if (image != null) {
+            final ImageRequest imageRequest = canonicalize(aID, aLevel, aIIIF, image, aRequest, aResponse);
+
+            if (imageRequest != null) {
+                execute(aRequest, aResponse, new DecodeExecutor.Task() {
+
+                    @Override
+                    public void run() throws IOException, ServletException {
+                        renderTile(aID, aLevel, imageRequest, image, aRequest, aResponse);
+                    }
+                });
+            }
+        } else {
+            execute(aRequest, aResponse, new DecodeExecutor.Task() {
+
+                @Override
+                public void run() throws IOException, ServletException {
+                    serveNewTile(aID, aLevel, aIIIF, aRequest, aResponse);
+                }
+            });
+        }
+    }
+
+    /**
+     * Resolves the requested image and serves the tile. The image is resolved once and its record is passed along to
+     * each of the steps that need it.
+     */
+    private void serveNewTile(final String aID, final String aLevel, final ImageRequest aIIIF,
+            final HttpServletRequest aRequest, final HttpServletResponse aResponse) throws IOException,
+            ServletException {
+        ImageRecord image;
+
+        try {
+            image = getImageRecord(aID);
+        } catch (final FileNotFoundException details) {
+            aResponse.sendError(HttpServletResponse.SC_NOT_FOUND, aID + " not found");
+            return;
+        } catch (final IOException details) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("[{}] Request not canonicalized: {}", aID, details.getMessage());
             }
+
+            image = null;
+        }
+
+        final ImageRequest imageRequest = canonicalize(aID, aLevel, aIIIF, image, aRequest, aResponse);
+
+        if (imageRequest != null) {
+            renderTile(aID, aLevel, imageRequest, image, aRequest, aResponse);
         }
     }
 
+    /**
+     * Gets the canonical form of the supplied request and answers it if it can be answered without rendering the
+     * tile: by redirecting to the canonical URL, by telling the client its copy is current, or from the tile caches.
+     * Returns null if the request has been answered. If the image's record is null, the request is used as it is.
+     */
+    private ImageRequest canonicalize(final String aID, final String aLevel, final ImageRequest aIIIF,
+            final ImageRecord aImage, final HttpServletRequest aRequest, final HttpServletResponse aResponse)
+            throws IOException {
+        final ImageRequest imageRequest =
+                aImage == null ? aIIIF : aIIIF.getCanonicalRequest(aImage.getWidth(), aImage.getHeight());
+
+        // Equivalent requests can also be sent to one URL, so downstream caches keep one copy of each tile
+        if (imageRequest != aIIIF && myCanonicalRedirect) {
+            aResponse.setHeader("Location", getCanonicalURL(aRequest, imageRequest));
+            aResponse.setHeader("Cache-Control", CACHE_CONTROL);
+            aResponse.setStatus(HttpServletResponse.SC_SEE_OTHER);
+            return null;
+        }
+
+        final String fileName = getTileName(aLevel, imageRequest);
+
+        // Revalidating a tile only costs a look at its source image
+        if (isNotModified(aRequest, aResponse, fileName)) {
+            return null;
+        }
+
+        // The request's own name has already been checked
+        if (imageRequest != aIIIF && serveCachedImage(aID, fileName, aResponse)) {
+            return null;
+        }
+
+        return imageRequest;
+    }
+
+    /**
+     * Renders a canonical tile that isn't cached, by deriving it from cached tiles or decoding it, and serves it.
+     */
+    private void renderTile(final String aID, final String aLevel, final ImageRequest aIIIF, final ImageRecord aImage,
+            final HttpServletRequest aRequest, final HttpServletResponse aResponse) throws IOException,
+            ServletException {
+        final String size = aIIIF.getSize().toString();
+        final float rotation = aIIIF.getRotation();
+        final String region = getDjatokaRegion(aIIIF.getRegion());
+        final DjatokaDecodeParam params;
+
+        try {
+            params = getDecodeParam(aID, aIIIF, aImage);
+        } catch (final FileNotFoundException details) {
+            aResponse.sendError(HttpServletResponse.SC_NOT_FOUND, aID + " not found");
+            return;
+        }
+
+        if (myCache == null) {
+            if (LOGGER.isWarnEnabled()) {
+                LOGGER.warn("Cache isn't configured correctly");
+            }
+
+            serveNewImage(aID, aLevel, region, size, rotation, params, aImage, null, aRequest, aResponse);
+            return;
+        }
+
+        final String fileName = CacheUtils.getFileName(aLevel, size, region, rotation);
+        final PairtreeObject cacheObject = new PairtreeRoot(new File(myCache)).getObject(aID);
+        final File imageFile = new File(cacheObject, fileName);
+        final File derivedFile = new File(cacheObject, TileDeriver.getDerivedName(fileName));
+
+        // Zoomed out tiles can often be put together from cached tiles instead of being decoded
+        if (aLevel == null && aImage != null && deriveImage(aID, aIIIF, aImage, derivedFile)) {
+            serveCachedImage(aID, fileName, aResponse);
+        } else {
+            // The new image is written straight into the Pairtree cache as it's decoded
+            serveNewImage(aID, aLevel, region, size, rotation, params, aImage, imageFile, aRequest, aResponse);
+        }
+    }
+
+    /**
+     * Returns the in-memory cache of the most requested tiles, or null if it's not enabled.
+     * 
+     * @return The hot tile cache
+     */
+    public static HotTileCache getHotTileCache() {
+        return myHotTiles;
+    }
+
+    /**
+     * Returns the deriver of tiles from cached higher resolution tiles, or null if it's not enabled.
+     * 
+     * @return The tile deriver
+     */
+    public static TileDeriver getTileDeriver() {
+        return myTileDeriver;
+    }
+
     @Override
     public void init() throws ServletException {
         final InputStream is = getClass().getResourceAsStream("/" + PROPERTIES_FILE);
@@ -222,6 +386,22 @@ public class ImageServlet extends HttpServlet implements Constants {
                     LOGGER.debug("Cache directory set to {}", myCache);
                 }
 
+                final long hotCacheBytes = Long.parseLong(props.getProperty(VIEW_HOT_CACHE_BYTES, "0").trim());
+
+                if (hotCacheBytes > 0 && myHotTiles == null) {
+                    final boolean offHeap = Boolean.parseBoolean(props.getProperty(VIEW_HOT_CACHE_OFF_HEAP));
+                    myHotTiles = new HotTileCache(hotCacheBytes, offHeap);
+                }
+
+                myCanonicalRedirect = Boolean.parseBoolean(props.getProperty(VIEW_CANONICAL_REDIRECT));
+
+                if (Boolean.parseBoolean(props.getProperty(VIEW_DERIVE_TILES)) && myTileDeriver == null) {
+                    final String quality = String.valueOf(JPGWriter.DEFAULT_QUALITY_LEVEL);
+
+                    myTileDeriver = new TileDeriver(new File(myCache), Integer.parseInt(props.getProperty(
+                            VIEW_DERIVE_QUALITY, quality).trim()));
+                }
+
                 if (props.containsKey(VIEW_FORMAT_EXT)) {
                     myFormatExt = props.getProperty(VIEW_FORMAT_EXT, DEFAULT_VIEW_EXT);
 
@@ -229,6 +409,15 @@ public class ImageServlet extends HttpServlet implements Constants {
                         LOGGER.debug("Format extension set to {}", myFormatExt);
                     }
                 }
+
+                // New images are rendered in-process; if that's not possible, they're forwarded to /resolve
+                try {
+                    OpenURLJP2KService.init(props);
+                } catch (final ResolverException details) {
+                    if (LOGGER.isWarnEnabled()) {
+                        LOGGER.warn("Forwarding new image requests to the OpenURL service: {}", details.getMessage());
+                    }
+                }
             } catch (final IOException details) {
                 if (LOGGER.isWarnEnabled()) {
                     LOGGER.warn("Unable to load properties file: {}", details.getMessage());
@@ -242,10 +431,55 @@ public class ImageServlet extends HttpServlet implements Constants {
     @Override
     protected void doHead(final HttpServletRequest aRequest, final HttpServletResponse aResponse)
             throws ServletException, IOException {
+        // Every HEAD response reports the image's dimensions, so it's served from the info lane until they're cached
+        final DecodeExecutor lane = getInfoLane(aRequest);
+
+        if (lane == null) {
+            head(aRequest, aResponse);
+        } else {
+            lane.execute(aRequest, aResponse, new DecodeExecutor.Task() {
+
+                @Override
+                public void run() throws IOException, ServletException {
+                    head(aRequest, aResponse);
+                }
+            });
+        }
+    }
+
+    private void head(final HttpServletRequest aRequest, final HttpServletResponse aResponse)
+            throws ServletException, IOException {
+        final IIIFRequest iiif = (IIIFRequest) aRequest.getAttribute(IIIFRequest.KEY);
+        final String reqURI = aRequest.getRequestURI();
+        final String path = reqURI.substring(aRequest.getServletPath().length());
+        final String id = getID(path);
+
         try {
+            if (reqURI.endsWith("/info.xml") || reqURI.endsWith("/info.json")) {
+                if (isNotModified(aRequest, aResponse, getInfoName(aRequest, iiif))) {
+                    return;
+                }
+
+                aResponse.setContentLength(getInfo(aRequest, aResponse, id, iiif).length);
+            } else {
+                final String fileName = getTileName(iiif, path);
+
+                if (isNotModified(aRequest, aResponse, fileName)) {
+                    return;
+                }
+
+                final long length = getCachedLength(id, fileName);
+
+                // We only know the length of tiles that have already been rendered
+                if (length != -1) {
+                    aResponse.setHeader("Content-Length", Long.toString(length));
+                    aResponse.setHeader("Cache-Control", CACHE_CONTROL);
+                    aResponse.setContentType("image/jpg");
+                }
+            }
+
             final int[] dimensions = getHeightWidthAndLevels(aRequest, aResponse);
 
-            // TODO: add a content length header too
             if (!aResponse.isCommitted()) {
                 aResponse.addIntHeader("X-Image-Height", dimensions[0]);
                 aResponse.addIntHeader("X-Image-Width", dimensions[1]);
@@ -257,10 +491,270 @@ public class ImageServlet extends HttpServlet implements Constants {
         }
     }
 
+    /**
+     * Returns the modification time of the JP2 the request is for, or -1 if it can't be found. When the request has
+     * an <code>If-None-Match</code> header, -1 is returned so that header, which takes precedence over
+     * <code>If-Modified-Since</code>, can be checked against the response's entity tag instead.
+     */
     @Override
     protected long getLastModified(final HttpServletRequest aRequest) {
-        // TODO: really implement this using our cached files?
-        return super.getLastModified(aRequest);
+        if (aRequest.getHeader("If-None-Match") != null) {
+            return -1;
+        }
+
+        final File source = getSourceFile(aRequest);
+        return source == null ? -1 : source.lastModified();
+    }
+
+    /**
+     * Sets the response's validators, derived from the JP2 the request is for, and checks them against the request's
+     * conditional headers. If the client's copy is still current, the response is set to 304 (Not Modified).
+     *
+     * @param aRequest The request
+     * @param aResponse The response
+     * @param aName The name of what's being served for the JP2, such as a cached tile's file name
+     * @return True if the client's copy is current and nothing more needs to be sent
+     */
+    private boolean isNotModified(final HttpServletRequest aRequest, final HttpServletResponse aResponse,
+            final String aName) {
+        final File source = getSourceFile(aRequest);
+
+        if (source == null) {
+            return false;
+        }
+
+        final String etag = CacheUtils.getETag(source, aName);
+        final String ifNoneMatch = aRequest.getHeader("If-None-Match");
+        final boolean notModified;
+
+        aResponse.setHeader("ETag", etag);
+        aResponse.setDateHeader("Last-Modified", source.lastModified());
+
+        if (ifNoneMatch != null) {
+            notModified = CacheUtils.matches(ifNoneMatch, etag);
+        } else {
+            final long since = aRequest.getDateHeader("If-Modified-Since");
+            notModified = since != -1 && source.lastModified() / 1000 * 1000 <= since;
+        }
+
+        if (notModified) {
+            aResponse.setHeader("Cache-Control", CACHE_CONTROL);
+            aResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("{} not modified since {}", aRequest.getRequestURI(), source.lastModified());
+            }
+        }
+
+        return notModified;
+    }
+
+    /**
+     * Gets the JP2 file the request is for, or null if the request's identifier doesn't resolve to a local file. The
+     * result is kept with the request so the identifier is only resolved once.
+     */
+    private File getSourceFile(final HttpServletRequest aRequest) {
+        final Object cached = aRequest.getAttribute(SOURCE_KEY);
+
+        if (cached != null) {
+            return cached instanceof File ? (File) cached : null;
+        }
+
+        final String path = aRequest.getRequestURI().substring(aRequest.getServletPath().length());
+        final String id = getID(path);
+        File source = null;
+
+        try {
+            // Images that still have to be retrieved from a remote source aren't waited for here
+            final ImageRecord image = ImageMetadata.resolveLocal(id);
+
+            if (image != null) {
+                source = new File(image.getImageFile());
+            } else if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("[{}] No local source image to validate against", id);
+            }
+        } catch (final DjatokaException details) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("[{}] {}", new Object[] { id, details.getMessage(), details });
+            }
+        }
+
+        aRequest.setAttribute(SOURCE_KEY, source == null ? Boolean.FALSE : source);
+        return source;
+    }
+
+    /**
+     * Gets the lane an info request that needs an image's width, height, and levels is served from, or null if the
+     * request isn't an info request or they're already cached, in which case it's served on the container's thread.
+     * Tile requests are served on the container's thread until the tile caches have been checked, and are then sent
+     * to the decode lane.
+     */
+    private DecodeExecutor getMetadataLane(final HttpServletRequest aRequest) throws IOException {
+        final String reqURI = aRequest.getRequestURI();
+
+        if (!reqURI.endsWith("/info.xml") && !reqURI.endsWith("/info.json")) {
+            return null;
+        }
+
+        return getInfoLane(aRequest);
+    }
+
+    /**
+     * Gets the info lane for a request that needs its image's width, height, and levels, or null if they're already
+     * cached, in which case the request is served on the container's thread.
+     */
+    private DecodeExecutor getInfoLane(final HttpServletRequest aRequest) throws IOException {
+        if (myCache == null) {
+            return null;
+        }
+
+        final String id = getID(aRequest.getRequestURI().substring(aRequest.getServletPath().length()));
+
+        if (ImageRecordCache.get(id) != null) {
+            return null;
+        }
+
+        final PairtreeObject cacheObject = new PairtreeRoot(new File(myCache)).getObject(id);
+        final File xmlFile = new File(cacheObject, PairtreeUtils.encodeID(id) + ".xml");
+
+        if (xmlFile.length() > 0) {
+            return null;
+        }
+
+        return getLane(aRequest, DecodeExecutor.INFO_LANE);
+    }
+
+    /**
+     * Gets the executor for the supplied lane, or for the remote lane if the request's image isn't available locally.
+     * Returns null if the lanes haven't been set up yet.
+     */
+    private DecodeExecutor getLane(final HttpServletRequest aRequest, final String aLane) {
+        if (!OpenURLJP2KService.isInit()) {
+            return null;
+        }
+
+        return OpenURLJP2KService.getLane(getSourceFile(aRequest) != null ? aLane : DecodeExecutor.REMOTE_LANE);
+    }
+
+    private String getInfoName(final HttpServletRequest aRequest, final IIIFRequest aIIIF) {
+        if (aRequest.getRequestURI().endsWith("/info.xml")) {
+            return "info.xml";
+        }
+
+        // The JSON links back to the service, so it's different for each host it's requested through
+        return "info.json|" + getService(aRequest) + aIIIF.getServicePrefix();
+    }
+
+    private byte[] getInfo(final HttpServletRequest aRequest, final HttpServletResponse aResponse, final String aID,
+            final IIIFRequest aIIIF) throws IOException, ServletException {
+        final int[] config = getHeightWidthAndLevels(aRequest, aResponse);
+        final ImageInfo info = new ImageInfo(aID, config[0], config[1], config[2]);
+
+        if (aRequest.getRequestURI().endsWith("/info.xml")) {
+            final ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+
+            info.toStream(outStream);
+            return outStream.toByteArray();
+        }
+
+        info.addFormat("jpg"); // FIXME: Configurable options
+
+        return info.toJSON(getService(aRequest), aIIIF.getServicePrefix()).getBytes(CHARSET);
+    }
+
+    private String getService(final HttpServletRequest aRequest) {
+        final StringBuilder serviceSb = new StringBuilder();
+
+        serviceSb.append(aRequest.getScheme()).append("://");
+        serviceSb.append(aRequest.getServerName()).append(":");
+        serviceSb.append(aRequest.getServerPort());
+
+        return serviceSb.toString();
+    }
+
+    /**
+     * Gets the name the requested tile is, or would be, cached under. An IIIF request is only canonicalized if it
+     * isn't already cached under its own name.
+     */
+    private String getTileName(final IIIFRequest aIIIF, final String aPath) throws IOException {
+        final String level = getServletConfig().getInitParameter("level");
+
+        if (aIIIF instanceof ImageRequest) {
+            final String id = getID(aPath);
+            final String fileName = getTileName(level, (ImageRequest) aIIIF);
+
+            return isCached(id, fileName) ? fileName : getTileName(level, getCanonicalRequest(id,
+                    (ImageRequest) aIIIF));
+        }
+
+        final String[] regionCoords = getRegion(aPath);
+        final String scale = getScale(aPath);
+        final String region = regionCoords.length == 4 ? StringUtils.toString(regionCoords, ',') : "";
+
+        return CacheUtils.getFileName(level == null && scale == null ? DEFAULT_VIEW_LEVEL : level, scale, region,
+                0.0f);
+    }
+
+    /**
+     * Gets the name the supplied IIIF request's tile is, or would be, cached under, as it's requested.
+     */
+    private static String getTileName(final String aLevel, final ImageRequest aRequest) {
+        final String region = getDjatokaRegion(aRequest.getRegion());
+        return CacheUtils.getFileName(aLevel, aRequest.getSize().toString(), region, aRequest.getRotation());
+    }
+
+    /**
+     * Gets the canonical form of the supplied request, so that equivalent requests share a cache key. If the image's
+     * dimensions can't be read, the request is returned as it is.
+     */
+    private static ImageRequest getCanonicalRequest(final String aID, final ImageRequest aRequest) {
+        try {
+            final ImageRecord image = getImageRecord(aID);
+            return aRequest.getCanonicalRequest(image.getWidth(), image.getHeight());
+        } catch (final IOException details) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("[{}] Request not canonicalized: {}", aID, details.getMessage());
+            }
+
+            return aRequest;
+        }
+    }
+
+    /**
+     * Gets the URL of the canonical form of the request, which only differs from the request's URL in its region and
+     * size.
+     */
+    private String getCanonicalURL(final HttpServletRequest aRequest, final ImageRequest aCanonical) {
+        final String[] parts = aRequest.getRequestURI().split("/");
+        final String query = aRequest.getQueryString();
+        final StringBuilder url = new StringBuilder(getService(aRequest));
+
+        // The path ends with: region/size/rotation/quality
+        parts[parts.length - 4] = aCanonical.getRegion().toString();
+        parts[parts.length - 3] = aCanonical.getSize().toPathString();
+
+        url.append(StringUtils.toString(parts, '/'));
+
+        if (query != null) {
+            url.append('?').append(query);
+        }
+
+        return url.toString();
+    }
+
+    /**
+     * Gets the length of an already rendered tile, or -1 if it hasn't been rendered yet.
+     */
+    private long getCachedLength(final String aID, final String aFileName) throws IOException {
+        final ByteBuffer hotTile = myHotTiles != null ? myHotTiles.get(aID + "/" + aFileName) : null;
+
+        if (hotTile != null) {
+            return hotTile.remaining();
+        }
+
+        final File imageFile = getCachedFile(aID, aFileName);
+
+        return imageFile != null ? imageFile.length() : -1;
     }
 
     private int[] getHeightWidthAndLevels(final HttpServletRequest aRequest, final HttpServletResponse aResponse)
@@ -270,6 +764,12 @@ public class ImageServlet extends HttpServlet implements Constants {
         final String path = reqURI.substring(servletPath.length());
         int width = 0, height = 0, levels = 0;
         final String id = getID(path);
+        final ImageRecord cached = ImageRecordCache.get(id);
+
+        // The dimensions of recently requested images are kept in memory
+        if (cached != null) {
+            return new int[] { cached.getHeight(), cached.getWidth(), cached.getLevels() };
+        }
 
         if (myCache != null) {
             OutputStream outStream = null;
@@ -313,6 +813,16 @@ public class ImageServlet extends HttpServlet implements Constants {
                         LOGGER.debug("Returning width/height/levels: {}/{}/{}", width, height, levels);
                     }
                 } else {
+                    final ImageRecord image = getImageRecord(id);
+
+                    width = image.getWidth();
+                    height = image.getHeight();
+                    levels = image.getLevels();
+
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Width: {}; Height: {}; Level: {}", width, height, levels);
+                    }
+
                     inStream = context.getResource(XML_TEMPLATE).openStream();
 
                     if (xmlFile.exists()) {
@@ -333,52 +843,19 @@ public class ImageServlet extends HttpServlet implements Constants {
 
                     final Document xml = new Builder().build(inStream);
                     final Serializer serializer = new Serializer(outStream);
-                    final String encodedID = URLEncoder.encode(id, "UTF-8");
-
-                    try {
-                        final String host = aRequest.getLocalName();
-                        final String port = Integer.toString(aRequest.getLocalPort());
-                        final URL url = new URL(StringUtils.format(METADATA_URL, host, port, encodedID));
-
-                        if (LOGGER.isDebugEnabled()) {
-                            LOGGER.debug("Querying image metadata: {}", url);
-                        }
-
-                        final JsonNode json = MAPPER.readTree(url.openStream());
-
-                        // Pull out relevant info from our metadata service
-                        width = json.get("width").asInt();
-                        height = json.get("height").asInt();
-                        levels = json.get("levels").asInt();
-
-                        final Element root = xml.getRootElement();
-                        final Element sElement = root.getFirstChildElement("Size");
-                        final Attribute wAttribute = sElement.getAttribute("Width");
-                        final Attribute hAttribute = sElement.getAttribute("Height");
-                        final Element lElement = root.getFirstChildElement("Levels");
-
-                        if (LOGGER.isDebugEnabled()) {
-                            LOGGER.debug("Width: {}; Height: {}; Level: {}", width, height, levels);
-                        }
+                    final Element root = xml.getRootElement();
+                    final Element sElement = root.getFirstChildElement("Size");
+                    final Attribute wAttribute = sElement.getAttribute("Width");
+                    final Attribute hAttribute = sElement.getAttribute("Height");
+                    final Element lElement = root.getFirstChildElement("Levels");
 
-                        // Save it in our xml file for easier access next time
-                        wAttribute.setValue(Integer.toString(width));
-                        hAttribute.setValue(Integer.toString(height));
-                        lElement.appendChild(Integer.toString(levels));
-
-                        serializer.write(xml);
-                        serializer.flush();
-                    } catch (final IIOException details) {
-                        if (details.getCause().getClass().getSimpleName().equals("FileNotFoundException")) {
-                            throw new FileNotFoundException(id + " not found");
-                        } else {
-                            if (LOGGER.isErrorEnabled()) {
-                                LOGGER.error("[{}] " + details.getMessage(), encodedID, details);
-                            }
+                    // Save it in our xml file for easier access next time
+                    wAttribute.setValue(Integer.toString(width));
+                    hAttribute.setValue(Integer.toString(height));
+                    lElement.appendChild(Integer.toString(levels));
 
-                            throw details;
-                        }
-                    }
+                    serializer.write(xml);
+                    serializer.flush();
                 }
             } catch (final ValidityException details) {
                 aResponse.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, details.getMessage());
@@ -396,38 +873,286 @@ public class ImageServlet extends HttpServlet implements Constants {
         return new int[] { height, width, levels };
     }
 
+    private static ImageRecord getImageRecord(final String aID) throws IOException {
+        try {
+            return ImageMetadata.getImageRecord(aID);
+        } catch (final ResolverException details) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("[{}] {}", new Object[] { aID, details.getMessage(), details });
+            }
+
+            throw new FileNotFoundException(aID + " not found");
+        } catch (final DjatokaException details) {
+            if (LOGGER.isErrorEnabled()) {
+                LOGGER.error("[{}] {}", new Object[] { aID, details.getMessage(), details });
+            }
+
+            throw new IOException(details.getMessage(), details);
+        }
+    }
+
     private void checkImageCache(final String aID, final String aLevel, final String aScale, final String aRegion,
-            final float aRotation, final HttpServletRequest aRequest, final HttpServletResponse aResponse)
-            throws IOException, ServletException {
-        final PairtreeRoot cacheDir = new PairtreeRoot(new File(myCache));
-        final PairtreeObject cacheObject = cacheDir.getObject(aID);
+            final float aRotation, final DjatokaDecodeParam aParams, final HttpServletRequest aRequest,
+            final HttpServletResponse aResponse) throws IOException, ServletException {
         final String fileName = CacheUtils.getFileName(aLevel, aScale, aRegion, aRotation);
-        final File imageFile = new File(cacheObject, fileName);
+
+        if (!serveCachedImage(aID, fileName, aResponse)) {
+            final File imageFile = new File(new PairtreeRoot(new File(myCache)).getObject(aID), fileName);
+
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("{} not found in cache", imageFile);
+            }
+
+            // The new image is written straight into the Pairtree cache as it's decoded
+            dispatchNewImage(aID, aLevel, aRegion, aScale, aRotation, aParams, imageFile, aRequest, aResponse);
+        }
+    }
+
+    /**
+     * Returns true if the supplied tile is in the hot tile cache or the Pairtree cache; else, false.
+     */
+    private boolean isCached(final String aID, final String aFileName) throws IOException {
+        if (myHotTiles != null && myHotTiles.contains(aID + "/" + aFileName)) {
+            return true;
+        }
+
+        return getCachedFile(aID, aFileName) != null;
+    }
+
+    /**
+     * Gets the Pairtree cache file of the supplied tile: the decoded tile if there is one, or else the tile that was
+     * derived from cached tiles, or null if it's in neither form.
+     */
+    private File getCachedFile(final String aID, final String aFileName) throws IOException {
+        if (myCache == null) {
+            return null;
+        }
+
+        final PairtreeObject cacheObject = new PairtreeRoot(new File(myCache)).getObject(aID);
+        final File imageFile = new File(cacheObject, aFileName);
 
         if (imageFile.exists()) {
-            final ServletOutputStream outStream = aResponse.getOutputStream();
+            return imageFile;
+        }
 
-            aResponse.setHeader("Content-Length", "" + imageFile.length());
-            aResponse.setHeader("Cache-Control", "public, max-age=4838400");
-            aResponse.setContentType("image/jpg");
+        final File derivedFile = new File(cacheObject, TileDeriver.getDerivedName(aFileName));
 
-            IOUtils.copyStream(imageFile, outStream);
-            IOUtils.closeQuietly(outStream);
+        return derivedFile.exists() ? derivedFile : null;
+    }
+
+    /**
+     * Serves the supplied tile from the hot tile cache or the Pairtree cache, returning false if it's in neither.
+     */
+    private boolean serveCachedImage(final String aID, final String aFileName, final HttpServletResponse aResponse)
+            throws IOException {
+        final String hotKey = aID + "/" + aFileName;
+        final ByteBuffer hotTile = myHotTiles != null ? myHotTiles.get(hotKey) : null;
+
+        // The most requested tiles are served from memory without touching the disk
+        if (hotTile != null) {
+            serveBytes(hotTile, aResponse);
 
             if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("{} served from Pairtree cache", imageFile);
+                LOGGER.debug("{} served from the hot tile cache", hotKey);
             }
-        } else {
+
+            return true;
+        }
+
+        final File imageFile = getCachedFile(aID, aFileName);
+
+        if (imageFile != null) {
+            // Only tiles the hot tile cache will keep are read into memory; the rest are sent straight from disk
+            if (myHotTiles != null && myHotTiles.wouldAdmit(hotKey, imageFile.length())) {
+                final byte[] bytes = readBytes(imageFile);
+
+                myHotTiles.put(hotKey, bytes);
+                serveBytes(ByteBuffer.wrap(bytes), aResponse);
+            } else {
+                final ServletOutputStream outStream = aResponse.getOutputStream();
+
+                aResponse.setHeader("Content-Length", "" + imageFile.length());
+                aResponse.setHeader("Cache-Control", CACHE_CONTROL);
+                aResponse.setContentType("image/jpg");
+
+                try {
+                    ContentSender.send(imageFile, outStream);
+                } finally {
+                    IOUtils.closeQuietly(outStream);
+                }
+            }
+
             if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("{} not found in cache", imageFile);
+                LOGGER.debug("{} served from Pairtree cache", imageFile);
             }
 
-            serveNewImage(aID, aLevel, aRegion, aScale, aRotation, aRequest, aResponse);
-            cacheNewImage(aRequest, aID + "_" + fileName, imageFile);
+            return true;
         }
+
+        return false;
     }
 
+    /**
+     * Derives the requested tile from cached tiles at the next higher resolution and writes it into the Pairtree
+     * cache, under its derived name so it isn't used to derive other tiles, returning false if that's not enabled or
+     * not possible.
+     */
+    private boolean deriveImage(final String aID, final ImageRequest aRequest, final ImageRecord aImage,
+            final File aCacheFile) {
+        if (myTileDeriver == null) {
+            return false;
+        }
+
+        try {
+            final byte[] derived = myTileDeriver.derive(aID, aRequest, aImage.getWidth(), aImage.getHeight());
+            return derived != null && writeTile(derived, aCacheFile);
+        } catch (final IOException details) {
+            if (LOGGER.isWarnEnabled()) {
+                LOGGER.warn("[{}] Tile couldn't be derived from cached tiles: {}", aID, details.getMessage());
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Writes a tile into the supplied Pairtree cache file, through a temporary file in the same directory that's
+     * renamed into place, so a partly written tile is never served.
+     */
+    private boolean writeTile(final byte[] aTile, final File aCacheFile) throws IOException {
+        final File dir = aCacheFile.getParentFile();
+
+        if (!dir.exists() && !dir.mkdirs() && LOGGER.isWarnEnabled()) {
+            LOGGER.warn("Dirs not created: {}", dir);
+        }
+
+        final File file = File.createTempFile(".tile-", ".jpg", dir);
+        boolean written = false;
+
+        try {
+            final FileOutputStream outStream = new FileOutputStream(file);
+
+            try {
+                outStream.write(aTile);
+            } finally {
+                outStream.close();
+            }
+
+            written = file.renameTo(aCacheFile);
+        } finally {
+            if (!written && !file.delete() && LOGGER.isWarnEnabled()) {
+                LOGGER.warn("File not deleted: {}", file);
+            }
+        }
+
+        // Another request may have written the same tile first
+        return written || aCacheFile.exists();
+    }
+
+    private void serveBytes(final ByteBuffer aBytes, final HttpServletResponse aResponse) throws IOException {
+        final ServletOutputStream outStream = aResponse.getOutputStream();
+
+        aResponse.setHeader("Content-Length", "" + aBytes.remaining());
+        aResponse.setHeader("Cache-Control", CACHE_CONTROL);
+        aResponse.setContentType("image/jpg");
+
+        try {
+            ContentSender.send(aBytes, outStream);
+        } finally {
+            IOUtils.closeQuietly(outStream);
+        }
+    }
+
+    private byte[] readBytes(final File aFile) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(aFile, "r");
+
+        try {
+            final byte[] bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+            return bytes;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Serves a new image from the decode lane's threads, or the remote lane's if the image has to be retrieved first,
+     * so the container's thread can go back to serving cache hits while the image is decoded. Images that are
+     * forwarded to the OpenURL layer are forwarded from the container's thread; the OpenURL layer suspends them
+     * itself.
+     */
+    private void dispatchNewImage(final String aID, final String aLevel, final String aRegion, final String aScale,
+            final float aRotation, final DjatokaDecodeParam aParams, final File aCacheFile,
+            final HttpServletRequest aRequest, final HttpServletResponse aResponse) throws IOException,
+            ServletException {
+        execute(aRequest, aResponse, new DecodeExecutor.Task() {
+
+            @Override
+            public void run() throws IOException, ServletException {
+                serveNewImage(aID, aLevel, aRegion, aScale, aRotation, aParams, null, aCacheFile, aRequest,
+                        aResponse);
+            }
+        });
+    }
+
+    /**
+     * Runs the supplied task on the decode lane, or the remote lane if the request's image isn't available locally,
+     * or on the container's thread if the lanes haven't been set up.
+     */
+    private void execute(final HttpServletRequest aRequest, final HttpServletResponse aResponse,
+            final DecodeExecutor.Task aTask) throws IOException, ServletException {
+        final DecodeExecutor executor = getLane(aRequest, DecodeExecutor.DECODE_LANE);
+
+        if (executor == null) {
+            aTask.run();
+        } else {
+            executor.execute(aRequest, aResponse, aTask);
+        }
+    }
+
+    /**
+     * Decodes and serves a new image. The image is resolved here unless a record for it has already been supplied.
+     */
     private void serveNewImage(final String aID, final String aLevel, final String aRegion, final String aScale,
+            final float aRotation, final DjatokaDecodeParam aParams, final ImageRecord aImage, final File aCacheFile,
+            final HttpServletRequest aRequest, final HttpServletResponse aResponse) throws IOException,
+            ServletException {
+        // Forwarded images are served by the OpenURL layer but aren't added to the Pairtree cache
+        if (!OpenURLJP2KService.isInit()) {
+            forwardNewImage(aID, aLevel, aRegion, aScale, aRotation, aRequest, aResponse);
+            return;
+        }
+
+        final ImageRecord image;
+
+        try {
+            image = aImage != null ? aImage : ImageMetadata.resolve(aID);
+        } catch (final FileNotFoundException details) {
+            aResponse.sendError(HttpServletResponse.SC_NOT_FOUND, aID + " not found");
+            return;
+        } catch (final ResolverException details) {
+            if (LOGGER.isErrorEnabled()) {
+                LOGGER.error("[{}] {}", new Object[] { aID, details.getMessage(), details });
+            }
+
+            aResponse.sendError(HttpServletResponse.SC_NOT_FOUND, aID + " not found");
+            return;
+        } catch (final DjatokaException details) {
+            throw new ServletException(details.getMessage(), details);
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Image requested: {} - {}", aID, aParams);
+        }
+
+        final String referrer = aRequest.getHeader("referer");
+        final String requester = aRequest.getRemoteAddr();
+
+        writeResponse(aID, OpenURLJP2KService.getRegion(image, aParams, DEFAULT_VIEW_FORMAT, requester, referrer,
+                aCacheFile), aResponse);
+    }
+
+    private void forwardNewImage(final String aID, final String aLevel, final String aRegion, final String aScale,
             final float aRotation, final HttpServletRequest aRequest, final HttpServletResponse aResponse)
             throws IOException, ServletException {
         final String id = URLEncoder.encode(aID, CHARSET);
@@ -446,7 +1171,7 @@ public class ImageServlet extends HttpServlet implements Constants {
             url = StringUtils.format(REGION_URL, values);
         }
 
-        // Right now we just let the OpenURL interface do the work
+        // The OpenURL service couldn't be initialized in-process, so let the OpenURL interface do the work
         dispatcher = aRequest.getRequestDispatcher(url);
 
         if (LOGGER.isDebugEnabled()) {
@@ -456,41 +1181,148 @@ public class ImageServlet extends HttpServlet implements Constants {
         dispatcher.forward(aRequest, aResponse);
     }
 
-    private void cacheNewImage(final HttpServletRequest aRequest, final String aKey, final File aDestFile) {
-        final HttpSession session = aRequest.getSession();
-        final String fileName = (String) session.getAttribute(aKey);
+    private void writeResponse(final String aID, final OpenURLResponse aResult, final HttpServletResponse aResponse)
+            throws IOException {
+        final Map<?, ?> headerMap = aResult.getHeaderMap();
+        final int status = aResult.getStatus();
 
-        if (fileName != null) {
-            final String cacheName = (String) session.getAttribute(fileName);
-            final File cachedFile = new File(fileName);
+        if (headerMap != null) {
+            for (final Map.Entry<?, ?> entry : headerMap.entrySet()) {
+                aResponse.setHeader((String) entry.getKey(), (String) entry.getValue());
+            }
+        }
 
-            // This moves the newly created file from the adore-djatoka cache
-            // to the freelib-djatoka cache (which is pure-FS/Pairtree-based)
-            if (cachedFile.exists() && aDestFile != null) {
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("Renaming cache file from {} to {}", cachedFile, aDestFile);
-                }
+        if (status == HttpServletResponse.SC_NOT_FOUND) {
+            aResponse.sendError(status, aID + " not found");
+        } else {
+            final ServletOutputStream outStream = aResponse.getOutputStream();
 
-                if (!cachedFile.renameTo(aDestFile) && LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("Unable to move cache file: {}", cachedFile);
-                } else {
-                    // This is the temp file cache used by the OpenURL layer
-                    if (!OpenURLJP2KService.removeFromTileCache(cacheName) && LOGGER.isDebugEnabled()) {
-                        LOGGER.debug("Unable to remove OpenURL cache file link: {}", fileName);
-                    } else {
-                        session.removeAttribute(aKey);
-                        session.removeAttribute(fileName);
-                    }
-                }
-            } else if (LOGGER.isWarnEnabled() && !cachedFile.exists()) {
-                LOGGER.warn("Session had a cache file ({}), but it didn't exist", cachedFile.getAbsoluteFile());
-            } else if (LOGGER.isWarnEnabled()) {
-                LOGGER.warn("Location for destination cache file was null");
+            aResponse.setStatus(status);
+            aResponse.setContentType(aResult.getContentType());
+
+            try {
+                aResult.write(outStream);
+            } finally {
+                IOUtils.closeQuietly(outStream);
+            }
+        }
+    }
+
+    /**
+     * Maps the parameters of the deprecated djtilesource.js requests to decode parameters, the same way the OpenURL
+     * service maps its <code>svc.level</code>, <code>svc.region</code>, and <code>svc.scale</code> parameters.
+     */
+    private static DjatokaDecodeParam getDecodeParam(final String aLevel, final String aRegion, final String aScale,
+            final float aRotation) {
+        final DjatokaDecodeParam params = new DjatokaDecodeParam();
+
+        params.setRotationDegree((int) aRotation);
+
+        if (aScale == null) {
+            if (aLevel != null) {
+                params.setLevel(Integer.parseInt(aLevel));
+            }
+        } else {
+            final String[] dims = aScale.split(",");
+
+            // An empty region is still a region request, as it was when passed along as svc.region
+            params.setRegion(aRegion);
+
+            if (aScale.equals("full")) {
+                params.setScalingFactor(1.0);
+            } else if (dims.length == 1 && aScale.contains(".")) {
+                params.setScalingFactor(Double.parseDouble(aScale));
+            } else if (dims.length == 1) {
+                params.setScalingDimensions(new int[] { -1, Integer.parseInt(dims[0]) });
+            } else {
+                params.setScalingDimensions(new int[] { Integer.parseInt(dims[0]), Integer.parseInt(dims[1]) });
+            }
+        }
+
+        return params;
+    }
+
+    /**
+     * Maps an IIIF image request straight to decode parameters, without building an OpenURL request. A best fit size
+     * (<code>!w,h</code>) is constrained on whichever side is the tighter fit, so the image's dimensions are looked
+     * up when the region doesn't supply them.
+     *
+     * @param aID The identifier of the requested image
+     * @param aRequest The IIIF image request
+     * @return The decode parameters for the request
+     * @throws IOException If the image's dimensions are needed but can't be read
+     */
+    static DjatokaDecodeParam getDecodeParam(final String aID, final ImageRequest aRequest) throws IOException {
+        return getDecodeParam(aID, aRequest, null);
+    }
+
+    /**
+     * Maps an IIIF image request straight to decode parameters, using the supplied record for the image's dimensions
+     * if they're needed. The image is only looked up if no record is supplied.
+     *
+     * @param aID The identifier of the requested image
+     * @param aRequest The IIIF image request
+     * @param aImage The requested image's record, or null if it hasn't been read
+     * @return The decode parameters for the request
+     * @throws IOException If the image's dimensions are needed but can't be read
+     */
+    static DjatokaDecodeParam getDecodeParam(final String aID, final ImageRequest aRequest, final ImageRecord aImage)
+            throws IOException {
+        final DjatokaDecodeParam params = new DjatokaDecodeParam();
+        final Region region = aRequest.getRegion();
+        final Size size = aRequest.getSize();
+
+        params.setRotationDegree((int) aRequest.getRotation());
+        params.setRegion(getDjatokaRegion(region));
+
+        if (size.isFullSize()) {
+            params.setScalingFactor(1.0);
+        } else if (size.isPercent()) {
+            params.setScalingFactor(size.getPercent() / 100d);
+        } else if (size.hasWidth() && size.hasHeight() && size.maintainsAspectRatio()) {
+            double width = region.getWidth();
+            double height = region.getHeight();
+
+            if (region.isFullSize() || region.usesPercents()) {
+                final ImageRecord image = aImage != null ? aImage : getImageRecord(aID);
+
+                width = region.isFullSize() ? image.getWidth() : image.getWidth() * width / 100;
+                height = region.isFullSize() ? image.getHeight() : image.getHeight() * height / 100;
             }
-        } else if (LOGGER.isWarnEnabled()) {
-            LOGGER.warn("Couldn't cache ({} = {}); session lacked new image information", aKey, aDestFile
-                    .getAbsolutePath());
+
+            if (size.getWidth() / width <= size.getHeight() / height) {
+                params.setScalingDimensions(new int[] { size.getWidth(), 0 });
+            } else {
+                params.setScalingDimensions(new int[] { 0, size.getHeight() });
+            }
+        } else {
+            final int width = size.hasWidth() ? size.getWidth() : 0;
+            final int height = size.hasHeight() ? size.getHeight() : 0;
+
+            params.setScalingDimensions(new int[] { width, height });
+        }
+
+        return params;
+    }
+
+    /**
+     * Djatoka expects a different order from what OpenSeadragon sends so we have to reconstruct rather than use
+     * Region's toString().
+     */
+    static String getDjatokaRegion(final Region aRegion) {
+        if (aRegion.isFullSize()) {
+            return "";
         }
+
+        final StringBuilder rsb = new StringBuilder();
+
+        rsb.append(aRegion.getY()).append(',');
+        rsb.append(aRegion.getX()).append(',');
+        rsb.append(aRegion.getHeight()).append(',');
+        rsb.append(aRegion.getWidth());
+
+        // Now, we have the string order that Djatoka wants
+        return rsb.toString();
     }
 
     private String getID(final String aPath) {
@@ -0,0 +1,352 @@
+
+package info.freelibrary.djatoka.view;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gov.lanl.adore.djatoka.io.FormatIOException;
+import gov.lanl.adore.djatoka.io.writer.JPGWriter;
+
+import info.freelibrary.djatoka.iiif.IIIFException;
+import info.freelibrary.djatoka.iiif.ImageRequest;
+import info.freelibrary.djatoka.iiif.Region;
+import info.freelibrary.djatoka.iiif.Size;
+import info.freelibrary.djatoka.util.CacheUtils;
+import info.freelibrary.util.PairtreeObject;
+import info.freelibrary.util.PairtreeRoot;
+
+/**
+ * Derives OpenSeadragon tiles from the tiles at the next higher resolution when they're already in the Pairtree
+ * cache, so a zoomed out tile costs a resample of up to four small JPEGs instead of a JP2 decode. A tile is only
+ * derived when it's on the 256 pixel grid the tile cache is warmed with, when it's scaled down by a power of two, and
+ * when every tile it covers at the next level has been cached; otherwise it's left to the decoder.
+ * <p/>
+ * Derived tiles are written to the Pairtree cache under their own name (see {@link #getDerivedName(String)}), which
+ * is only ever served and never read as one of the tiles another tile is derived from. That keeps every derived tile
+ * a single resample away from a decoded one, rather than letting the JPEG artifacts of one derivation be carried into
+ * the next.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+public class TileDeriver {
+
+    /**
+     * The tile size that's advertised in an image's info.json and used to warm the tile cache.
+     */
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * The prefix that sets apart the cache file names of derived tiles from those of decoded tiles.
+     */
+    public static final String DERIVED_PREFIX = "derived_";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TileDeriver.class);
+
+    /* How far, in pixels, the composed tiles may be from twice the size of the derived tile */
+    private static final int TOLERANCE = 2;
+
+    private final PairtreeRoot myCacheDir;
+
+    private final Properties myWriterProps = new Properties();
+
+    private final AtomicLong myDerivedCount = new AtomicLong();
+
+    private final AtomicLong myMissCount = new AtomicLong();
+
+    /**
+     * Creates a tile deriver that reads tiles from the supplied Pairtree cache.
+     *
+     * @param aCacheDir The Pairtree cache that decoded tiles are written to
+     * @param aQuality The JPEG quality (0 to 100) that derived tiles are encoded with
+     * @throws IOException If the Pairtree cache can't be opened
+     */
+    public TileDeriver(final File aCacheDir, final int aQuality) throws IOException {
+        myCacheDir = new PairtreeRoot(aCacheDir);
+        myWriterProps.setProperty("JPGWriter.quality_level", Integer.toString(aQuality));
+    }
+
+    /**
+     * Derives the requested tile from the cached tiles at the next higher resolution. The request should be in its
+     * canonical form, as that's the form tiles are cached under.
+     *
+     * @param aID The identifier of the requested image
+     * @param aRequest The canonical IIIF image request
+     * @param aImageWidth The width of the requested image
+     * @param aImageHeight The height of the requested image
+     * @return The JPEG bytes of the derived tile, or null if it can't be derived from cached tiles
+     * @throws IOException If the cached tiles can't be read or the derived tile can't be encoded
+     */
+    public byte[] derive(final String aID, final ImageRequest aRequest, final int aImageWidth,
+            final int aImageHeight) throws IOException {
+        final Region region = aRequest.getRegion();
+        final Size size = aRequest.getSize();
+
+        if (aRequest.getRotation() != 0f || region.usesPercents() || size.isFullSize() || !size.hasWidth()) {
+            return null;
+        }
+
+        final int x = region.isFullSize() ? 0 : region.getX();
+        final int y = region.isFullSize() ? 0 : region.getY();
+        final int width = region.isFullSize() ? aImageWidth : region.getWidth();
+        final int height = region.isFullSize() ? aImageHeight : region.getHeight();
+        final int tileWidth = size.getWidth();
+        final int tileHeight =
+                size.hasHeight() ? size.getHeight() : (int) Math.round((double) height * tileWidth / width);
+        final int multiplier = getMultiplier(x, y, width, height, tileWidth, tileHeight, aImageWidth, aImageHeight);
+
+        if (multiplier < 2) {
+            return null;
+        }
+
+        final File[][] files = getTileFiles(aID, x, y, width, height, multiplier / 2, aImageWidth, aImageHeight);
+
+        if (files == null) {
+            myMissCount.incrementAndGet();
+            return null;
+        }
+
+        final BufferedImage mosaic = compose(files, tileWidth * 2, tileHeight * 2);
+
+        if (mosaic == null) {
+            if (LOGGER.isWarnEnabled()) {
+                LOGGER.warn("[{}] Cached tiles don't fit {},{},{},{}; decoding instead", aID, x, y, width, height);
+            }
+
+            myMissCount.incrementAndGet();
+            return null;
+        }
+
+        final byte[] bytes = encode(resample(mosaic, tileWidth, tileHeight));
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("[{}] Derived {},{},{},{} at {}x{} from cached tiles", aID, x, y, width, height, tileWidth,
+                    tileHeight);
+        }
+
+        myDerivedCount.incrementAndGet();
+        return bytes;
+    }
+
+    /**
+     * Gets the name a derived tile is cached under, given the name the tile would be cached under if it were decoded.
+     *
+     * @param aFileName The cache file name of the decoded tile
+     * @return The cache file name of the derived tile
+     */
+    public static String getDerivedName(final String aFileName) {
+        return DERIVED_PREFIX + aFileName;
+    }
+
+    /**
+     * Returns the number of tiles that have been derived from cached tiles.
+     *
+     * @return The number of derived tiles
+     */
+    public long getDerivedCount() {
+        return myDerivedCount.get();
+    }
+
+    /**
+     * Returns the number of derivable tiles that had to be decoded because the tiles they cover weren't all cached.
+     *
+     * @return The number of tiles that couldn't be derived
+     */
+    public long getMissCount() {
+        return myMissCount.get();
+    }
+
+    /**
+     * Gets the power of two the requested region is scaled down by, if the region and its size are those of a tile
+     * on the grid the tile cache is warmed with; else, zero.
+     */
+    private static int getMultiplier(final int aX, final int aY, final int aWidth, final int aHeight,
+            final int aTileWidth, final int aTileHeight, final int aImageWidth, final int aImageHeight) {
+        final int longSide = Math.max(aImageWidth, aImageHeight);
+
+        // The tiles at the next level down have to be part of the warmed pyramid too
+        for (int multiplier = 2; TILE_SIZE * multiplier / 2 < longSide; multiplier *= 2) {
+            final int tileSize = TILE_SIZE * multiplier;
+
+            if (aX % tileSize != 0 || aY % tileSize != 0) {
+                return 0;
+            }
+
+            if (aWidth == Math.min(tileSize, aImageWidth - aX) && aHeight == Math.min(tileSize, aImageHeight - aY)) {
+                final int width = (int) Math.ceil((double) aWidth / multiplier);
+                final int height = (int) Math.ceil((double) aHeight / multiplier);
+
+                if (aTileWidth == width && Math.abs(aTileHeight - height) <= 1) {
+                    return multiplier;
+                }
+
+                return 0;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets the cached files of the (up to four) decoded tiles at the next level that cover the requested region, by
+     * row and column, or null if they're not all cached. Derived tiles, which are cached under other names, are never
+     * used.
+     */
+    private File[][] getTileFiles(final String aID, final int aX, final int aY, final int aWidth, final int aHeight,
+            final int aMultiplier, final int aImageWidth, final int aImageHeight) throws IOException {
+        final PairtreeObject cacheObject = myCacheDir.getObject(aID);
+        final int tileSize = TILE_SIZE * aMultiplier;
+        final File[][] files = new File[aHeight > tileSize ? 2 : 1][aWidth > tileSize ? 2 : 1];
+
+        for (int row = 0; row < files.length; row++) {
+            for (int column = 0; column < files[row].length; column++) {
+                final int x = aX + column * tileSize;
+                final int y = aY + row * tileSize;
+                final int width = Math.min(tileSize, aImageWidth - x);
+                final int height = Math.min(tileSize, aImageHeight - y);
+                final File file = new File(cacheObject, getTileName(x, y, width, height, aMultiplier, aImageWidth,
+                        aImageHeight));
+
+                if (!file.exists()) {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("{} not found in cache; tile can't be derived", file);
+                    }
+
+                    return null;
+                }
+
+                files[row][column] = file;
+            }
+        }
+
+        return files;
+    }
+
+    /**
+     * Gets the name a tile is cached under, by canonicalizing the request OpenSeadragon makes for it.
+     */
+    private static String getTileName(final int aX, final int aY, final int aWidth, final int aHeight,
+            final int aMultiplier, final int aImageWidth, final int aImageHeight) {
+        final String scaledWidth = Integer.toString((int) Math.ceil((double) aWidth / aMultiplier));
+        final String scaledHeight = Integer.toString((int) Math.ceil((double) aHeight / aMultiplier));
+
+        try {
+            final Region region = new Region(aX + "," + aY + "," + aWidth + "," + aHeight);
+            final Size size = new Size(scaledWidth + "," + scaledHeight);
+
+            return CacheUtils.getFileName(null, size.getCanonicalSize(aWidth, aHeight).toString(), ImageServlet
+                    .getDjatokaRegion(region.getCanonicalRegion(aImageWidth, aImageHeight)), 0f);
+        } catch (final IIIFException details) {
+            throw new IllegalStateException(details.getMessage(), details);
+        }
+    }
+
+    /**
+     * Reads the cached tiles into one image, or returns null if they can't be read or their dimensions don't add up
+     * to the expected size.
+     */
+    private static BufferedImage compose(final File[][] aFiles, final int aWidth, final int aHeight)
+            throws IOException {
+        final BufferedImage[][] tiles = new BufferedImage[aFiles.length][aFiles[0].length];
+        int width = 0;
+        int height = 0;
+
+        for (int row = 0; row < aFiles.length; row++) {
+            for (int column = 0; column < aFiles[row].length; column++) {
+                final BufferedImage tile = ImageIO.read(aFiles[row][column]);
+
+                if (tile == null) {
+                    return null;
+                }
+
+                // Tiles in the same row or column have to line up with each other
+                if (column > 0 && tile.getHeight() != tiles[row][0].getHeight() || row > 0 &&
+                        tile.getWidth() != tiles[0][column].getWidth()) {
+                    return null;
+                }
+
+                tiles[row][column] = tile;
+            }
+        }
+
+        for (final BufferedImage tile : tiles[0]) {
+            width += tile.getWidth();
+        }
+
+        for (final BufferedImage[] row : tiles) {
+            height += row[0].getHeight();
+        }
+
+        if (Math.abs(width - aWidth) > TOLERANCE || Math.abs(height - aHeight) > TOLERANCE) {
+            return null;
+        }
+
+        final int type = tiles[0][0].getType() == BufferedImage.TYPE_BYTE_GRAY ? BufferedImage.TYPE_BYTE_GRAY
+                : BufferedImage.TYPE_INT_RGB;
+        final BufferedImage mosaic = new BufferedImage(width, height, type);
+        final Graphics2D graphics = mosaic.createGraphics();
+
+        try {
+            int y = 0;
+
+            for (final BufferedImage[] row : tiles) {
+                int x = 0;
+
+                for (final BufferedImage tile : row) {
+                    graphics.drawImage(tile, x, y, null);
+                    x += tile.getWidth();
+                }
+
+                y += row[0].getHeight();
+            }
+        } finally {
+            graphics.dispose();
+        }
+
+        return mosaic;
+    }
+
+    /**
+     * Scales the composed tiles down to the requested size; at half size, bilinear sampling averages each two by two
+     * block of pixels.
+     */
+    private static BufferedImage resample(final BufferedImage aMosaic, final int aWidth, final int aHeight) {
+        final BufferedImage image = new BufferedImage(aWidth, aHeight, aMosaic.getType());
+        final Graphics2D graphics = image.createGraphics();
+
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(aMosaic, 0, 0, aWidth, aHeight, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        return image;
+    }
+
+    private byte[] encode(final BufferedImage aImage) throws IOException {
+        final ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        final JPGWriter writer = new JPGWriter();
+
+        writer.setWriterProperties(myWriterProps);
+
+        try {
+            writer.write(aImage, outStream);
+        } catch (final FormatIOException details) {
+            throw new IOException(details.getMessage(), details);
+        }
+
+        return outStream.toByteArray();
+    }
+}
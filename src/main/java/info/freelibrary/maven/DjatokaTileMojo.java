@@ -14,9 +14,9 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import gov.lanl.adore.djatoka.util.ImageRecord;
 
+import info.freelibrary.djatoka.util.ImageMetadata;
 import info.freelibrary.djatoka.util.OSDCacheUtil;
 import info.freelibrary.util.FileUtils;
 import info.freelibrary.util.PairtreeRoot;
@@ -35,13 +35,8 @@ public class DjatokaTileMojo extends AbstractPairtreeMojo {
 
     private static final String JETTY_PORT = "jetty.port";
 
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     private static final String CACHE_URL = "http://localhost:{}/{}";
 
-    private static final String METADATA_URL =
-            "http://localhost:{}/resolve?url_ver=Z39.88-2004&rft_id={}&svc_id=info:lanl-repo/svc/getMetadata";
-
     private static final String JPEG_CONTENT_TYPE[] = new String[] { "image/jpeg", "image/jpg" };
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DjatokaIngestMojo.class);
@@ -105,12 +100,11 @@ public class DjatokaTileMojo extends AbstractPairtreeMojo {
 
             for (final File file : jp2List) {
                 final String id = PairtreeUtils.decodeID(file.getName());
-                final URL url = new URL(StringUtils.format(METADATA_URL, port, id));
-                final JsonNode json = MAPPER.readTree(url.openStream());
+                final ImageRecord image = ImageMetadata.getImageRecord(file);
 
-                // Pull out relevant info from our metadata service
-                final int width = json.get("width").asInt();
-                final int height = json.get("height").asInt();
+                // Read the dimensions straight from the JP2 rather than asking the server
+                final int width = image.getWidth();
+                final int height = image.getHeight();
                 final String[] tilePaths = tiler.getPaths("iiif", id, 256, width, height);
 
                 // If cache is to be overwritten, delete what's there so it will be recreated
@@ -5,7 +5,9 @@
 package info.openurl.oom;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Array;
 import java.net.URL;
 import java.util.ArrayList;
@@ -144,6 +146,24 @@ public class OpenURLResponse {
         this.sessionMap = sessionMap;
     }
 
+    /**
+     * Constructs a proxy for an HTTP OutputStream response whose body is streamed to the client rather than held in
+     * memory. The stream is closed once it has been written.
+     * 
+     * @param status
+     * @param contentType
+     * @param is
+     * @param sessionMap
+     * @param headerMap
+     */
+    public OpenURLResponse(int status, String contentType, InputStream is, Map sessionMap, Map headerMap) {
+        this.status = status;
+        this.contentType = contentType;
+        this.is = is;
+        this.sessionMap = sessionMap;
+        this.headerMap = headerMap;
+    }
+
     /**
      * @param status
      * @param contentType
@@ -267,4 +287,45 @@ public class OpenURLResponse {
     public InputStream getInputStream() {
         return is;
     }
+
+    /**
+     * Writes the response body to the supplied OutputStream and closes the body's InputStream.
+     * 
+     * @param out the OutputStream to which the body is written
+     * @throws IOException if the body can't be read or written
+     */
+    public void write(OutputStream out) throws IOException {
+        if (is == null) {
+            return;
+        }
+
+        try {
+            final byte[] buffer = new byte[8192];
+            int len;
+
+            while ((len = is.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Closes the body's InputStream, which is left open if the body isn't written (as for a redirect or an error).
+     * It's safe to call more than once.
+     */
+    public void close() {
+        if (is == null) {
+            return;
+        }
+
+        try {
+            is.close();
+        } catch (IOException e) {
+            // Nothing more can be done with the body
+        } finally {
+            is = null;
+        }
+    }
 }
\ No newline at end of file
@@ -67,7 +67,29 @@ public interface OpenURLConfig {
             InstantiationException, IllegalAccessException;
 
     /**
-     * Get an instance of a URI-identified service from the configuration file.
+     * Construct the Services defined in the configuration file. Services are shared by every request, so this should
+     * be called once, before the first request is handled, and paired with a call to {@link #destroy()}.
+     * 
+     * @throws TransformerException
+     * @throws ClassNotFoundException
+     * @throws SecurityException
+     * @throws NoSuchMethodException
+     * @throws IllegalArgumentException
+     * @throws InstantiationException
+     * @throws IllegalAccessException
+     * @throws InvocationTargetException
+     */
+    public void init() throws TransformerException, ClassNotFoundException, SecurityException, NoSuchMethodException,
+            IllegalArgumentException, InstantiationException, IllegalAccessException, InvocationTargetException;
+
+    /**
+     * Release the Services constructed by {@link #init()}. Services that implement {@link java.io.Closeable} are
+     * closed.
+     */
+    public void destroy();
+
+    /**
+     * Get the instance of a URI-identified service constructed from the configuration file.
      * 
      * @param uri an identifier for a configured service
      * @return a Service.
@@ -11,7 +11,6 @@
 
 package org.oclc.oomRef;
 
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Iterator;
 import java.util.Map;
@@ -63,12 +62,27 @@ public class OpenURLServlet extends HttpServlet {
 
             // Construct a processor
             processor = openURLConfig.getProcessor();
+
+            // Construct the configured services, which are shared by all requests
+            openURLConfig.init();
         } catch (final Exception e) {
             e.printStackTrace();
             throw new ServletException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Releases the OpenURL services when the servlet is taken out of service.
+     */
+    @Override
+    public void destroy() {
+        if (openURLConfig != null) {
+            openURLConfig.destroy();
+        }
+
+        super.destroy();
+    }
+
     @Override
     protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException {
         try {
@@ -100,7 +114,7 @@ public class OpenURLServlet extends HttpServlet {
                 }
 
                 final Map sessionMap = result.getSessionMap();
-                if (sessionMap != null) {
+                if (sessionMap != null && !sessionMap.isEmpty()) {
                     final HttpSession session = req.getSession(true);
                     final Iterator iter = sessionMap.entrySet().iterator();
                     while (iter.hasNext()) {
@@ -136,14 +150,7 @@ public class OpenURLServlet extends HttpServlet {
                     final OutputStream out = resp.getOutputStream();
                     resp.setStatus(status);
                     resp.setContentType(result.getContentType());
-                    final InputStream is = result.getInputStream();
-                    final byte[] bytes = new byte[1024];
-                    int len;
-
-                    while ((len = is.read(bytes)) != -1) {
-                        out.write(bytes, 0, len);
-                    }
-
+                    result.write(out);
                     out.close();
                     break;
             }
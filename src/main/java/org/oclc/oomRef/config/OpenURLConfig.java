@@ -16,10 +16,14 @@ import info.openurl.oom.Service;
 import info.openurl.oom.Transport;
 import info.openurl.oom.util.XMLHelper;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -27,6 +31,8 @@ import javax.servlet.ServletConfig;
 import javax.xml.transform.TransformerException;
 
 import org.apache.xpath.XPathAPI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -37,8 +43,12 @@ import org.w3c.dom.traversal.NodeIterator;
  */
 public class OpenURLConfig implements info.openurl.oom.config.OpenURLConfig {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpenURLConfig.class);
+
     private ServletConfig servletConfig;
 
+    private volatile Map<URI, Service> services;
+
     private static Document oomConfig;
     static {
         try {
@@ -96,34 +106,75 @@ public class OpenURLConfig implements info.openurl.oom.config.OpenURLConfig {
     }
 
     /**
-     * Gets the service associated with the supplied URI.
+     * Constructs each service in the service map once and registers it by its ID. Requests look their services up in
+     * this registry, so the configuration isn't searched and services aren't constructed on each request. A service
+     * that can't be constructed is logged and left out of the registry, so the other services are still available.
      */
-    public Service getService(URI uri) throws TransformerException, ClassNotFoundException, SecurityException,
+    public synchronized void init() throws TransformerException, ClassNotFoundException, SecurityException,
             NoSuchMethodException, IllegalArgumentException, InstantiationException, IllegalAccessException,
             InvocationTargetException {
+        if (services != null) {
+            return;
+        }
+
+        Map<URI, Service> registry = new HashMap<URI, Service>();
         Element xmlnsEl = XMLHelper.getXmlnsEl();
-        Node node =
-                XPathAPI.selectSingleNode(oomConfig, "/oomRef:config/oomRef:serviceMap/oomRef:service[@ID='" +
-                        uri.toString() + "']", xmlnsEl);
-        if (node != null) {
-            ClassConfig classConfig = new ClassConfig(node);
+        NodeIterator nodeIter =
+                XPathAPI.selectNodeIterator(oomConfig, "/oomRef:config/oomRef:serviceMap/oomRef:service", xmlnsEl);
+        Node node;
+        while ((node = nodeIter.nextNode()) != null) {
+            String id = ((Element) node).getAttribute("ID");
             String className = XPathAPI.eval(node, "oomRef:className", xmlnsEl).str();
-            Class serviceClass = Class.forName(className);
-            Constructor serviceConstructor = null;
             try {
-                serviceConstructor =
-                        serviceClass.getConstructor(new Class[] { info.openurl.oom.config.OpenURLConfig.class,
-                            info.openurl.oom.config.ClassConfig.class });
-            } catch (NoSuchMethodException e) {
-                // Uh Oh. Somebody implemented an OOMRef-J class directly.
-                serviceConstructor =
-                        serviceClass.getConstructor(new Class[] { org.oclc.oomRef.config.OpenURLConfig.class,
-                            org.oclc.oomRef.config.ClassConfig.class });
+                registry.put(new URI(id), newService(node, className));
+            } catch (URISyntaxException e) {
+                LOGGER.error("Service ID isn't a valid URI: {}", id);
+            } catch (InvocationTargetException e) {
+                logFailure(id, className, e.getCause());
+            } catch (Exception e) {
+                logFailure(id, className, e);
+            } catch (LinkageError e) {
+                logFailure(id, className, e);
             }
-            return (Service) serviceConstructor.newInstance(new Object[] { this, classConfig });
         }
+        services = Collections.unmodifiableMap(registry);
+    }
 
-        return null;
+    private static void logFailure(String id, String className, Throwable cause) {
+        LOGGER.error("Service {} ({}) not started: {}", new Object[] { id, className, cause.getMessage(), cause });
+    }
+
+    /**
+     * Closes the registered services that are closeable and empties the registry.
+     */
+    public synchronized void destroy() {
+        if (services != null) {
+            for (Service service : services.values()) {
+                if (service instanceof Closeable) {
+                    try {
+                        ((Closeable) service).close();
+                    } catch (IOException e) {
+                        LOGGER.warn("Service {} not closed: {}", new Object[] { service.getClass().getName(),
+                            e.getMessage(), e });
+                    }
+                }
+            }
+            services = null;
+        }
+    }
+
+    /**
+     * Gets the service associated with the supplied URI.
+     */
+    public Service getService(URI uri) throws TransformerException, ClassNotFoundException, SecurityException,
+            NoSuchMethodException, IllegalArgumentException, InstantiationException, IllegalAccessException,
+            InvocationTargetException {
+        Map<URI, Service> registry = services;
+        if (registry == null) {
+            init();
+            registry = services;
+        }
+        return registry.get(uri);
     }
 
     /**
@@ -132,25 +183,21 @@ public class OpenURLConfig implements info.openurl.oom.config.OpenURLConfig {
     public Service getService(String className) throws TransformerException, SecurityException,
             NoSuchMethodException, IllegalArgumentException, InstantiationException, IllegalAccessException,
             InvocationTargetException {
+        Map<URI, Service> registry = services;
+        if (registry != null) {
+            for (Service service : registry.values()) {
+                if (service.getClass().getName().equals(className)) {
+                    return service;
+                }
+            }
+        }
+
         try {
             Node node =
                     XPathAPI.selectSingleNode(oomConfig,
                             "/oomRef:config/oomRef:serviceMap/oomRef:service[oomRef:className='" + className + "']",
                             XMLHelper.getXmlnsEl());
-            ClassConfig classConfig = new ClassConfig(node);
-            Class serviceClass = Class.forName(className);
-            Constructor serviceConstructor = null;
-            try {
-                serviceConstructor =
-                        serviceClass.getConstructor(new Class[] { info.openurl.oom.config.OpenURLConfig.class,
-                            info.openurl.oom.config.ClassConfig.class });
-            } catch (NoSuchMethodException e) {
-                // Uh Oh. Somebody extended the ServiceImpl directly.
-                serviceConstructor =
-                        serviceClass.getConstructor(new Class[] { org.oclc.oomRef.config.OpenURLConfig.class,
-                            org.oclc.oomRef.config.ClassConfig.class });
-            }
-            return (Service) serviceConstructor.newInstance(new Object[] { this, classConfig });
+            return newService(node, className);
         } catch (ClassNotFoundException e) {
             // do nothing
         }
@@ -158,6 +205,25 @@ public class OpenURLConfig implements info.openurl.oom.config.OpenURLConfig {
         return null;
     }
 
+    private Service newService(Node node, String className) throws TransformerException, ClassNotFoundException,
+            SecurityException, NoSuchMethodException, IllegalArgumentException, InstantiationException,
+            IllegalAccessException, InvocationTargetException {
+        ClassConfig classConfig = new ClassConfig(node);
+        Class serviceClass = Class.forName(className);
+        Constructor serviceConstructor = null;
+        try {
+            serviceConstructor =
+                    serviceClass.getConstructor(new Class[] { info.openurl.oom.config.OpenURLConfig.class,
+                        info.openurl.oom.config.ClassConfig.class });
+        } catch (NoSuchMethodException e) {
+            // Uh Oh. Somebody implemented an OOMRef-J class directly.
+            serviceConstructor =
+                    serviceClass.getConstructor(new Class[] { org.oclc.oomRef.config.OpenURLConfig.class,
+                        org.oclc.oomRef.config.ClassConfig.class });
+        }
+        return (Service) serviceConstructor.newInstance(new Object[] { this, classConfig });
+    }
+
     /**
      * Gets the OpenURL request processor.
      */
@@ -0,0 +1,167 @@
+
+package gov.lanl.adore.djatoka.kdu.jni;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import info.freelibrary.djatoka.decode.ThreadResources;
+
+public class PooledKduExtractJNITest {
+
+    private static final String IMAGE = "src/test/resources/images/iiif-test/67352ccc-d1b0-11e1-89ae-279075081939.jp2";
+
+    private static final int SIZE = 1000;
+
+    private static final int THREADS = 8;
+
+    private static final int ROUNDS = 5;
+
+    private static boolean isLoadable;
+
+    private PooledKduExtractJNI myExtract;
+
+    @BeforeClass
+    public static void loadKakadu() {
+        try {
+            System.loadLibrary("kdu_jni");
+            isLoadable = true;
+        } catch (final UnsatisfiedLinkError details) {
+            isLoadable = false;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        assumeTrue(isLoadable && new File(IMAGE).exists());
+        myExtract = new PooledKduExtractJNI();
+    }
+
+    @After
+    public void tearDown() {
+        if (myExtract != null) {
+            ThreadResources.release();
+            assertEquals(0, myExtract.getThreadEnvCount());
+            myExtract.clear();
+        }
+    }
+
+    /**
+     * Tests that a reduced region matches the same part of the whole image at that reduction.
+     */
+    @Test
+    public void testReducedRegion() throws Exception {
+        final BufferedImage whole = myExtract.decode(IMAGE, 1, 0, 0, null);
+        final BufferedImage region = myExtract.decode(IMAGE, 1, 0, 0, new double[] { 0.25, 0.5, 0.5, 0.25 });
+
+        assertEquals(SIZE / 2, whole.getWidth());
+        assertEquals(SIZE / 2, whole.getHeight());
+        assertEquals(SIZE / 8, region.getWidth());
+        assertEquals(SIZE / 4, region.getHeight());
+
+        for (int y = 0; y < region.getHeight(); y += 7) {
+            for (int x = 0; x < region.getWidth(); x += 7) {
+                assertEquals(whole.getRGB(SIZE / 4 + x, SIZE / 8 + y), region.getRGB(x, y));
+            }
+        }
+    }
+
+    /**
+     * Tests that a decoded image is rotated.
+     */
+    @Test
+    public void testRotation() throws Exception {
+        final BufferedImage image = myExtract.decode(IMAGE, 2, 90, 0, new double[] { 0.0, 0.0, 0.5, 1.0 });
+
+        assertEquals(SIZE / 8, image.getWidth());
+        assertEquals(SIZE / 4, image.getHeight());
+    }
+
+    /**
+     * Tests that an image's codestream is kept open between decodes, and closed when it falls out of the cache.
+     */
+    @Test
+    public void testOpenCodestreamCache() throws Exception {
+        myExtract.decode(IMAGE, 3, 0, 0, null);
+        myExtract.decode(IMAGE, 2, 0, 0, new double[] { 0.5, 0.5, 0.5, 0.5 });
+
+        assertEquals(1, myExtract.getMissCount());
+        assertEquals(1, myExtract.getHitCount());
+        assertEquals(1, myExtract.size());
+        assertEquals(1, myExtract.getThreadEnvCount());
+
+        myExtract.setCapacity(0);
+
+        assertEquals(0, myExtract.size());
+        assertEquals(1, myExtract.getClosedCount());
+
+        myExtract.decode(IMAGE, 3, 0, 0, null);
+
+        assertEquals(2, myExtract.getOpenedCount());
+        assertEquals(2, myExtract.getClosedCount());
+    }
+
+    /**
+     * Tests that decodes of one image, running at the same time on different threads, each get their own part of
+     * the image, and that each thread's environment is destroyed when the thread ends.
+     */
+    @Test
+    public void testConcurrentDecodes() throws Exception {
+        final BufferedImage whole = myExtract.decode(IMAGE, 1, 0, 0, null);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread[] threads = new Thread[THREADS];
+
+        for (int index = 0; index < THREADS; index++) {
+            final int column = index % 4;
+            final int row = index / 4;
+
+            threads[index] = new Thread(ThreadResources.wrap(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int round = 0; round < ROUNDS; round++) {
+                            final BufferedImage region = myExtract.decode(IMAGE, 1, 0, 0, new double[] { row * 0.5,
+                                column * 0.25, 0.5, 0.25 });
+
+                            assertEquals(SIZE / 8, region.getWidth());
+                            assertEquals(SIZE / 4, region.getHeight());
+
+                            for (int y = 0; y < region.getHeight(); y += 3) {
+                                for (int x = 0; x < region.getWidth(); x += 3) {
+                                    assertEquals(whole.getRGB(column * SIZE / 8 + x, row * SIZE / 4 + y), region
+                                            .getRGB(x, y));
+                                }
+                            }
+                        }
+                    } catch (final Throwable details) {
+                        failure.compareAndSet(null, details);
+                    }
+                }
+            }));
+        }
+
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(String.valueOf(failure.get()), failure.get());
+        // Decodes that found the image's codestream in use opened their own, which were closed when they were done
+        assertEquals(1, myExtract.size());
+        assertEquals(myExtract.getOpenedCount() - 1, myExtract.getClosedCount());
+        assertEquals(1, myExtract.getThreadEnvCount());
+    }
+}
@@ -0,0 +1,85 @@
+package gov.lanl.adore.djatoka.openurl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import gov.lanl.adore.djatoka.DjatokaException;
+
+public class DjatokaImageMigratorTest {
+
+    private static final URI IMAGE_URI = URI.create("http://localhost/images/test.jp2");
+
+    /**
+     * Tests that requests for a referent that's already being migrated share its migration.
+     */
+    @Test
+    public void testMigrateInFlight() throws Exception {
+        final BlockingMigrator migrator = new BlockingMigrator();
+        final Future<File> migration = migrator.migrate("test", IMAGE_URI);
+
+        assertSame(migration, migrator.migrate("test", IMAGE_URI));
+        assertSame(migration, migrator.getMigration("test"));
+        assertEquals(1, migrator.getProcessingList().size());
+
+        migrator.myLatch.countDown();
+
+        assertEquals("test", migration.get(5, TimeUnit.SECONDS).getName());
+        assertEquals(1, migrator.myConvertCount.get());
+    }
+
+    /**
+     * Tests that a migration is rejected, rather than run on the caller's thread, when all the workers are busy and
+     * the queue is full.
+     */
+    @Test
+    public void testMigrateRejected() throws Exception {
+        final BlockingMigrator migrator = new BlockingMigrator();
+
+        migrator.setMigrationLimits(1, 1);
+        migrator.migrate("first", IMAGE_URI);
+        migrator.migrate("second", IMAGE_URI);
+
+        try {
+            migrator.migrate("third", IMAGE_URI);
+            fail("Expected the third migration to be rejected");
+        } catch (final DjatokaException details) {
+            assertNull(migrator.getMigration("third"));
+        } finally {
+            migrator.myLatch.countDown();
+        }
+    }
+
+    /**
+     * A migrator whose conversions wait until they're released.
+     */
+    private static class BlockingMigrator extends DjatokaImageMigrator {
+
+        private final CountDownLatch myLatch = new CountDownLatch(1);
+
+        private final AtomicInteger myConvertCount = new AtomicInteger();
+
+        @Override
+        public File convert(final String aReferent, final URI aURI) throws DjatokaException {
+            myConvertCount.incrementAndGet();
+
+            try {
+                myLatch.await(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException details) {
+                throw new DjatokaException(details.getMessage(), details);
+            }
+
+            return new File(aReferent);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package gov.lanl.adore.djatoka.openurl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TileCacheManagerTest {
+
+    /**
+     * Tests that tiles are evicted, and their files deleted, when the cache goes over its byte budget.
+     */
+    @Test
+    public void testByteBudget() throws IOException, InterruptedException {
+        final TileCacheManager<String, String> cache = new TileCacheManager<String, String>(0, 250);
+        final File first = createTile(100);
+        final File second = createTile(100);
+        final File third = createTile(100);
+
+        cache.put("first", first.getAbsolutePath());
+        cache.put("second", second.getAbsolutePath());
+
+        // Referencing the first tile gives it a second chance
+        assertEquals(first.getAbsolutePath(), cache.get("first"));
+
+        cache.put("third", third.getAbsolutePath());
+
+        assertEquals(2, cache.size());
+        assertEquals(200, cache.getByteCount());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get("second"));
+        assertTrue(waitForDelete(second));
+        assertTrue(first.exists());
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        cache.remove("first");
+        cache.remove("third");
+        assertTrue(waitForDelete(first));
+        assertTrue(waitForDelete(third));
+        assertEquals(0, cache.getByteCount());
+    }
+
+    /**
+     * Tests that tiles are evicted when the cache goes over its entry limit.
+     */
+    @Test
+    public void testEntryLimit() throws IOException, InterruptedException {
+        final TileCacheManager<String, String> cache = new TileCacheManager<String, String>(1, 0);
+        final File first = createTile(10);
+        final File second = createTile(10);
+
+        cache.put("first", first.getAbsolutePath());
+        cache.put("second", second.getAbsolutePath());
+
+        assertFalse(cache.containsKey("first"));
+        assertTrue(cache.containsKey("second"));
+        assertTrue(waitForDelete(first));
+
+        cache.remove("second");
+        assertTrue(waitForDelete(second));
+    }
+
+    private File createTile(final int aSize) throws IOException {
+        final File file = File.createTempFile("tile-", ".jpg");
+        final FileOutputStream outStream = new FileOutputStream(file);
+
+        file.deleteOnExit();
+
+        try {
+            outStream.write(new byte[aSize]);
+        } finally {
+            outStream.close();
+        }
+
+        return file;
+    }
+
+    private boolean waitForDelete(final File aFile) throws InterruptedException {
+        for (int index = 0; index < 100 && aFile.exists(); index++) {
+            Thread.sleep(10);
+        }
+
+        return !aFile.exists();
+    }
+}
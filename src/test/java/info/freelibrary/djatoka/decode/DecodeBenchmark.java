@@ -0,0 +1,167 @@
+
+package info.freelibrary.djatoka.decode;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import gov.lanl.adore.djatoka.DjatokaDecodeParam;
+import gov.lanl.adore.djatoka.DjatokaException;
+import gov.lanl.adore.djatoka.IExtract;
+import gov.lanl.adore.djatoka.kdu.KduExtractExe;
+import gov.lanl.adore.djatoka.kdu.jni.PooledKduExtractJNI;
+
+/**
+ * Compares the decoders on the sample images: <code>kdu_expand</code> ({@link KduExtractExe}), Kakadu's Java
+ * bindings in process ({@link PooledKduExtractJNI}), and pure Java ({@link ImageIOExtract}). Each decodes a 256
+ * pixel tile at full resolution and the whole image reduced by three levels. Run it from the command line after
+ * <code>mvn -Pjava-jpeg2000 test-compile</code> with:
+ * <p/>
+ * <code>java -Dkakadu.home=lib/Linux-x86-64 -DLD_LIBRARY_PATH=lib/Linux-x86-64
+ * -Djava.library.path=lib/Linux-x86-64 -cp target/test-classes:target/classes:[test classpath]
+ * info.freelibrary.djatoka.decode.DecodeBenchmark [JP2 directory]</code>
+ * <p/>
+ * The JP2 directory defaults to the test images. A decoder that can't be loaded fails its runs without stopping the
+ * others.
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+
+    private static final String IMAGES_PROPERTY = "benchmark.jp2.dir";
+
+    private static final String DEFAULT_IMAGES = "src/test/resources/images/iiif-test";
+
+    private static final String[] FORWARDED_PROPERTIES = new String[] { "kakadu.home", "LD_LIBRARY_PATH",
+        "DYLD_LIBRARY_PATH", "java.library.path", IMAGES_PROPERTY };
+
+    @Param({ "kdu_expand", "jni", "imageio" })
+    public String myDecoder;
+
+    @Param({ "tile", "thumbnail" })
+    public String myRequest;
+
+    private IExtract myExtract;
+
+    private List<String> myImages;
+
+    private int myIndex;
+
+    /**
+     * Creates the decoder and finds the JP2s to decode.
+     */
+    @Setup
+    public void setUp() throws DjatokaException {
+        final File[] files = new File(System.getProperty(IMAGES_PROPERTY, DEFAULT_IMAGES)).listFiles();
+
+        myImages = new ArrayList<String>();
+
+        if (files != null) {
+            for (final File file : files) {
+                if (file.getName().endsWith(".jp2")) {
+                    myImages.add(file.getAbsolutePath());
+                }
+            }
+        }
+
+        if (myImages.isEmpty()) {
+            throw new IllegalStateException("No JP2 images to decode");
+        }
+
+        if ("kdu_expand".equals(myDecoder)) {
+            myExtract = new KduExtractExe();
+        } else if ("jni".equals(myDecoder)) {
+            myExtract = new PooledKduExtractJNI();
+        } else {
+            if (!ImageIOExtract.isAvailable()) {
+                throw new IllegalStateException("No JPEG 2000 ImageIO reader; compile with -Pjava-jpeg2000");
+            }
+
+            myExtract = new ImageIOExtract();
+        }
+
+        // Each decoder reads the images' metadata before the measurements start, so it's cached for all of them
+        for (final String image : myImages) {
+            decode(image);
+        }
+    }
+
+    /**
+     * Closes the in-process decoder's open images.
+     */
+    @TearDown
+    public void tearDown() {
+        if (myExtract instanceof PooledKduExtractJNI) {
+            ((PooledKduExtractJNI) myExtract).clear();
+        }
+    }
+
+    /**
+     * Decodes the next image, cycling through the sample images.
+     */
+    @Benchmark
+    public BufferedImage decode() throws DjatokaException {
+        myIndex = (myIndex + 1) % myImages.size();
+        return decode(myImages.get(myIndex));
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args An optional directory of JP2 images to decode
+     * @throws RunnerException If the benchmark can't be run
+     */
+    public static void main(final String[] args) throws RunnerException {
+        final List<String> jvmArgs = new ArrayList<String>();
+
+        if (args.length > 0) {
+            System.setProperty(IMAGES_PROPERTY, new File(args[0]).getAbsolutePath());
+        }
+
+        // The forked benchmark JVM needs to be able to find Kakadu too
+        for (final String property : FORWARDED_PROPERTIES) {
+            if (System.getProperty(property) != null) {
+                jvmArgs.add("-D" + property + "=" + System.getProperty(property));
+            }
+        }
+
+        new Runner(new OptionsBuilder().include(DecodeBenchmark.class.getSimpleName()).jvmArgsAppend(jvmArgs
+                .toArray(new String[jvmArgs.size()])).build()).run();
+    }
+
+    private BufferedImage decode(final String aImage) throws DjatokaException {
+        final DjatokaDecodeParam params = new DjatokaDecodeParam();
+
+        if ("tile".equals(myRequest)) {
+            params.setRegion("{256,256},{256,256}");
+        } else {
+            params.setLevelReductionFactor(3);
+        }
+
+        return myExtract.process(aImage, params);
+    }
+}
@@ -0,0 +1,238 @@
+
+package info.freelibrary.djatoka.decode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+public class DecodeExecutorTest {
+
+    /**
+     * Tests that a request that can't be suspended is served on the calling thread.
+     */
+    @Test
+    public void testExecuteInline() throws Exception {
+        final Stub stub = new Stub(false, false);
+        final Thread caller = Thread.currentThread();
+        final Thread[] runner = new Thread[1];
+
+        new DecodeExecutor(DecodeExecutor.DECODE_LANE, 1, 1, 5, 0).execute(stub.getRequest(), stub.getResponse(),
+                new DecodeExecutor.Task() {
+
+                    @Override
+                    public void run() {
+                        runner[0] = Thread.currentThread();
+                    }
+                });
+
+        assertEquals(caller, runner[0]);
+        assertFalse(stub.myCalls.containsKey("startAsync"));
+    }
+
+    /**
+     * Tests that a request that's already running in one lane is served on its thread, rather than being suspended
+     * again, when it's handed to another lane.
+     */
+    @Test
+    public void testExecuteInLane() throws Exception {
+        final Stub stub = new Stub(true, true);
+        final boolean[] ran = new boolean[1];
+
+        new DecodeExecutor(DecodeExecutor.INFO_LANE, 1, 1, 5, 0).execute(stub.getRequest(), stub.getResponse(),
+                new DecodeExecutor.Task() {
+
+                    @Override
+                    public void run() {
+                        ran[0] = true;
+                    }
+                });
+
+        assertTrue(ran[0]);
+        assertFalse(stub.myCalls.containsKey("startAsync"));
+    }
+
+    /**
+     * Tests that suspended requests are served by the executor's workers, and that a request is rejected with a 503
+     * when the workers are busy and the queue is full.
+     */
+    @Test
+    public void testExecuteAsync() throws Exception {
+        final DecodeExecutor executor = new DecodeExecutor(DecodeExecutor.DECODE_LANE, 1, 1, 7, 0);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        final DecodeExecutor.Task task = new DecodeExecutor.Task() {
+
+            @Override
+            public void run() {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (final InterruptedException details) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        final Stub first = new Stub(true, false);
+        final Stub second = new Stub(true, false);
+        final Stub third = new Stub(true, false);
+
+        executor.execute(first.getRequest(), first.getResponse(), task);
+        executor.execute(second.getRequest(), second.getResponse(), task);
+        executor.execute(third.getRequest(), third.getResponse(), task);
+
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, third.myCalls.get("sendError")[0]);
+        assertEquals("7", third.myCalls.get("setHeader")[1]);
+        assertTrue(third.myCalls.containsKey("complete"));
+        assertEquals(1, executor.getRejectedCount());
+
+        latch.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Tests that work that passes the lane's time limit is cancelled and answered with a 503, and that the container
+     * isn't asked to time the request out itself.
+     */
+    @Test
+    public void testTimeLimit() throws Exception {
+        final DecodeExecutor executor = new DecodeExecutor(DecodeExecutor.DECODE_LANE, 1, 1, 7, 50);
+        final Stub stub = new Stub(true, false);
+
+        executor.execute(stub.getRequest(), stub.getResponse(), new DecodeExecutor.Task() {
+
+            @Override
+            public void run() throws ServletException {
+                try {
+                    while (true) {
+                        Cancellation.check();
+                        Thread.sleep(10);
+                    }
+                } catch (final Exception details) {
+                    throw new ServletException(details);
+                }
+            }
+        });
+
+        for (int wait = 0; wait < 500 && !stub.myCalls.containsKey("complete"); wait++) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(stub.myCalls.containsKey("complete"));
+        assertEquals(0L, stub.myCalls.get("setTimeout")[0]);
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, stub.myCalls.get("sendError")[0]);
+        assertEquals("7", stub.myCalls.get("setHeader")[1]);
+        assertEquals(1, executor.getTimedOutCount());
+        assertEquals(0, executor.getCancelledCount());
+    }
+
+    /**
+     * Tests that work that answers its own request when it's stopped, as the OpenURL service does, can tell that it
+     * was stopped by the lane's time limit and when the client should try again.
+     */
+    @Test
+    public void testTimeLimitAnswered() throws Exception {
+        final DecodeExecutor executor = new DecodeExecutor(DecodeExecutor.DECODE_LANE, 1, 1, 7, 50);
+        final Stub stub = new Stub(true, false);
+        final AtomicInteger retryAfter = new AtomicInteger();
+        final AtomicReference<String> message = new AtomicReference<String>();
+
+        executor.execute(stub.getRequest(), stub.getResponse(), new DecodeExecutor.Task() {
+
+            @Override
+            public void run() throws ServletException {
+                try {
+                    while (true) {
+                        Cancellation.check();
+                        Thread.sleep(10);
+                    }
+                } catch (final DecodeCancelledException details) {
+                    final Cancellation cancellation = Cancellation.current();
+
+                    if (cancellation.isTimedOut()) {
+                        retryAfter.set(cancellation.getRetryAfter());
+                    }
+
+                    message.set(details.getMessage());
+                } catch (final InterruptedException details) {
+                    throw new ServletException(details);
+                }
+            }
+        });
+
+        for (int wait = 0; wait < 500 && !stub.myCalls.containsKey("complete"); wait++) {
+            Thread.sleep(10);
+        }
+
+        assertTrue(stub.myCalls.containsKey("complete"));
+        assertEquals(7, retryAfter.get());
+        assertEquals("Decode stopped; the image took too long to decode", message.get());
+        assertEquals(1, executor.getTimedOutCount());
+        assertEquals(0, executor.getCancelledCount());
+    }
+
+    /**
+     * A request, response, and async context that record the methods called on them.
+     */
+    private static class Stub implements InvocationHandler {
+
+        private final Map<String, Object[]> myCalls = new ConcurrentHashMap<String, Object[]>();
+
+        private final boolean myAsyncSupported;
+
+        private final boolean myAsyncStarted;
+
+        private Stub(final boolean aAsyncSupported, final boolean aAsyncStarted) {
+            myAsyncSupported = aAsyncSupported;
+            myAsyncStarted = aAsyncStarted;
+        }
+
+        private HttpServletRequest getRequest() {
+            return (HttpServletRequest) proxy(HttpServletRequest.class);
+        }
+
+        private HttpServletResponse getResponse() {
+            return (HttpServletResponse) proxy(HttpServletResponse.class);
+        }
+
+        private Object proxy(final Class<?> aClass) {
+            return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { aClass }, this);
+        }
+
+        @Override
+        public Object invoke(final Object aProxy, final Method aMethod, final Object[] aArgs) {
+            final String name = aMethod.getName();
+
+            myCalls.put(name, aArgs == null ? new Object[0] : aArgs);
+
+            if ("isAsyncSupported".equals(name)) {
+                return myAsyncSupported;
+            } else if ("isAsyncStarted".equals(name)) {
+                return myAsyncStarted;
+            } else if ("startAsync".equals(name)) {
+                return proxy(AsyncContext.class);
+            } else if ("isCommitted".equals(name)) {
+                return false;
+            }
+
+            return null;
+        }
+    }
+}
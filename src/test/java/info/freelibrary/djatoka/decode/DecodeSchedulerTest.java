@@ -0,0 +1,152 @@
+package info.freelibrary.djatoka.decode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DecodeSchedulerTest {
+
+    /**
+     * Tests that a free worker is handed out and returned.
+     */
+    @Test
+    public void testAcquireAndRelease() throws DecodeRejectedException {
+        final DecodeScheduler scheduler = new DecodeScheduler(2, 0, 0, 1);
+
+        scheduler.acquire();
+        assertEquals(1, scheduler.getActiveCount());
+
+        scheduler.release();
+        assertEquals(0, scheduler.getActiveCount());
+        assertEquals(1, scheduler.getDecodeCount());
+    }
+
+    /**
+     * Tests that a request is rejected when all the workers are busy and the queue is full.
+     */
+    @Test
+    public void testRejectWhenQueueIsFull() throws DecodeRejectedException {
+        final DecodeScheduler scheduler = new DecodeScheduler(1, 0, 1000, 7);
+
+        scheduler.acquire();
+
+        try {
+            scheduler.acquire();
+            fail("Expected the decode to be rejected");
+        } catch (final DecodeRejectedException details) {
+            assertEquals(7, details.getRetryAfter());
+        } finally {
+            scheduler.release();
+        }
+
+        assertEquals(1, scheduler.getRejectedCount());
+        assertEquals(0, scheduler.getQueueDepth());
+    }
+
+    /**
+     * Tests that a queued request is rejected when it waits longer than the queue timeout.
+     */
+    @Test
+    public void testRejectWhenQueueTimesOut() throws DecodeRejectedException {
+        final DecodeScheduler scheduler = new DecodeScheduler(1, 1, 50, 1);
+
+        scheduler.acquire();
+
+        try {
+            scheduler.acquire();
+            fail("Expected the queued decode to time out");
+        } catch (final DecodeRejectedException details) {
+            assertEquals(1, scheduler.getPeakQueueDepth());
+        } finally {
+            scheduler.release();
+        }
+    }
+
+    /**
+     * Tests that a queued request gets a worker once one is released.
+     */
+    @Test
+    public void testQueuedRequestGetsWorker() throws Exception {
+        final DecodeScheduler scheduler = new DecodeScheduler(1, 1, 5000, 1);
+        final Thread holder;
+
+        scheduler.acquire();
+
+        holder = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (final InterruptedException details) {
+                    // Release the worker early
+                } finally {
+                    scheduler.release();
+                }
+            }
+        };
+
+        holder.start();
+        scheduler.acquire();
+        scheduler.release();
+        holder.join();
+
+        assertEquals(2, scheduler.getDecodeCount());
+        assertEquals(0, scheduler.getRejectedCount());
+    }
+
+    /**
+     * Tests that the queue depth counts every request waiting for a worker while all the workers are busy.
+     */
+    @Test
+    public void testQueueDepthUnderLoad() throws Exception {
+        final DecodeScheduler scheduler = new DecodeScheduler(2, 3, 5000, 1);
+        final List<Thread> waiters = new ArrayList<Thread>();
+        final long deadline = System.currentTimeMillis() + 5000;
+
+        scheduler.acquire();
+        scheduler.acquire();
+
+        for (int index = 0; index < 3; index++) {
+            final Thread waiter = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        scheduler.acquire();
+                        scheduler.release();
+                    } catch (final DecodeRejectedException details) {
+                        // Counted by the scheduler's rejected count, which is checked below
+                    }
+                }
+            };
+
+            waiters.add(waiter);
+            waiter.start();
+        }
+
+        while (scheduler.getQueueDepth() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        try {
+            assertEquals(2, scheduler.getActiveCount());
+            assertEquals(3, scheduler.getQueueDepth());
+        } finally {
+            scheduler.release();
+            scheduler.release();
+
+            for (final Thread waiter : waiters) {
+                waiter.join();
+            }
+        }
+
+        assertEquals(0, scheduler.getQueueDepth());
+        assertEquals(0, scheduler.getRejectedCount());
+        assertEquals(5, scheduler.getDecodeCount());
+    }
+}
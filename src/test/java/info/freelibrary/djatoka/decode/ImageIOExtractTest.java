@@ -0,0 +1,72 @@
+
+package info.freelibrary.djatoka.decode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import gov.lanl.adore.djatoka.DjatokaDecodeParam;
+import gov.lanl.adore.djatoka.DjatokaException;
+import gov.lanl.adore.djatoka.util.ImageRecord;
+
+public class ImageIOExtractTest {
+
+    private static final String IMAGE = "src/test/resources/images/iiif-test/67352ccc-d1b0-11e1-89ae-279075081939.jp2";
+
+    private static final int SIZE = 1000;
+
+    /**
+     * Tests that an image's metadata is read without Kakadu.
+     */
+    @Test
+    public void testMetadata() throws DjatokaException {
+        final ImageRecord record = new ImageIOExtract().getMetadata(new ImageRecord(IMAGE));
+
+        assertEquals(SIZE, record.getWidth());
+        assertEquals(SIZE, record.getHeight());
+        assertTrue(record.getDWTLevels() > 0);
+    }
+
+    /**
+     * Tests that a region is mapped to the full resolution pixels that are subsampled to give the reduced region.
+     */
+    @Test
+    public void testSourceRegion() {
+        assertEquals(new Rectangle(0, 0, 1001, 999), ImageIOExtract.getSourceRegion(1001, 999, 3, Collections
+                .<Double> emptyList()));
+        assertEquals(new Rectangle(500, 250, 250, 500), ImageIOExtract.getSourceRegion(SIZE, SIZE, 1, Arrays.asList(
+                0.25, 0.5, 0.5, 0.25)));
+
+        // The last reduced column of an odd width image is only one full resolution pixel wide
+        assertEquals(new Rectangle(1000, 0, 1, 2), ImageIOExtract.getSourceRegion(1001, 999, 1, Arrays.asList(0.0,
+                0.999, 0.001, 0.001)));
+        assertTrue(ImageIOExtract.getSourceRegion(SIZE, SIZE, 0, Arrays.asList(1.0, 0.0, 0.1, 0.1)).isEmpty());
+    }
+
+    /**
+     * Tests that a reduced, rotated region is decoded at the size Kakadu would decode it, if there's a JPEG 2000
+     * reader installed.
+     */
+    @Test
+    public void testDecodeRegion() throws DjatokaException {
+        assumeTrue(ImageIOExtract.isAvailable());
+
+        final DjatokaDecodeParam params = new DjatokaDecodeParam();
+
+        params.setRegion("{0.25,0.5},{0.5,0.25}");
+        params.setLevelReductionFactor(1);
+        params.setRotationDegree(90);
+
+        final BufferedImage image = new ImageIOExtract().process(IMAGE, params);
+
+        assertEquals(SIZE / 4, image.getWidth());
+        assertEquals(SIZE / 8, image.getHeight());
+    }
+}
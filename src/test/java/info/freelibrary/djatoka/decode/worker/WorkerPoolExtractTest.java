@@ -0,0 +1,204 @@
+
+package info.freelibrary.djatoka.decode.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import gov.lanl.adore.djatoka.DjatokaDecodeParam;
+import gov.lanl.adore.djatoka.DjatokaException;
+import gov.lanl.adore.djatoka.IExtract;
+import gov.lanl.adore.djatoka.util.ImageRecord;
+
+public class WorkerPoolExtractTest {
+
+    private static final int WIDTH = 64;
+
+    private static final int HEIGHT = 32;
+
+    private File myImage;
+
+    private WorkerPoolExtract myPool;
+
+    @Before
+    public void setUp() throws IOException {
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = image.createGraphics();
+
+        // Red on the left half, blue on the right
+        graphics.setColor(Color.RED);
+        graphics.fillRect(0, 0, WIDTH / 2, HEIGHT);
+        graphics.setColor(Color.BLUE);
+        graphics.fillRect(WIDTH / 2, 0, WIDTH / 2, HEIGHT);
+        graphics.dispose();
+
+        myImage = new File("target/worker test " + System.nanoTime() + ".png");
+        ImageIO.write(image, "png", myImage);
+
+        myPool = new WorkerPoolExtract(WorkerPoolExtract.getJavaCommand(JavaDecoderWorker.class), 1, new Metadata());
+    }
+
+    @After
+    public void tearDown() {
+        myPool.stopIdleWorkers();
+        myImage.delete();
+    }
+
+    /**
+     * Tests that a worker's JVM is started with a bounded heap, and that a heap size Java won't take is refused.
+     */
+    @Test
+    public void testJavaCommand() {
+        assertTrue(WorkerPoolExtract.getJavaCommand(JavaDecoderWorker.class).contains("-Xmx" +
+                WorkerPoolExtract.DEFAULT_MAX_HEAP));
+        assertTrue(WorkerPoolExtract.getJavaCommand(JavaDecoderWorker.class, "1g").contains("-Xmx1g"));
+
+        try {
+            WorkerPoolExtract.getJavaCommand(JavaDecoderWorker.class, "lots");
+            fail("Expected an unusable heap size to be refused");
+        } catch (final IllegalArgumentException details) {
+            assertTrue(details.getMessage().contains("lots"));
+        }
+    }
+
+    /**
+     * Tests that a job survives being sent to a worker as a line of text.
+     */
+    @Test
+    public void testJobLine() throws IOException {
+        final double[] region = new double[] { 0.25, 0.5, 0.5, 0.125 };
+        final DecodeJob job = new DecodeJob("/a path/with spaces.jp2", 2, 90, 1, region);
+        final DecodeJob parsed = DecodeJob.parse(job.toString());
+
+        assertEquals(job.toString(), parsed.toString());
+        assertEquals("/a path/with spaces.jp2", parsed.getFile());
+        assertTrue(Arrays.equals(region, parsed.getRegion()));
+        assertFalse(DecodeJob.parse("DECODE 0 0 0 - /x.jp2").hasRegion());
+    }
+
+    /**
+     * Tests that a region is decoded at the requested reduction and rotation by a worker process.
+     */
+    @Test
+    public void testDecodeRegion() throws DjatokaException {
+        final DjatokaDecodeParam params = new DjatokaDecodeParam();
+
+        // The top right quarter, which is all blue
+        params.setRegion("{0.0,0.5},{0.5,0.5}");
+        params.setLevelReductionFactor(1);
+        params.setRotationDegree(90);
+
+        final BufferedImage image = myPool.process(myImage.getPath(), params);
+
+        assertEquals(HEIGHT / 4, image.getWidth());
+        assertEquals(WIDTH / 4, image.getHeight());
+        assertEquals(Color.BLUE.getRGB(), image.getRGB(0, 0));
+        assertEquals(1, myPool.getStartedCount());
+    }
+
+    /**
+     * Tests that an image a worker can't decode doesn't cost the pool its worker.
+     */
+    @Test
+    public void testDecodeError() throws DjatokaException {
+        try {
+            myPool.process(new File(myImage.getParentFile(), "missing.png").getPath(), new DjatokaDecodeParam());
+            fail("Expected the missing image not to be decoded");
+        } catch (final DjatokaException details) {
+            assertEquals(0, myPool.getCrashedCount());
+        }
+
+        assertEquals(WIDTH, myPool.process(myImage.getPath(), new DjatokaDecodeParam()).getWidth());
+        assertEquals(1, myPool.getStartedCount());
+        assertEquals(1, myPool.getIdleCount());
+    }
+
+    /**
+     * Tests that a worker is replaced once it's decoded its maximum number of jobs.
+     */
+    @Test
+    public void testRecycle() throws DjatokaException {
+        myPool.setMaxJobs(2);
+
+        for (int index = 0; index < 5; index++) {
+            assertEquals(WIDTH, myPool.process(myImage.getPath(), new DjatokaDecodeParam()).getWidth());
+        }
+
+        assertEquals(3, myPool.getStartedCount());
+        assertEquals(2, myPool.getRecycledCount());
+        assertEquals(5, myPool.getJobCount());
+    }
+
+    /**
+     * Tests that a worker that crashes is replaced, and its job retried once on the new worker.
+     */
+    @Test
+    public void testCrash() {
+        final String shell = "/bin/sh";
+
+        assumeTrue(new File(shell).canExecute());
+
+        // A worker that dies as soon as it's sent a job
+        final WorkerPoolExtract pool = new WorkerPoolExtract(Arrays.asList(shell, "-c", "read job; exit 1"), 1,
+                new Metadata());
+
+        try {
+            pool.process(myImage.getPath(), new DjatokaDecodeParam());
+            fail("Expected the crashing worker to fail the decode");
+        } catch (final DjatokaException details) {
+            assertEquals(2, pool.getStartedCount());
+            assertEquals(2, pool.getCrashedCount());
+            assertEquals(0, pool.getIdleCount());
+        }
+    }
+
+    /**
+     * Reports the test image's dimensions without reading it, since the workers are what's being tested.
+     */
+    private static class Metadata implements IExtract {
+
+        @Override
+        public ImageRecord getMetadata(final ImageRecord aInput) {
+            aInput.setWidth(WIDTH);
+            aInput.setHeight(HEIGHT);
+            aInput.setDWTLevels(5);
+            return aInput;
+        }
+
+        @Override
+        public String[] getXMLBox(final ImageRecord aInput) {
+            return new String[0];
+        }
+
+        @Override
+        public BufferedImage process(final InputStream aInput, final DjatokaDecodeParam aParams) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BufferedImage process(final String aInput, final DjatokaDecodeParam aParams) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public BufferedImage process(final ImageRecord aInput, final DjatokaDecodeParam aParams) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+
+package info.freelibrary.djatoka.iiif;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.net.URL;
+
+import org.junit.Test;
+
+public class ImageRequestTest {
+
+    private static final String URL_PATTERN = "http://localhost:8888/iiif/test-image/{}/{}/0/native.jpg";
+
+    private static final int WIDTH = 2000;
+
+    private static final int HEIGHT = 1000;
+
+    /**
+     * Tests that requests for the same pixels share a canonical form.
+     */
+    @Test
+    public void testEquivalentRequests() throws Exception {
+        final String canonical = getCanonical("full", "1000,");
+
+        assertEquals("full/1000,", canonical);
+        assertEquals(canonical, getCanonical("full", "pct:50"));
+        assertEquals(canonical, getCanonical("full", ",500"));
+        assertEquals(canonical, getCanonical("full", "!1000,1000"));
+        assertEquals(canonical, getCanonical("full", "1000,500"));
+        assertEquals(canonical, getCanonical("0,0,2000,1000", "1000,"));
+        assertEquals(canonical, getCanonical("pct:0,0,100,100", "1000,"));
+    }
+
+    /**
+     * Tests that regions are converted to pixels and clipped to the image.
+     */
+    @Test
+    public void testCanonicalRegion() throws Exception {
+        assertEquals("1000,500,1000,500/full", getCanonical("pct:50,50,50,50", "full"));
+        assertEquals("1792,768,208,232/full", getCanonical("1792,768,256,256", "full"));
+        assertEquals("1792,768,208,232/full", getCanonical("1792,768,256,256", "208,"));
+    }
+
+    /**
+     * Tests that sizes that change the aspect ratio stay as they are.
+     */
+    @Test
+    public void testDistortedSize() throws Exception {
+        assertEquals("full/1000,1000", getCanonical("full", "1000,1000"));
+    }
+
+    /**
+     * Tests that a request that's already canonical is returned rather than copied.
+     */
+    @Test
+    public void testCanonicalRequest() throws Exception {
+        final ImageRequest request = getRequest("0,0,1024,512", "256,");
+
+        assertSame(request, request.getCanonicalRequest(WIDTH, HEIGHT));
+        assertEquals("256,0", request.getSize().toString());
+    }
+
+    private static String getCanonical(final String aRegion, final String aSize) throws Exception {
+        final ImageRequest request = getRequest(aRegion, aSize).getCanonicalRequest(WIDTH, HEIGHT);
+        return request.getRegion() + "/" + request.getSize().toPathString();
+    }
+
+    private static ImageRequest getRequest(final String aRegion, final String aSize) throws Exception {
+        final String url = URL_PATTERN.replaceFirst("\\{\\}", aRegion).replaceFirst("\\{\\}", aSize);
+        return new ImageRequest(new URL(url), "iiif");
+    }
+}
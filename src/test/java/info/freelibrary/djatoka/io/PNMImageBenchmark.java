@@ -0,0 +1,143 @@
+package info.freelibrary.djatoka.io;
+
+import gov.lanl.adore.djatoka.io.FormatIOException;
+import gov.lanl.adore.djatoka.io.reader.PNMReader;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the bulk raster {@link PNMImage} decoder used by {@link PNMReader} with the per-pixel <code>setRGB</code>
+ * decoder it replaced. Run it from the command line after <code>mvn test-compile</code> with:
+ * <p/>
+ * <code>java -cp target/test-classes:target/classes:[test classpath] info.freelibrary.djatoka.io.PNMImageBenchmark</code>
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PNMImageBenchmark {
+
+    @Param({ "P6", "P5" })
+    public String myFormat;
+
+    @Param({ "256", "1024" })
+    public int mySize;
+
+    private byte[] myImage;
+
+    /**
+     * Creates a random PNM image like the ones <code>kdu_expand</code> writes.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        final int bands = "P6".equals(myFormat) ? 3 : 1;
+        final ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        final byte[] pixels = new byte[mySize * mySize * bands];
+
+        new Random(42).nextBytes(pixels);
+        outStream.write((myFormat + "\n" + mySize + " " + mySize + "\n255\n").getBytes("US-ASCII"));
+        outStream.write(pixels);
+        myImage = outStream.toByteArray();
+    }
+
+    /**
+     * Decodes the image with the current <code>PNMReader</code>.
+     */
+    @Benchmark
+    public BufferedImage bulkRaster() throws FormatIOException {
+        return new PNMReader().open(new ByteArrayInputStream(myImage));
+    }
+
+    /**
+     * Decodes the image with the previous per-pixel decoder.
+     */
+    @Benchmark
+    public BufferedImage perPixelSetRGB() throws IOException {
+        return readPerPixel(new ByteArrayInputStream(myImage));
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Command line arguments (ignored)
+     * @throws RunnerException If the benchmark can't be run
+     */
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PNMImageBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    /**
+     * The P5/P6 8-bit path of the decoder <code>PNMImage</code> used before bulk raster reads.
+     */
+    private static BufferedImage readPerPixel(final InputStream aInputStream) throws IOException {
+        final DataInputStream stream = new DataInputStream(new BufferedInputStream(aInputStream));
+        final boolean isGreyscale = stream.read() == 'P' && stream.read() == '5';
+        final int width = readNumber(stream);
+        final int height = readNumber(stream);
+        final BufferedImage image;
+
+        readNumber(stream);
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int r, g, b;
+
+                if (isGreyscale) {
+                    r = g = b = stream.read();
+                } else {
+                    r = stream.read();
+                    g = stream.read();
+                    b = stream.read();
+                }
+
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+
+        return image;
+    }
+
+    private static int readNumber(final InputStream aStream) throws IOException {
+        int number = 0;
+        int c = aStream.read();
+
+        while (c != -1 && Character.isWhitespace((char) c)) {
+            c = aStream.read();
+        }
+
+        while (c >= '0' && c <= '9') {
+            number = number * 10 + c - '0';
+            c = aStream.read();
+        }
+
+        return number;
+    }
+}
@@ -0,0 +1,95 @@
+package info.freelibrary.djatoka.io;
+
+import static org.junit.Assert.assertEquals;
+
+import gov.lanl.adore.djatoka.io.FormatIOException;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class PNMImageTest {
+
+    /**
+     * Tests reading an 8-bit colour PPM.
+     */
+    @Test
+    public void testReadP6() throws IOException, FormatIOException {
+        final BufferedImage image = read("P6\n2 1\n255\n", 255, 0, 0, 10, 20, 30);
+
+        assertEquals(BufferedImage.TYPE_3BYTE_BGR, image.getType());
+        assertEquals(0xff0000, image.getRGB(0, 0) & 0xffffff);
+        assertEquals(0x0a141e, image.getRGB(1, 0) & 0xffffff);
+    }
+
+    /**
+     * Tests reading a 16-bit colour PPM.
+     */
+    @Test
+    public void testReadP6SixteenBit() throws IOException, FormatIOException {
+        final BufferedImage image = read("P6\n1 1\n65535\n", 0xff, 0xff, 0x80, 0x00, 0x00, 0x00);
+
+        assertEquals(0xff8000, image.getRGB(0, 0) & 0xffffff);
+    }
+
+    /**
+     * Tests reading an 8-bit greyscale PGM with a comment in its header.
+     */
+    @Test
+    public void testReadP5() throws IOException, FormatIOException {
+        final BufferedImage image = read("P5\n# kdu_expand\n3 1\n255\n", 0, 128, 255);
+
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, image.getType());
+        assertEquals(3, image.getWidth());
+        assertEquals(128, image.getRaster().getSample(1, 0, 0));
+        assertEquals(255, image.getRaster().getSample(2, 0, 0));
+    }
+
+    /**
+     * Tests reading a 16-bit greyscale PGM with a maximum value less than 65535.
+     */
+    @Test
+    public void testReadP5SixteenBit() throws IOException, FormatIOException {
+        final BufferedImage image = read("P5\n2 1\n4095\n", 0x0f, 0xff, 0x08, 0x00);
+
+        assertEquals(255, image.getRaster().getSample(0, 0, 0));
+        assertEquals(128, image.getRaster().getSample(1, 0, 0));
+    }
+
+    /**
+     * Tests reading a bitmap whose rows are padded to a byte boundary.
+     */
+    @Test
+    public void testReadP4() throws IOException, FormatIOException {
+        final BufferedImage image = read("P4\n9 2\n", 0x80, 0x80, 0x00, 0x00);
+
+        assertEquals(0, image.getRaster().getSample(0, 0, 0));
+        assertEquals(255, image.getRaster().getSample(1, 0, 0));
+        assertEquals(0, image.getRaster().getSample(8, 0, 0));
+        assertEquals(255, image.getRaster().getSample(0, 1, 0));
+    }
+
+    /**
+     * Tests that a truncated image is reported rather than padded with garbage.
+     */
+    @Test(expected = IOException.class)
+    public void testReadTruncated() throws IOException, FormatIOException {
+        read("P6\n2 2\n255\n", 1, 2, 3);
+    }
+
+    private BufferedImage read(final String aHeader, final int... aSamples) throws IOException,
+            FormatIOException {
+        final ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+
+        outStream.write(aHeader.getBytes("US-ASCII"));
+
+        for (final int sample : aSamples) {
+            outStream.write(sample);
+        }
+
+        return new PNMImage(new ByteArrayInputStream(outStream.toByteArray())).getBufferedImage();
+    }
+}
@@ -3,7 +3,11 @@ package info.freelibrary.djatoka.util;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 
 import org.junit.Test;
@@ -73,4 +77,37 @@ public class CacheUtilsTest {
         assertEquals("0,0,1023,1023", CacheUtils.getRegion(10, 1684, 2338, 0, 0));
     }
 
+    /**
+     * Tests that entity tags differ between renderings of the same source and change when the source does.
+     */
+    @Test
+    public void testGetETag() throws IOException {
+        final File source = File.createTempFile("cache-utils-", ".jp2");
+
+        try {
+            final String etag = CacheUtils.getETag(source, "image_256_full.jpg");
+
+            assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+            assertEquals(etag, CacheUtils.getETag(source, "image_256_full.jpg"));
+            assertFalse(etag.equals(CacheUtils.getETag(source, "image_512_full.jpg")));
+
+            source.setLastModified(source.lastModified() - 60000);
+            assertFalse(etag.equals(CacheUtils.getETag(source, "image_256_full.jpg")));
+        } finally {
+            source.delete();
+        }
+    }
+
+    /**
+     * Tests matching entity tags against <code>If-None-Match</code> header values.
+     */
+    @Test
+    public void testMatches() {
+        assertTrue(CacheUtils.matches("\"a-1-2\"", "\"a-1-2\""));
+        assertTrue(CacheUtils.matches("\"b-1-2\", W/\"a-1-2\"", "\"a-1-2\""));
+        assertTrue(CacheUtils.matches("*", "\"a-1-2\""));
+        assertFalse(CacheUtils.matches("\"b-1-2\"", "\"a-1-2\""));
+        assertFalse(CacheUtils.matches(null, "\"a-1-2\""));
+    }
+
 }
@@ -0,0 +1,285 @@
+
+package info.freelibrary.djatoka.util;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the ways a cached 256 pixel JPEG tile can be written to a client's socket: the buffered stream copy the
+ * image servlet used to do, the {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * call that becomes a <code>sendfile</code> when the target is a socket, and the read through a reused direct
+ * buffer that Jetty does with the file channel {@link ContentSender} hands it. It also covers the default
+ * configuration, where the image servlet has a {@link HotTileCache}: serving a popular tile from memory, and serving
+ * a stream of one-off tiles that the full cache turns away. The tiles are written over a loopback connection that a
+ * background thread drains. Run it from the command line after <code>mvn test-compile</code> with:
+ * <p/>
+ * <code>java -cp target/test-classes:target/classes:[test classpath] info.freelibrary.djatoka.util.ContentSenderBenchmark</code>
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ContentSenderBenchmark {
+
+    private static final int TILE_SIZE = 256;
+
+    /* The image servlet's default hot tile cache size */
+    private static final long HOT_CACHE_BYTES = 64L * 1024 * 1024;
+
+    private static final String HOT_KEY = "popular/0";
+
+    private File myTile;
+
+    private ServerSocketChannel myServer;
+
+    private SocketChannel myClient;
+
+    private OutputStream myOutStream;
+
+    private Thread myDrain;
+
+    private ByteBuffer myBuffer;
+
+    private HotTileCache myHotTiles;
+
+    private long myOneOffCount;
+
+    /**
+     * Writes a 256 pixel JPEG tile and opens the loopback connection it's written to.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        final BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        final Random random = new Random(42);
+
+        // Gradients with a little noise compress to about the size of a real tile
+        for (int y = 0; y < TILE_SIZE; y++) {
+            for (int x = 0; x < TILE_SIZE; x++) {
+                final int noise = random.nextInt(32);
+                image.setRGB(x, y, (x + noise & 0xff) << 16 | (y + noise & 0xff) << 8 | (x + y) / 2 & 0xff);
+            }
+        }
+
+        myTile = File.createTempFile("tile-", ".jpg");
+        ImageIO.write(image, "jpg", myTile);
+
+        myServer = ServerSocketChannel.open();
+        myServer.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        myClient = SocketChannel.open(myServer.socket().getLocalSocketAddress());
+        myOutStream = Channels.newOutputStream(myClient);
+        myBuffer = ByteBuffer.allocateDirect(32768);
+
+        final SocketChannel server = myServer.accept();
+
+        myDrain = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                final ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+
+                try {
+                    while (server.read(buffer) != -1) {
+                        buffer.clear();
+                    }
+
+                    server.close();
+                } catch (final IOException details) {
+                    // The benchmark is over
+                }
+            }
+        });
+
+        myDrain.setDaemon(true);
+        myDrain.start();
+    }
+
+    /**
+     * Fills a hot tile cache of the default size with popular tiles, so that one-off tiles are turned away.
+     */
+    @Setup(Level.Iteration)
+    public void setUpHotTiles() throws IOException {
+        final byte[] bytes = Files.readAllBytes(myTile.toPath());
+
+        myHotTiles = new HotTileCache(HOT_CACHE_BYTES, false);
+
+        for (int index = 0; myHotTiles.getByteCount() + bytes.length <= HOT_CACHE_BYTES; index++) {
+            final String key = "popular/" + index;
+
+            for (int count = 0; count < 15; count++) {
+                myHotTiles.get(key);
+            }
+
+            myHotTiles.put(key, bytes);
+        }
+    }
+
+    /**
+     * Closes the loopback connection and deletes the tile.
+     */
+    @TearDown
+    public void tearDown() throws Exception {
+        myClient.close();
+        myDrain.join(1000);
+        myServer.close();
+        myTile.delete();
+    }
+
+    /**
+     * Copies the tile to the socket through a byte array, as a stream copy does.
+     */
+    @Benchmark
+    public long streamCopy() throws IOException {
+        final InputStream inStream = new FileInputStream(myTile);
+        final byte[] buffer = new byte[8192];
+        long count = 0;
+
+        try {
+            for (int read = inStream.read(buffer); read != -1; read = inStream.read(buffer)) {
+                myOutStream.write(buffer, 0, read);
+                count += read;
+            }
+        } finally {
+            inStream.close();
+        }
+
+        return count;
+    }
+
+    /**
+     * Transfers the tile to the socket with <code>FileChannel.transferTo</code>.
+     */
+    @Benchmark
+    public long transferTo() throws IOException {
+        final FileInputStream inStream = new FileInputStream(myTile);
+
+        try {
+            final FileChannel channel = inStream.getChannel();
+            final long size = channel.size();
+            long position = 0;
+
+            while (position < size) {
+                position += channel.transferTo(position, size - position, myClient);
+            }
+
+            return position;
+        } finally {
+            inStream.close();
+        }
+    }
+
+    /**
+     * Reads the tile's channel into a reused direct buffer and writes that to the socket, as Jetty does with the
+     * channel {@link ContentSender} hands it.
+     */
+    @Benchmark
+    public long directBuffer() throws IOException {
+        final FileInputStream inStream = new FileInputStream(myTile);
+
+        try {
+            final FileChannel channel = inStream.getChannel();
+            long count = 0;
+
+            myBuffer.clear();
+
+            while (channel.read(myBuffer) != -1) {
+                myBuffer.flip();
+
+                while (myBuffer.hasRemaining()) {
+                    count += myClient.write(myBuffer);
+                }
+
+                myBuffer.clear();
+            }
+
+            return count;
+        } finally {
+            inStream.close();
+        }
+    }
+
+    /**
+     * Writes a popular tile from the hot tile cache, as the image servlet does by default.
+     */
+    @Benchmark
+    public long hotCacheHit() throws IOException {
+        return write(myHotTiles.get(HOT_KEY));
+    }
+
+    /**
+     * Writes a one-off tile that isn't in the hot tile cache, as the image servlet does by default: the tile is only
+     * read into memory if the cache will keep it; otherwise, it's sent from disk, as {@link #transferTo()} does.
+     */
+    @Benchmark
+    public long hotCacheMiss() throws IOException {
+        final String key = "oneOff/" + myOneOffCount++;
+
+        if (myHotTiles.get(key) != null) {
+            throw new IllegalStateException(key + " shouldn't be cached");
+        }
+
+        if (myHotTiles.wouldAdmit(key, myTile.length())) {
+            final byte[] bytes = Files.readAllBytes(myTile.toPath());
+
+            myHotTiles.put(key, bytes);
+            return write(ByteBuffer.wrap(bytes));
+        }
+
+        return transferTo();
+    }
+
+    private long write(final ByteBuffer aBuffer) throws IOException {
+        long count = 0;
+
+        while (aBuffer.hasRemaining()) {
+            count += myClient.write(aBuffer);
+        }
+
+        return count;
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Command line arguments
+     * @throws RunnerException If the benchmark can't be run
+     */
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ContentSenderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,145 @@
+
+package info.freelibrary.djatoka.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import org.junit.Test;
+
+public class ContentSenderTest {
+
+    /**
+     * Tests that a file is copied in full to an output stream that can't take buffers directly.
+     */
+    @Test
+    public void testSendFile() throws IOException {
+        final byte[] bytes = getBytes(30000);
+        final File file = getFile(bytes);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try {
+            ContentSender.send(file, out);
+            assertArrayEquals(bytes, out.toByteArray());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Tests that a file is handed to an output stream's <code>sendContent(ReadableByteChannel)</code> method when it
+     * has one.
+     */
+    @Test
+    public void testSendFileContent() throws IOException {
+        final byte[] bytes = getBytes(30000);
+        final File file = getFile(bytes);
+        final ContentOutputStream out = new ContentOutputStream();
+
+        try {
+            ContentSender.send(file, out);
+            assertEquals(1, out.mySendCount);
+            assertArrayEquals(bytes, out.toByteArray());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Tests that a buffer is handed to an output stream's <code>sendContent(ByteBuffer)</code> method when it has one.
+     */
+    @Test
+    public void testSendBufferContent() throws IOException {
+        final byte[] bytes = getBytes(1000);
+        final ContentOutputStream out = new ContentOutputStream();
+
+        ContentSender.send(ByteBuffer.wrap(bytes), out);
+
+        assertEquals(1, out.mySendCount);
+        assertArrayEquals(bytes, out.toByteArray());
+    }
+
+    /**
+     * Tests that the remaining contents of a buffer are written, leaving the bytes before its position out.
+     */
+    @Test
+    public void testSendBuffer() throws IOException {
+        final byte[] bytes = getBytes(1000);
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] expected = new byte[900];
+
+        System.arraycopy(bytes, 100, expected, 0, expected.length);
+        buffer.position(100);
+        ContentSender.send(buffer, out);
+
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    private static byte[] getBytes(final int aLength) {
+        final byte[] bytes = new byte[aLength];
+
+        for (int index = 0; index < bytes.length; index++) {
+            bytes[index] = (byte) index;
+        }
+
+        return bytes;
+    }
+
+    private static File getFile(final byte[] aBytes) throws IOException {
+        final File file = File.createTempFile("content-sender-", ".jpg");
+        final FileOutputStream out = new FileOutputStream(file);
+
+        try {
+            out.write(aBytes);
+        } finally {
+            out.close();
+        }
+
+        return file;
+    }
+
+    /**
+     * An output stream that takes channels and buffers the way Jetty's <code>HttpOutput</code> does.
+     */
+    public static class ContentOutputStream extends ByteArrayOutputStream {
+
+        private int mySendCount;
+
+        /**
+         * Writes the contents of the supplied channel.
+         *
+         * @param aChannel The channel to write
+         * @throws IOException If the channel can't be read
+         */
+        public void sendContent(final ReadableByteChannel aChannel) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+            while (aChannel.read(buffer) != -1) {
+                write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+
+            mySendCount += 1;
+        }
+
+        /**
+         * Writes the remaining contents of the supplied buffer.
+         *
+         * @param aBuffer The buffer to write
+         */
+        public void sendContent(final ByteBuffer aBuffer) {
+            final byte[] bytes = new byte[aBuffer.remaining()];
+
+            aBuffer.get(bytes);
+            write(bytes, 0, bytes.length);
+            mySendCount += 1;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package info.freelibrary.djatoka.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class HotTileCacheTest {
+
+    /**
+     * Tests caching and retrieving a tile on and off the heap.
+     */
+    @Test
+    public void testGet() {
+        for (final boolean offHeap : new boolean[] { false, true }) {
+            final HotTileCache cache = new HotTileCache(1024, offHeap);
+            final ByteBuffer tile;
+
+            assertTrue(cache.put("id/image_1.jpg", new byte[] { 1, 2, 3 }));
+            tile = cache.get("id/image_1.jpg");
+
+            assertNotNull(tile);
+            assertEquals(3, tile.remaining());
+            assertEquals(3, tile.get(2));
+            assertEquals(3, cache.getByteCount());
+        }
+    }
+
+    /**
+     * Tests that checking for a tile doesn't count as a request for it.
+     */
+    @Test
+    public void testContains() {
+        final HotTileCache cache = new HotTileCache(1024, false);
+
+        assertFalse(cache.contains("id/image_1.jpg"));
+        assertTrue(cache.put("id/image_1.jpg", new byte[] { 1, 2, 3 }));
+        assertTrue(cache.contains("id/image_1.jpg"));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    /**
+     * Tests that a full cache keeps popular tiles and turns away less popular ones.
+     */
+    @Test
+    public void testFrequencyAwareEviction() {
+        final HotTileCache cache = new HotTileCache(800, false);
+
+        for (int index = 0; index < 8; index++) {
+            final String key = "popular" + index;
+
+            for (int count = 0; count < 5; count++) {
+                cache.get(key);
+            }
+
+            assertTrue(cache.put(key, new byte[100]));
+        }
+
+        // A one-off tile isn't worth evicting a popular one for
+        cache.get("oneOff");
+        assertFalse(cache.wouldAdmit("oneOff", 100));
+        assertFalse(cache.put("oneOff", new byte[100]));
+        assertEquals(1, cache.getRejectionCount());
+
+        // But a tile that's become more popular is
+        for (int count = 0; count < 10; count++) {
+            cache.get("rising");
+        }
+
+        assertTrue(cache.wouldAdmit("rising", 100));
+        assertTrue(cache.put("rising", new byte[100]));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(800, cache.getByteCount());
+        assertNotNull(cache.get("rising"));
+        assertNull(cache.get("oneOff"));
+    }
+
+    /**
+     * Tests that a tile that would displace a popular tile doesn't evict any of the tiles it would displace.
+     */
+    @Test
+    public void testNoPartialEviction() {
+        final HotTileCache cache = new HotTileCache(1600, false);
+
+        assertTrue(cache.put("cold", new byte[100]));
+
+        for (int count = 0; count < 10; count++) {
+            cache.get("hot");
+        }
+
+        assertTrue(cache.put("hot", new byte[100]));
+
+        for (int index = 0; index < 7; index++) {
+            assertTrue(cache.put("other" + index, new byte[200]));
+        }
+
+        // The new tile is more popular than the first victim but not the second
+        for (int count = 0; count < 5; count++) {
+            cache.get("new");
+        }
+
+        assertFalse(cache.wouldAdmit("new", 200));
+        assertFalse(cache.put("new", new byte[200]));
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(1, cache.getRejectionCount());
+        assertEquals(1600, cache.getByteCount());
+        assertTrue(cache.contains("cold"));
+        assertTrue(cache.contains("hot"));
+
+        // The rejected victims keep their places, so a tile that's more popular than both evicts the same two
+        for (int count = 0; count < 15; count++) {
+            cache.get("newer");
+        }
+
+        assertTrue(cache.put("newer", new byte[200]));
+        assertEquals(2, cache.getEvictionCount());
+        assertFalse(cache.contains("cold"));
+        assertFalse(cache.contains("hot"));
+        assertEquals(1600, cache.getByteCount());
+    }
+
+    /**
+     * Tests that tiles larger than an eighth of the budget aren't cached.
+     */
+    @Test
+    public void testLargeTile() {
+        assertFalse(new HotTileCache(800, false).put("large", new byte[101]));
+    }
+}
@@ -0,0 +1,42 @@
+package info.freelibrary.djatoka.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import gov.lanl.adore.djatoka.util.ImageRecord;
+import gov.lanl.adore.djatoka.util.JP2ImageInfo;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class ImageMetadataTest {
+
+    private static final File JP2 = new File(
+            "src/test/resources/images/iiif-test/67352ccc-d1b0-11e1-89ae-279075081939.jp2");
+
+    /**
+     * Tests reading metadata from a JP2 file without the OpenURL metadata service.
+     */
+    @Test
+    public void testGetImageRecordFromFile() throws IOException {
+        final ImageRecord expected = new JP2ImageInfo(JP2).getImageRecord();
+        final ImageRecord record = ImageMetadata.getImageRecord(JP2);
+
+        assertTrue(record.getWidth() > 0);
+        assertEquals(expected.getWidth(), record.getWidth());
+        assertEquals(expected.getHeight(), record.getHeight());
+        assertEquals(expected.getLevels(), record.getLevels());
+        assertEquals(JP2.getAbsolutePath(), record.getImageFile());
+    }
+
+    /**
+     * Tests reading metadata from a JP2 file that doesn't exist.
+     */
+    @Test(expected = FileNotFoundException.class)
+    public void testGetImageRecordMissingFile() throws IOException {
+        ImageMetadata.getImageRecord(new File("src/test/resources/images/missing.jp2"));
+    }
+}
@@ -0,0 +1,105 @@
+package info.freelibrary.djatoka.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import gov.lanl.adore.djatoka.util.ImageRecord;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImageRecordCacheTest {
+
+    private File myFile;
+
+    @Before
+    public void setUp() throws IOException {
+        myFile = File.createTempFile("record-cache-", ".jp2");
+        write(myFile, 10);
+        ImageRecordCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        ImageRecordCache.clear();
+        myFile.delete();
+    }
+
+    /**
+     * Tests that cached metadata is copied into a new image record.
+     */
+    @Test
+    public void testGet() {
+        final ImageRecord record = new ImageRecord("id1", myFile.getAbsolutePath());
+        final ImageRecord cached = new ImageRecord("id2", myFile.getAbsolutePath());
+
+        record.setWidth(2338);
+        record.setHeight(1684);
+        record.setDWTLevels(6);
+        record.setLevels(5);
+        ImageRecordCache.put(myFile, record);
+
+        assertTrue(ImageRecordCache.get(myFile, cached));
+        assertEquals(2338, cached.getWidth());
+        assertEquals(1684, cached.getHeight());
+        assertEquals(6, cached.getDWTLevels());
+        assertEquals(5, cached.getLevels());
+        assertEquals("id2", cached.getIdentifier());
+    }
+
+    /**
+     * Tests that cached metadata is discarded when its file changes.
+     */
+    @Test
+    public void testGetChangedFile() throws IOException {
+        final ImageRecord record = new ImageRecord(myFile.getAbsolutePath());
+
+        record.setWidth(100);
+        ImageRecordCache.put(myFile, record);
+        write(myFile, 20);
+
+        assertFalse(ImageRecordCache.get(myFile, new ImageRecord()));
+        assertEquals(0, ImageRecordCache.size());
+    }
+
+    /**
+     * Tests that an identifier's JP2 and metadata are found until the JP2 changes.
+     */
+    @Test
+    public void testGetByID() throws IOException {
+        final ImageRecord record = new ImageRecord("id1", myFile.getAbsolutePath());
+
+        record.setWidth(2338);
+        record.setHeight(1684);
+        ImageRecordCache.put("id1", record);
+
+        final ImageRecord cached = ImageRecordCache.get("id1");
+
+        assertEquals(myFile.getAbsolutePath(), cached.getImageFile());
+        assertEquals("id1", cached.getIdentifier());
+        assertEquals(2338, cached.getWidth());
+        assertEquals(1684, cached.getHeight());
+        assertNull(ImageRecordCache.get("id2"));
+
+        write(myFile, 20);
+
+        assertNull(ImageRecordCache.get("id1"));
+    }
+
+    private void write(final File aFile, final int aLength) throws IOException {
+        final FileOutputStream outStream = new FileOutputStream(aFile);
+
+        try {
+            outStream.write(new byte[aLength]);
+        } finally {
+            outStream.close();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+
+package info.freelibrary.djatoka.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NegativeLookupCacheTest {
+
+    @Before
+    public void setUp() {
+        NegativeLookupCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        NegativeLookupCache.setCapacity(NegativeLookupCache.DEFAULT_CAPACITY);
+        NegativeLookupCache.setTTL(NegativeLookupCache.DEFAULT_TTL);
+        NegativeLookupCache.clear();
+    }
+
+    /**
+     * Tests that a missing ID is remembered until it's removed, as it is when the ID is ingested.
+     */
+    @Test
+    public void testPutAndRemove() {
+        assertFalse(NegativeLookupCache.isMissing("id1"));
+
+        NegativeLookupCache.put("id1");
+        assertTrue(NegativeLookupCache.isMissing("id1"));
+
+        NegativeLookupCache.remove("id1");
+        assertFalse(NegativeLookupCache.isMissing("id1"));
+    }
+
+    /**
+     * Tests that a missing ID is forgotten once its time to live has passed.
+     */
+    @Test
+    public void testExpiry() throws InterruptedException {
+        NegativeLookupCache.setTTL(50);
+        NegativeLookupCache.put("id1");
+        assertTrue(NegativeLookupCache.isMissing("id1"));
+
+        Thread.sleep(100);
+
+        assertFalse(NegativeLookupCache.isMissing("id1"));
+        assertEquals(0, NegativeLookupCache.size());
+    }
+
+    /**
+     * Tests that the least recently used IDs are forgotten when the cache is full.
+     */
+    @Test
+    public void testCapacity() {
+        NegativeLookupCache.setCapacity(2);
+        NegativeLookupCache.put("id1");
+        NegativeLookupCache.put("id2");
+        NegativeLookupCache.isMissing("id1");
+        NegativeLookupCache.put("id3");
+
+        assertEquals(2, NegativeLookupCache.size());
+        assertTrue(NegativeLookupCache.isMissing("id1"));
+        assertFalse(NegativeLookupCache.isMissing("id2"));
+        assertTrue(NegativeLookupCache.isMissing("id3"));
+    }
+}
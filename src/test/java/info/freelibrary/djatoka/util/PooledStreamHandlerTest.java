@@ -0,0 +1,96 @@
+
+package info.freelibrary.djatoka.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PooledStreamHandlerTest {
+
+    private static final String CAT = "/bin/cat";
+
+    private static final String SH = "/bin/sh";
+
+    @Before
+    public void setUp() {
+        assumeTrue(new File(CAT).canExecute());
+    }
+
+    /**
+     * Tests that more input than fits in a pipe's buffer is pumped through a process and its output read back.
+     */
+    @Test
+    public void testPump() throws Exception {
+        final byte[] input = new byte[256 * 1024];
+
+        new Random(42).nextBytes(input);
+
+        assertArrayEquals(input, pump(input));
+    }
+
+    /**
+     * Tests that a process that writes more to standard error than fits in a pipe's buffer, before it writes its
+     * output, isn't left waiting for its standard error to be read.
+     */
+    @Test(timeout = 10000)
+    public void testLargeError() throws Exception {
+        assumeTrue(new File(SH).canExecute());
+
+        final Process process = new ProcessBuilder(SH, "-c", "head -c 262144 /dev/zero >&2; echo done").start();
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        final PooledStreamHandler handler = new PooledStreamHandler(stdout, stderr, null);
+
+        handler.setProcessInputStream(process.getOutputStream());
+        handler.setProcessOutputStream(process.getInputStream());
+        handler.setProcessErrorStream(process.getErrorStream());
+        handler.start();
+        handler.stop();
+
+        assertEquals(0, process.waitFor());
+        assertEquals("done\n", stdout.toString("UTF-8"));
+        assertEquals(262144, stderr.size());
+    }
+
+    /**
+     * Tests that pumping many processes' streams doesn't start more threads than the pools have.
+     */
+    @Test
+    public void testThreadsReused() throws Exception {
+        final byte[] input = "test".getBytes("UTF-8");
+        final long pumped = PooledStreamHandler.getPumpedCount();
+        final int threads = PooledStreamHandler.getThreadCount();
+
+        for (int index = 0; index < 20; index++) {
+            assertArrayEquals(input, pump(input));
+        }
+
+        assertEquals(pumped + 20, PooledStreamHandler.getPumpedCount());
+        assertTrue(PooledStreamHandler.getThreadCount() - threads <= 2 * PooledStreamHandler.getPoolSize());
+    }
+
+    private static byte[] pump(final byte[] aInput) throws Exception {
+        final Process process = new ProcessBuilder(CAT).start();
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        final PooledStreamHandler handler =
+                new PooledStreamHandler(stdout, new ByteArrayOutputStream(), new ByteArrayInputStream(aInput));
+
+        handler.setProcessInputStream(process.getOutputStream());
+        handler.setProcessOutputStream(process.getInputStream());
+        handler.setProcessErrorStream(process.getErrorStream());
+        handler.start();
+        handler.stop();
+
+        assertEquals(0, process.waitFor());
+        return stdout.toByteArray();
+    }
+}
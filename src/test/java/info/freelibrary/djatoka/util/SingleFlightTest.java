@@ -0,0 +1,179 @@
+package info.freelibrary.djatoka.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import info.freelibrary.djatoka.decode.Cancellation;
+
+public class SingleFlightTest {
+
+    /**
+     * Tests that concurrent calls for the same key share one task's result.
+     */
+    @Test
+    public void testExecuteCoalesces() throws Exception {
+        final SingleFlight<String, Object> flight = new SingleFlight<String, Object>();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger runs = new AtomicInteger();
+        final Object result = new Object();
+
+        final Callable<Object> task = new Callable<Object>() {
+
+            @Override
+            public Object call() throws Exception {
+                runs.incrementAndGet();
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return result;
+            }
+        };
+
+        final Callable<Object> call = new Callable<Object>() {
+
+            @Override
+            public Object call() throws Exception {
+                return flight.execute("tile", task);
+            }
+        };
+
+        try {
+            final Future<Object> leader = executor.submit(call);
+
+            started.await(5, TimeUnit.SECONDS);
+
+            final Future<Object> follower1 = executor.submit(call);
+            final Future<Object> follower2 = executor.submit(call);
+
+            // Give the followers time to join the in-flight call
+            while (flight.getCoalescedCount() < 2) {
+                Thread.sleep(10);
+            }
+
+            release.countDown();
+
+            assertSame(result, leader.get());
+            assertSame(result, follower1.get());
+            assertSame(result, follower2.get());
+            assertEquals(1, runs.get());
+            assertEquals(0, flight.getInFlightCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Tests that a task is only cancelled once every caller waiting on it has been cancelled.
+     */
+    @Test
+    public void testExecuteCancelled() throws Exception {
+        final SingleFlight<String, Boolean> flight = new SingleFlight<String, Boolean>();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicReference<Cancellation> taskCancellation = new AtomicReference<Cancellation>();
+        final Cancellation leaderCancellation = new Cancellation();
+        final Cancellation followerCancellation = new Cancellation();
+
+        final Callable<Boolean> task = new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws Exception {
+                final Cancellation cancellation = Cancellation.current();
+
+                taskCancellation.set(cancellation);
+                started.countDown();
+
+                for (int index = 0; index < 500 && !cancellation.isCancelled(); index++) {
+                    Thread.sleep(10);
+                }
+
+                return cancellation.isCancelled();
+            }
+        };
+
+        try {
+            final Future<Boolean> leader = executor.submit(getCall(flight, task, leaderCancellation));
+
+            started.await(5, TimeUnit.SECONDS);
+
+            final Future<Boolean> follower = executor.submit(getCall(flight, task, followerCancellation));
+
+            while (flight.getCoalescedCount() < 1) {
+                Thread.sleep(10);
+            }
+
+            leaderCancellation.cancel();
+            assertFalse(taskCancellation.get().isCancelled());
+
+            followerCancellation.cancel();
+            assertTrue(taskCancellation.get().isCancelled());
+
+            assertTrue(leader.get(5, TimeUnit.SECONDS));
+            assertTrue(follower.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Callable<Boolean> getCall(final SingleFlight<String, Boolean> aFlight,
+            final Callable<Boolean> aTask, final Cancellation aCancellation) {
+        return new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws Exception {
+                final Cancellation previous = Cancellation.attach(aCancellation);
+
+                try {
+                    return aFlight.execute("tile", aTask);
+                } finally {
+                    Cancellation.restore(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Tests that a task's exception is rethrown and that the next call runs a new task.
+     */
+    @Test
+    public void testExecuteFailure() throws Exception {
+        final SingleFlight<String, String> flight = new SingleFlight<String, String>();
+
+        try {
+            flight.execute("tile", new Callable<String>() {
+
+                @Override
+                public String call() throws Exception {
+                    throw new IllegalStateException("decode failed");
+                }
+            });
+
+            fail("Expected the task's exception to be rethrown");
+        } catch (final IllegalStateException details) {
+            assertEquals("decode failed", details.getMessage());
+        }
+
+        assertEquals("ok", flight.execute("tile", new Callable<String>() {
+
+            @Override
+            public String call() throws Exception {
+                return "ok";
+            }
+        }));
+    }
+}
@@ -0,0 +1,144 @@
+
+package info.freelibrary.djatoka.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TempFileManagerTest {
+
+    private File myDirectory;
+
+    private File myPreviousDirectory;
+
+    @Before
+    public void setUp() {
+        myPreviousDirectory = TempFileManager.getDirectory();
+        myDirectory = new File("target/scratch-test-" + System.nanoTime());
+        TempFileManager.setDirectory(myDirectory);
+    }
+
+    @After
+    public void tearDown() {
+        TempFileManager.setMaxBytes(TempFileManager.DEFAULT_MAX_BYTES);
+        TempFileManager.setDirectory(myPreviousDirectory);
+    }
+
+    /**
+     * Tests that a scratch file is only deleted once every reference to it has been released.
+     */
+    @Test
+    public void testReleaseDeletesLastReference() throws IOException {
+        final File file = TempFileManager.create("test-", ".tmp");
+
+        assertTrue(file.exists());
+        assertTrue(TempFileManager.retain(file));
+
+        assertTrue(TempFileManager.release(file));
+        assertTrue(file.exists());
+
+        assertTrue(TempFileManager.release(file));
+        assertFalse(file.exists());
+        assertFalse(TempFileManager.isManaged(file));
+        assertFalse(TempFileManager.retain(file));
+    }
+
+    /**
+     * Tests that files that aren't scratch files are left alone.
+     */
+    @Test
+    public void testReleaseUnmanaged() throws IOException {
+        final File file = File.createTempFile("unmanaged-", ".tmp");
+
+        try {
+            assertFalse(TempFileManager.retain(file));
+            assertFalse(TempFileManager.release(file));
+            assertTrue(file.exists());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Tests that scratch files left behind by an earlier run are deleted when the directory is first used.
+     */
+    @Test
+    public void testSweepOrphans() throws IOException {
+        final File orphan = new File(myDirectory, "djatoka-orphan.tmp");
+        final File other = new File(myDirectory, "other.tmp");
+        final long swept = TempFileManager.getSweptCount();
+
+        assertTrue(myDirectory.mkdirs());
+        assertTrue(orphan.createNewFile() && orphan.setLastModified(0));
+        assertTrue(other.createNewFile() && other.setLastModified(0));
+
+        TempFileManager.release(TempFileManager.create("test-", ".tmp"));
+
+        assertFalse(orphan.exists());
+        assertTrue(other.exists());
+        assertEquals(swept + 1, TempFileManager.getSweptCount());
+    }
+
+    /**
+     * Tests that a scratch file can't be created while the scratch files in use are over the size limit.
+     */
+    @Test
+    public void testMaxBytes() throws IOException {
+        final File file = TempFileManager.create("test-", ".tmp");
+        final FileOutputStream out = new FileOutputStream(file);
+        final long rejected = TempFileManager.getRejectedCount();
+
+        try {
+            out.write(new byte[1024]);
+            out.close();
+
+            TempFileManager.setMaxBytes(TempFileManager.getByteCount());
+
+            try {
+                TempFileManager.create("test-", ".tmp");
+                fail("Expected the scratch file to be rejected");
+            } catch (final IOException details) {
+                assertEquals(rejected + 1, TempFileManager.getRejectedCount());
+            }
+        } finally {
+            TempFileManager.release(file);
+        }
+
+        TempFileManager.release(TempFileManager.create("test-", ".tmp"));
+    }
+
+    /**
+     * Tests that a scratch file that's been handed over to a cache doesn't count against the size limit, but is
+     * still counted in the scratch files' total size until it's deleted.
+     */
+    @Test
+    public void testCachedFilesAreNotCapped() throws IOException {
+        final File file = TempFileManager.create("test-", ".tmp");
+        final FileOutputStream out = new FileOutputStream(file);
+        final long cachedBytes = TempFileManager.getCachedByteCount();
+
+        try {
+            out.write(new byte[1024]);
+            out.close();
+
+            assertTrue(TempFileManager.setCached(file));
+            assertEquals(cachedBytes + 1024, TempFileManager.getCachedByteCount());
+
+            TempFileManager.setMaxBytes(1);
+            TempFileManager.release(TempFileManager.create("test-", ".tmp"));
+        } finally {
+            TempFileManager.release(file);
+        }
+
+        assertEquals(cachedBytes, TempFileManager.getCachedByteCount());
+    }
+}
@@ -0,0 +1,152 @@
+
+package info.freelibrary.djatoka.view;
+
+import gov.lanl.adore.djatoka.DjatokaDecodeParam;
+
+import info.freelibrary.djatoka.iiif.ImageRequest;
+import info.freelibrary.util.StringUtils;
+
+import info.openurl.oom.ContextObject;
+import info.openurl.oom.OpenURLRequest;
+import info.openurl.oom.OpenURLRequestProcessor;
+import info.openurl.oom.Transport;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.oclc.oomRef.config.OpenURLConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the work done to turn an IIIF tile request into decode parameters when the request is mapped directly,
+ * as {@link ImageServlet} now does, with the work done when it's formatted as an OpenURL and handed to the OpenURL
+ * layer's transport. Both start from an already parsed {@link ImageRequest}. The OpenURL side doesn't include the
+ * container's <code>RequestDispatcher</code> forward itself, so it understates the overhead that was removed. Run
+ * it from the command line after <code>mvn test-compile</code> with:
+ * <p/>
+ * <code>java -cp target/test-classes:target/classes:[test classpath] info.freelibrary.djatoka.view.ImageRequestBenchmark</code>
+ *
+ * @author <a href="mailto:ksclarke@gmail.com">Kevin S. Clarke</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ImageRequestBenchmark {
+
+    private static final String REGION_URL = "/resolve?url_ver=Z39.88-2004&rft_id={}"
+            + "&svc_id=info:lanl-repo/svc/getRegion" + "&svc_val_fmt=info:ofi/fmt:kev:mtx:jpeg2000"
+            + "&svc.format={}&svc.region={}&svc.scale={}&svc.rotate={}";
+
+    private static final String TILE_URL =
+            "http://localhost:8888/iiif/67352ccc-d1b0-11e1-89ae-279075081939/1024,2048,1024,1024/256,/0/native.jpg";
+
+    private ImageRequest myRequest;
+
+    private Transport myTransport;
+
+    private OpenURLRequestProcessor myProcessor;
+
+    /**
+     * Parses the IIIF tile request and loads the OpenURL layer's configuration.
+     */
+    @Setup
+    public void setUp() throws Exception {
+        final OpenURLConfig config = new OpenURLConfig(null);
+
+        myRequest = new ImageRequest(new URL(TILE_URL), "iiif");
+        myTransport = config.getTransports()[0];
+        myProcessor = config.getProcessor();
+    }
+
+    /**
+     * Maps the IIIF request straight to decode parameters.
+     */
+    @Benchmark
+    public DjatokaDecodeParam direct() throws Exception {
+        return ImageServlet.getDecodeParam(myRequest.getIdentifier(), myRequest);
+    }
+
+    /**
+     * Formats the IIIF request as an OpenURL and parses it into an OpenURL context object, as the OpenURL servlet
+     * does before the service reads its parameters.
+     */
+    @Benchmark
+    public Object[] openURL() throws Exception {
+        final String[] values =
+                new String[] { URLEncoder.encode(myRequest.getIdentifier(), "UTF-8"), "image/jpeg",
+                    ImageServlet.getDjatokaRegion(myRequest.getRegion()), myRequest.getSize().toString(),
+                    Integer.toString((int) myRequest.getRotation()) };
+        final String url = StringUtils.format(REGION_URL, values);
+        final OpenURLRequest request = myTransport.toOpenURLRequest(myProcessor, getRequest(url));
+        final ContextObject context = request.getContextObjects()[0];
+
+        context.getReferent().getDescriptors();
+        return context.getServiceTypes()[0].getDescriptors();
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args Command line arguments
+     * @throws RunnerException If the benchmark can't be run
+     */
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ImageRequestBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    /**
+     * Parses the forwarded URL's query string into a request, as the container would for the OpenURL servlet.
+     */
+    private static HttpServletRequest getRequest(final String aURL) throws Exception {
+        final Map<String, String[]> params = new HashMap<String, String[]>();
+
+        for (final String param : aURL.substring(aURL.indexOf('?') + 1).split("&")) {
+            final int index = param.indexOf('=');
+            final String key = URLDecoder.decode(param.substring(0, index), "UTF-8");
+
+            params.put(key, new String[] { URLDecoder.decode(param.substring(index + 1), "UTF-8") });
+        }
+
+        return (HttpServletRequest) Proxy.newProxyInstance(ImageRequestBenchmark.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+
+                    @Override
+                    public Object invoke(final Object aProxy, final Method aMethod, final Object[] aArgs) {
+                        if ("getParameterMap".equals(aMethod.getName())) {
+                            return params;
+                        } else if ("getParameterValues".equals(aMethod.getName())) {
+                            return params.get(aArgs[0]);
+                        } else if ("getParameter".equals(aMethod.getName())) {
+                            final String[] values = params.get(aArgs[0]);
+                            return values == null ? null : values[0];
+                        }
+
+                        return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,189 @@
+
+package info.freelibrary.djatoka.view;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import info.freelibrary.djatoka.iiif.ImageRequest;
+import info.freelibrary.djatoka.util.CacheUtils;
+import info.freelibrary.util.FileUtils;
+import info.freelibrary.util.PairtreeRoot;
+
+public class TileDeriverTest {
+
+    private static final String URL_PATTERN = "http://localhost:8888/iiif/test-image/{}/{}/0/native.jpg";
+
+    private static final String ID = "test-image";
+
+    private static final int WIDTH = 2000;
+
+    private static final int HEIGHT = 1000;
+
+    private File myCacheDir;
+
+    private File myTileDir;
+
+    private TileDeriver myTileDeriver;
+
+    /**
+     * Creates an empty Pairtree cache for the tests.
+     */
+    @Before
+    public void setUp() throws IOException {
+        myCacheDir = File.createTempFile("tile-deriver-", "");
+        myCacheDir.delete();
+        myTileDir = new PairtreeRoot(myCacheDir).getObject(ID);
+        myTileDir.mkdirs();
+        myTileDeriver = new TileDeriver(myCacheDir, 90);
+    }
+
+    /**
+     * Deletes the Pairtree cache.
+     */
+    @After
+    public void tearDown() {
+        FileUtils.delete(myCacheDir);
+    }
+
+    /**
+     * Tests that a tile is derived from the four cached tiles it covers at the next level.
+     */
+    @Test
+    public void testDerive() throws Exception {
+        cacheTile("0,0,256,256", "256,256", Color.RED);
+        cacheTile("256,0,256,256", "256,256", Color.GREEN);
+        cacheTile("0,256,256,256", "256,256", Color.BLUE);
+        cacheTile("256,256,256,256", "256,256", Color.WHITE);
+
+        final BufferedImage tile = derive("0,0,512,512", "256,256");
+
+        assertEquals(256, tile.getWidth());
+        assertEquals(256, tile.getHeight());
+        assertColor(Color.RED, tile.getRGB(64, 64));
+        assertColor(Color.GREEN, tile.getRGB(192, 64));
+        assertColor(Color.BLUE, tile.getRGB(64, 192));
+        assertColor(Color.WHITE, tile.getRGB(192, 192));
+        assertEquals(1, myTileDeriver.getDerivedCount());
+    }
+
+    /**
+     * Tests that a tile on the edge of the image is derived from the smaller tiles it covers.
+     */
+    @Test
+    public void testDeriveEdge() throws Exception {
+        cacheTile("1536,512,256,256", "256,256", Color.RED);
+        cacheTile("1792,512,208,256", "208,256", Color.GREEN);
+        cacheTile("1536,768,256,232", "256,232", Color.BLUE);
+        cacheTile("1792,768,208,232", "208,232", Color.WHITE);
+
+        final BufferedImage tile = derive("1536,512,464,488", "232,244");
+
+        assertEquals(232, tile.getWidth());
+        assertEquals(244, tile.getHeight());
+        assertColor(Color.WHITE, tile.getRGB(200, 200));
+    }
+
+    /**
+     * Tests that a tile isn't derived, and a miss is counted, when one of the tiles it covers isn't cached.
+     */
+    @Test
+    public void testDeriveMissing() throws Exception {
+        cacheTile("0,0,256,256", "256,256", Color.RED);
+        cacheTile("256,0,256,256", "256,256", Color.GREEN);
+        cacheTile("0,256,256,256", "256,256", Color.BLUE);
+
+        assertNull(myTileDeriver.derive(ID, getRequest("0,0,512,512", "256,256"), WIDTH, HEIGHT));
+        assertEquals(1, myTileDeriver.getMissCount());
+    }
+
+    /**
+     * Tests that a tile isn't derived from tiles that were themselves derived, which are cached under their derived
+     * names.
+     */
+    @Test
+    public void testDerivedNotUsed() throws Exception {
+        cacheTile("0,0,256,256", "256,256", Color.RED);
+        cacheTile("256,0,256,256", "256,256", Color.GREEN);
+        cacheTile("0,256,256,256", "256,256", Color.BLUE);
+        cacheTile("256,256,256,256", "256,256", Color.WHITE, true);
+
+        assertNull(myTileDeriver.derive(ID, getRequest("0,0,512,512", "256,256"), WIDTH, HEIGHT));
+        assertEquals(1, myTileDeriver.getMissCount());
+    }
+
+    /**
+     * Tests that tiles that aren't on the cache's tile grid, or aren't scaled down, aren't derived.
+     */
+    @Test
+    public void testNotDerivable() throws Exception {
+        assertNull(myTileDeriver.derive(ID, getRequest("100,0,512,512", "256,256"), WIDTH, HEIGHT));
+        assertNull(myTileDeriver.derive(ID, getRequest("0,0,512,512", "200,200"), WIDTH, HEIGHT));
+        assertNull(myTileDeriver.derive(ID, getRequest("0,0,256,256", "256,256"), WIDTH, HEIGHT));
+        assertEquals(0, myTileDeriver.getMissCount());
+    }
+
+    private BufferedImage derive(final String aRegion, final String aSize) throws Exception {
+        final byte[] bytes = myTileDeriver.derive(ID, getRequest(aRegion, aSize), WIDTH, HEIGHT);
+
+        assertNotNull(bytes);
+        return ImageIO.read(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Writes a solid tile under the name ImageServlet caches the requested region and size under.
+     */
+    private void cacheTile(final String aRegion, final String aSize, final Color aColor) throws Exception {
+        cacheTile(aRegion, aSize, aColor, false);
+    }
+
+    /**
+     * Writes a solid tile under the name ImageServlet caches the requested region and size under, when it's been
+     * decoded or when it's been derived.
+     */
+    private void cacheTile(final String aRegion, final String aSize, final Color aColor, final boolean aDerived)
+            throws Exception {
+        final ImageRequest request = getRequest(aRegion, aSize);
+        final String region = ImageServlet.getDjatokaRegion(request.getRegion());
+        final String name = CacheUtils.getFileName(null, request.getSize().toString(), region, 0f);
+        final String fileName = aDerived ? TileDeriver.getDerivedName(name) : name;
+        final String[] dims = aSize.split(",");
+        final BufferedImage image = new BufferedImage(Integer.parseInt(dims[0]), Integer.parseInt(dims[1]),
+                BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = image.createGraphics();
+
+        graphics.setColor(aColor);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.dispose();
+
+        assertTrue(ImageIO.write(image, "jpg", new File(myTileDir, fileName)));
+    }
+
+    private static ImageRequest getRequest(final String aRegion, final String aSize) throws Exception {
+        final String url = URL_PATTERN.replaceFirst("\\{\\}", aRegion).replaceFirst("\\{\\}", aSize);
+        return new ImageRequest(new URL(url), "iiif").getCanonicalRequest(WIDTH, HEIGHT);
+    }
+
+    private static void assertColor(final Color aExpected, final int aRGB) {
+        final Color color = new Color(aRGB);
+
+        assertTrue(color.toString(), Math.abs(aExpected.getRed() - color.getRed()) < 8);
+        assertTrue(color.toString(), Math.abs(aExpected.getGreen() - color.getGreen()) < 8);
+        assertTrue(color.toString(), Math.abs(aExpected.getBlue() - color.getBlue()) < 8);
+    }
+}
@@ -0,0 +1,66 @@
+package info.openurl.oom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+public class OpenURLResponseTest {
+
+    /**
+     * Tests that a streamed body is written in full and its stream closed.
+     */
+    @Test
+    public void testWriteStream() throws IOException {
+        final byte[] bytes = new byte[20000];
+        final boolean[] closed = new boolean[1];
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ByteArrayInputStream in = new ByteArrayInputStream(bytes) {
+
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        };
+
+        for (int index = 0; index < bytes.length; index++) {
+            bytes[index] = (byte) index;
+        }
+
+        new OpenURLResponse(200, "image/jpeg", in, new HashMap<String, String>(), new HashMap<String, String>())
+                .write(out);
+
+        assertArrayEquals(bytes, out.toByteArray());
+        assertTrue(closed[0]);
+    }
+
+    /**
+     * Tests that a body that isn't written is closed when the response is closed.
+     */
+    @Test
+    public void testCloseUnwritten() throws IOException {
+        final boolean[] closed = new boolean[1];
+        final ByteArrayInputStream in = new ByteArrayInputStream(new byte[10]) {
+
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        };
+        final OpenURLResponse response = new OpenURLResponse(200, "image/jpeg", in);
+
+        response.close();
+        response.close();
+
+        assertTrue(closed[0]);
+        assertNull(response.getInputStream());
+    }
+}
@@ -0,0 +1,50 @@
+package org.oclc.oomRef.config;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import info.openurl.oom.Service;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+public class OpenURLConfigTest {
+
+    private static final String PING_CLASS = "gov.lanl.adore.djatoka.openurl.OpenURLJP2Ping";
+
+    /**
+     * Tests that each lookup of a service returns the instance constructed when the config was initialized.
+     */
+    @Test
+    public void testServiceRegistry() throws Exception {
+        final OpenURLConfig config = new OpenURLConfig(null);
+        final URI ping = new URI("info:lanl-repo/svc/ping");
+
+        config.init();
+
+        final Service service = config.getService(ping);
+
+        assertNotNull(service);
+        assertSame(service, config.getService(ping));
+        assertSame(service, config.getService(PING_CLASS));
+        assertNull(config.getService(new URI("info:lanl-repo/svc/unknown")));
+    }
+
+    /**
+     * Tests that services are constructed again after the config is destroyed.
+     */
+    @Test
+    public void testDestroy() throws Exception {
+        final OpenURLConfig config = new OpenURLConfig(null);
+        final URI ping = new URI("info:lanl-repo/svc/ping");
+        final Service service = config.getService(ping);
+
+        config.destroy();
+
+        assertNotNull(config.getService(ping));
+        assertNotSame(service, config.getService(ping));
+    }
+}